@@ -951,7 +951,7 @@ public class HttpClient extends ContainerLifeCycle
             ConnectionCallback callback = (ConnectionCallback)attachment;
             HttpDestination destination = callback.destination;
 
-            SslContextFactory sslContextFactory = getSslContextFactory();
+            final SslContextFactory sslContextFactory = getSslContextFactory();
             if (HttpScheme.HTTPS.is(destination.getScheme()))
             {
                 if (sslContextFactory == null)
@@ -967,6 +967,14 @@ public class HttpClient extends ContainerLifeCycle
 
                     SslConnection sslConnection = newSslConnection(HttpClient.this, endPoint, engine);
                     sslConnection.setRenegotiationAllowed(sslContextFactory.isRenegotiationAllowed());
+                    sslConnection.setHandshakeListener(new SslConnection.HandshakeListener()
+                    {
+                        @Override
+                        public void handshakeSucceeded(SslConnection connection, boolean resumed)
+                        {
+                            sslContextFactory.onHandshakeSucceeded(resumed);
+                        }
+                    });
                     EndPoint appEndPoint = sslConnection.getDecryptedEndPoint();
                     HttpConnection connection = newHttpConnection(HttpClient.this, appEndPoint, destination);
 
@@ -41,6 +41,7 @@ import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.io.EofException;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -52,6 +53,9 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
     private final HttpParser parser = new HttpParser(this);
     private final HttpConnection connection;
     private ContentDecoder decoder;
+    private ByteBuffer buffer;
+    // Only accessed by the thread parsing, between content() and the return of parser.parseNext()
+    private ContentCallback pendingContent;
 
     public HttpReceiver(HttpConnection connection)
     {
@@ -63,27 +67,37 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
         EndPoint endPoint = connection.getEndPoint();
         HttpClient client = connection.getHttpClient();
         ByteBufferPool bufferPool = client.getByteBufferPool();
-        ByteBuffer buffer = bufferPool.acquire(client.getResponseBufferSize(), true);
+        // A buffer is already present when resuming after an asynchronous
+        // content listener consumed the content: parse what is left of it
+        ByteBuffer buffer = this.buffer;
+        boolean resume = buffer != null;
+        if (!resume)
+            this.buffer = buffer = bufferPool.acquire(client.getResponseBufferSize(), true);
+        boolean stalled = false;
         try
         {
             while (true)
             {
-                int read = endPoint.fill(buffer);
-                LOG.debug("Read {} bytes from {}", read, connection);
-                if (read > 0)
+                if (!resume)
                 {
-                    parse(buffer);
-                }
-                else if (read == 0)
-                {
-                    fillInterested();
-                    break;
+                    int read = endPoint.fill(buffer);
+                    LOG.debug("Read {} bytes from {}", read, connection);
+                    if (read == 0)
+                    {
+                        fillInterested();
+                        break;
+                    }
+                    else if (read < 0)
+                    {
+                        shutdown();
+                        break;
+                    }
                 }
-                else
-                {
-                    shutdown();
+                resume = false;
+
+                stalled = parse(buffer);
+                if (stalled)
                     break;
-                }
             }
         }
         catch (EofException x)
@@ -98,14 +112,49 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
         }
         finally
         {
-            bufferPool.release(buffer);
+            // When stalled, the buffer is owned by the content callback, that resumes receiving
+            if (!stalled)
+                releaseBuffer();
         }
     }
 
-    private void parse(ByteBuffer buffer)
+    /**
+     * Parses the given buffer until it is consumed, or until an asynchronous
+     * content listener has not consumed the content yet.
+     * <p>When this method returns true, the content callback may have already
+     * resumed receiving in another thread, so the caller must not access the
+     * parser nor the buffer anymore.</p>
+     *
+     * @param buffer the buffer to parse
+     * @return true if parsing has been stalled waiting for the content to be consumed
+     */
+    private boolean parse(ByteBuffer buffer)
     {
-        while (buffer.hasRemaining())
-            parser.parseNext(buffer);
+        // Parse at least once, since a stalled parser
+        // may complete the message without more bytes
+        do
+        {
+            if (parser.parseNext(buffer))
+            {
+                ContentCallback callback = pendingContent;
+                pendingContent = null;
+                // Stall only now that the parser has returned, so that the callback resumes
+                // receiving only after this thread has stopped parsing. If the callback has
+                // completed in the meantime, this thread keeps parsing.
+                if (callback != null && callback.tryStall())
+                    return true;
+            }
+        }
+        while (buffer.hasRemaining());
+        return false;
+    }
+
+    private void releaseBuffer()
+    {
+        ByteBuffer buffer = this.buffer;
+        this.buffer = null;
+        if (buffer != null)
+            connection.getHttpClient().getByteBufferPool().release(buffer);
     }
 
     private void fillInterested()
@@ -282,7 +331,13 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
                 }
 
                 ResponseNotifier notifier = connection.getDestination().getResponseNotifier();
-                notifier.notifyContent(conversation.getResponseListeners(), response, buffer);
+                ContentCallback callback = new ContentCallback();
+                notifier.notifyContent(conversation.getResponseListeners(), response, buffer, callback);
+                if (callback.isComplete())
+                    return false;
+                // Make the parser return, so that parse() stalls until the content has been consumed
+                pendingContent = callback;
+                return true;
             }
         }
         return false;
@@ -419,4 +474,62 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
     {
         IDLE, RECEIVE, FAILURE
     }
+
+    private enum ContentState
+    {
+        PENDING, STALLED, COMPLETE
+    }
+
+    /**
+     * <p>The callback passed to asynchronous content listeners.</p>
+     * <p>If the content has not been consumed when the listeners return, the receiver
+     * stops parsing and reading (so the server is not read faster than the listeners
+     * consume the content), holding the buffer until this callback resumes it.</p>
+     */
+    private class ContentCallback implements Callback
+    {
+        private final AtomicReference<ContentState> state = new AtomicReference<>(ContentState.PENDING);
+
+        private boolean isComplete()
+        {
+            return state.get() == ContentState.COMPLETE;
+        }
+
+        /**
+         * Called by the parsing thread once it has stopped parsing.
+         * @return true if the content has not been consumed yet, and receiving is resumed when it is
+         */
+        private boolean tryStall()
+        {
+            return state.compareAndSet(ContentState.PENDING, ContentState.STALLED);
+        }
+
+        @Override
+        public void succeeded()
+        {
+            while (true)
+            {
+                ContentState current = state.get();
+                if (current == ContentState.COMPLETE)
+                    return;
+                if (state.compareAndSet(current, ContentState.COMPLETE))
+                {
+                    if (current == ContentState.STALLED)
+                        receive();
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            ContentState current = state.getAndSet(ContentState.COMPLETE);
+            if (current == ContentState.COMPLETE)
+                return;
+            failAndClose(x);
+            if (current == ContentState.STALLED)
+                releaseBuffer();
+        }
+    }
 }
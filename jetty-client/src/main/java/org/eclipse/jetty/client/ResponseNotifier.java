@@ -21,18 +21,34 @@ package org.eclipse.jetty.client;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.api.Result;
 import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
 public class ResponseNotifier
 {
     private static final Logger LOG = Log.getLogger(ResponseNotifier.class);
+    // The failures are already notified to the listeners when a forward is completed
+    private static final Callback NOOP = new Callback()
+    {
+        @Override
+        public void succeeded()
+        {
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+        }
+    };
     private final HttpClient client;
 
     public ResponseNotifier(HttpClient client)
@@ -118,7 +134,7 @@ public class ResponseNotifier
         for (int i = 0; i < listeners.size(); ++i)
         {
             Response.ResponseListener listener = listeners.get(i);
-            if (listener instanceof Response.ContentListener)
+            if (listener instanceof Response.ContentListener && !(listener instanceof Response.AsyncContentListener))
                 notifyContent((Response.ContentListener)listener, response, buffer);
         }
     }
@@ -135,6 +151,60 @@ public class ResponseNotifier
         }
     }
 
+    /**
+     * <p>Notifies the content to both the {@link Response.ContentListener}s and the
+     * {@link Response.AsyncContentListener}s.</p>
+     * <p>The given {@code callback} is completed when all the asynchronous listeners have
+     * completed their own callback, even if one of them failed, or immediately if there are none.</p>
+     *
+     * @param listeners the response listeners
+     * @param response the response
+     * @param buffer the content
+     * @param callback the callback to complete when the content has been consumed
+     */
+    public void notifyContent(List<Response.ResponseListener> listeners, Response response, ByteBuffer buffer, Callback callback)
+    {
+        int asyncListeners = 0;
+        // Optimized to avoid allocations of iterator instances
+        for (int i = 0; i < listeners.size(); ++i)
+        {
+            if (listeners.get(i) instanceof Response.AsyncContentListener)
+                ++asyncListeners;
+        }
+
+        if (asyncListeners == 0)
+        {
+            notifyContent(listeners, response, buffer);
+            callback.succeeded();
+            return;
+        }
+
+        // Each listener has its own view of the content, since the asynchronous
+        // ones may consume it after the synchronous ones have returned
+        Callback contentCallback = asyncListeners == 1 ? callback : new CountingCallback(callback, asyncListeners);
+        for (int i = 0; i < listeners.size(); ++i)
+        {
+            Response.ResponseListener listener = listeners.get(i);
+            if (listener instanceof Response.AsyncContentListener)
+                notifyContent((Response.AsyncContentListener)listener, response, buffer.slice(), contentCallback);
+            else if (listener instanceof Response.ContentListener)
+                notifyContent((Response.ContentListener)listener, response, buffer.slice());
+        }
+    }
+
+    private void notifyContent(Response.AsyncContentListener listener, Response response, ByteBuffer buffer, Callback callback)
+    {
+        try
+        {
+            listener.onContent(response, buffer, callback);
+        }
+        catch (Exception x)
+        {
+            LOG.info("Exception while notifying listener " + listener, x);
+            callback.failed(x);
+        }
+    }
+
     public void notifySuccess(List<Response.ResponseListener> listeners, Response response)
     {
         // Optimized to avoid allocations of iterator instances
@@ -206,28 +276,42 @@ public class ResponseNotifier
 
     public void forwardSuccess(List<Response.ResponseListener> listeners, Response response)
     {
-        notifyBegin(listeners, response);
-        for (Iterator<HttpField> iterator = response.getHeaders().iterator(); iterator.hasNext();)
-        {
-            HttpField field = iterator.next();
-            if (!notifyHeader(listeners, response, field))
-                iterator.remove();
-        }
-        notifyHeaders(listeners, response);
-        if (response instanceof ContentResponse)
-            notifyContent(listeners, response, ByteBuffer.wrap(((ContentResponse)response).getContent()));
-        notifySuccess(listeners, response);
+        forward(listeners, response, null, NOOP);
     }
 
-    public void forwardSuccessComplete(List<Response.ResponseListener> listeners, Request request, Response response)
+    public void forwardSuccessComplete(final List<Response.ResponseListener> listeners, final Request request, final Response response)
     {
-        HttpConversation conversation = client.getConversation(request.getConversationID(), false);
-        forwardSuccess(listeners, response);
-        conversation.complete();
-        notifyComplete(listeners, new Result(request, response));
+        final HttpConversation conversation = client.getConversation(request.getConversationID(), false);
+        forward(listeners, response, null, new Callback()
+        {
+            @Override
+            public void succeeded()
+            {
+                conversation.complete();
+                notifyComplete(listeners, new Result(request, response));
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                conversation.complete();
+                notifyComplete(listeners, new Result(request, response, x));
+            }
+        });
     }
 
     public void forwardFailure(List<Response.ResponseListener> listeners, Response response, Throwable failure)
+    {
+        forward(listeners, response, failure, NOOP);
+    }
+
+    /**
+     * Forwards a response to the listeners, and completes the given callback once the
+     * success or the failure has been notified, which may be after this method has returned
+     * if the asynchronous listeners consume the content later.
+     * @param callback failed with the failure notified to the listeners, or succeeded
+     */
+    private void forward(final List<Response.ResponseListener> listeners, final Response response, final Throwable failure, final Callback callback)
     {
         notifyBegin(listeners, response);
         for (Iterator<HttpField> iterator = response.getHeaders().iterator(); iterator.hasNext();)
@@ -238,15 +322,116 @@ public class ResponseNotifier
         }
         notifyHeaders(listeners, response);
         if (response instanceof ContentResponse)
-            notifyContent(listeners, response, ByteBuffer.wrap(((ContentResponse)response).getContent()));
-        notifyFailure(listeners, response, failure);
+        {
+            // The content has already been received, so the asynchronous
+            // listeners must consume it before the success is notified
+            ByteBuffer buffer = ByteBuffer.wrap(((ContentResponse)response).getContent());
+            notifyContent(listeners, response, buffer, new Callback()
+            {
+                @Override
+                public void succeeded()
+                {
+                    forwardEnd(listeners, response, failure, callback);
+                }
+
+                @Override
+                public void failed(Throwable x)
+                {
+                    forwardEnd(listeners, response, failure == null ? x : failure, callback);
+                }
+            });
+        }
+        else
+        {
+            forwardEnd(listeners, response, failure, callback);
+        }
     }
 
-    public void forwardFailureComplete(List<Response.ResponseListener> listeners, Request request, Throwable requestFailure, Response response, Throwable responseFailure)
+    private void forwardEnd(List<Response.ResponseListener> listeners, Response response, Throwable failure, Callback callback)
     {
-        HttpConversation conversation = client.getConversation(request.getConversationID(), false);
-        forwardFailure(listeners, response, responseFailure);
-        conversation.complete();
-        notifyComplete(listeners, new Result(request, requestFailure, response, responseFailure));
+        if (failure == null)
+        {
+            notifySuccess(listeners, response);
+            callback.succeeded();
+        }
+        else
+        {
+            notifyFailure(listeners, response, failure);
+            callback.failed(failure);
+        }
+    }
+
+    public void forwardFailureComplete(final List<Response.ResponseListener> listeners, final Request request, final Throwable requestFailure, final Response response, final Throwable responseFailure)
+    {
+        final HttpConversation conversation = client.getConversation(request.getConversationID(), false);
+        forward(listeners, response, responseFailure, new Callback()
+        {
+            @Override
+            public void succeeded()
+            {
+                failed(responseFailure);
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                conversation.complete();
+                notifyComplete(listeners, new Result(request, requestFailure, response, x));
+            }
+        });
+    }
+
+    /**
+     * Completes a callback once all the asynchronous listeners have completed theirs,
+     * with the first failure if any, so that the content is not released while a
+     * listener still holds a view of it.
+     */
+    private static class CountingCallback implements Callback
+    {
+        private final AtomicInteger count;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final Callback callback;
+
+        private CountingCallback(Callback callback, int count)
+        {
+            this.callback = callback;
+            this.count = new AtomicInteger(count);
+        }
+
+        @Override
+        public void succeeded()
+        {
+            complete();
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            failure.compareAndSet(null, x);
+            complete();
+        }
+
+        private void complete()
+        {
+            while (true)
+            {
+                int current = count.get();
+                // Already completed by the last listener
+                if (current == 0)
+                    return;
+                if (count.compareAndSet(current, current - 1))
+                {
+                    if (current == 1)
+                    {
+                        Throwable x = failure.get();
+                        if (x == null)
+                            callback.succeeded();
+                        else
+                            callback.failed(x);
+                    }
+                    return;
+                }
+            }
+        }
     }
 }
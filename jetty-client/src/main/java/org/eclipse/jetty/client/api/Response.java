@@ -26,6 +26,7 @@ import org.eclipse.jetty.client.util.BufferingResponseListener;
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.util.Callback;
 
 /**
  * <p>{@link Response} represents a HTTP response and offers methods to retrieve status code, HTTP version
@@ -145,6 +146,29 @@ public interface Response
         public void onContent(Response response, ByteBuffer content);
     }
 
+    /**
+     * <p>Listener for the response content events that consumes the content asynchronously.</p>
+     * <p>The {@code content} buffer is not copied and must not be accessed after the {@code callback}
+     * has been completed; no more content is read from the server until then, so that slow consumers
+     * of the content apply backpressure to the server.</p>
+     * <p>When a listener implements both this interface and {@link ContentListener}, only this
+     * interface is notified.</p>
+     */
+    public interface AsyncContentListener extends ResponseListener
+    {
+        /**
+         * Callback method invoked when the response content has been received.
+         * This method may be invoked multiple times, but not until the {@code callback}
+         * of the previous invocation has been completed.
+         *
+         * @param response the response containing the response line data and the headers
+         * @param content the content bytes received
+         * @param callback the callback to succeed when the content has been consumed, or
+         * to fail to abort the response
+         */
+        public void onContent(Response response, ByteBuffer content, Callback callback);
+    }
+
     /**
      * Listener for the response succeeded event.
      */
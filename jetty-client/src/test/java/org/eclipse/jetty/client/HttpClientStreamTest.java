@@ -31,9 +31,12 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -56,6 +59,7 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
 import org.eclipse.jetty.toolchain.test.annotation.Slow;
 import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.junit.Assert;
@@ -155,6 +159,197 @@ public class HttpClientStreamTest extends AbstractHttpClientServerTest
         Assert.assertSame(response, result.getResponse());
     }
 
+    @Test
+    public void testDownloadWithAsyncContentListener() throws Exception
+    {
+        final byte[] data = new byte[128 * 1024];
+        final byte value = 1;
+        Arrays.fill(data, value);
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.getOutputStream().write(data);
+            }
+        });
+
+        final BlockingQueue<Callback> callbacks = new LinkedBlockingQueue<>();
+        final AtomicInteger length = new AtomicInteger();
+        final AtomicBoolean overlapping = new AtomicBoolean();
+        final CountDownLatch latch = new CountDownLatch(1);
+        class AsyncListener extends Response.Listener.Empty implements Response.AsyncContentListener
+        {
+            @Override
+            public void onContent(Response response, ByteBuffer content, Callback callback)
+            {
+                if (!callbacks.isEmpty())
+                    overlapping.set(true);
+                while (content.hasRemaining())
+                {
+                    if (content.get() == value)
+                        length.incrementAndGet();
+                }
+                callbacks.offer(callback);
+            }
+
+            @Override
+            public void onComplete(Result result)
+            {
+                if (result.isSucceeded() && result.getResponse().getStatus() == 200)
+                    latch.countDown();
+            }
+        }
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .send(new AsyncListener());
+
+        while (true)
+        {
+            Callback callback = callbacks.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(callback);
+            // No more content is received until the callback is completed
+            Thread.sleep(1);
+            Assert.assertTrue(callbacks.isEmpty());
+            boolean last = length.get() == data.length;
+            callback.succeeded();
+            if (last)
+                break;
+        }
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(overlapping.get());
+        Assert.assertEquals(data.length, length.get());
+    }
+
+    @Test
+    public void testDownloadWithFailingAsyncContentListenerWaitsForTheOthers() throws Exception
+    {
+        final byte[] data = new byte[1024];
+        final byte value = 1;
+        Arrays.fill(data, value);
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.getOutputStream().write(data);
+            }
+        });
+
+        class FailingListener extends Response.Listener.Empty implements Response.AsyncContentListener
+        {
+            @Override
+            public void onContent(Response response, ByteBuffer content, Callback callback)
+            {
+                callback.failed(new Exception("explicitly_thrown_by_test"));
+            }
+        }
+
+        final AtomicReference<ByteBuffer> heldContent = new AtomicReference<>();
+        final AtomicReference<Callback> heldCallback = new AtomicReference<>();
+        final CountDownLatch heldLatch = new CountDownLatch(1);
+        final CountDownLatch completeLatch = new CountDownLatch(1);
+        class HoldingListener extends Response.Listener.Empty implements Response.AsyncContentListener
+        {
+            @Override
+            public void onContent(Response response, ByteBuffer content, Callback callback)
+            {
+                if (heldCallback.compareAndSet(null, callback))
+                {
+                    heldContent.set(content);
+                    heldLatch.countDown();
+                }
+                else
+                {
+                    callback.succeeded();
+                }
+            }
+
+            @Override
+            public void onComplete(Result result)
+            {
+                if (result.isFailed())
+                    completeLatch.countDown();
+            }
+        }
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .onResponseContent(new FailingListener())
+                .send(new HoldingListener());
+
+        Assert.assertTrue(heldLatch.await(5, TimeUnit.SECONDS));
+        // The failure is not notified, nor the content released, while a listener holds it
+        Assert.assertFalse(completeLatch.await(1, TimeUnit.SECONDS));
+        ByteBuffer content = heldContent.get();
+        while (content.hasRemaining())
+            Assert.assertEquals(value, content.get());
+        heldCallback.get().succeeded();
+        Assert.assertTrue(completeLatch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDownloadWithAsyncContentListenerCompletedByAnotherThread() throws Exception
+    {
+        final byte[] data = new byte[2 * 1024 * 1024];
+        final byte value = 1;
+        Arrays.fill(data, value);
+        start(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.getOutputStream().write(data);
+            }
+        });
+
+        final AtomicInteger length = new AtomicInteger();
+        final AtomicBoolean inContent = new AtomicBoolean();
+        final AtomicBoolean overlapping = new AtomicBoolean();
+        final CountDownLatch latch = new CountDownLatch(1);
+        class AsyncListener extends Response.Listener.Empty implements Response.AsyncContentListener
+        {
+            @Override
+            public void onContent(Response response, ByteBuffer content, final Callback callback)
+            {
+                if (!inContent.compareAndSet(false, true))
+                    overlapping.set(true);
+                while (content.hasRemaining())
+                {
+                    if (content.get() == value)
+                        length.incrementAndGet();
+                }
+                // Complete the callback while the receiving thread returns from the parser
+                new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        callback.succeeded();
+                    }
+                }.start();
+                inContent.set(false);
+            }
+
+            @Override
+            public void onComplete(Result result)
+            {
+                if (result.isSucceeded() && result.getResponse().getStatus() == 200)
+                    latch.countDown();
+            }
+        }
+        client.newRequest("localhost", connector.getLocalPort())
+                .scheme(scheme)
+                .send(new AsyncListener());
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertFalse(overlapping.get());
+        Assert.assertEquals(data.length, length.get());
+    }
+
     @Test
     public void testDownloadOfUTF8Content() throws Exception
     {
@@ -0,0 +1,277 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.ArrayTernaryTrie;
+
+/* ------------------------------------------------------------ */
+/** A bounded cache of {@link HttpField}s shared by many {@link HttpParser}s.
+ * <p>
+ * Parsers look up the raw bytes of a header line in this cache before
+ * creating Strings for its name and value, and report the cacheable fields
+ * that were not found with {@link #parsed(HttpHeader, String)}.  A field is admitted
+ * into the cache once it has been reported {@link #getAdmitCount()} times,
+ * so that the fields repeated by many connections (eg User-Agent) are cached
+ * while one off values are not.
+ * <p>
+ * Lookups are lock free: the cache is an immutable trie that is copied and
+ * replaced when a field is admitted.  When the trie is full, it is rebuilt
+ * with only the fields that were looked up most since the last rebuild, so
+ * that the fields admitted first are not kept for the life of the cache.
+ * The trie is case sensitive, so a cached value is only used for exactly the
+ * same bytes.
+ */
+public class HttpFieldCache
+{
+    private final ConcurrentMap<String,Candidate> _candidates = new ConcurrentHashMap<>();
+    private final int _capacity;
+    private final int _admitCount;
+    private final int _maxCandidates;
+    private volatile ArrayTernaryTrie<Entry> _fields;
+    private Iterator<Candidate> _hand;
+    private int _rebuilds;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param capacity The capacity of the cache in trie nodes (roughly characters)
+     */
+    public HttpFieldCache(int capacity)
+    {
+        this(capacity,4,1024);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param capacity The capacity of the cache in trie nodes (roughly characters)
+     * @param admitCount The number of times a field must be parsed before it is cached
+     * @param maxCandidates The max number of fields counted before being cached
+     */
+    public HttpFieldCache(int capacity, int admitCount, int maxCandidates)
+    {
+        _fields=new ArrayTernaryTrie<>(false,capacity);
+        _capacity=capacity;
+        _admitCount=admitCount;
+        _maxCandidates=maxCandidates;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of times a field must be parsed before it is cached
+     */
+    public int getAdmitCount()
+    {
+        return _admitCount;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of cached fields
+     */
+    public int size()
+    {
+        return _fields.keySet().size();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return True if the cache must be rebuilt to admit more fields
+     */
+    public boolean isFull()
+    {
+        return _fields.isFull();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of times the cache has been rebuilt to evict the least used fields
+     */
+    public synchronized int getRebuilds()
+    {
+        return _rebuilds;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Get the cached field that best matches the header line at the start of a buffer.
+     * @param buffer The buffer
+     * @param offset The offset from the buffer position
+     * @param length The max length to match
+     * @return The cached field, or null
+     */
+    public HttpField getBest(ByteBuffer buffer, int offset, int length)
+    {
+        Entry entry=_fields.getBest(buffer,offset,length);
+        if (entry==null)
+            return null;
+        // Racy increments may be lost, but the count is only used to choose the fields to evict
+        entry._hits++;
+        return entry._field;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Report a parsed field that was not found in the cache.
+     * @param header The known header of the field
+     * @param value The value of the field
+     */
+    public void parsed(HttpHeader header, String value)
+    {
+        Candidate candidate=_candidates.get(value);
+        if (candidate==null)
+        {
+            if (_candidates.size()>=_maxCandidates)
+                evictCandidate();
+            candidate=new Candidate(header);
+            Candidate existing=_candidates.putIfAbsent(value,candidate);
+            if (existing!=null)
+                candidate=existing;
+        }
+
+        else
+        {
+            candidate._referenced=true;
+        }
+
+        // The same value of another header is not counted
+        if (candidate._header==header && candidate.incrementAndGet()==_admitCount)
+        {
+            _candidates.remove(value);
+            admit(new HttpField.CachedHttpField(header,value));
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Evict one candidate with the CLOCK algorithm: the candidates parsed again since
+     * the last sweep are given a second chance, so that a stream of one off values
+     * evicts other one off values rather than the values that are repeated.
+     */
+    private synchronized void evictCandidate()
+    {
+        // Two sweeps are enough to find a candidate that has not been referenced
+        for (int i=2*_candidates.size()+1;i-->0;)
+        {
+            if (_hand==null || !_hand.hasNext())
+            {
+                _hand=_candidates.values().iterator();
+                if (!_hand.hasNext())
+                    return;
+            }
+            Candidate candidate=_hand.next();
+            if (candidate._referenced)
+                candidate._referenced=false;
+            else
+            {
+                _hand.remove();
+                return;
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private synchronized void admit(HttpField field)
+    {
+        String key=field.toString();
+        ArrayTernaryTrie<Entry> fields=new ArrayTernaryTrie<>(_fields,1.0);
+        if (!fields.put(key,new Entry(field,0)))
+        {
+            fields=rebuild();
+            if (!fields.put(key,new Entry(field,0)))
+                return;
+        }
+        _fields=fields;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Build a trie holding the most used fields, up to half the capacity,
+     * so that many fields can be admitted before the next rebuild.
+     */
+    private ArrayTernaryTrie<Entry> rebuild()
+    {
+        List<Entry> entries=new ArrayList<>();
+        for (String key : _fields.keySet())
+            entries.add(_fields.get(key));
+        Collections.sort(entries,new Comparator<Entry>()
+        {
+            @Override
+            public int compare(Entry e1, Entry e2)
+            {
+                return Integer.compare(e2._hits,e1._hits);
+            }
+        });
+
+        ArrayTernaryTrie<Entry> fields=new ArrayTernaryTrie<>(false,_capacity);
+        int nodes=0;
+        for (Entry entry : entries)
+        {
+            // A key never needs more nodes than characters
+            String key=entry._field.toString();
+            if (entry._hits==0 || nodes+key.length()>_capacity/2)
+                break;
+            nodes+=key.length();
+            // Halve the hits, so that fields that are no longer used are eventually evicted
+            fields.put(key,new Entry(entry._field,entry._hits/2));
+        }
+        _rebuilds++;
+        return fields;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%d,%d}",getClass().getSimpleName(),hashCode(),size(),_candidates.size());
+    }
+
+    /* ------------------------------------------------------------ */
+    private static class Entry
+    {
+        private final HttpField _field;
+        private int _hits;
+
+        private Entry(HttpField field, int hits)
+        {
+            _field=field;
+            _hits=hits;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private static class Candidate extends AtomicInteger
+    {
+        private final HttpHeader _header;
+        private volatile boolean _referenced;
+
+        private Candidate(HttpHeader header)
+        {
+            _header=header;
+        }
+    }
+}
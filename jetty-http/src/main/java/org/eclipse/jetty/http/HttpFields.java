@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
@@ -277,6 +278,10 @@ public class HttpFields implements Iterable<HttpField>
     public final static ByteBuffer __01Jan1970_BUFFER=BufferUtil.toBuffer(__01Jan1970);
     public final static String __01Jan1970_COOKIE = formatCookieDate(0).trim();
     private final ArrayList<HttpField> _fields = new ArrayList<>(20);
+    // The first field of each known header, indexed by HttpHeader ordinal
+    private final HttpField[] _index = new HttpField[HttpHeader.values().length];
+    // The number of fields with the name of a known header, but created without it, that can only be found by name
+    private int _unresolved;
 
     /**
      * Constructor.
@@ -327,22 +332,48 @@ public class HttpFields implements Iterable<HttpField>
     @Override
     public Iterator<HttpField> iterator()
     {
-        return _fields.iterator();
+        final Iterator<HttpField> i=_fields.iterator();
+        return new Iterator<HttpField>()
+        {
+            HttpField _last;
+
+            @Override
+            public boolean hasNext()
+            {
+                return i.hasNext();
+            }
+
+            @Override
+            public HttpField next()
+            {
+                return _last=i.next();
+            }
+
+            @Override
+            public void remove()
+            {
+                i.remove();
+                unindex(_last);
+            }
+        };
     }
 
     public HttpField getField(HttpHeader header)
     {
-        for (int i=0;i<_fields.size();i++)
-        {
-            HttpField f=_fields.get(i);
-            if (f.getHeader()==header)
-                return f;
-        }
-        return null;
+        if (header==null)
+            return null;
+        return _index[header.ordinal()];
     }
 
     public HttpField getField(String name)
     {
+        // Known headers are looked up in the index, unless a field has been added with the
+        // name of a known header but without the header, so that only a scan can find it.
+        // Other names (eg X- headers) are never indexed and are always scanned for.
+        HttpHeader header=HttpHeader.CACHE.get(name);
+        if (header!=null && _unresolved==0)
+            return _index[header.ordinal()];
+
         for (int i=0;i<_fields.size();i++)
         {
             HttpField f=_fields.get(i);
@@ -354,6 +385,8 @@ public class HttpFields implements Iterable<HttpField>
 
     public boolean contains(HttpHeader header, String value)
     {
+        if (getField(header)==null)
+            return false;
         for (int i=0;i<_fields.size();i++)
         {
             HttpField f=_fields.get(i);
@@ -374,25 +407,25 @@ public class HttpFields implements Iterable<HttpField>
         return false;
     }
     
+    public boolean containsKey(HttpHeader header)
+    {
+        return getField(header)!=null;
+    }
+
     public boolean containsKey(String name)
     {
-        for (int i=0;i<_fields.size();i++)
-        {
-            HttpField f=_fields.get(i);
-            if (f.getName().equalsIgnoreCase(name))
-                return true;
-        }
-        return false;
+        return getField(name)!=null;
     }
 
     public String getStringField(HttpHeader header)
     {
-        return getStringField(header.asString());
+        HttpField field = getField(header);
+        return field==null?null:field.getValue();
     }
 
     public String get(HttpHeader header)
     {
-        return getStringField(header.asString());
+        return getStringField(header);
     }
 
     public String get(String header)
@@ -543,10 +576,13 @@ public class HttpFields implements Iterable<HttpField>
                     _fields.set(i,field);
                     put=true;
                 }
+                unindex(f);
             }
         }
-        if (!put)
-            _fields.add(field);
+        if (put)
+            index(field);
+        else
+            add(field);
     }
     
     /**
@@ -610,8 +646,7 @@ public class HttpFields implements Iterable<HttpField>
         if (value == null)
             return;
 
-        HttpField field = new HttpField(name, value);
-        _fields.add(field);
+        add(new HttpField(name, value));
     }
 
     public void add(HttpHeader header, HttpHeaderValue value) throws IllegalArgumentException
@@ -631,8 +666,7 @@ public class HttpFields implements Iterable<HttpField>
     {
         if (value == null) throw new IllegalArgumentException("null value");
 
-        HttpField field = new HttpField(header, value);
-        _fields.add(field);
+        add(new HttpField(header, value));
     }
 
     /**
@@ -642,12 +676,15 @@ public class HttpFields implements Iterable<HttpField>
      */
     public void remove(HttpHeader name)
     {
+        if (getField(name)==null)
+            return;
         for (int i=_fields.size();i-->0;)
         {
             HttpField f=_fields.get(i);
             if (f.getHeader()==name)
                 _fields.remove(i);
         }
+        _index[name.ordinal()]=null;
     }
 
     /**
@@ -661,7 +698,10 @@ public class HttpFields implements Iterable<HttpField>
         {
             HttpField f=_fields.get(i);
             if (f.getName().equalsIgnoreCase(name))
+            {
                 _fields.remove(i);
+                unindex(f);
+            }
         }
     }
 
@@ -868,7 +908,7 @@ public class HttpFields implements Iterable<HttpField>
 
         // remove existing set-cookie of same name
 
-        Iterator<HttpField> i=_fields.iterator();
+        Iterator<HttpField> i=iterator();
         while (i.hasNext())
         {
             HttpField field=i.next();
@@ -939,11 +979,54 @@ public class HttpFields implements Iterable<HttpField>
     public void clear()
     {
         _fields.clear();
+        Arrays.fill(_index,null);
+        _unresolved=0;
     }
 
     public void add(HttpField field)
     {
         _fields.add(field);
+        index(field);
+    }
+
+    /**
+     * Update the header index after a field has been added or has replaced another.
+     */
+    private void index(HttpField field)
+    {
+        HttpHeader header=field.getHeader();
+        if (header==null || header==HttpHeader.UNKNOWN)
+        {
+            if (HttpHeader.CACHE.get(field.getName())!=null)
+                _unresolved++;
+        }
+        else if (_index[header.ordinal()]==null)
+            _index[header.ordinal()]=field;
+    }
+
+    /**
+     * Update the header index after a field has been removed or replaced.
+     */
+    private void unindex(HttpField field)
+    {
+        HttpHeader header=field.getHeader();
+        if (header==null || header==HttpHeader.UNKNOWN)
+        {
+            if (HttpHeader.CACHE.get(field.getName())!=null)
+                _unresolved--;
+        }
+        else if (_index[header.ordinal()]==field)
+        {
+            // Only the fields of the same header are looked for
+            HttpField next=null;
+            for (int i=0;i<_fields.size() && next==null;i++)
+            {
+                HttpField f=_fields.get(i);
+                if (f.getHeader()==header)
+                    next=f;
+            }
+            _index[header.ordinal()]=next;
+        }
     }
 
     
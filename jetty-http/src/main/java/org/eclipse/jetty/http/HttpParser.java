@@ -65,6 +65,7 @@ public class HttpParser
     private final RequestHandler<ByteBuffer> _requestHandler;
     private final ResponseHandler<ByteBuffer> _responseHandler;
     private final int _maxHeaderBytes;
+    private final HttpFieldCache _fieldCache;
     private HttpField _field;
     private HttpHeader _header;
     private String _headerString;
@@ -107,11 +108,23 @@ public class HttpParser
 
     /* ------------------------------------------------------------------------------- */
     public HttpParser(RequestHandler<ByteBuffer> handler,int maxHeaderBytes)
+    {
+        this(handler,maxHeaderBytes,null);
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    /**
+     * @param handler The request handler
+     * @param maxHeaderBytes The max size of the request header, or -1 for no limit
+     * @param fieldCache A cache of fields shared with other parsers, or null
+     */
+    public HttpParser(RequestHandler<ByteBuffer> handler,int maxHeaderBytes,HttpFieldCache fieldCache)
     {
         _handler=handler;
         _requestHandler=handler;
         _responseHandler=null;
         _maxHeaderBytes=maxHeaderBytes;
+        _fieldCache=fieldCache;
     }
 
     /* ------------------------------------------------------------------------------- */
@@ -121,6 +134,7 @@ public class HttpParser
         _requestHandler=null;
         _responseHandler=handler;
         _maxHeaderBytes=maxHeaderBytes;
+        _fieldCache=null;
     }
 
     /* ------------------------------------------------------------------------------- */
@@ -560,7 +574,7 @@ public class HttpParser
 
     private boolean handleKnownHeaders(ByteBuffer buffer)
     {
-        boolean add_to_connection_trie=false;
+        boolean add_to_cache=false;
         switch (_header)
         {
             case CONTENT_LENGTH:
@@ -599,7 +613,7 @@ public class HttpParser
                 break;
 
             case HOST:
-                add_to_connection_trie=_connectionFields!=null && _field==null;
+                add_to_cache=_field==null;
                 _host=true;
                 String host=_valueString;
                 int port=0;
@@ -664,16 +678,23 @@ public class HttpParser
             case COOKIE:
             case CACHE_CONTROL:
             case USER_AGENT:
-                add_to_connection_trie=_connectionFields!=null && _field==null;
+                add_to_cache=_field==null;
                 break;
                 
             default: break;
         }
     
-        if (add_to_connection_trie && !_connectionFields.isFull() && _header!=null && _valueString!=null)
+        if (add_to_cache && _header!=null && _valueString!=null)
         {
-            _field=new HttpField.CachedHttpField(_header,_valueString);
-            _connectionFields.put(_field);
+            if (_connectionFields!=null && !_connectionFields.isFull())
+            {
+                _field=new HttpField.CachedHttpField(_header,_valueString);
+                _connectionFields.put(_field);
+            }
+
+            // Fields likely to hold per user values are not shared
+            if (_fieldCache!=null && _header!=HttpHeader.AUTHORIZATION && _header!=HttpHeader.COOKIE)
+                _fieldCache.parsed(_header,_valueString);
         }
         
         return false;
@@ -816,6 +837,8 @@ public class HttpParser
                                 {
                                     // Try a look ahead for the known header name and value.
                                     _field=_connectionFields==null?null:_connectionFields.getBest(buffer,-1,buffer.remaining());
+                                    if (_field==null && _fieldCache!=null)
+                                        _field=_fieldCache.getBest(buffer,-1,buffer.remaining());
                                     if (_field==null)
                                         _field=HttpField.CACHE.getBest(buffer,-1,buffer.remaining());
                                         
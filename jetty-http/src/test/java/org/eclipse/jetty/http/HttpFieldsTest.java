@@ -28,12 +28,15 @@ import static org.junit.Assert.assertTrue;
 import java.nio.ByteBuffer;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.util.BufferUtil;
 import org.hamcrest.Matchers;
 import org.junit.Assert;
+import org.junit.Ignore;
 import org.junit.Test;
 
 /**
@@ -516,4 +519,120 @@ public class HttpFieldsTest
             assertEquals(""+i,i>=4,header.contains(""+i,"def"));
         }
     }
+
+    @Test
+    public void testIndex() throws Exception
+    {
+        HttpFields header = new HttpFields();
+
+        header.add(HttpHeader.HOST, "host");
+        header.add("accept", "text/html");
+        header.add(HttpHeader.ACCEPT, "text/plain");
+        header.add(HttpHeader.COOKIE, "a=b");
+
+        assertEquals("host",header.get(HttpHeader.HOST));
+        assertEquals("text/html",header.get(HttpHeader.ACCEPT));
+        assertEquals("text/html",header.get("Accept"));
+        assertTrue(header.containsKey(HttpHeader.COOKIE));
+        assertFalse(header.containsKey(HttpHeader.CONTENT_TYPE));
+        assertNull(header.get(HttpHeader.CONTENT_TYPE));
+        assertTrue(header.contains(HttpHeader.ACCEPT,"text/plain"));
+
+        header.remove("accept");
+        assertNull(header.get(HttpHeader.ACCEPT));
+        assertEquals(2,header.size());
+
+        header.put(HttpHeader.HOST, "other");
+        assertEquals("other",header.get("host"));
+
+        Iterator<HttpField> i=header.iterator();
+        while (i.hasNext())
+            if (i.next().getHeader()==HttpHeader.HOST)
+                i.remove();
+        assertNull(header.get(HttpHeader.HOST));
+        assertEquals("a=b",header.get(HttpHeader.COOKIE));
+
+        // Unknown headers are found by name, while known headers are still indexed
+        header.add("X-Forwarded-For","10.0.0.1");
+        header.add(HttpHeader.ACCEPT,"text/plain");
+        header.add(HttpHeader.ACCEPT,"text/html");
+        assertEquals("10.0.0.1",header.get("x-forwarded-for"));
+        assertEquals("text/plain",header.get("Accept"));
+        i=header.iterator();
+        while (i.hasNext())
+            if ("text/plain".equals(i.next().getValue()))
+                i.remove();
+        assertEquals("text/html",header.get(HttpHeader.ACCEPT));
+        header.remove("X-Forwarded-For");
+        assertNull(header.get("X-Forwarded-For"));
+        assertEquals("text/html",header.get("accept"));
+
+        // A field that is not resolved to a header is still found by name
+        header.add(new HttpField(null,"Content-Type","text/xml"));
+        assertNull(header.get(HttpHeader.CONTENT_TYPE));
+        assertEquals("text/xml",header.get("content-type"));
+
+        header.clear();
+        assertNull(header.get(HttpHeader.COOKIE));
+        assertFalse(header.containsKey("Content-Type"));
+    }
+
+    @Ignore
+    @Test
+    public void testIndexBenchmark() throws Exception
+    {
+        HttpFields header = new HttpFields();
+        header.add(HttpHeader.HOST, "www.example.com");
+        header.add(HttpHeader.USER_AGENT, "Mozilla/5.0 (X11; Linux x86_64; rv:20.0) Gecko/20100101 Firefox/20.0");
+        header.add(HttpHeader.ACCEPT, "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        header.add(HttpHeader.ACCEPT_LANGUAGE, "en-US,en;q=0.5");
+        header.add(HttpHeader.ACCEPT_ENCODING, "gzip, deflate");
+        header.add(HttpHeader.REFERER, "http://www.example.com/index.html");
+        header.add(HttpHeader.COOKIE, "JSESSIONID=1234567890abcdef");
+        header.add(HttpHeader.CONNECTION, "keep-alive");
+        header.add(HttpHeader.CACHE_CONTROL, "max-age=0");
+        header.add(HttpHeader.IF_MODIFIED_SINCE, "Thu, 01 Jan 1970 00:00:00 GMT");
+        header.add(HttpHeader.IF_NONE_MATCH, "\"abcdef\"");
+
+        // The headers looked up while handling a request, both present and absent
+        HttpHeader[] lookups = new HttpHeader[]{
+                HttpHeader.HOST, HttpHeader.CONNECTION, HttpHeader.EXPECT, HttpHeader.CONTENT_TYPE,
+                HttpHeader.CONTENT_LENGTH, HttpHeader.TRANSFER_ENCODING, HttpHeader.ACCEPT_ENCODING,
+                HttpHeader.IF_MODIFIED_SINCE, HttpHeader.IF_NONE_MATCH, HttpHeader.AUTHORIZATION};
+
+        int loops = 10000000;
+        for (int iteration = 0; iteration < 4; iteration++)
+        {
+            boolean indexed = iteration % 2 == 1;
+            int found = 0;
+            long begin = System.nanoTime();
+            for (int i = 0; i < loops; i++)
+            {
+                HttpHeader lookup = lookups[i % lookups.length];
+                HttpField field = null;
+                if (indexed)
+                {
+                    field = header.getField(lookup);
+                }
+                else
+                {
+                    // The linear scan that getField(HttpHeader) did before the index
+                    for (int f = 0; f < header.size(); f++)
+                    {
+                        if (header.getField(f).getHeader() == lookup)
+                        {
+                            field = header.getField(f);
+                            break;
+                        }
+                    }
+                }
+                if (field != null)
+                    found++;
+            }
+            long elapsed = System.nanoTime() - begin;
+
+            System.err.printf("indexed=%b: %d lookups of %d fields in %d ms, %d found%n",
+                    indexed,loops,header.size(),TimeUnit.NANOSECONDS.toMillis(elapsed),found);
+        }
+    }
 }
@@ -20,6 +20,7 @@ package org.eclipse.jetty.http;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.nio.ByteBuffer;
@@ -159,6 +160,79 @@ public class HttpParserTest
         assertEquals(-1, _h);
     }
 
+    @Test
+    public void testSharedFieldCache() throws Exception
+    {
+        HttpFieldCache cache = new HttpFieldCache(1024,2,16);
+        HttpField[] agents = new HttpField[4];
+        for (int i=0;i<agents.length;i++)
+        {
+            ByteBuffer buffer= BufferUtil.toBuffer(
+                    "GET / HTTP/1.0\015\012" +
+                            "Host: localhost\015\012" +
+                            "Cookie: secret\015\012" +
+                            "User-Agent: Test/1.0\015\012" +
+                    "\015\012");
+            Handler handler = new Handler();
+            HttpParser parser= new HttpParser((HttpParser.RequestHandler)handler,-1,cache);
+            parseAll(parser,buffer);
+            assertEquals("User-Agent", _hdr[2]);
+            assertEquals("Test/1.0", _val[2]);
+            agents[i]=_lastField;
+        }
+
+        // Admitted after being parsed twice, then shared
+        assertTrue(agents[0]!=agents[2]);
+        assertTrue(agents[1]!=agents[2]);
+        assertTrue(agents[2]==agents[3]);
+
+        // Host and User-Agent are cached, but not Cookie
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testSharedFieldCacheEviction() throws Exception
+    {
+        HttpFieldCache cache = new HttpFieldCache(128,1,16);
+        cache.parsed(HttpHeader.HOST,"used");
+        for (int i=0;i<10;i++)
+            assertEquals("used",getBest(cache,"used"));
+
+        // Fill the cache with fields that are never looked up
+        int admitted=0;
+        while (cache.getRebuilds()==0)
+            cache.parsed(HttpHeader.HOST,"unused-"+admitted+++"-");
+
+        // The used field survives the rebuild, the unused ones are evicted
+        assertEquals("used",getBest(cache,"used"));
+        assertNull(getBest(cache,"unused-0-"));
+        assertEquals("unused-"+(admitted-1)+"-",getBest(cache,"unused-"+(admitted-1)+"-"));
+        assertEquals(2,cache.size());
+    }
+
+    @Test
+    public void testSharedFieldCacheCandidateEviction() throws Exception
+    {
+        HttpFieldCache cache = new HttpFieldCache(1024,3,4);
+        cache.parsed(HttpHeader.HOST,"repeated");
+        cache.parsed(HttpHeader.HOST,"repeated");
+
+        // One off values evict each other rather than the repeated value
+        for (int i=0;i<4;i++)
+            cache.parsed(HttpHeader.HOST,"once-"+i);
+
+        cache.parsed(HttpHeader.HOST,"repeated");
+        assertEquals("repeated",getBest(cache,"repeated"));
+        assertNull(getBest(cache,"once-0"));
+    }
+
+    private String getBest(HttpFieldCache cache, String host)
+    {
+        String line="Host: "+host+"\015\012";
+        HttpField field=cache.getBest(BufferUtil.toBuffer(line),0,line.length());
+        return field==null?null:field.getValue();
+    }
+
     @Test
     public void testHeaderParseDirect() throws Exception
     {
@@ -961,6 +1035,7 @@ public class HttpParserTest
     private String[] _hdr;
     private String[] _val;
     private int _h;
+    private HttpField _lastField;
 
     private boolean _headerCompleted;
     private boolean _messageCompleted;
@@ -1005,6 +1080,7 @@ public class HttpParserTest
             //System.err.println("header "+name+": "+value);
             _hdr[++_h]= field.getName();
             _val[_h]= field.getValue();
+            _lastField=field;
             return false;
         }
 
@@ -41,6 +41,9 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements SelectorMa
         @Override
         public void run()
         {
+            // Clear before reading the interests, so that a later
+            // update either is seen here or submits the task again
+            _updatePending.set(false);
             try
             {
                 if (getChannel().isOpen())
@@ -68,6 +71,11 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements SelectorMa
      * true if {@link ManagedSelector#destroyEndPoint(EndPoint)} has not been called
      */
     private final AtomicBoolean _open = new AtomicBoolean();
+    /**
+     * true if {@link #_updateTask} has been submitted and not yet run, so that
+     * successive updates of the interests are applied by a single change
+     */
+    private final AtomicBoolean _updatePending = new AtomicBoolean();
     private final SelectorManager.ManagedSelector _selector;
     private final SelectionKey _key;
     /**
@@ -133,7 +141,8 @@ public class SelectChannelEndPoint extends ChannelEndPoint implements SelectorMa
                 if (_interestOps.compareAndSet(oldInterestOps, newInterestOps))
                 {
                     LOG.debug("Local interests updated {} -> {} for {}", oldInterestOps, newInterestOps, this);
-                    _selector.submit(_updateTask);
+                    if (_updatePending.compareAndSet(false, true))
+                        _selector.submit(_updateTask);
                 }
                 else
                 {
@@ -40,9 +40,13 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jetty.util.ConcurrentArrayQueue;
 import org.eclipse.jetty.util.TypeUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.eclipse.jetty.util.component.ContainerLifeCycle;
 import org.eclipse.jetty.util.component.Dumpable;
@@ -56,6 +60,7 @@ import org.eclipse.jetty.util.thread.Scheduler;
  * <p>{@link SelectorManager} subclasses implement methods to return protocol-specific
  * {@link EndPoint}s and {@link Connection}s.</p>
  */
+@ManagedObject("Manager of the NIO selectors")
 public abstract class SelectorManager extends AbstractLifeCycle implements Dumpable
 {
     protected static final Logger LOG = Log.getLogger(SelectorManager.class);
@@ -130,6 +135,61 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
         return _selectors.length;
     }
 
+    @ManagedAttribute("The number of selector wakeups")
+    public long getWakeups()
+    {
+        long total = 0;
+        for (ManagedSelector selector : _selectors)
+            if (selector != null)
+                total += selector.getWakeups();
+        return total;
+    }
+
+    @ManagedAttribute("The number of returns from select()")
+    public long getSelects()
+    {
+        long total = 0;
+        for (ManagedSelector selector : _selectors)
+            if (selector != null)
+                total += selector.getSelects();
+        return total;
+    }
+
+    @ManagedAttribute("The number of selected keys processed")
+    public long getSelectedKeys()
+    {
+        long total = 0;
+        for (ManagedSelector selector : _selectors)
+            if (selector != null)
+                total += selector.getSelectedKeys();
+        return total;
+    }
+
+    @ManagedAttribute("The average number of keys processed per select()")
+    public double getSelectedKeysPerSelect()
+    {
+        long selects = getSelects();
+        return selects == 0 ? 0.0 : (double)getSelectedKeys() / selects;
+    }
+
+    @ManagedAttribute("The number of changes run by the selector threads")
+    public long getChanges()
+    {
+        long total = 0;
+        for (ManagedSelector selector : _selectors)
+            if (selector != null)
+                total += selector.getChanges();
+        return total;
+    }
+
+    @ManagedOperation("Resets the selector statistics")
+    public void resetStatistics()
+    {
+        for (ManagedSelector selector : _selectors)
+            if (selector != null)
+                selector.resetStatistics();
+    }
+
     private ManagedSelector chooseSelector()
     {
         // The ++ increment here is not atomic, but it does not matter,
@@ -180,6 +240,20 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
         final ManagedSelector selector = chooseSelector();
         selector.submit(selector.new Accept(channel, attachment));
     }
+
+    /**
+     * <p>Registers a channel to perform non-blocking read/write operations with a given selector.</p>
+     * <p>This method is used instead of {@link #accept(SocketChannel)} when channels are accepted
+     * from several listening channels, each of which is tied to its own selectors.</p>
+     *
+     * @param selector the index of the selector, modulo {@link #getSelectorCount()}
+     * @param channel the channel to register
+     */
+    public void accept(int selector, final SocketChannel channel)
+    {
+        final ManagedSelector set = _selectors[selector % getSelectorCount()];
+        set.submit(set.new Accept(channel));
+    }
     
     @Override
     protected void doStart() throws Exception
@@ -333,12 +407,20 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
     public class ManagedSelector extends AbstractLifeCycle implements Runnable, Dumpable
     {
         private final Queue<Runnable> _changes = new ConcurrentArrayQueue<>();
+        /**
+         * true if the selector is, or is about to be, waiting in select() and no
+         * wakeup has been sent yet, so that only the first submitter wakes it up
+         */
+        private final AtomicBoolean _needsWakeup = new AtomicBoolean(true);
+        private final AtomicLong _wakeups = new AtomicLong();
         
         private final int _id;
         private Selector _selector;
         private volatile Thread _thread;
-        private boolean _needsWakeup = true;
         private boolean _runningChanges = false;
+        private volatile long _selects;
+        private volatile long _selectedKeys;
+        private volatile long _changesRun;
 
         public ManagedSelector(int id)
         {
@@ -389,11 +471,11 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
             }
             else
             {
-                // otherwise we have to queue the change and wakeup the selector
+                // otherwise we have to queue the change and wakeup the selector,
+                // unless another submitter has already woken it up
                 _changes.offer(change);
                 LOG.debug("Queued change {}", change);
-                boolean wakeup = _needsWakeup;
-                if (wakeup)
+                if (_needsWakeup.compareAndSet(true, false))
                     wakeup();
             }
         }
@@ -406,9 +488,21 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                     throw new IllegalStateException();
                 _runningChanges=true;
 
-                Runnable change;
-                while ((change = _changes.poll()) != null)
-                    runChange(change);
+                int changes = 0;
+                try
+                {
+                    Runnable change;
+                    while ((change = _changes.poll()) != null)
+                    {
+                        ++changes;
+                        runChange(change);
+                    }
+                }
+                finally
+                {
+                    if (changes > 0)
+                        _changesRun += changes;
+                }
             }
             finally
             {
@@ -460,9 +554,11 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
                 if (debug)
                     LOG.debug("Selector loop woken up from select, {}/{} selected", selected, _selector.keys().size());
 
-                _needsWakeup = false;
+                _needsWakeup.set(false);
 
                 Set<SelectionKey> selectedKeys = _selector.selectedKeys();
+                _selects++;
+                _selectedKeys += selectedKeys.size();
                 for (SelectionKey key : selectedKeys)
                 {
                     if (key.isValid())
@@ -496,7 +592,7 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
             // If tasks are submitted between these 2 statements, they will not
             // wakeup the selector, therefore below we run again the tasks
 
-            _needsWakeup = true;
+            _needsWakeup.set(true);
 
             // Run again the tasks to avoid the race condition where a task is
             // submitted but will not wake up the selector
@@ -575,9 +671,50 @@ public abstract class SelectorManager extends AbstractLifeCycle implements Dumpa
 
         public void wakeup()
         {
+            _wakeups.incrementAndGet();
             _selector.wakeup();
         }
 
+        /**
+         * @return the number of times the selector has returned from select()
+         */
+        public long getSelects()
+        {
+            return _selects;
+        }
+
+        /**
+         * @return the number of selected keys processed
+         */
+        public long getSelectedKeys()
+        {
+            return _selectedKeys;
+        }
+
+        /**
+         * @return the number of times the selector has been woken up
+         */
+        public long getWakeups()
+        {
+            return _wakeups.get();
+        }
+
+        /**
+         * @return the number of changes run by the selector thread
+         */
+        public long getChanges()
+        {
+            return _changesRun;
+        }
+
+        private void resetStatistics()
+        {
+            _selects = 0;
+            _selectedKeys = 0;
+            _changesRun = 0;
+            _wakeups.set(0);
+        }
+
         public boolean isSelectorThread()
         {
             return Thread.currentThread() == _thread;
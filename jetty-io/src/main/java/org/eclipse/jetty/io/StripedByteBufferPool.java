@@ -0,0 +1,481 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.io;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * <p>A {@link ByteBufferPool} that stripes its buckets across threads and bounds the memory it retains.</p>
+ * <p>Like {@link ArrayByteBufferPool}, buffers are kept in buckets of increasing capacity, but there is
+ * one set of buckets per stripe, and the stripe is selected from the calling thread, so that selector
+ * and worker threads mostly hit different queues. When the stripe of the calling thread is empty, the
+ * other stripes are tried before a new buffer is allocated.</p>
+ * <p>Released buffers are only retained while the bucket is below {@link #getMaxBucketMemory()} bytes
+ * and the pool is below {@link #getMaxDirectMemory()} (or {@link #getMaxHeapMemory()}) bytes, otherwise
+ * they are left to the garbage collector. Buckets that have not been acquired from for
+ * {@link #getIdleTimeout()} ms are progressively drained.</p>
+ * <p>The buckets are swept when buffers are acquired or released and, while the pool is started
+ * (for example as a bean of a connector), periodically by a {@link Scheduler}, so that a pool
+ * that is no longer used releases its buffers too.</p>
+ */
+@ManagedObject("A striped, bounded ByteBufferPool")
+public class StripedByteBufferPool extends ContainerLifeCycle implements ByteBufferPool
+{
+    private final int _min;
+    private final int _inc;
+    private final Stripe[] _stripes;
+    private final AtomicLong _directMemory = new AtomicLong();
+    private final AtomicLong _heapMemory = new AtomicLong();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _allocations = new AtomicLong();
+    private final AtomicLong _discards = new AtomicLong();
+    private final AtomicLong _nextSweep = new AtomicLong();
+    private volatile long _maxBucketMemory = 4*1024*1024;
+    private volatile long _maxDirectMemory = 64*1024*1024;
+    private volatile long _maxHeapMemory = 64*1024*1024;
+    private volatile long _idleTimeout = 30000;
+    private volatile Scheduler _scheduler;
+    private volatile Scheduler.Task _sweeper;
+
+    public StripedByteBufferPool()
+    {
+        this(64,2048,64*1024,Runtime.getRuntime().availableProcessors());
+    }
+
+    public StripedByteBufferPool(int minSize, int increment, int maxSize, int stripes)
+    {
+        if (minSize>=increment)
+            throw new IllegalArgumentException("minSize >= increment");
+        if ((maxSize%increment)!=0 || increment>=maxSize)
+            throw new IllegalArgumentException("increment must be a divisor of maxSize");
+        if (stripes<1)
+            throw new IllegalArgumentException("stripes < 1");
+        _min=minSize;
+        _inc=increment;
+
+        _stripes=new Stripe[stripes];
+        for (int i=0;i<stripes;i++)
+            _stripes[i]=new Stripe(maxSize/increment,increment);
+        _nextSweep.set(System.nanoTime());
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (_scheduler==null)
+        {
+            _scheduler=new ScheduledExecutorScheduler(String.format("StripedByteBufferPool@%x-sweeper",hashCode()),true);
+            addBean(_scheduler);
+        }
+        super.doStart();
+        scheduleSweep();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        Scheduler.Task sweeper=_sweeper;
+        if (sweeper!=null)
+            sweeper.cancel();
+        super.doStop();
+    }
+
+    private void scheduleSweep()
+    {
+        _sweeper=_scheduler.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                trySweep(System.nanoTime());
+                if (isRunning())
+                    scheduleSweep();
+            }
+        },Math.max(1,_idleTimeout/2),TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public ByteBuffer acquire(int size, boolean direct)
+    {
+        int b=bucketIndex(size);
+        if (b<0)
+        {
+            _allocations.incrementAndGet();
+            return direct ? BufferUtil.allocateDirect(size) : BufferUtil.allocate(size);
+        }
+
+        int s=stripeIndex();
+        for (int i=0;i<_stripes.length;i++)
+        {
+            Bucket bucket=_stripes[(s+i)%_stripes.length].bucketsFor(direct)[b];
+            ByteBuffer buffer=bucket.poll();
+            if (buffer!=null)
+            {
+                memoryFor(direct).addAndGet(-bucket._size);
+                _hits.incrementAndGet();
+                trySweep(System.nanoTime());
+                return buffer;
+            }
+        }
+
+        trySweep(System.nanoTime());
+        _misses.incrementAndGet();
+        _allocations.incrementAndGet();
+        int capacity=(b+1)*_inc;
+        return direct ? BufferUtil.allocateDirect(capacity) : BufferUtil.allocate(capacity);
+    }
+
+    @Override
+    public void release(ByteBuffer buffer)
+    {
+        if (buffer==null)
+            return;
+
+        int capacity=buffer.capacity();
+        int b=bucketIndex(capacity);
+        // Only buffers with the exact capacity of a bucket are pooled
+        if (b<0 || (b+1)*_inc!=capacity)
+            return;
+
+        boolean direct=buffer.isDirect();
+        Bucket bucket=_stripes[stripeIndex()].bucketsFor(direct)[b];
+        if (bucket.memory()+capacity>_maxBucketMemory || !reserve(direct,capacity))
+        {
+            _discards.incrementAndGet();
+        }
+        else
+        {
+            BufferUtil.clear(buffer);
+            bucket.offer(buffer);
+        }
+
+        trySweep(System.nanoTime());
+    }
+
+    /**
+     * Sweeps the buckets if half of the idle timeout has elapsed since the last sweep.
+     *
+     * @param now the current {@link System#nanoTime()}
+     */
+    private void trySweep(long now)
+    {
+        long next=_nextSweep.get();
+        if (now-next>=0 && _nextSweep.compareAndSet(next,now+TimeUnit.MILLISECONDS.toNanos(_idleTimeout)/2))
+            sweep(now);
+    }
+
+    private boolean reserve(boolean direct, int capacity)
+    {
+        AtomicLong memory=memoryFor(direct);
+        long max=direct?_maxDirectMemory:_maxHeapMemory;
+        while (true)
+        {
+            long current=memory.get();
+            if (current+capacity>max)
+                return false;
+            if (memory.compareAndSet(current,current+capacity))
+                return true;
+        }
+    }
+
+    /**
+     * <p>Drains half of the buffers of each bucket that has not been acquired from for
+     * longer than the idle timeout.</p>
+     *
+     * @param now the current {@link System#nanoTime()}
+     */
+    protected void sweep(long now)
+    {
+        long idle=TimeUnit.MILLISECONDS.toNanos(_idleTimeout);
+        for (Stripe stripe : _stripes)
+        {
+            sweep(stripe._direct,_directMemory,now,idle);
+            sweep(stripe._heap,_heapMemory,now,idle);
+        }
+    }
+
+    private void sweep(Bucket[] buckets, AtomicLong memory, long now, long idle)
+    {
+        for (Bucket bucket : buckets)
+        {
+            if (now-bucket._lastAcquire<idle)
+                continue;
+            for (int n=(bucket._count.get()+1)/2;n-->0;)
+            {
+                if (bucket.evict()==null)
+                    break;
+                memory.addAndGet(-bucket._size);
+            }
+        }
+    }
+
+    @ManagedOperation("Releases all the pooled buffers")
+    public void clear()
+    {
+        for (Stripe stripe : _stripes)
+        {
+            clear(stripe._direct,_directMemory);
+            clear(stripe._heap,_heapMemory);
+        }
+    }
+
+    private void clear(Bucket[] buckets, AtomicLong memory)
+    {
+        for (Bucket bucket : buckets)
+        {
+            while (bucket.evict()!=null)
+                memory.addAndGet(-bucket._size);
+        }
+    }
+
+    private int bucketIndex(int size)
+    {
+        if (size<=_min)
+            return -1;
+        int b=(size-1)/_inc;
+        if (b>=_stripes[0]._direct.length)
+            return -1;
+        return b;
+    }
+
+    private int stripeIndex()
+    {
+        return (int)(Thread.currentThread().getId()%_stripes.length);
+    }
+
+    private AtomicLong memoryFor(boolean direct)
+    {
+        return direct?_directMemory:_heapMemory;
+    }
+
+    @ManagedAttribute("The number of stripes")
+    public int getStripes()
+    {
+        return _stripes.length;
+    }
+
+    @ManagedAttribute("The max bytes retained by each bucket")
+    public long getMaxBucketMemory()
+    {
+        return _maxBucketMemory;
+    }
+
+    public void setMaxBucketMemory(long maxBucketMemory)
+    {
+        _maxBucketMemory=maxBucketMemory;
+    }
+
+    @ManagedAttribute("The max bytes retained in direct buffers")
+    public long getMaxDirectMemory()
+    {
+        return _maxDirectMemory;
+    }
+
+    public void setMaxDirectMemory(long maxDirectMemory)
+    {
+        _maxDirectMemory=maxDirectMemory;
+    }
+
+    @ManagedAttribute("The max bytes retained in heap buffers")
+    public long getMaxHeapMemory()
+    {
+        return _maxHeapMemory;
+    }
+
+    public void setMaxHeapMemory(long maxHeapMemory)
+    {
+        _maxHeapMemory=maxHeapMemory;
+    }
+
+    @ManagedAttribute("The time in ms after which buffers of an unused bucket are released")
+    public long getIdleTimeout()
+    {
+        return _idleTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout)
+    {
+        _idleTimeout=idleTimeout;
+    }
+
+    /**
+     * @return the scheduler that periodically sweeps the buckets while the pool is started
+     */
+    public Scheduler getScheduler()
+    {
+        return _scheduler;
+    }
+
+    /**
+     * @param scheduler the scheduler that periodically sweeps the buckets while the pool is started;
+     * if not set, a scheduler is created when the pool is started
+     */
+    public void setScheduler(Scheduler scheduler)
+    {
+        if (isRunning())
+            throw new IllegalStateException(getState());
+        updateBean(_scheduler,scheduler);
+        _scheduler=scheduler;
+    }
+
+    @ManagedAttribute("The bytes currently retained in direct buffers")
+    public long getDirectMemory()
+    {
+        return _directMemory.get();
+    }
+
+    @ManagedAttribute("The bytes currently retained in heap buffers")
+    public long getHeapMemory()
+    {
+        return _heapMemory.get();
+    }
+
+    @ManagedAttribute("The number of acquires served from the pool")
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    @ManagedAttribute("The number of poolable acquires that had to allocate")
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+
+    @ManagedAttribute("The number of buffers allocated")
+    public long getAllocations()
+    {
+        return _allocations.get();
+    }
+
+    @ManagedAttribute("The number of released buffers not retained because of the memory limits")
+    public long getDiscards()
+    {
+        return _discards.get();
+    }
+
+    @ManagedOperation("Resets the statistics")
+    public void resetStatistics()
+    {
+        _hits.set(0);
+        _misses.set(0);
+        _allocations.set(0);
+        _discards.set(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{stripes=%d,direct=%d/%d,heap=%d/%d,hits=%d,misses=%d}",
+                getClass().getSimpleName(),hashCode(),_stripes.length,
+                getDirectMemory(),getMaxDirectMemory(),getHeapMemory(),getMaxHeapMemory(),
+                getHits(),getMisses());
+    }
+
+    // Package local for testing
+    Bucket[] bucketsFor(int stripe, boolean direct)
+    {
+        return _stripes[stripe].bucketsFor(direct);
+    }
+
+    private static class Stripe
+    {
+        private final Bucket[] _direct;
+        private final Bucket[] _heap;
+
+        private Stripe(int buckets, int increment)
+        {
+            _direct=new Bucket[buckets];
+            _heap=new Bucket[buckets];
+            for (int i=0;i<buckets;i++)
+            {
+                _direct[i]=new Bucket((i+1)*increment);
+                _heap[i]=new Bucket((i+1)*increment);
+            }
+        }
+
+        private Bucket[] bucketsFor(boolean direct)
+        {
+            return direct?_direct:_heap;
+        }
+    }
+
+    static class Bucket
+    {
+        final int _size;
+        final Queue<ByteBuffer> _queue=new ConcurrentLinkedQueue<>();
+        final AtomicInteger _count=new AtomicInteger();
+        volatile long _lastAcquire=System.nanoTime();
+
+        Bucket(int size)
+        {
+            _size=size;
+        }
+
+        ByteBuffer poll()
+        {
+            ByteBuffer buffer=_queue.poll();
+            if (buffer!=null)
+            {
+                _count.decrementAndGet();
+                _lastAcquire=System.nanoTime();
+            }
+            return buffer;
+        }
+
+        ByteBuffer evict()
+        {
+            ByteBuffer buffer=_queue.poll();
+            if (buffer!=null)
+                _count.decrementAndGet();
+            return buffer;
+        }
+
+        void offer(ByteBuffer buffer)
+        {
+            _count.incrementAndGet();
+            _queue.offer(buffer);
+        }
+
+        long memory()
+        {
+            return (long)_count.get()*_size;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Bucket@%x{%d,%d}",hashCode(),_size,_count.get());
+        }
+    }
+}
@@ -29,6 +29,7 @@ import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 import javax.net.ssl.SSLEngineResult.Status;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
 
 import org.eclipse.jetty.io.AbstractConnection;
 import org.eclipse.jetty.io.AbstractEndPoint;
@@ -83,6 +84,7 @@ public class SslConnection extends AbstractConnection
     private static final boolean DEBUG = LOG.isDebugEnabled(); // Easy for the compiler to remove the code if DEBUG==false
     private static final ByteBuffer __FILL_CALLED_FLUSH= BufferUtil.allocate(0);
     private static final ByteBuffer __FLUSH_CALLED_FILL= BufferUtil.allocate(0);
+    private static final String __HANDSHAKEN = SslConnection.class.getName() + ".handshaken";
     private final ByteBufferPool _bufferPool;
     private final SSLEngine _sslEngine;
     private final DecryptedEndPoint _decryptedEndPoint;
@@ -100,6 +102,8 @@ public class SslConnection extends AbstractConnection
         }
     };
     private boolean _renegotiationAllowed;
+    private volatile HandshakeListener _handshakeListener;
+    private long _handshakeStarted;
 
     public SslConnection(ByteBufferPool byteBufferPool, Executor executor, EndPoint endPoint, SSLEngine sslEngine)
     {
@@ -148,12 +152,49 @@ public class SslConnection extends AbstractConnection
         this._renegotiationAllowed = renegotiationAllowed;
     }
 
+    public HandshakeListener getHandshakeListener()
+    {
+        return _handshakeListener;
+    }
+
+    /**
+     * @param listener the listener notified when the initial handshake of this connection completes
+     */
+    public void setHandshakeListener(HandshakeListener listener)
+    {
+        _handshakeListener = listener;
+    }
+
+    private void handshakeSucceeded()
+    {
+        HandshakeListener listener = _handshakeListener;
+        if (listener != null)
+        {
+            SSLSession session = _sslEngine.getSession();
+            // A session already marked by an earlier handshake was resumed from a session cache.
+            // Sessions resumed from a stateless ticket are new objects without the mark, but keep
+            // the creation time of the original session, which is before this handshake started.
+            boolean resumed = session.getValue(__HANDSHAKEN) != null || session.getCreationTime() < _handshakeStarted;
+            if (!resumed)
+                session.putValue(__HANDSHAKEN, Boolean.TRUE);
+            try
+            {
+                listener.handshakeSucceeded(this, resumed);
+            }
+            catch (Throwable x)
+            {
+                LOG.warn(x);
+            }
+        }
+    }
+
     @Override
     public void onOpen()
     {
         try
         {
             // Begin the handshake
+            _handshakeStarted = System.currentTimeMillis();
             _sslEngine.beginHandshake();
             super.onOpen();
             getDecryptedEndPoint().getConnection().onOpen();
@@ -169,6 +210,7 @@ public class SslConnection extends AbstractConnection
     public void onClose()
     {
         _decryptedEndPoint.getConnection().onClose();
+        _decryptedEndPoint.releaseBuffers();
         super.onClose();
     }
 
@@ -546,6 +588,7 @@ public class SslConnection extends AbstractConnection
                                 _handshaken = true;
                                 if (DEBUG)
                                     LOG.debug("{} handshake completed client-side", SslConnection.this);
+                                handshakeSucceeded();
                             }
 
                             // Check whether renegotiation is allowed
@@ -760,6 +803,7 @@ public class SslConnection extends AbstractConnection
                                 _handshaken = true;
                                 if (DEBUG)
                                     LOG.debug("{} handshake completed server-side", SslConnection.this);
+                                handshakeSucceeded();
                             }
 
                             HandshakeStatus handshakeStatus = _sslEngine.getHandshakeStatus();
@@ -826,6 +870,29 @@ public class SslConnection extends AbstractConnection
             }
         }
 
+        /**
+         * Return the buffers of a closed connection to the pool, whether they have been drained or not.
+         * The encrypted output is not released while it is being written, as the write callback will release it.
+         */
+        private synchronized void releaseBuffers()
+        {
+            if (_encryptedInput != null)
+            {
+                _bufferPool.release(_encryptedInput);
+                _encryptedInput = null;
+            }
+            if (_decryptedInput != null)
+            {
+                _bufferPool.release(_decryptedInput);
+                _decryptedInput = null;
+            }
+            if (!_cannotAcceptMoreAppDataToFlush)
+            {
+                BufferUtil.clear(_encryptedOutput);
+                releaseEncryptedOutputBuffer();
+            }
+        }
+
         private void releaseEncryptedOutputBuffer()
         {
             if (!Thread.holdsLock(DecryptedEndPoint.this))
@@ -903,4 +970,16 @@ public class SslConnection extends AbstractConnection
             return super.toString()+"->"+getEndPoint().toString();
         }
     }
+
+    /**
+     * <p>A listener for the completion of the initial SSL handshake of a {@link SslConnection}.</p>
+     */
+    public interface HandshakeListener
+    {
+        /**
+         * @param connection the connection that completed its initial handshake
+         * @param resumed true if an existing session was resumed with an abbreviated handshake
+         */
+        public void handshakeSucceeded(SslConnection connection, boolean resumed);
+    }
 }
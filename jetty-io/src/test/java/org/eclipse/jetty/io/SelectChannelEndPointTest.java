@@ -215,6 +215,35 @@ public class SelectChannelEndPointTest
         }
     }
 
+    @Test
+    public void testSelectorStatistics() throws Exception
+    {
+        Socket client = newClient();
+        client.setSoTimeout(60000);
+
+        SocketChannel server = _connector.accept();
+        server.configureBlocking(false);
+        _manager.accept(server);
+
+        for (int i = 0; i < 10; ++i)
+        {
+            client.getOutputStream().write("Hello".getBytes("UTF-8"));
+            for (char c : "Hello".toCharArray())
+                assertEquals(c, (char)client.getInputStream().read());
+        }
+        client.close();
+
+        Assert.assertThat(_manager.getSelects(), greaterThan(0L));
+        Assert.assertThat(_manager.getSelectedKeys(), greaterThan(0L));
+        Assert.assertThat(_manager.getSelectedKeysPerSelect(), greaterThan(0.0));
+        // Every wakeup is caused by at least one change
+        Assert.assertThat(_manager.getChanges(), greaterThanOrEqualTo(_manager.getWakeups()));
+
+        _manager.resetStatistics();
+        assertEquals(0, _manager.getWakeups());
+        assertEquals(0, _manager.getChanges());
+    }
+
     @Test
     public void testEcho() throws Exception
     {
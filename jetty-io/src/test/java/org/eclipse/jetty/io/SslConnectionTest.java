@@ -30,6 +30,7 @@ import java.nio.channels.SocketChannel;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSocket;
 
@@ -42,6 +43,7 @@ import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.util.thread.Scheduler;
 import org.eclipse.jetty.util.thread.TimerScheduler;
+import org.hamcrest.Matchers;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -52,7 +54,24 @@ import org.junit.Test;
 public class SslConnectionTest
 {
     private static SslContextFactory __sslCtxFactory=new SslContextFactory();
-    private static ByteBufferPool __byteBufferPool = new MappedByteBufferPool();
+    private static final AtomicLong __retained = new AtomicLong();
+    private static ByteBufferPool __byteBufferPool = new MappedByteBufferPool()
+    {
+        @Override
+        public ByteBuffer acquire(int size, boolean direct)
+        {
+            ByteBuffer buffer = super.acquire(size,direct);
+            __retained.addAndGet(buffer.capacity());
+            return buffer;
+        }
+
+        @Override
+        public void release(ByteBuffer buffer)
+        {
+            __retained.addAndGet(-buffer.capacity());
+            super.release(buffer);
+        }
+    };
 
     protected volatile EndPoint _lastEndp;
     private volatile boolean _testFill=true;
@@ -251,6 +270,65 @@ public class SslConnectionTest
     }
 
 
+    @Test
+    public void testIdleConnectionsRetainNoBuffers() throws Exception
+    {
+        __retained.set(0);
+        int connections = 10;
+        Socket[] clients = new Socket[connections];
+        for (int i = 0; i < connections; i++)
+        {
+            clients[i] = newClient();
+            clients[i].setSoTimeout(10000);
+
+            SocketChannel server = _connector.accept();
+            server.configureBlocking(false);
+            _manager.accept(server);
+
+            clients[i].getOutputStream().write("Hello".getBytes("UTF-8"));
+            byte[] buffer = new byte[1024];
+            int len = clients[i].getInputStream().read(buffer);
+            Assert.assertEquals(5, len);
+        }
+
+        // Once the echoes have been written, the idle connections hold no pooled buffers
+        long retained = awaitRetained(0);
+        Assert.assertEquals("retained bytes per idle connection", 0, retained / connections);
+
+        // Nor do connections closed by the client
+        for (Socket client : clients)
+            client.close();
+        Assert.assertEquals(0, awaitRetained(0));
+    }
+
+    @Test
+    public void testPartialRecordBufferReleasedOnClose() throws Exception
+    {
+        __retained.set(0);
+        Socket client = new Socket();
+        client.connect(_connector.socket().getLocalSocketAddress());
+
+        SocketChannel server = _connector.accept();
+        server.configureBlocking(false);
+        _manager.accept(server);
+
+        // The start of a TLS handshake record, which must be kept until the rest arrives
+        client.getOutputStream().write(new byte[]{0x16, 0x03, 0x01});
+        client.getOutputStream().flush();
+        Assert.assertThat(awaitRetained(__sslCtxFactory.newSSLEngine().getSession().getPacketBufferSize()), Matchers.greaterThan(0L));
+
+        client.close();
+        Assert.assertEquals(0, awaitRetained(0));
+    }
+
+    private long awaitRetained(long expected) throws InterruptedException
+    {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (__retained.get() != expected && System.nanoTime() < end)
+            Thread.sleep(10);
+        return __retained.get();
+    }
+
     @Test
     public void testWriteOnConnect() throws Exception
     {
@@ -0,0 +1,185 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.io;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class StripedByteBufferPoolTest
+{
+    @Test
+    public void testMinimumRelease() throws Exception
+    {
+        StripedByteBufferPool bufferPool = new StripedByteBufferPool(10,100,1000,1);
+
+        for (int size=1;size<=9;size++)
+        {
+            ByteBuffer buffer = bufferPool.acquire(size, true);
+            assertTrue(buffer.isDirect());
+            assertEquals(size,buffer.capacity());
+
+            bufferPool.release(buffer);
+            assertEquals(0,bufferPool.getDirectMemory());
+        }
+    }
+
+    @Test
+    public void testAcquireReleaseAcquire() throws Exception
+    {
+        StripedByteBufferPool bufferPool = new StripedByteBufferPool(10,100,1000,1);
+
+        for (int size=390;size<=510;size++)
+        {
+            bufferPool.clear();
+            ByteBuffer buffer1 = bufferPool.acquire(size, true);
+            assertThat(buffer1.capacity(),greaterThanOrEqualTo(size));
+            bufferPool.release(buffer1);
+            assertEquals(buffer1.capacity(),bufferPool.getDirectMemory());
+            ByteBuffer buffer2 = bufferPool.acquire(size, true);
+            bufferPool.release(buffer2);
+            ByteBuffer buffer3 = bufferPool.acquire(size, false);
+            bufferPool.release(buffer3);
+
+            assertTrue(buffer1==buffer2);
+            assertTrue(buffer1!=buffer3);
+            assertEquals(buffer3.capacity(),bufferPool.getHeapMemory());
+        }
+    }
+
+    @Test
+    public void testStatistics() throws Exception
+    {
+        StripedByteBufferPool bufferPool = new StripedByteBufferPool(10,100,1000,1);
+
+        ByteBuffer buffer = bufferPool.acquire(200, false);
+        bufferPool.release(buffer);
+        bufferPool.acquire(200, false);
+        bufferPool.acquire(5000, false);
+
+        assertEquals(1,bufferPool.getHits());
+        assertEquals(1,bufferPool.getMisses());
+        assertEquals(2,bufferPool.getAllocations());
+    }
+
+    @Test
+    public void testMaxBucketMemory() throws Exception
+    {
+        StripedByteBufferPool bufferPool = new StripedByteBufferPool(10,100,1000,1);
+        bufferPool.setMaxBucketMemory(200);
+
+        ByteBuffer[] buffers = new ByteBuffer[3];
+        for (int i=0;i<buffers.length;i++)
+            buffers[i] = bufferPool.acquire(100, true);
+        for (ByteBuffer buffer : buffers)
+            bufferPool.release(buffer);
+
+        assertEquals(200,bufferPool.getDirectMemory());
+        assertEquals(1,bufferPool.getDiscards());
+    }
+
+    @Test
+    public void testMaxDirectMemory() throws Exception
+    {
+        StripedByteBufferPool bufferPool = new StripedByteBufferPool(10,100,1000,1);
+        bufferPool.setMaxDirectMemory(700);
+
+        ByteBuffer buffer1 = bufferPool.acquire(400, true);
+        ByteBuffer buffer2 = bufferPool.acquire(400, true);
+        ByteBuffer buffer3 = bufferPool.acquire(400, false);
+        bufferPool.release(buffer1);
+        bufferPool.release(buffer2);
+        bufferPool.release(buffer3);
+
+        assertEquals(400,bufferPool.getDirectMemory());
+        assertEquals(400,bufferPool.getHeapMemory());
+        assertEquals(1,bufferPool.getDiscards());
+    }
+
+    @Test
+    public void testStealFromOtherStripe() throws Exception
+    {
+        final StripedByteBufferPool bufferPool = new StripedByteBufferPool(10,100,1000,4);
+        final ByteBuffer[] released = new ByteBuffer[1];
+
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                released[0] = bufferPool.acquire(300, true);
+                bufferPool.release(released[0]);
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertTrue(released[0]==bufferPool.acquire(300, true));
+        assertEquals(0,bufferPool.getDirectMemory());
+    }
+
+    @Test
+    public void testIdleSweep() throws Exception
+    {
+        StripedByteBufferPool bufferPool = new StripedByteBufferPool(10,100,1000,1);
+        bufferPool.setIdleTimeout(0);
+
+        ByteBuffer[] buffers = new ByteBuffer[4];
+        for (int i=0;i<buffers.length;i++)
+            buffers[i] = bufferPool.acquire(100, false);
+        for (ByteBuffer buffer : buffers)
+            bufferPool.release(buffer);
+
+        bufferPool.sweep(System.nanoTime());
+        assertThat(400L,greaterThanOrEqualTo(bufferPool.getHeapMemory()*2));
+    }
+
+    @Test
+    public void testIdleBuffersReleasedWithoutFurtherUse() throws Exception
+    {
+        StripedByteBufferPool bufferPool = new StripedByteBufferPool(10,100,1000,1);
+        bufferPool.setIdleTimeout(100);
+        bufferPool.start();
+        try
+        {
+            ByteBuffer[] buffers = new ByteBuffer[4];
+            for (int i=0;i<buffers.length;i++)
+                buffers[i] = bufferPool.acquire(100, false);
+            for (ByteBuffer buffer : buffers)
+                bufferPool.release(buffer);
+            assertEquals(400,bufferPool.getHeapMemory());
+
+            // No more acquires nor releases: the scheduled sweeps drain the bucket
+            long end=System.nanoTime()+TimeUnit.SECONDS.toNanos(5);
+            while (bufferPool.getHeapMemory()>0 && System.nanoTime()<end)
+                Thread.sleep(10);
+            assertEquals(0,bufferPool.getHeapMemory());
+        }
+        finally
+        {
+            bufferPool.stop();
+        }
+    }
+}
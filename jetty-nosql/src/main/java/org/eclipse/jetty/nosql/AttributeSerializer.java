@@ -0,0 +1,46 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.nosql;
+
+import java.io.IOException;
+
+/* ------------------------------------------------------------ */
+/**
+ * Converts the session attribute values that cannot be stored natively by a
+ * {@link NoSqlSessionManager} to and from bytes.
+ */
+public interface AttributeSerializer
+{
+    /* ------------------------------------------------------------ */
+    /**
+     * @param value the non null attribute value
+     * @return the serialized value
+     * @throws IOException if the value cannot be serialized
+     */
+    public byte[] serialize(Object value) throws IOException;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param bytes the bytes produced by {@link #serialize(Object)}
+     * @return the attribute value
+     * @throws IOException if the bytes cannot be read
+     * @throws ClassNotFoundException if the class of the value cannot be loaded
+     */
+    public Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,441 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.nosql;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.eclipse.jetty.util.StringUtil;
+
+/* ------------------------------------------------------------ */
+/**
+ * Serializes attribute values in a compact tagged binary format.
+ * <p>
+ * Strings, boxed primitives, dates, byte arrays and the {@link ArrayList}, {@link HashMap} and
+ * {@link HashSet} of such values are written as a tag byte followed by their length prefixed
+ * content, without the class descriptors written by java serialization. Other values are
+ * written with java serialization, nested in the compact format.
+ * <p>
+ * When the serialized value is at least {@link #getDeflateThreshold()} bytes long, it is
+ * deflated if that makes it shorter.
+ * <p>
+ * Values written by {@link JavaAttributeSerializer} are recognized by their stream header and
+ * can still be read, so that sessions saved before switching serializer are not lost. The
+ * reverse is not true: all the nodes sharing a session store must use this serializer before
+ * any of them writes with it.
+ */
+public class CompactAttributeSerializer extends JavaAttributeSerializer
+{
+    private static final byte PLAIN = 1;
+    private static final byte DEFLATED = 2;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte TRUE = 4;
+    private static final byte FALSE = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte BYTES = 7;
+    private static final byte DATE = 8;
+    private static final byte LIST = 9;
+    private static final byte MAP = 10;
+    private static final byte SET = 11;
+    private static final byte SERIALIZED = 12;
+
+    private int _deflateThreshold = 1024;
+    private int _deflateLevel = Deflater.BEST_SPEED;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the minimum serialized length in bytes of the values that are deflated, or -1 if values are never deflated
+     */
+    public int getDeflateThreshold()
+    {
+        return _deflateThreshold;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param deflateThreshold the minimum serialized length in bytes of the values that are deflated, or -1 to never deflate values
+     */
+    public void setDeflateThreshold(int deflateThreshold)
+    {
+        _deflateThreshold = deflateThreshold;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the compression level of the deflated values
+     */
+    public int getDeflateLevel()
+    {
+        return _deflateLevel;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param deflateLevel the compression level of the deflated values, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     */
+    public void setDeflateLevel(int deflateLevel)
+    {
+        _deflateLevel = deflateLevel;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public byte[] serialize(Object value) throws IOException
+    {
+        Output out = new Output();
+        out.write(PLAIN);
+        write(out,value);
+
+        int length = out.size() - 1;
+        if (_deflateThreshold >= 0 && length >= _deflateThreshold)
+        {
+            byte[] deflated = deflate(out.buffer(),1,length);
+            if (deflated != null)
+                return deflated;
+        }
+        return out.toByteArray();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException
+    {
+        if (bytes.length >= 2 && (bytes[0] & 0xFF) == 0xAC && (bytes[1] & 0xFF) == 0xED)
+            return super.deserialize(bytes);
+
+        try
+        {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            byte format = in.get();
+            switch (format)
+            {
+                case PLAIN:
+                    break;
+                case DEFLATED:
+                    in = ByteBuffer.wrap(inflate(in));
+                    break;
+                default:
+                    throw new StreamCorruptedException("Unknown format " + format);
+            }
+
+            Object value = read(in);
+            if (in.hasRemaining())
+                throw new StreamCorruptedException(in.remaining() + " trailing bytes");
+            return value;
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new StreamCorruptedException("Truncated value");
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void write(Output out, Object value) throws IOException
+    {
+        if (value == null)
+        {
+            out.write(NULL);
+        }
+        else if (value instanceof String)
+        {
+            out.write(STRING);
+            out.writeLengthPrefixed(((String)value).getBytes(StringUtil.__UTF8_CHARSET));
+        }
+        else if (value instanceof Integer)
+        {
+            out.write(INTEGER);
+            out.writeVarLong((Integer)value);
+        }
+        else if (value instanceof Long)
+        {
+            out.write(LONG);
+            out.writeVarLong((Long)value);
+        }
+        else if (value instanceof Boolean)
+        {
+            out.write((Boolean)value?TRUE:FALSE);
+        }
+        else if (value instanceof Double)
+        {
+            out.write(DOUBLE);
+            long bits = Double.doubleToRawLongBits((Double)value);
+            for (int shift = 56; shift >= 0; shift -= 8)
+                out.write((int)(bits >>> shift));
+        }
+        else if (value instanceof byte[])
+        {
+            out.write(BYTES);
+            out.writeLengthPrefixed((byte[])value);
+        }
+        else if (value.getClass() == Date.class)
+        {
+            out.write(DATE);
+            out.writeVarLong(((Date)value).getTime());
+        }
+        else if (value.getClass() == ArrayList.class)
+        {
+            out.write(LIST);
+            writeValues(out,(Collection<?>)value);
+        }
+        else if (value.getClass() == HashSet.class)
+        {
+            out.write(SET);
+            writeValues(out,(Collection<?>)value);
+        }
+        else if (value.getClass() == HashMap.class)
+        {
+            Map<?,?> map = (Map<?,?>)value;
+            out.write(MAP);
+            out.writeVarInt(map.size());
+            for (Map.Entry<?,?> entry : map.entrySet())
+            {
+                write(out,entry.getKey());
+                write(out,entry.getValue());
+            }
+        }
+        else
+        {
+            out.write(SERIALIZED);
+            out.writeLengthPrefixed(super.serialize(value));
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void writeValues(Output out, Collection<?> values) throws IOException
+    {
+        out.writeVarInt(values.size());
+        for (Object value : values)
+            write(out,value);
+    }
+
+    /* ------------------------------------------------------------ */
+    private Object read(ByteBuffer in) throws IOException, ClassNotFoundException
+    {
+        byte tag = in.get();
+        switch (tag)
+        {
+            case NULL:
+                return null;
+            case STRING:
+            {
+                int length = readLength(in);
+                String value = new String(in.array(),in.arrayOffset() + in.position(),length,StringUtil.__UTF8_CHARSET);
+                in.position(in.position() + length);
+                return value;
+            }
+            case INTEGER:
+                return (int)readVarLong(in);
+            case LONG:
+                return readVarLong(in);
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case DOUBLE:
+                return in.getDouble();
+            case BYTES:
+            {
+                byte[] value = new byte[readLength(in)];
+                in.get(value);
+                return value;
+            }
+            case DATE:
+                return new Date(readVarLong(in));
+            case LIST:
+            {
+                int size = readLength(in);
+                List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++)
+                    list.add(read(in));
+                return list;
+            }
+            case SET:
+            {
+                int size = readLength(in);
+                Set<Object> set = new HashSet<Object>();
+                for (int i = 0; i < size; i++)
+                    set.add(read(in));
+                return set;
+            }
+            case MAP:
+            {
+                int size = readLength(in);
+                Map<Object,Object> map = new HashMap<Object,Object>();
+                for (int i = 0; i < size; i++)
+                {
+                    Object key = read(in);
+                    map.put(key,read(in));
+                }
+                return map;
+            }
+            case SERIALIZED:
+            {
+                int length = readLength(in);
+                Object value = super.deserialize(in.array(),in.arrayOffset() + in.position(),length);
+                in.position(in.position() + length);
+                return value;
+            }
+            default:
+                throw new StreamCorruptedException("Unknown tag " + tag);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private int readLength(ByteBuffer in) throws IOException
+    {
+        long length = readVarLong(in);
+        if (length < 0 || length > in.remaining())
+            throw new StreamCorruptedException("Invalid length " + length);
+        return (int)length;
+    }
+
+    /* ------------------------------------------------------------ */
+    private long readVarLong(ByteBuffer in) throws IOException
+    {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            byte b = in.get();
+            zigzag |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+        throw new StreamCorruptedException("Invalid varint");
+    }
+
+    /* ------------------------------------------------------------ */
+    private byte[] deflate(byte[] bytes, int offset, int length)
+    {
+        Deflater deflater = new Deflater(_deflateLevel,true);
+        try
+        {
+            deflater.setInput(bytes,offset,length);
+            deflater.finish();
+
+            Output out = new Output();
+            out.write(DEFLATED);
+            out.writeVarInt(length);
+            byte[] chunk = new byte[Math.min(length,8192)];
+            while (!deflater.finished())
+            {
+                int deflated = deflater.deflate(chunk);
+                out.write(chunk,0,deflated);
+                if (out.size() > length)
+                    return null;
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private byte[] inflate(ByteBuffer in) throws IOException
+    {
+        int length = (int)readVarLong(in);
+        if (length < 0)
+            throw new StreamCorruptedException("Invalid length " + length);
+
+        Inflater inflater = new Inflater(true);
+        try
+        {
+            // A dummy byte is needed at the end of the input of an Inflater in nowrap mode
+            byte[] input = new byte[in.remaining() + 1];
+            in.get(input,0,input.length - 1);
+            inflater.setInput(input);
+
+            byte[] bytes = new byte[length];
+            int inflated = 0;
+            while (inflated < length)
+            {
+                int n = inflater.inflate(bytes,inflated,length - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                inflated += n;
+            }
+            if (inflated != length)
+                throw new StreamCorruptedException("Inflated " + inflated + " bytes, expected " + length);
+            return bytes;
+        }
+        catch (DataFormatException e)
+        {
+            throw new StreamCorruptedException(e.getMessage());
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private static class Output extends ByteArrayOutputStream
+    {
+        private Output()
+        {
+            super(256);
+        }
+
+        private byte[] buffer()
+        {
+            return buf;
+        }
+
+        private void writeVarInt(int value)
+        {
+            writeVarLong(value);
+        }
+
+        private void writeVarLong(long value)
+        {
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7FL) != 0)
+            {
+                write((int)((zigzag & 0x7F) | 0x80));
+                zigzag >>>= 7;
+            }
+            write((int)zigzag);
+        }
+
+        private void writeLengthPrefixed(byte[] bytes)
+        {
+            writeVarInt(bytes.length);
+            write(bytes,0,bytes.length);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.nosql;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+
+/* ------------------------------------------------------------ */
+/**
+ * Serializes attribute values with java serialization, loading the classes
+ * with the thread context class loader.
+ */
+public class JavaAttributeSerializer implements AttributeSerializer
+{
+    /* ------------------------------------------------------------ */
+    @Override
+    public byte[] serialize(Object value) throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.reset();
+        out.writeUnshared(value);
+        out.flush();
+        return bout.toByteArray();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException
+    {
+        return deserialize(bytes,0,bytes.length);
+    }
+
+    /* ------------------------------------------------------------ */
+    protected Object deserialize(byte[] bytes, int offset, int length) throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream in = new ClassLoadingObjectInputStream(new ByteArrayInputStream(bytes,offset,length));
+        return in.readUnshared();
+    }
+
+    /* ------------------------------------------------------------ */
+    private static class ClassLoadingObjectInputStream extends ObjectInputStream
+    {
+        public ClassLoadingObjectInputStream(InputStream in) throws IOException
+        {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass cl) throws IOException, ClassNotFoundException
+        {
+            try
+            {
+                return Class.forName(cl.getName(),false,Thread.currentThread().getContextClassLoader());
+            }
+            catch (ClassNotFoundException e)
+            {
+                return super.resolveClass(cl);
+            }
+        }
+    }
+}
@@ -18,7 +18,9 @@
 
 package org.eclipse.jetty.nosql;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -36,6 +38,7 @@ public class NoSqlSession extends AbstractSession
 
     private final NoSqlSessionManager _manager;
     private Set<String> _dirty;
+    private Map<String,Object> _saved;
     private final AtomicInteger _active = new AtomicInteger();
     private Object _version;
     private long _lastSync;
@@ -174,6 +177,20 @@ public class NoSqlSession extends AbstractSession
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * The fingerprints of the attribute values as last saved to or loaded from the DB,
+     * used by the manager to skip the attributes that have not changed since.
+     * Must be accessed while synchronized on the session.
+     * @return the map of attribute names to fingerprints
+     */
+    public Map<String,Object> getSavedFingerprints()
+    {
+        if (_saved==null)
+            _saved=new HashMap<String,Object>();
+        return _saved;
+    }
+
     /* ------------------------------------------------------------ */
     public Object getVersion()
     {
@@ -41,6 +41,7 @@ public abstract class NoSqlSessionManager extends AbstractSessionManager impleme
     private int _idlePeriod=-1;
     private boolean _invalidateOnStop;
     private boolean _saveAllAttributes;
+    private AttributeSerializer _attributeSerializer=new JavaAttributeSerializer();
     
     /* ------------------------------------------------------------ */
     /* (non-Javadoc)
@@ -307,6 +308,30 @@ public abstract class NoSqlSessionManager extends AbstractSessionManager impleme
         _saveAllAttributes = saveAllAttributes;
     }
     
+    /* ------------------------------------------------------------ */
+    /**
+     * The serializer of the attribute values that cannot be stored natively in the DB.
+     * @return the attributeSerializer
+     */
+    public AttributeSerializer getAttributeSerializer()
+    {
+        return _attributeSerializer;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * The serializer of the attribute values that cannot be stored natively in the DB.
+     * All the nodes sharing the DB must be able to read the values written by this serializer.
+     * @param attributeSerializer the attributeSerializer to set
+     * @see CompactAttributeSerializer
+     */
+    public void setAttributeSerializer(AttributeSerializer attributeSerializer)
+    {
+        if (attributeSerializer==null)
+            throw new IllegalArgumentException();
+        _attributeSerializer=attributeSerializer;
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     public void renewSessionId(String oldClusterId, String oldNodeId, String newClusterId, String newNodeId)
@@ -18,16 +18,15 @@
 
 package org.eclipse.jetty.nosql.mongodb;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.UnknownHostException;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jetty.nosql.NoSqlSession;
 import org.eclipse.jetty.nosql.NoSqlSessionManager;
@@ -73,6 +72,9 @@ public class MongoSessionManager extends NoSqlSessionManager
     private DBCollection _sessions;
     private DBObject __version_1;
 
+    private final AtomicLong _attributesWritten = new AtomicLong();
+    private final AtomicLong _attributesSkipped = new AtomicLong();
+
 
     /* ------------------------------------------------------------ */
     public MongoSessionManager() throws UnknownHostException, MongoException
@@ -136,6 +138,8 @@ public class MongoSessionManager extends NoSqlSessionManager
             boolean upsert = false;
             BasicDBObject sets = new BasicDBObject();
             BasicDBObject unsets = new BasicDBObject();
+            Map<String,Object> saved = session.getSavedFingerprints();
+            Map<String,Object> written = new HashMap<String,Object>();
 
             // handle new or existing
             if (version == null)
@@ -157,9 +161,11 @@ public class MongoSessionManager extends NoSqlSessionManager
             if (session.isValid())
             {
                 sets.put(__ACCESSED,session.getAccessed());
-                Set<String> names = session.takeDirty();
+                Set<String> dirty = session.takeDirty();
+                Set<String> names = dirty;
                 if (isSaveAllAttributes() || upsert)
                 {
+                    names = new HashSet<String>(dirty);
                     names.addAll(session.getNames()); // note dirty may include removed names
                 }
                     
@@ -167,9 +173,25 @@ public class MongoSessionManager extends NoSqlSessionManager
                 {
                     Object value = session.getAttribute(name);
                     if (value == null)
+                    {
                         unsets.put(getContextKey() + "." + encodeName(name),1);
+                        written.put(name,null);
+                    }
                     else
-                        sets.put(getContextKey() + "." + encodeName(name),encodeName(value));
+                    {
+                        // always write the values that were set, as another node may have changed
+                        // them since, but only the other values that changed since they were last
+                        // saved or loaded, which can only have been changed in place
+                        Object encoded = encodeName(value);
+                        Object fingerprint = fingerprint(encoded);
+                        if (!upsert && !dirty.contains(name) && fingerprint.equals(saved.get(name)))
+                        {
+                            _attributesSkipped.incrementAndGet();
+                            continue;
+                        }
+                        sets.put(getContextKey() + "." + encodeName(name),encoded);
+                        written.put(name,fingerprint);
+                    }
                 }
             }
             else
@@ -177,6 +199,7 @@ public class MongoSessionManager extends NoSqlSessionManager
                 sets.put(__VALID,false);
                 sets.put(__INVALIDATED, System.currentTimeMillis());
                 unsets.put(getContextKey(),1); 
+                saved.clear();
             }
 
             // Do the upsert
@@ -188,6 +211,17 @@ public class MongoSessionManager extends NoSqlSessionManager
             _sessions.update(key,update,upsert,false);
             __log.debug("MongoSessionManager:save:db.sessions.update(" + key + "," + update + ",true)");
 
+            for (Map.Entry<String,Object> entry : written.entrySet())
+            {
+                if (entry.getValue() == null)
+                    saved.remove(entry.getKey());
+                else
+                {
+                    saved.put(entry.getKey(),entry.getValue());
+                    _attributesWritten.incrementAndGet();
+                }
+            }
+
             if (activateAfterSave)
                 session.didActivate();
 
@@ -250,6 +284,7 @@ public class MongoSessionManager extends NoSqlSessionManager
         try
         {
             session.clearAttributes();
+            session.getSavedFingerprints().clear();
             
             DBObject attrs = (DBObject)getNestedValue(o,getContextKey());
             
@@ -264,6 +299,7 @@ public class MongoSessionManager extends NoSqlSessionManager
 
                     String attr = decodeName(name);
                     Object value = decodeValue(attrs.get(name));
+                    session.getSavedFingerprints().put(attr,fingerprint(attrs.get(name)));
 
                     if (attrs.keySet().contains(name))
                     {
@@ -340,6 +376,7 @@ public class MongoSessionManager extends NoSqlSessionManager
                     
                     String attr = decodeName(name);
                     Object value = decodeValue(attrs.get(name));
+                    session.getSavedFingerprints().put(attr,fingerprint(attrs.get(name)));
 
                     session.doPutOrRemove(attr,value);
                     session.bindValue(attr,value);
@@ -463,13 +500,8 @@ public class MongoSessionManager extends NoSqlSessionManager
             if (o != null)
                 return o;
         }
-        
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        ObjectOutputStream out = new ObjectOutputStream(bout);
-        out.reset();
-        out.writeUnshared(value);
-        out.flush();
-        return bout.toByteArray();
+
+        return getAttributeSerializer().serialize(value);
     }
 
     /*------------------------------------------------------------ */
@@ -481,10 +513,7 @@ public class MongoSessionManager extends NoSqlSessionManager
         }
         else if (valueToDecode instanceof byte[])
         {
-            final byte[] decodeObject = (byte[])valueToDecode;
-            final ByteArrayInputStream bais = new ByteArrayInputStream(decodeObject);
-            final ClassLoadingObjectInputStream objectInputStream = new ClassLoadingObjectInputStream(bais);
-            return objectInputStream.readUnshared();
+            return getAttributeSerializer().deserialize((byte[])valueToDecode);
         }
         else if (valueToDecode instanceof DBObject)
         {
@@ -502,7 +531,38 @@ public class MongoSessionManager extends NoSqlSessionManager
         }
     }
 
-   
+
+    /*------------------------------------------------------------ */
+    /**
+     * Computes the fingerprint of an encoded attribute value, so that unchanged values need not be written again.
+     * Immutable values are their own fingerprint, other values are fingerprinted by a 64 bit hash and the length
+     * of their content, so that a mutated value is very unlikely to have the same fingerprint.
+     * @param encoded the value as returned by {@link #encodeName(Object)} or loaded from the DB
+     * @return the fingerprint of the value
+     */
+    protected Object fingerprint(Object encoded)
+    {
+        if (encoded instanceof String || encoded instanceof Boolean || encoded instanceof Integer || encoded instanceof Long || encoded instanceof Double)
+            return encoded;
+        Fingerprint fingerprint = new Fingerprint();
+        fingerprint.update(encoded);
+        return fingerprint;
+    }
+
+    /*------------------------------------------------------------ */
+    @ManagedAttribute("number of attribute values written to the session store")
+    public long getAttributesWritten()
+    {
+        return _attributesWritten.get();
+    }
+
+    /*------------------------------------------------------------ */
+    @ManagedAttribute("number of unchanged attribute values not written to the session store")
+    public long getAttributesSkipped()
+    {
+        return _attributesSkipped.get();
+    }
+
     /*------------------------------------------------------------ */
     private String getContextKey()
     {
@@ -595,6 +655,91 @@ public class MongoSessionManager extends NoSqlSessionManager
     }
 
     
+    /**
+     * Fingerprint
+     *
+     * The FNV-1a 64 bit hash and the length of the content of an encoded value.
+     */
+    private static class Fingerprint
+    {
+        private long _hash = 0xcbf29ce484222325L;
+        private long _length;
+
+        private void update(Object value)
+        {
+            if (value == null)
+            {
+                update(0);
+            }
+            else if (value instanceof byte[])
+            {
+                update(1);
+                for (byte b : (byte[])value)
+                    update(b);
+            }
+            else if (value instanceof DBObject)
+            {
+                update(2);
+                DBObject object = (DBObject)value;
+                for (String key : object.keySet())
+                {
+                    update(key);
+                    update(object.get(key));
+                }
+                update(3);
+            }
+            else if (value instanceof Date)
+            {
+                update(4);
+                update(Long.toString(((Date)value).getTime()));
+            }
+            else
+            {
+                update(5);
+                update(value.getClass().getName());
+                update(value.toString());
+            }
+        }
+
+        private void update(String value)
+        {
+            for (int i = 0; i < value.length(); i++)
+            {
+                char c = value.charAt(i);
+                update((byte)(c >> 8));
+                update((byte)c);
+            }
+            update(0);
+        }
+
+        private void update(int b)
+        {
+            _hash = (_hash ^ (b & 0xFF)) * 0x100000001b3L;
+            _length++;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Fingerprint))
+                return false;
+            Fingerprint that = (Fingerprint)obj;
+            return _hash == that._hash && _length == that._length;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (int)(_hash ^ (_hash >>> 32));
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%016x/%d",_hash,_length);
+        }
+    }
+
      /**
      * ClassLoadingObjectInputStream
      *
@@ -0,0 +1,288 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package com.mongodb;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link DBCollection} kept in memory, that supports the equality queries and the
+ * $set, $unset and $inc updates used by the session managers, and records the updates.
+ * <p>
+ * It is in the driver package because {@link DBCollection} has package private abstract methods.
+ */
+public class InMemoryDBCollection extends DBCollection
+{
+    private final List<DBObject> _documents = new ArrayList<DBObject>();
+    private final List<DBObject> _updates = new ArrayList<DBObject>();
+
+    public InMemoryDBCollection(String name) throws UnknownHostException
+    {
+        super(new InMemoryDB(),name);
+    }
+
+    /**
+     * @return the update documents passed to {@link #update(DBObject, DBObject, boolean, boolean, WriteConcern)}
+     */
+    public synchronized List<DBObject> getUpdates()
+    {
+        return new ArrayList<DBObject>(_updates);
+    }
+
+    public synchronized void clearUpdates()
+    {
+        _updates.clear();
+    }
+
+    /**
+     * @return a copy of the documents of the collection
+     */
+    public synchronized List<DBObject> getDocuments()
+    {
+        List<DBObject> documents = new ArrayList<DBObject>();
+        for (DBObject document : _documents)
+            documents.add((DBObject)copy(document));
+        return documents;
+    }
+
+    @Override
+    public synchronized WriteResult insert(DBObject[] objects, WriteConcern concern) throws MongoException
+    {
+        for (DBObject object : objects)
+            _documents.add((DBObject)copy(object));
+        return null;
+    }
+
+    @Override
+    public synchronized WriteResult update(DBObject query, DBObject update, boolean upsert, boolean multi, WriteConcern concern) throws MongoException
+    {
+        _updates.add((DBObject)copy(update));
+
+        List<DBObject> matches = new ArrayList<DBObject>();
+        for (DBObject document : _documents)
+        {
+            if (matches(document,query))
+            {
+                matches.add(document);
+                if (!multi)
+                    break;
+            }
+        }
+
+        if (matches.isEmpty() && upsert)
+        {
+            DBObject document = new BasicDBObject();
+            for (String key : query.keySet())
+                set(document,key,copy(query.get(key)));
+            _documents.add(document);
+            matches.add(document);
+        }
+
+        for (DBObject document : matches)
+            apply(document,update);
+        return null;
+    }
+
+    @Override
+    public synchronized WriteResult remove(DBObject query, WriteConcern concern) throws MongoException
+    {
+        for (Iterator<DBObject> i = _documents.iterator(); i.hasNext();)
+        {
+            if (matches(i.next(),query))
+                i.remove();
+        }
+        return null;
+    }
+
+    @Override
+    synchronized Iterator<DBObject> __find(DBObject query, DBObject fields, int numToSkip, int batchSize, int limit, int options) throws MongoException
+    {
+        List<DBObject> result = new ArrayList<DBObject>();
+        for (DBObject document : _documents)
+        {
+            if (query == null || matches(document,query))
+                result.add((DBObject)copy(document));
+        }
+        return result.iterator();
+    }
+
+    @Override
+    public void createIndex(DBObject keys, DBObject options) throws MongoException
+    {
+    }
+
+    @Override
+    protected void doapply(DBObject object)
+    {
+    }
+
+    private boolean matches(DBObject document, DBObject query)
+    {
+        for (String key : query.keySet())
+        {
+            Object expected = query.get(key);
+            Object actual = get(document,key);
+            if (expected == null ? actual != null : !expected.equals(actual))
+                return false;
+        }
+        return true;
+    }
+
+    private void apply(DBObject document, DBObject update)
+    {
+        boolean operators = false;
+        for (String operator : update.keySet())
+        {
+            if (!operator.startsWith("$"))
+                continue;
+            operators = true;
+            DBObject fields = (DBObject)update.get(operator);
+            for (String key : fields.keySet())
+            {
+                Object value = fields.get(key);
+                if ("$set".equals(operator))
+                    set(document,key,copy(value));
+                else if ("$unset".equals(operator))
+                    unset(document,key);
+                else if ("$inc".equals(operator))
+                {
+                    Number current = (Number)get(document,key);
+                    long increment = ((Number)value).longValue();
+                    set(document,key,current == null ? increment : current.longValue() + increment);
+                }
+                else
+                    throw new UnsupportedOperationException(operator);
+            }
+        }
+
+        if (!operators)
+        {
+            Object id = document.get("_id");
+            for (String key : new ArrayList<String>(document.keySet()))
+                document.removeField(key);
+            if (id != null)
+                document.put("_id",id);
+            for (String key : update.keySet())
+                document.put(key,copy(update.get(key)));
+        }
+    }
+
+    private static Object get(DBObject document, String key)
+    {
+        String[] path = key.split("\\.");
+        Object value = document;
+        for (String name : path)
+        {
+            if (!(value instanceof DBObject))
+                return null;
+            value = ((DBObject)value).get(name);
+        }
+        return value;
+    }
+
+    private static void set(DBObject document, String key, Object value)
+    {
+        String[] path = key.split("\\.");
+        DBObject parent = document;
+        for (int i = 0; i < path.length - 1; i++)
+        {
+            Object child = parent.get(path[i]);
+            if (!(child instanceof DBObject))
+            {
+                child = new BasicDBObject();
+                parent.put(path[i],child);
+            }
+            parent = (DBObject)child;
+        }
+        parent.put(path[path.length - 1],value);
+    }
+
+    private static void unset(DBObject document, String key)
+    {
+        String[] path = key.split("\\.");
+        Object parent = document;
+        for (int i = 0; i < path.length - 1; i++)
+        {
+            if (!(parent instanceof DBObject))
+                return;
+            parent = ((DBObject)parent).get(path[i]);
+        }
+        if (parent instanceof DBObject)
+            ((DBObject)parent).removeField(path[path.length - 1]);
+    }
+
+    private static Object copy(Object value)
+    {
+        if (value instanceof DBObject)
+        {
+            DBObject object = (DBObject)value;
+            BasicDBObject copy = new BasicDBObject();
+            for (String key : object.keySet())
+                copy.put(key,copy(object.get(key)));
+            return copy;
+        }
+        if (value instanceof Map)
+        {
+            BasicDBObject copy = new BasicDBObject();
+            for (Map.Entry<?,?> entry : ((Map<?,?>)value).entrySet())
+                copy.put(String.valueOf(entry.getKey()),copy(entry.getValue()));
+            return copy;
+        }
+        if (value instanceof byte[])
+            return ((byte[])value).clone();
+        return value;
+    }
+
+    private static class InMemoryDB extends DB
+    {
+        private InMemoryDB() throws UnknownHostException
+        {
+            super(new Mongo(),"test");
+        }
+
+        @Override
+        public void requestStart()
+        {
+        }
+
+        @Override
+        public void requestDone()
+        {
+        }
+
+        @Override
+        public void requestEnsureConnection()
+        {
+        }
+
+        @Override
+        protected DBCollection doGetCollection(String name)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cleanCursors(boolean force) throws MongoException
+        {
+        }
+    }
+}
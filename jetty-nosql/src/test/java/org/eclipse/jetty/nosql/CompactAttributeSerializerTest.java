@@ -0,0 +1,126 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.nosql;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class CompactAttributeSerializerTest
+{
+    private Object roundTrip(AttributeSerializer serializer, Object value) throws Exception
+    {
+        return serializer.deserialize(serializer.serialize(value));
+    }
+
+    @Test
+    public void testValues() throws Exception
+    {
+        CompactAttributeSerializer serializer = new CompactAttributeSerializer();
+
+        Map<Object,Object> map = new HashMap<Object,Object>();
+        map.put(1,"one");
+        map.put("two",2L);
+        map.put(null,Boolean.TRUE);
+        Set<Object> set = new HashSet<Object>(Arrays.asList("a","b",-3));
+        List<Object> list = new ArrayList<Object>(Arrays.<Object>asList("\u00e9t\u00e9",Long.MIN_VALUE,Integer.MAX_VALUE,-1.5D,false,null,new Date(1234567890L),map,set));
+        TreeMap<String,String> serializable = new TreeMap<String,String>();
+        serializable.put("key","value");
+        list.add(serializable);
+
+        assertEquals(list,roundTrip(serializer,list));
+        assertEquals(map,roundTrip(serializer,map));
+        assertEquals(set,roundTrip(serializer,set));
+        assertEquals(serializable,roundTrip(serializer,serializable));
+        assertArrayEquals(new byte[]{1,2,3},(byte[])roundTrip(serializer,new byte[]{1,2,3}));
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws Exception
+    {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++)
+            list.add(i);
+
+        int compact = new CompactAttributeSerializer().serialize(list).length;
+        int java = new JavaAttributeSerializer().serialize(list).length;
+        assertThat(compact,lessThan(java / 2));
+    }
+
+    @Test
+    public void testDeflateThreshold() throws Exception
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            builder.append("repeated text ");
+        String text = builder.toString();
+        List<String> value = new ArrayList<String>(Arrays.asList(text));
+
+        CompactAttributeSerializer serializer = new CompactAttributeSerializer();
+        serializer.setDeflateThreshold(-1);
+        byte[] plain = serializer.serialize(value);
+        assertThat(plain.length,greaterThan(text.length()));
+
+        serializer.setDeflateThreshold(1024);
+        byte[] deflated = serializer.serialize(value);
+        assertThat(deflated.length,lessThan(plain.length / 10));
+        assertEquals(value,serializer.deserialize(deflated));
+
+        // values shorter than the threshold are not deflated
+        serializer.setDeflateThreshold(plain.length);
+        assertArrayEquals(plain,serializer.serialize(value));
+    }
+
+    @Test
+    public void testReadsJavaSerialization() throws Exception
+    {
+        List<String> value = new ArrayList<String>(Arrays.asList("legacy","value"));
+        byte[] bytes = new JavaAttributeSerializer().serialize(value);
+        assertEquals(value,new CompactAttributeSerializer().deserialize(bytes));
+    }
+
+    @Test(expected=StreamCorruptedException.class)
+    public void testTruncated() throws Exception
+    {
+        byte[] bytes = new CompactAttributeSerializer().serialize(new ArrayList<String>(Arrays.asList("truncated")));
+        new CompactAttributeSerializer().deserialize(Arrays.copyOf(bytes,bytes.length - 2));
+    }
+
+    @Test(expected=IOException.class)
+    public void testUnknownFormat() throws Exception
+    {
+        new CompactAttributeSerializer().deserialize(new byte[]{42,0});
+    }
+}
@@ -0,0 +1,348 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.nosql.mongodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.nosql.AttributeSerializer;
+import org.eclipse.jetty.nosql.CompactAttributeSerializer;
+import org.eclipse.jetty.nosql.JavaAttributeSerializer;
+import org.eclipse.jetty.server.SessionIdManager;
+import org.eclipse.jetty.server.SessionManager;
+import org.eclipse.jetty.server.session.AbstractTestServer;
+import org.eclipse.jetty.server.session.SessionHandler;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.mongodb.DBObject;
+import com.mongodb.InMemoryDBCollection;
+
+public class MongoSessionManagerTest
+{
+    private static InMemoryDBCollection __sessions;
+
+    private HttpClient _client;
+
+    @Before
+    public void before() throws Exception
+    {
+        __sessions = new InMemoryDBCollection("sessions");
+        _client = new HttpClient();
+        _client.start();
+    }
+
+    @After
+    public void after() throws Exception
+    {
+        _client.stop();
+    }
+
+    private MongoSessionManager addContext(AbstractTestServer server, AttributeSerializer serializer)
+    {
+        ServletContextHandler context = server.addContext("");
+        context.addServlet(TestServlet.class,"/test");
+        MongoSessionManager manager = (MongoSessionManager)context.getSessionHandler().getSessionManager();
+        manager.setAttributeSerializer(serializer);
+        return manager;
+    }
+
+    private String request(int port, String cookie, String action) throws Exception
+    {
+        Request request = _client.newRequest("http://localhost:" + port + "/test?action=" + action);
+        if (cookie != null)
+            request.header("Cookie",cookie);
+        ContentResponse response = request.send();
+        assertEquals(HttpServletResponse.SC_OK,response.getStatus());
+        if (cookie == null)
+        {
+            cookie = response.getHeaders().getStringField("Set-Cookie");
+            assertNotNull(cookie);
+            cookie = cookie.replaceFirst("(\\W)(P|p)ath=","$1\\$Path=");
+            return cookie;
+        }
+        return response.getContentAsString().trim();
+    }
+
+    /**
+     * @return the response to a get of the session in the store by another server
+     */
+    private String requestOtherNode(AttributeSerializer serializer) throws Exception
+    {
+        TestServer server = new TestServer();
+        addContext(server,serializer);
+        server.start();
+        try
+        {
+            String id = null;
+            for (DBObject session : __sessions.getDocuments())
+                id = (String)session.get(MongoSessionManager.__ID);
+            return request(server.getPort(),"JSESSIONID=" + id,"get");
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    /**
+     * @return the names of the attributes set or unset by the last update
+     */
+    private List<String> lastUpdatedAttributes()
+    {
+        List<DBObject> updates = __sessions.getUpdates();
+        DBObject update = updates.get(updates.size() - 1);
+        List<String> names = new ArrayList<String>();
+        for (String operator : new String[]{"$set","$unset"})
+        {
+            DBObject fields = (DBObject)update.get(operator);
+            if (fields == null)
+                continue;
+            for (String key : fields.keySet())
+            {
+                if (key.startsWith("context.") && !key.endsWith(MongoSessionManager.__VERSION))
+                    names.add(key.substring(key.lastIndexOf('.') + 1));
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void testOnlyChangedAttributesAreWritten() throws Exception
+    {
+        TestServer server = new TestServer();
+        MongoSessionManager manager = addContext(server,new CompactAttributeSerializer());
+        server.start();
+        try
+        {
+            int port = server.getPort();
+            String cookie = request(port,null,"init");
+            assertTrue(lastUpdatedAttributes().contains("list"));
+
+            // all the attributes are saved, but only the changed one is written
+            request(port,cookie,"increment");
+            assertEquals("[counter]",lastUpdatedAttributes().toString());
+            assertTrue(manager.getAttributesSkipped() > 0);
+
+            // setting an equal value writes it, as another node may have changed it
+            request(port,cookie,"touch");
+            assertEquals("[list]",lastUpdatedAttributes().toString());
+
+            // a value changed in place is written
+            request(port,cookie,"mutate");
+            assertEquals("[list]",lastUpdatedAttributes().toString());
+
+            request(port,cookie,"remove");
+            assertEquals("[counter]",lastUpdatedAttributes().toString());
+
+            // another node reads the values written by the updates
+            assertEquals("null/101",requestOtherNode(new CompactAttributeSerializer()));
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testValueSetAgainOverwritesOtherNode() throws Exception
+    {
+        TestServer server1 = new TestServer();
+        addContext(server1,new CompactAttributeSerializer());
+        server1.start();
+        try
+        {
+            TestServer server2 = new TestServer();
+            addContext(server2,new CompactAttributeSerializer());
+            server2.start();
+            try
+            {
+                String cookie = request(server1.getPort(),null,"init");
+                String id = (String)__sessions.getDocuments().get(0).get(MongoSessionManager.__ID);
+
+                // the other node changes the counter, which the first node does not refresh
+                request(server2.getPort(),"JSESSIONID=" + id,"increment");
+                assertEquals("[counter]",lastUpdatedAttributes().toString());
+
+                // the first node sets the counter to the value it last saved, which must be written
+                request(server1.getPort(),cookie,"reset");
+                assertEquals("[counter]",lastUpdatedAttributes().toString());
+                assertEquals("1/100",requestOtherNode(new CompactAttributeSerializer()));
+            }
+            finally
+            {
+                server2.stop();
+            }
+        }
+        finally
+        {
+            server1.stop();
+        }
+    }
+
+    @Test
+    public void testCompactSerializerReadsJavaSerializedValues() throws Exception
+    {
+        TestServer server = new TestServer();
+        addContext(server,new JavaAttributeSerializer());
+        server.start();
+        try
+        {
+            request(server.getPort(),null,"init");
+            assertEquals("1/100",requestOtherNode(new CompactAttributeSerializer()));
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    @Ignore
+    @Test
+    public void testSaveAllAttributesBenchmark() throws Exception
+    {
+        for (boolean compact : new boolean[]{false, true, false, true})
+        {
+            __sessions = new InMemoryDBCollection("sessions");
+            TestServer server = new TestServer();
+            MongoSessionManager manager = addContext(server,compact?new CompactAttributeSerializer():new JavaAttributeSerializer());
+            server.start();
+            try
+            {
+                int port = server.getPort();
+                String cookie = request(port,null,"init");
+                int requests = 2000;
+                long begin = System.nanoTime();
+                for (int i = 0; i < requests; i++)
+                    request(port,cookie,"increment");
+                long elapsed = System.nanoTime() - begin;
+
+                System.err.printf("compact=%b: %d requests, mean latency %d us, %d attributes written, %d skipped%n",
+                        compact,requests,TimeUnit.NANOSECONDS.toMicros(elapsed / requests),
+                        manager.getAttributesWritten(),manager.getAttributesSkipped());
+            }
+            finally
+            {
+                server.stop();
+            }
+        }
+    }
+
+    public static class TestServer extends AbstractTestServer
+    {
+        public TestServer()
+        {
+            super(0);
+        }
+
+        @Override
+        public SessionIdManager newSessionIdManager(String config)
+        {
+            MongoSessionIdManager idManager = new MongoSessionIdManager(_server,__sessions);
+            idManager.setScavengePeriod(_maxInactivePeriod);
+            return idManager;
+        }
+
+        @Override
+        public SessionManager newSessionManager()
+        {
+            try
+            {
+                MongoSessionManager manager = new MongoSessionManager();
+                manager.setSavePeriod(0);
+                manager.setStalePeriod(-1);
+                manager.setSaveAllAttributes(true);
+                return manager;
+            }
+            catch (Exception e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public SessionHandler newSessionHandler(SessionManager sessionManager)
+        {
+            return new SessionHandler(sessionManager);
+        }
+    }
+
+    public static class TestServlet extends HttpServlet
+    {
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+        {
+            String action = request.getParameter("action");
+            HttpSession session = request.getSession("init".equals(action));
+            if ("init".equals(action))
+            {
+                List<String> list = new ArrayList<String>();
+                for (int i = 0; i < 100; i++)
+                    list.add("Value of a session attribute #" + i);
+                session.setAttribute("list",list);
+                session.setAttribute("counter",1);
+            }
+            else if ("increment".equals(action))
+            {
+                session.setAttribute("counter",(Integer)session.getAttribute("counter") + 1);
+            }
+            else if ("reset".equals(action))
+            {
+                session.setAttribute("counter",1);
+            }
+            else if ("touch".equals(action))
+            {
+                session.setAttribute("list",new ArrayList<Object>((List<?>)session.getAttribute("list")));
+            }
+            else if ("mutate".equals(action))
+            {
+                @SuppressWarnings("unchecked")
+                List<String> list = (List<String>)session.getAttribute("list");
+                list.add("Added value");
+            }
+            else if ("remove".equals(action))
+            {
+                session.removeAttribute("counter");
+            }
+            else if ("get".equals(action))
+            {
+                List<?> list = (List<?>)session.getAttribute("list");
+                response.getWriter().print(session.getAttribute("counter") + "/" + list.size());
+            }
+        }
+    }
+}
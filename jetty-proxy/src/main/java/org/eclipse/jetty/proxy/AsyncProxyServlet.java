@@ -0,0 +1,103 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.util.Callback;
+
+/**
+ * <p>{@link ProxyServlet} that forwards the content of the proxied responses to the clients
+ * without blocking and without copying it.</p>
+ * <p>The buffers read from the server are written as they are to the client, and the next
+ * buffer is read from the server only when the previous one has been written to the client;
+ * a slow client therefore applies backpressure to the server, and no thread is held while
+ * waiting for the client to read the content.</p>
+ * <p>The content of the requests is still read with blocking reads of the servlet input stream,
+ * that are issued only when the proxied request can be sent to the server.</p>
+ * <p>If the servlet output stream is not the Jetty one (for example because the response has
+ * been wrapped by a filter), the content is written as done by {@link ProxyServlet}.</p>
+ */
+public class AsyncProxyServlet extends ProxyServlet
+{
+    @Override
+    protected void onResponseContent(HttpServletRequest request, HttpServletResponse response, Response proxyResponse, ByteBuffer content, Callback callback)
+    {
+        ServletOutputStream output;
+        try
+        {
+            output = response.getOutputStream();
+        }
+        catch (IOException x)
+        {
+            callback.failed(x);
+            return;
+        }
+
+        if (output instanceof HttpOutput)
+        {
+            _log.debug("{} proxying content to downstream: {} bytes", getRequestId(request), content.remaining());
+            ((HttpOutput)output).write(content, callback);
+        }
+        else
+        {
+            super.onResponseContent(request, response, proxyResponse, content, callback);
+        }
+    }
+
+    /**
+     * Transparent Proxy that forwards the response content asynchronously.
+     *
+     * @see ProxyServlet.Transparent
+     */
+    public static class Transparent extends AsyncProxyServlet
+    {
+        private final TransparentDelegate delegate = new TransparentDelegate(this);
+
+        public Transparent()
+        {
+        }
+
+        public Transparent(String proxyTo, String prefix)
+        {
+            delegate.setProxyTo(proxyTo, prefix);
+        }
+
+        @Override
+        public void init() throws ServletException
+        {
+            super.init();
+            delegate.init(getServletConfig());
+        }
+
+        @Override
+        protected URI rewriteURI(HttpServletRequest request)
+        {
+            return delegate.rewriteURI(request);
+        }
+    }
+}
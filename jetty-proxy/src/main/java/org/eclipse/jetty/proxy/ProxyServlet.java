@@ -48,6 +48,7 @@ import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.HttpCookieStore;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
@@ -484,6 +485,48 @@ public class ProxyServlet extends HttpServlet
         }
     }
 
+    /**
+     * <p>Forwards the content of the proxied response to the client.</p>
+     * <p>The proxy does not read more of the proxied response until the {@code callback} is completed,
+     * so that a slow client slows down the server rather than having its content buffered by the proxy.</p>
+     * <p>The default implementation copies the content, if necessary, and writes it with
+     * {@link #onResponseContent(HttpServletRequest, HttpServletResponse, Response, byte[], int, int)}.</p>
+     *
+     * @param request the request being proxied
+     * @param response the response to the client
+     * @param proxyResponse the proxied response
+     * @param content the content received from the server
+     * @param callback the callback to succeed when the content has been written, or to fail to abort the proxied response
+     * @see AsyncProxyServlet
+     */
+    protected void onResponseContent(HttpServletRequest request, HttpServletResponse response, Response proxyResponse, ByteBuffer content, Callback callback)
+    {
+        byte[] buffer;
+        int offset;
+        int length = content.remaining();
+        if (content.hasArray())
+        {
+            buffer = content.array();
+            offset = content.arrayOffset() + content.position();
+        }
+        else
+        {
+            buffer = new byte[length];
+            content.get(buffer);
+            offset = 0;
+        }
+
+        try
+        {
+            onResponseContent(request, response, proxyResponse, buffer, offset, length);
+            callback.succeeded();
+        }
+        catch (IOException x)
+        {
+            callback.failed(x);
+        }
+    }
+
     protected void onResponseContent(HttpServletRequest request, HttpServletResponse response, Response proxyResponse, byte[] buffer, int offset, int length) throws IOException
     {
         response.getOutputStream().write(buffer, offset, length);
@@ -569,8 +612,7 @@ public class ProxyServlet extends HttpServlet
      */
     public static class Transparent extends ProxyServlet
     {
-        private String _proxyTo;
-        private String _prefix;
+        private final TransparentDelegate delegate = new TransparentDelegate(this);
 
         public Transparent()
         {
@@ -578,22 +620,51 @@ public class ProxyServlet extends HttpServlet
 
         public Transparent(String proxyTo, String prefix)
         {
-            _proxyTo = URI.create(proxyTo).normalize().toString();
-            _prefix = URI.create(prefix).normalize().toString();
+            delegate.setProxyTo(proxyTo, prefix);
         }
 
         @Override
         public void init() throws ServletException
         {
             super.init();
+            delegate.init(getServletConfig());
+        }
+
+        @Override
+        protected URI rewriteURI(HttpServletRequest request)
+        {
+            return delegate.rewriteURI(request);
+        }
+    }
+
+    /**
+     * The configuration and URI rewriting of the transparent proxies, shared by
+     * {@link Transparent} and {@link AsyncProxyServlet.Transparent}.
+     */
+    protected static class TransparentDelegate
+    {
+        private final ProxyServlet proxyServlet;
+        private String _proxyTo;
+        private String _prefix;
 
-            ServletConfig config = getServletConfig();
+        protected TransparentDelegate(ProxyServlet proxyServlet)
+        {
+            this.proxyServlet = proxyServlet;
+        }
+
+        protected void setProxyTo(String proxyTo, String prefix)
+        {
+            _proxyTo = URI.create(proxyTo).normalize().toString();
+            _prefix = URI.create(prefix).normalize().toString();
+        }
 
+        protected void init(ServletConfig config) throws ServletException
+        {
             String prefix = config.getInitParameter("prefix");
             _prefix = prefix == null ? _prefix : prefix;
 
             // Adjust prefix value to account for context path
-            String contextPath = getServletContext().getContextPath();
+            String contextPath = config.getServletContext().getContextPath();
             _prefix = _prefix == null ? contextPath : (contextPath + _prefix);
 
             String proxyTo = config.getInitParameter("proxyTo");
@@ -605,10 +676,9 @@ public class ProxyServlet extends HttpServlet
             if (!_prefix.startsWith("/"))
                 throw new UnavailableException("Init parameter 'prefix' parameter must start with a '/'.");
 
-            _log.debug(config.getServletName() + " @ " + _prefix + " to " + _proxyTo);
+            proxyServlet._log.debug(config.getServletName() + " @ " + _prefix + " to " + _proxyTo);
         }
 
-        @Override
         protected URI rewriteURI(HttpServletRequest request)
         {
             String path = request.getRequestURI();
@@ -617,14 +687,14 @@ public class ProxyServlet extends HttpServlet
 
             URI rewrittenURI = URI.create(_proxyTo + path.substring(_prefix.length())).normalize();
 
-            if (!validateDestination(rewrittenURI.getHost(), rewrittenURI.getPort()))
+            if (!proxyServlet.validateDestination(rewrittenURI.getHost(), rewrittenURI.getPort()))
                 return null;
 
             return rewrittenURI;
         }
     }
 
-    private class ProxyResponseListener extends Response.Listener.Empty
+    private class ProxyResponseListener extends Response.Listener.Empty implements Response.AsyncContentListener
     {
         private final HttpServletRequest request;
         private final HttpServletResponse response;
@@ -675,31 +745,9 @@ public class ProxyServlet extends HttpServlet
         }
 
         @Override
-        public void onContent(Response proxyResponse, ByteBuffer content)
+        public void onContent(Response proxyResponse, ByteBuffer content, Callback callback)
         {
-            byte[] buffer;
-            int offset;
-            int length = content.remaining();
-            if (content.hasArray())
-            {
-                buffer = content.array();
-                offset = content.arrayOffset();
-            }
-            else
-            {
-                buffer = new byte[length];
-                content.get(buffer);
-                offset = 0;
-            }
-
-            try
-            {
-                onResponseContent(request, response, proxyResponse, buffer, offset, length);
-            }
-            catch (IOException x)
-            {
-                proxyResponse.abort(x);
-            }
+            onResponseContent(request, response, proxyResponse, content, callback);
         }
 
         @Override
@@ -0,0 +1,291 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.ProxyConfiguration;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.toolchain.test.AdvancedRunner;
+import org.eclipse.jetty.toolchain.test.TestTracker;
+import org.eclipse.jetty.toolchain.test.annotation.Slow;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.IO;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AdvancedRunner.class)
+public class AsyncProxyServletTest
+{
+    private static final String PROXIED_HEADER = "X-Proxied";
+    @Rule
+    public final TestTracker tracker = new TestTracker();
+    private HttpClient client;
+    private Server proxy;
+    private ServerConnector proxyConnector;
+    private Server server;
+    private ServerConnector serverConnector;
+
+    private void prepareProxy(ProxyServlet proxyServlet) throws Exception
+    {
+        proxy = new Server();
+        proxyConnector = new ServerConnector(proxy);
+        proxy.addConnector(proxyConnector);
+
+        ServletContextHandler proxyCtx = new ServletContextHandler(proxy, "/", true, false);
+        proxyCtx.addServlet(new ServletHolder(proxyServlet), "/*");
+
+        proxy.start();
+
+        client = new HttpClient();
+        client.setProxyConfiguration(new ProxyConfiguration("localhost", proxyConnector.getLocalPort()));
+        client.start();
+    }
+
+    private void prepareServer(HttpServlet servlet) throws Exception
+    {
+        server = new Server();
+        serverConnector = new ServerConnector(server);
+        server.addConnector(serverConnector);
+
+        ServletContextHandler appCtx = new ServletContextHandler(server, "/", true, false);
+        appCtx.addServlet(new ServletHolder(servlet), "/*");
+
+        server.start();
+    }
+
+    @After
+    public void dispose() throws Exception
+    {
+        client.stop();
+        proxy.stop();
+        server.stop();
+    }
+
+    @Test
+    public void testProxyWithResponseContent() throws Exception
+    {
+        prepareProxy(new AsyncProxyServlet());
+        final byte[] content = new byte[1024];
+        Arrays.fill(content, (byte)'A');
+        prepareServer(new HttpServlet()
+        {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+            {
+                if (req.getHeader("Via") != null)
+                    resp.addHeader(PROXIED_HEADER, "true");
+                resp.getOutputStream().write(content);
+            }
+        });
+
+        ContentResponse response = client.newRequest("localhost", serverConnector.getLocalPort())
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertTrue(response.getHeaders().containsKey(PROXIED_HEADER));
+        Assert.assertArrayEquals(content, response.getContent());
+    }
+
+    @Test
+    public void testProxyWithRequestContentAndResponseContent() throws Exception
+    {
+        prepareProxy(new AsyncProxyServlet());
+        prepareServer(new HttpServlet()
+        {
+            @Override
+            protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+            {
+                if (req.getHeader("Via") != null)
+                    resp.addHeader(PROXIED_HEADER, "true");
+                IO.copy(req.getInputStream(), resp.getOutputStream());
+            }
+        });
+
+        byte[] content = new byte[128 * 1024];
+        Arrays.fill(content, (byte)'A');
+        ContentResponse response = client.newRequest("localhost", serverConnector.getLocalPort())
+                .method(HttpMethod.POST)
+                .content(new BytesContentProvider(content))
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertTrue(response.getHeaders().containsKey(PROXIED_HEADER));
+        Assert.assertArrayEquals(content, response.getContent());
+    }
+
+    @Test
+    public void testProxyWithResponseContentWrittenByOtherServletOutput() throws Exception
+    {
+        // A response wrapper hides the Jetty output, so that the content is written by ProxyServlet
+        prepareProxy(new AsyncProxyServlet()
+        {
+            @Override
+            protected void onResponseContent(HttpServletRequest request, final HttpServletResponse response, Response proxyResponse, ByteBuffer content, Callback callback)
+            {
+                super.onResponseContent(request, new HttpServletResponseWrapper(response)
+                {
+                    @Override
+                    public ServletOutputStream getOutputStream() throws IOException
+                    {
+                        final ServletOutputStream output = response.getOutputStream();
+                        return new ServletOutputStream()
+                        {
+                            @Override
+                            public void write(int b) throws IOException
+                            {
+                                output.write(b);
+                            }
+
+                            @Override
+                            public void write(byte[] b, int off, int len) throws IOException
+                            {
+                                output.write(b, off, len);
+                            }
+                        };
+                    }
+                }, proxyResponse, content, callback);
+            }
+        });
+        final byte[] content = new byte[64 * 1024];
+        Arrays.fill(content, (byte)'A');
+        prepareServer(new HttpServlet()
+        {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+            {
+                resp.getOutputStream().write(content);
+            }
+        });
+
+        ContentResponse response = client.newRequest("localhost", serverConnector.getLocalPort())
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertArrayEquals(content, response.getContent());
+    }
+
+    @Slow
+    @Test
+    public void testProxyWithBigResponseContentWithSlowReader() throws Exception
+    {
+        prepareProxy(new AsyncProxyServlet());
+
+        final int length = 6 * 1024 * 1024;
+        prepareServer(new HttpServlet()
+        {
+            @Override
+            protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+            {
+                byte[] kb = new byte[1024];
+                Arrays.fill(kb, (byte)'X');
+                ServletOutputStream output = response.getOutputStream();
+                for (int i = 0; i < length / kb.length; ++i)
+                    output.write(kb);
+            }
+        });
+
+        final AtomicInteger received = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        // The client consumes the content slowly and asynchronously,
+        // so the proxy must not read faster from the server
+        class SlowListener extends Response.Listener.Empty implements Response.AsyncContentListener
+        {
+            @Override
+            public void onContent(Response response, final ByteBuffer content, final Callback callback)
+            {
+                received.addAndGet(content.remaining());
+                client.getScheduler().schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        callback.succeeded();
+                    }
+                }, 1, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void onComplete(Result result)
+            {
+                if (result.isSucceeded() && result.getResponse().getStatus() == 200)
+                    latch.countDown();
+            }
+        }
+        client.newRequest("localhost", serverConnector.getLocalPort())
+                .path("/proxy/test")
+                .send(new SlowListener());
+
+        Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(length, received.get());
+    }
+
+    @Test
+    public void testTransparentProxy() throws Exception
+    {
+        final String target = "/test";
+        prepareServer(new HttpServlet()
+        {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+            {
+                if (req.getHeader("Via") != null)
+                    resp.addHeader(PROXIED_HEADER, "true");
+                resp.setStatus(target.equals(req.getRequestURI()) ? 200 : 404);
+            }
+        });
+
+        String proxyTo = "http://localhost:" + serverConnector.getLocalPort();
+        String prefix = "/proxy";
+        prepareProxy(new AsyncProxyServlet.Transparent(proxyTo, prefix));
+
+        ContentResponse response = client.newRequest("localhost", proxyConnector.getLocalPort())
+                .path(prefix + target)
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertTrue(response.getHeaders().containsKey(PROXIED_HEADER));
+    }
+}
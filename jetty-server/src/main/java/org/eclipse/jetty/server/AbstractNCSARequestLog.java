@@ -78,6 +78,19 @@ public abstract class AbstractNCSARequestLog extends AbstractLifeCycle implement
      */
     public abstract void write(String requestEntry) throws IOException;
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Write a formatted requestEntry out. By default the entry is converted
+     * to a String and passed to {@link #write(String)}. Implementations may
+     * override to write the characters without creating a String.
+     *
+     * @param requestEntry the entry, which may be reused once this method returns
+     */
+    protected void write(StringBuilder requestEntry) throws IOException
+    {
+        write(requestEntry.toString());
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * Writes the request and response information to the output stream.
@@ -211,8 +224,7 @@ public abstract class AbstractNCSARequestLog extends AbstractLifeCycle implement
                 }
             }
 
-            String log = buf.toString();
-            write(log);
+            write(buf);
         }
         catch (IOException e)
         {
@@ -0,0 +1,354 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.RolloverFileOutputStream;
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+
+/* ------------------------------------------------------------ */
+/**
+ * An NCSA Request Log that writes in batches.
+ * <p>
+ * Request entries are encoded directly from the formatting buffer into pooled
+ * {@link ByteBuffer}s and offered to a lock-free ring buffer, so that the request
+ * threads never take a lock or wait for the disk. A single writer thread takes the
+ * entries from the ring buffer and writes them with gathering writes on the
+ * {@link java.nio.channels.FileChannel} of the {@link RolloverFileOutputStream},
+ * which keeps rolling the file over as for {@link NCSARequestLog}.
+ * <p>
+ * The writer writes once {@link #getFlushSize()} bytes are pending, or
+ * {@link #getFlushInterval()} ms after the oldest pending entry was logged.
+ * If the ring buffer is full, entries are dropped and counted rather than
+ * blocking the request thread.
+ */
+@ManagedObject("NCSA request log batching writes through a ring buffer")
+public class BatchingNCSARequestLog extends NCSARequestLog
+{
+    private static final byte[] EOL = StringUtil.getBytes(StringUtil.__LINE_SEPARATOR);
+    private static final int MAX_BATCH = 1024;
+    private static final int WAKE_INTERVAL = 256;
+
+    private final ByteBufferPool _bufferPool = new ArrayByteBufferPool(64,256,4096);
+    private final AtomicLong _head = new AtomicLong();
+    private final AtomicLong _tail = new AtomicLong();
+    private final AtomicLong _dropped = new AtomicLong();
+    private final Charset _charset = Charset.defaultCharset();
+    private int _capacity = 8192;
+    private long _flushInterval = 1000;
+    private int _flushSize = 65536;
+    private transient AtomicReferenceArray<ByteBuffer> _ring;
+    private transient WritableByteChannel _channel;
+    private transient WriterThread _thread;
+
+    public BatchingNCSARequestLog()
+    {
+    }
+
+    public BatchingNCSARequestLog(String filename)
+    {
+        super(filename);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of entries the ring buffer can hold
+     */
+    @ManagedAttribute("number of entries the ring buffer can hold")
+    public int getCapacity()
+    {
+        return _capacity;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param capacity the number of entries the ring buffer can hold, rounded up to a power of 2
+     */
+    public void setCapacity(int capacity)
+    {
+        if (isRunning())
+            throw new IllegalStateException("Running");
+        _capacity = Integer.highestOneBit(Math.max(2,capacity-1))<<1;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the maximum time in ms that a logged entry waits before it is written
+     */
+    @ManagedAttribute("max ms before a logged entry is written")
+    public long getFlushInterval()
+    {
+        return _flushInterval;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void setFlushInterval(long flushInterval)
+    {
+        _flushInterval = Math.max(1,flushInterval);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of pending bytes that are written without waiting for the flush interval
+     */
+    @ManagedAttribute("bytes pending before they are written")
+    public int getFlushSize()
+    {
+        return _flushSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void setFlushSize(int flushSize)
+    {
+        _flushSize = flushSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("entries waiting in the ring buffer")
+    public long getPendingEntries()
+    {
+        return _tail.get()-_head.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("entries dropped because the ring buffer was full")
+    public long getDroppedEntries()
+    {
+        return _dropped.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void write(StringBuilder requestEntry) throws IOException
+    {
+        offer(encode(requestEntry));
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void write(String requestEntry) throws IOException
+    {
+        offer(encode(requestEntry));
+    }
+
+    /* ------------------------------------------------------------ */
+    private ByteBuffer encode(CharSequence entry)
+    {
+        int length = entry.length();
+        ByteBuffer buffer = _bufferPool.acquire(length+EOL.length,false);
+        int pos = BufferUtil.flipToFill(buffer);
+        byte[] array = buffer.array();
+        int offset = buffer.arrayOffset()+pos;
+        for (int i=0;i<length;i++)
+        {
+            char c = entry.charAt(i);
+            if (c>0x7f)
+            {
+                // Not ascii, so let the charset encode the whole entry
+                _bufferPool.release(buffer);
+                byte[] bytes = entry.toString().getBytes(_charset);
+                buffer = _bufferPool.acquire(bytes.length+EOL.length,false);
+                pos = BufferUtil.flipToFill(buffer);
+                buffer.put(bytes).put(EOL);
+                BufferUtil.flipToFlush(buffer,pos);
+                return buffer;
+            }
+            array[offset+i] = (byte)c;
+        }
+        buffer.position(pos+length);
+        buffer.put(EOL);
+        BufferUtil.flipToFlush(buffer,pos);
+        return buffer;
+    }
+
+    /* ------------------------------------------------------------ */
+    private void offer(ByteBuffer buffer)
+    {
+        AtomicReferenceArray<ByteBuffer> ring = _ring;
+        if (ring!=null)
+        {
+            int capacity = ring.length();
+            while (true)
+            {
+                long tail = _tail.get();
+                if (tail-_head.get()>=capacity)
+                    break;
+                if (_tail.compareAndSet(tail,tail+1))
+                {
+                    ring.set((int)(tail&(capacity-1)),buffer);
+                    // Wake the writer now and then so that it need not wait for the flush interval
+                    if ((tail&(WAKE_INTERVAL-1))==WAKE_INTERVAL-1)
+                    {
+                        Thread thread = _thread;
+                        if (thread!=null)
+                            LockSupport.unpark(thread);
+                    }
+                    return;
+                }
+            }
+        }
+
+        _bufferPool.release(buffer);
+        if (_dropped.incrementAndGet()==1)
+            LOG.warn("Request log ring buffer overflow");
+    }
+
+    /* ------------------------------------------------------------ */
+    private ByteBuffer poll()
+    {
+        AtomicReferenceArray<ByteBuffer> ring = _ring;
+        long head = _head.get();
+        if (head==_tail.get())
+            return null;
+        int index = (int)(head&(ring.length()-1));
+        // The slot has been claimed, but the producer may not have filled it yet
+        ByteBuffer buffer = ring.get(index);
+        if (buffer==null)
+            return null;
+        ring.lazySet(index,null);
+        _head.lazySet(head+1);
+        return buffer;
+    }
+
+    /* ------------------------------------------------------------ */
+    private void write(ByteBuffer[] batch, int count)
+    {
+        try
+        {
+            OutputStream out = getOutputStream();
+            if (out instanceof RolloverFileOutputStream)
+                ((RolloverFileOutputStream)out).write(count==batch.length?batch:Arrays.copyOf(batch,count));
+            else
+            {
+                for (int i=0;i<count;i++)
+                    while (batch[i].hasRemaining())
+                        _channel.write(batch[i]);
+            }
+        }
+        catch (IOException e)
+        {
+            LOG.warn(e);
+        }
+        finally
+        {
+            for (int i=0;i<count;i++)
+            {
+                _bufferPool.release(batch[i]);
+                batch[i] = null;
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected synchronized void doStart() throws Exception
+    {
+        _head.set(0);
+        _tail.set(0);
+        _dropped.set(0);
+        _ring = new AtomicReferenceArray<>(_capacity);
+        super.doStart();
+        OutputStream out = getOutputStream();
+        if (!(out instanceof RolloverFileOutputStream))
+            _channel = Channels.newChannel(out);
+        _thread = new WriterThread();
+        _thread.start();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStop() throws Exception
+    {
+        // The writer drains the ring buffer once it sees that we are stopping
+        LockSupport.unpark(_thread);
+        _thread.join();
+        super.doStop();
+        _thread = null;
+        _channel = null;
+        _ring = null;
+    }
+
+    /* ------------------------------------------------------------ */
+    private class WriterThread extends Thread
+    {
+        WriterThread()
+        {
+            setName("BatchingNCSARequestLog@"+Integer.toString(BatchingNCSARequestLog.this.hashCode(),16));
+            setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            ByteBuffer[] batch = new ByteBuffer[Math.min(MAX_BATCH,_capacity)];
+            int count = 0;
+            long bytes = 0;
+            long flushAt = 0;
+            while (true)
+            {
+                boolean running = isRunning();
+
+                ByteBuffer buffer;
+                while (count<batch.length && bytes<_flushSize && (buffer=poll())!=null)
+                {
+                    if (count==0)
+                        flushAt = System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(_flushInterval);
+                    batch[count++] = buffer;
+                    bytes += buffer.remaining();
+                }
+
+                long wait = count==0?TimeUnit.MILLISECONDS.toNanos(_flushInterval):flushAt-System.nanoTime();
+                if (count>0 && (!running || count==batch.length || bytes>=_flushSize || wait<=0))
+                {
+                    write(batch,count);
+                    count = 0;
+                    bytes = 0;
+                    continue;
+                }
+
+                if (!running)
+                {
+                    if (getPendingEntries()==0)
+                        break;
+                    // An entry has been claimed but not yet filled
+                    Thread.yield();
+                    continue;
+                }
+
+                LockSupport.parkNanos(BatchingNCSARequestLog.this,wait);
+            }
+        }
+    }
+}
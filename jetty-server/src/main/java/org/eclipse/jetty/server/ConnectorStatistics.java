@@ -31,6 +31,7 @@ import org.eclipse.jetty.util.component.Container;
 import org.eclipse.jetty.util.component.ContainerLifeCycle;
 import org.eclipse.jetty.util.component.Dumpable;
 import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.HistogramStatistic;
 import org.eclipse.jetty.util.statistic.SampleStatistic;
 
 
@@ -47,6 +48,9 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
     private final SampleStatistic _messagesIn = new SampleStatistic();
     private final SampleStatistic _messagesOut = new SampleStatistic();
     private final SampleStatistic _connectionDurationStats = new SampleStatistic();
+    private final HistogramStatistic _connectionDurationHistogram = new HistogramStatistic();
+    private final HistogramStatistic _bytesInHistogram = new HistogramStatistic();
+    private final HistogramStatistic _bytesOutHistogram = new HistogramStatistic();
 
     @Override
     public void onOpened(Connection connection)
@@ -57,21 +61,32 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
     @Override
     public void onClosed(Connection connection)
     {
+        connectionBytes(connection.getBytesIn(),connection.getBytesOut());
         connectionClosed(System.currentTimeMillis()-connection.getCreatedTimeStamp(),connection.getMessagesIn(),connection.getMessagesOut());
     }
 
-    @ManagedAttribute("Total number of bytes received by this connector")
-    public int getBytesIn()
+    @ManagedAttribute("Total number of bytes received by closed connections of this connector")
+    public long getBytesIn()
     {
-        // TODO
-        return -1;
+        return _bytesInHistogram.getTotal();
     }
 
-    @ManagedAttribute("Total number of bytes sent by this connector")
-    public int getBytesOut()
+    @ManagedAttribute("Total number of bytes sent by closed connections of this connector")
+    public long getBytesOut()
     {
-        // TODO
-        return -1;
+        return _bytesOutHistogram.getTotal();
+    }
+
+    @ManagedAttribute("Bytes received per connection percentiles")
+    public String getConnectionsBytesInPercentiles()
+    {
+        return _bytesInHistogram.getSnapshot().toString();
+    }
+
+    @ManagedAttribute("Bytes sent per connection percentiles")
+    public String getConnectionsBytesOutPercentiles()
+    {
+        return _bytesOutHistogram.getSnapshot().toString();
     }
 
     @ManagedAttribute("Total number of connections seen by this connector")
@@ -98,6 +113,36 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
         return _connectionDurationStats.getStdDev();
     }
 
+    @ManagedAttribute("Connection duration percentiles in ms")
+    public String getConnectionsDurationPercentiles()
+    {
+        return _connectionDurationHistogram.getSnapshot().toString();
+    }
+
+    /**
+     * @return the histogram of connection durations in ms, from which interval snapshots may be taken
+     */
+    public HistogramStatistic getConnectionsDurationHistogram()
+    {
+        return _connectionDurationHistogram;
+    }
+
+    /**
+     * @return the histogram of bytes received per connection, from which interval snapshots may be taken
+     */
+    public HistogramStatistic getConnectionsBytesInHistogram()
+    {
+        return _bytesInHistogram;
+    }
+
+    /**
+     * @return the histogram of bytes sent per connection, from which interval snapshots may be taken
+     */
+    public HistogramStatistic getConnectionsBytesOutHistogram()
+    {
+        return _bytesOutHistogram;
+    }
+
     @ManagedAttribute("Connection duraton total of all connections in ms")
     public long getConnectionsDurationTotal()
     {
@@ -172,6 +217,9 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
         _messagesOut.reset();
         _connectionStats.reset();
         _connectionDurationStats.reset();
+        _connectionDurationHistogram.reset();
+        _bytesInHistogram.reset();
+        _bytesOutHistogram.reset();
     }
 
     public void connectionOpened()
@@ -199,6 +247,19 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
             _messagesOut.set(messagesOut);
             _connectionStats.decrement();
             _connectionDurationStats.set(duration);
+            _connectionDurationHistogram.set(duration);
+        }
+    }
+
+    public void connectionBytes(long bytesIn, long bytesOut)
+    {
+        if (isStarted())
+        {
+            // Connections that do not count bytes return -1
+            if (bytesIn>=0)
+                _bytesInHistogram.set(bytesIn);
+            if (bytesOut>=0)
+                _bytesOutHistogram.set(bytesOut);
         }
     }
 
@@ -213,7 +274,7 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
     public void dump(Appendable out, String indent) throws IOException
     {
         ContainerLifeCycle.dumpObject(out,this);
-        ContainerLifeCycle.dump(out,indent,Arrays.asList(new String[]{"connections="+_connectionStats,"duration="+_connectionDurationStats,"in="+_messagesIn,"out="+_messagesOut}));
+        ContainerLifeCycle.dump(out,indent,Arrays.asList(new String[]{"connections="+_connectionStats,"duration="+_connectionDurationStats,"durations="+_connectionDurationHistogram,"bytesIn="+_bytesInHistogram,"bytesOut="+_bytesOutHistogram,"in="+_messagesIn,"out="+_messagesOut}));
     }
     
     public static void addToAllConnectors(Server server)
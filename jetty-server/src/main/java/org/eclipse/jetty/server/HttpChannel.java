@@ -21,6 +21,7 @@ package org.eclipse.jetty.server;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -44,6 +45,7 @@ import org.eclipse.jetty.io.ChannelEndPoint;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.io.EofException;
 import org.eclipse.jetty.server.handler.ErrorHandler;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.util.URIUtil;
 import org.eclipse.jetty.util.log.Log;
@@ -656,6 +658,65 @@ public class HttpChannel<T> implements HttpParser.RequestHandler<T>, Runnable
         }
     }
 
+    /**
+     * <p>Non-blocking write of the given response content buffer,
+     * committing the response if needed.</p>
+     *
+     * @param content  the content buffer to write
+     * @param complete whether the content is complete for the response
+     * @param callback the callback notified when the content has been written, or the write failed
+     */
+    protected void write(ByteBuffer content, boolean complete, Callback callback)
+    {
+        if (isCommitted())
+        {
+            _transport.send(null, content, complete, callback);
+        }
+        else
+        {
+            ResponseInfo info = _response.newResponseInfo();
+            if (_committed.compareAndSet(false, true))
+                _transport.send(info, content, complete, callback);
+            else
+                callback.failed(new IOException("Concurrent commit"));
+        }
+    }
+
+    /**
+     * <p>Requests to write (in a blocking way) a range of a file as response content,
+     * committing the response if needed, without copying the file content through
+     * user space buffers.</p>
+     * <p>This implementation returns false as the transport is not known to support
+     * file transfers; subclasses may override.</p>
+     *
+     * @param file the file to transfer from
+     * @param position the position in the file of the first byte to transfer
+     * @param length the number of bytes to transfer
+     * @return true if the file range was transferred, false if it must be written as buffers
+     * @throws IOException if the transfer fails
+     */
+    protected boolean transfer(FileChannel file, long position, long length) throws IOException
+    {
+        return false;
+    }
+
+    /**
+     * <p>Non-blocking write of a range of a file as response content, committing the
+     * response if needed, without copying the file content through user space buffers.</p>
+     * <p>This implementation returns false as the transport is not known to support
+     * file transfers; subclasses may override.</p>
+     *
+     * @param file the file to transfer from
+     * @param position the position in the file of the first byte to transfer
+     * @param length the number of bytes to transfer
+     * @param callback the callback notified when the range has been transferred, or the transfer failed
+     * @return true if the transfer has been started, false if the file range must be written as buffers
+     */
+    protected boolean transfer(FileChannel file, long position, long length, Callback callback)
+    {
+        return false;
+    }
+
     protected void execute(Runnable task)
     {
         _connector.getExecutor().execute(task);
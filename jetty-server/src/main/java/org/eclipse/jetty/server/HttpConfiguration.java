@@ -21,6 +21,7 @@ package org.eclipse.jetty.server;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.eclipse.jetty.http.HttpFieldCache;
 import org.eclipse.jetty.http.HttpScheme;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
@@ -45,6 +46,8 @@ public class HttpConfiguration
     private int _requestHeaderSize=8*1024;
     private int _responseHeaderSize=8*1024;
     private int _headerCacheSize=512;
+    private int _sharedHeaderCacheSize=4096;
+    private volatile HttpFieldCache _sharedHeaderCache=newSharedHeaderCache(_sharedHeaderCacheSize);
     private int _securePort;
     private String _secureScheme = HttpScheme.HTTPS.asString();
     private boolean _sendServerVersion = true; //send Server: header
@@ -80,6 +83,8 @@ public class HttpConfiguration
         _sendDateHeader=config._sendDateHeader;
         _sendServerVersion=config._sendServerVersion;
         _headerCacheSize=config._headerCacheSize;
+        _sharedHeaderCacheSize=config._sharedHeaderCacheSize;
+        _sharedHeaderCache=newSharedHeaderCache(_sharedHeaderCacheSize);
     }
     
     /* ------------------------------------------------------------ */
@@ -133,6 +138,29 @@ public class HttpConfiguration
         return _headerCacheSize;
     }
 
+    @ManagedAttribute("The size in bytes of the HTTP header field cache shared by all connections")
+    public int getSharedHeaderCacheSize()
+    {
+        return _sharedHeaderCacheSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the header field cache shared by the connections using this configuration,
+     * or null if the size of the shared header cache is not positive.
+     */
+    public HttpFieldCache getSharedHeaderCache()
+    {
+        return _sharedHeaderCache;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static HttpFieldCache newSharedHeaderCache(int size)
+    {
+        // Created when the size is set rather than on first use, so that new connections get the cache without locking
+        return size>0?new HttpFieldCache(size):null;
+    }
+
     @ManagedAttribute("The port to which Integral or Confidential security constraints are redirected")
     public int getSecurePort()
     {
@@ -227,6 +255,19 @@ public class HttpConfiguration
         _headerCacheSize = headerCacheSize;
     }
 
+    /* ------------------------------------------------------------ */
+    /** Set the size of the header field cache shared by all connections.
+     * <p>Header fields repeated by many connections (eg User-Agent) are cached
+     * in this cache, so that parsing them does not allocate.</p>
+     * @param sharedHeaderCacheSize The size in bytes of the shared header field cache,
+     * or 0 for no shared cache.
+     */
+    public void setSharedHeaderCacheSize(int sharedHeaderCacheSize)
+    {
+        _sharedHeaderCacheSize = sharedHeaderCacheSize;
+        _sharedHeaderCache = newSharedHeaderCache(sharedHeaderCacheSize);
+    }
+
     /* ------------------------------------------------------------ */
     /** Set the TCP/IP port used for CONFIDENTIAL and INTEGRAL 
      * redirections.
@@ -18,12 +18,16 @@
 
 package org.eclipse.jetty.server;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jetty.http.HttpGenerator;
 import org.eclipse.jetty.http.HttpGenerator.ResponseInfo;
@@ -35,12 +39,16 @@ import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.io.AbstractConnection;
 import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.ChannelEndPoint;
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.io.EofException;
+import org.eclipse.jetty.io.NetworkTrafficSelectChannelEndPoint;
+import org.eclipse.jetty.io.SelectChannelEndPoint;
 import org.eclipse.jetty.util.BlockingCallback;
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.IteratingCallback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -66,6 +74,8 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
     private volatile ByteBuffer _chunk = null;
     private BlockingCallback _readBlocker = new BlockingCallback();
     private BlockingCallback _writeBlocker = new BlockingCallback();
+    private final AtomicLong _bytesIn = new AtomicLong();
+    private final AtomicLong _bytesOut = new AtomicLong();
 
 
     public static HttpConnection getCurrentConnection()
@@ -102,7 +112,7 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
 
     protected HttpParser newHttpParser()
     {
-        return new HttpParser(newRequestHandler(), getHttpConfiguration().getRequestHeaderSize());
+        return new HttpParser(newRequestHandler(), getHttpConfiguration().getRequestHeaderSize(), getHttpConfiguration().getSharedHeaderCache());
     }
 
     protected HttpParser.RequestHandler<ByteBuffer> newRequestHandler()
@@ -167,6 +177,18 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
         return getHttpChannel().getRequests();
     }
 
+    @Override
+    public long getBytesIn()
+    {
+        return _bytesIn.get();
+    }
+
+    @Override
+    public long getBytesOut()
+    {
+        return _bytesOut.get();
+    }
+
     @Override
     public String toString()
     {
@@ -239,6 +261,8 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
                         filled = getEndPoint().fill(_requestBuffer);
 
                     LOG.debug("{} filled {}", this, filled);
+                    if (filled > 0)
+                        _bytesIn.addAndGet(filled);
 
                     // If we failed to fill
                     if (filled == 0)
@@ -425,22 +449,28 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
     @Override
     public void send(ResponseInfo info, ByteBuffer content, boolean lastContent, Callback callback)
     {
-        try
-        {
-            send(info,content,lastContent);
-            callback.succeeded();
-        }
-        catch (IOException e)
-        {
-            callback.failed(e);
-        }
+        // If we are still expecting a 100 continues
+        if (_channel.isExpecting100Continue())
+            // then we can't be persistent
+            _generator.setPersistent(false);
+
+        new SendCallback(info,content,lastContent,callback).iterate();
+    }
+
+    private void write(Callback callback, ByteBuffer... buffers)
+    {
+        long bytes=0;
+        for (ByteBuffer buffer : buffers)
+            bytes+=buffer.remaining();
+        _bytesOut.addAndGet(bytes);
+        getEndPoint().write(callback, buffers);
     }
 
     private void blockingWrite(ByteBuffer... bytes) throws IOException
     {
         try
         {
-            getEndPoint().write(_writeBlocker, bytes);
+            write(_writeBlocker, bytes);
             _writeBlocker.block();
         }
         catch (InterruptedException x)
@@ -457,6 +487,46 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
         }
     }
 
+    /**
+     * <p>Transfers (in a blocking way) a range of a file to the endpoint.</p>
+     *
+     * @return false if the response is chunked and the file content must be written as buffers
+     * @see TransferCallback
+     */
+    protected boolean transfer(FileChannel file, long position, long length) throws IOException
+    {
+        if (_generator.isChunking())
+            return false;
+
+        new TransferCallback(file, position, length, _writeBlocker).iterate();
+        try
+        {
+            _writeBlocker.block();
+        }
+        catch (InterruptedException x)
+        {
+            throw (IOException)new InterruptedIOException().initCause(x);
+        }
+        catch (TimeoutException e)
+        {
+            throw new IOException(e);
+        }
+        return true;
+    }
+
+    /**
+     * <p>Transfers (without blocking) a range of a file to the endpoint.</p>
+     *
+     * @see TransferCallback
+     */
+    protected void transfer(FileChannel file, long position, long length, Callback callback)
+    {
+        if (_generator.isChunking())
+            callback.failed(new IllegalStateException("Cannot transfer chunked content"));
+        else
+            new TransferCallback(file, position, length, callback).iterate();
+    }
+
     @Override
     public void completed()
     {
@@ -583,6 +653,8 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
                         // read some data
                         int filled=getEndPoint().fill(_requestBuffer);
                         LOG.debug("{} block filled {}",this,filled);
+                        if (filled>0)
+                            _bytesIn.addAndGet(filled);
                         if (filled<0)
                         {
                             _parser.shutdownInput();
@@ -633,6 +705,194 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
         }
     }
 
+    /**
+     * <p>Generates and writes a response without blocking: each flush of the generator
+     * is an asynchronous write that resumes the generation once completed, in a thread
+     * of the connector executor if the write could not complete immediately.</p>
+     */
+    private class SendCallback extends IteratingCallback
+    {
+        private final ResponseInfo _info;
+        private final ByteBuffer _content;
+        private final boolean _lastContent;
+        private ByteBuffer _header;
+
+        private SendCallback(ResponseInfo info, ByteBuffer content, boolean lastContent, Callback callback)
+        {
+            super(callback,getExecutor());
+            _info = info;
+            _content = content;
+            _lastContent = lastContent;
+        }
+
+        @Override
+        protected boolean process() throws Exception
+        {
+            while (true)
+            {
+                HttpGenerator.Result result = _generator.generateResponse(_info, _header, _chunk, _content, _lastContent);
+                if (LOG.isDebugEnabled())
+                    LOG.debug("{} generate: {} ({},{},{})@{}",
+                            HttpConnection.this,
+                            result,
+                            BufferUtil.toSummaryString(_header),
+                            BufferUtil.toSummaryString(_content),
+                            _lastContent,
+                            _generator.getState());
+
+                switch (result)
+                {
+                    case NEED_HEADER:
+                    {
+                        _header = _bufferPool.acquire(_config.getResponseHeaderSize(), HEADER_BUFFER_DIRECT);
+                        continue;
+                    }
+                    case NEED_CHUNK:
+                    {
+                        if (_chunk==null)
+                            _chunk = _bufferPool.acquire(HttpGenerator.CHUNK_SIZE, CHUNK_BUFFER_DIRECT);
+                        continue;
+                    }
+                    case FLUSH:
+                    {
+                        // Don't write the chunk or the content if this is a HEAD response
+                        if (_channel.getRequest().isHead())
+                        {
+                            BufferUtil.clear(_chunk);
+                            BufferUtil.clear(_content);
+                        }
+
+                        if (BufferUtil.hasContent(_header))
+                        {
+                            // we know there will not be a chunk, so write either header+content or just the header
+                            if (BufferUtil.hasContent(_content))
+                                write(this, _header, _content);
+                            else
+                                write(this, _header);
+                        }
+                        else if (BufferUtil.hasContent(_chunk))
+                        {
+                            if (BufferUtil.hasContent(_content))
+                                write(this, _chunk, _content);
+                            else
+                                write(this, _chunk);
+                        }
+                        else if (BufferUtil.hasContent(_content))
+                        {
+                            write(this, _content);
+                        }
+                        else
+                            continue;
+                        return false;
+                    }
+                    case SHUTDOWN_OUT:
+                    {
+                        getEndPoint().shutdownOutput();
+                        continue;
+                    }
+                    case DONE:
+                    {
+                        releaseHeader();
+                        return true;
+                    }
+                    case CONTINUE:
+                    {
+                        break;
+                    }
+                    default:
+                    {
+                        throw new IllegalStateException("generateResponse="+result);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            releaseHeader();
+            if (x instanceof ClosedChannelException)
+                x = new EofException(x);
+            super.failed(x);
+        }
+
+        private void releaseHeader()
+        {
+            if (_header!=null)
+            {
+                _bufferPool.release(_header);
+                _header=null;
+            }
+        }
+    }
+
+    /**
+     * <p>Transfers a range of a file to the endpoint with
+     * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * so that the content is never copied into user space buffers.</p>
+     * <p>When the socket cannot accept more bytes, a slice of a mapped view of the file is written
+     * asynchronously, so that the transfer is resumed once the socket is writable again.</p>
+     */
+    private class TransferCallback extends IteratingCallback
+    {
+        private static final int MAX_MAPPED_CHUNK = 4 * 1024 * 1024;
+
+        private final FileChannel _file;
+        private final long _end;
+        private long _position;
+
+        private TransferCallback(FileChannel file, long position, long length, Callback callback)
+        {
+            super(callback,getExecutor());
+            _file = file;
+            _position = position;
+            _end = position + length;
+        }
+
+        @Override
+        protected boolean process() throws Exception
+        {
+            // Don't write the content if this is a HEAD response
+            if (_channel.getRequest().isHead())
+                return true;
+
+            ChannelEndPoint endPoint = (ChannelEndPoint)getEndPoint();
+            WritableByteChannel channel = endPoint.getChannel();
+            while (_position < _end)
+            {
+                long transferred = _file.transferTo(_position, _end - _position, channel);
+                if (transferred > 0)
+                {
+                    _position += transferred;
+                    _bytesOut.addAndGet(transferred);
+                    // The transfer bypasses the end point, which must be told of the progress
+                    endPoint.notIdle();
+                    continue;
+                }
+
+                if (_position >= _file.size())
+                    throw new EOFException("File truncated");
+
+                // The socket is full, so map a bounded chunk that is written asynchronously, and
+                // not referenced once written so that the mapping can be released
+                long chunk = Math.min(_end - _position, Math.max(_config.getOutputBufferSize(), MAX_MAPPED_CHUNK));
+                ByteBuffer mapped = _file.map(FileChannel.MapMode.READ_ONLY, _position, chunk);
+                _position += chunk;
+                write(this, mapped);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            if (x instanceof ClosedChannelException)
+                x = new EofException(x);
+            super.failed(x);
+        }
+    }
+
     private class HttpChannelOverHttp extends HttpChannel<ByteBuffer>
     {
         public HttpChannelOverHttp(Connector connector, HttpConfiguration config, EndPoint endPoint, HttpTransport transport, HttpInput<ByteBuffer> input)
@@ -697,6 +957,51 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
             super.handleException(x);
         }
 
+        @Override
+        protected boolean transfer(FileChannel file, long position, long length) throws IOException
+        {
+            // Only plain socket endpoints can be written to directly from the file
+            EndPoint endPoint = getEndPoint();
+            if (!(endPoint instanceof SelectChannelEndPoint) || endPoint instanceof NetworkTrafficSelectChannelEndPoint)
+                return false;
+
+            if (!isCommitted())
+                write(BufferUtil.EMPTY_BUFFER, false);
+            return HttpConnection.this.transfer(file, position, length);
+        }
+
+        @Override
+        protected boolean transfer(final FileChannel file, final long position, final long length, final Callback callback)
+        {
+            // Only plain socket endpoints can be written to directly from the file
+            EndPoint endPoint = getEndPoint();
+            if (!(endPoint instanceof SelectChannelEndPoint) || endPoint instanceof NetworkTrafficSelectChannelEndPoint)
+                return false;
+
+            if (isCommitted())
+            {
+                HttpConnection.this.transfer(file, position, length, callback);
+            }
+            else
+            {
+                write(BufferUtil.EMPTY_BUFFER, false, new Callback()
+                {
+                    @Override
+                    public void succeeded()
+                    {
+                        HttpConnection.this.transfer(file, position, length, callback);
+                    }
+
+                    @Override
+                    public void failed(Throwable x)
+                    {
+                        callback.failed(x);
+                    }
+                });
+            }
+            return true;
+        }
+
     }
 
 
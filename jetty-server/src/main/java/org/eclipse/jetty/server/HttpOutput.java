@@ -19,10 +19,17 @@
 package org.eclipse.jetty.server;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletRequest;
@@ -30,7 +37,10 @@ import javax.servlet.ServletResponse;
 
 import org.eclipse.jetty.http.HttpContent;
 import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.io.EofException;
 import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.IteratingCallback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.resource.Resource;
@@ -48,9 +58,13 @@ import org.eclipse.jetty.util.resource.Resource;
 public class HttpOutput extends ServletOutputStream
 {
     private static Logger LOG = Log.getLogger(HttpOutput.class);
+    /** The min rate in bytes/s at which content sent asynchronously must be sent */
+    public static final long MIN_SEND_RATE = 8 * 1024;
+    /** The min timeout in ms of content sent asynchronously */
+    public static final long MIN_SEND_TIMEOUT = 30000;
     private final HttpChannel<?> _channel;
     private boolean _closed;
-    private long _written;
+    private volatile long _written;
     private ByteBuffer _aggregate;
     private int _bufferSize;
 
@@ -197,6 +211,62 @@ public class HttpOutput extends ServletOutputStream
             _channel.write(_aggregate, false);
     }
 
+    /**
+     * <p>Asynchronous write of the given content, that is neither copied nor aggregated.</p>
+     * <p>The content must not be modified, nor other content written, until the callback
+     * is notified. Content previously aggregated by blocking writes is written first.</p>
+     *
+     * @param content the content to write
+     * @param callback the callback notified when the content has been written, or the write failed
+     */
+    public void write(final ByteBuffer content, final Callback callback)
+    {
+        if (isClosed())
+        {
+            callback.failed(new EOFException("Closed"));
+            return;
+        }
+
+        final int length = content.remaining();
+        final Callback written = new Callback()
+        {
+            @Override
+            public void succeeded()
+            {
+                _written += length;
+                callback.succeeded();
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                abort();
+                callback.failed(x);
+            }
+        };
+
+        if (BufferUtil.hasContent(_aggregate))
+        {
+            _channel.write(_aggregate, false, new Callback()
+            {
+                @Override
+                public void succeeded()
+                {
+                    _channel.write(content, false, written);
+                }
+
+                @Override
+                public void failed(Throwable x)
+                {
+                    written.failed(x);
+                }
+            });
+        }
+        else
+        {
+            _channel.write(content, false, written);
+        }
+    }
 
     @Override
     public void write(int b) throws IOException
@@ -231,45 +301,7 @@ public class HttpOutput extends ServletOutputStream
         if (isClosed())
             throw new IOException("Closed");
 
-        if (content instanceof HttpContent)
-        {
-            HttpContent httpContent = (HttpContent)content;
-            Response response = _channel.getResponse();
-            String contentType = httpContent.getContentType();
-            if (contentType != null && !response.getHttpFields().containsKey(HttpHeader.CONTENT_TYPE.asString()))
-                response.getHttpFields().put(HttpHeader.CONTENT_TYPE, contentType);
-
-            if (httpContent.getContentLength() > 0)
-                response.getHttpFields().putLongField(HttpHeader.CONTENT_LENGTH, httpContent.getContentLength());
-
-            String lm = httpContent.getLastModified();
-            if (lm != null)
-                response.getHttpFields().put(HttpHeader.LAST_MODIFIED, lm);
-            else if (httpContent.getResource() != null)
-            {
-                long lml = httpContent.getResource().lastModified();
-                if (lml != -1)
-                    response.getHttpFields().putDateField(HttpHeader.LAST_MODIFIED, lml);
-            }
-
-            String etag=httpContent.getETag();
-            if (etag!=null)
-                response.getHttpFields().put(HttpHeader.ETAG,etag);
-
-            content = _channel.useDirectBuffers()?httpContent.getDirectBuffer():null;
-            if (content == null)
-                content = httpContent.getIndirectBuffer();
-            if (content == null)
-                content = httpContent.getReadableByteChannel();
-            if (content == null)
-                content = httpContent.getInputStream();
-        }
-        else if (content instanceof Resource)
-        {
-            Resource resource = (Resource)content;
-            _channel.getResponse().getHttpFields().putDateField(HttpHeader.LAST_MODIFIED, resource.lastModified());
-            content=resource.getInputStream(); // Closed below
-        }
+        content = resolveContent(content);
 
         // Process content.
         if (content instanceof ByteBuffer)
@@ -277,6 +309,13 @@ public class HttpOutput extends ServletOutputStream
             _channel.write((ByteBuffer)content, true);
             _closed=true;
         }
+        else if (content instanceof File)
+        {
+            try (FileChannel file = FileChannel.open(((File)content).toPath(), StandardOpenOption.READ))
+            {
+                sendContent(file, 0, file.size());
+            }
+        }
         else if (content instanceof ReadableByteChannel)
         {
             ByteBuffer buffer = _channel.getByteBufferPool().acquire(getBufferSize(), _channel.useDirectBuffers());
@@ -327,6 +366,312 @@ public class HttpOutput extends ServletOutputStream
             throw new IllegalArgumentException("unknown content type "+content.getClass());
     }
 
+    /**
+     * <p>Asynchronous send of content as the complete remaining content of the response.</p>
+     * <p>The content is written chunk by chunk as the previous writes complete, so that
+     * the calling thread is not blocked; the output is closed once the content has been
+     * sent and the callback notified.</p>
+     *
+     * @param content the {@link HttpContent}, {@link Resource}, {@link ByteBuffer},
+     * {@link ReadableByteChannel} or {@link InputStream} to send
+     * @param callback the callback notified when the content has been sent, or the send failed
+     */
+    public void sendContent(Object content, final Callback callback)
+    {
+        if (isClosed())
+        {
+            callback.failed(new IOException("Closed"));
+            return;
+        }
+
+        boolean transfer = false;
+        try
+        {
+            content = resolveContent(content);
+            if (content instanceof File)
+            {
+                FileChannel file = FileChannel.open(((File)content).toPath(), StandardOpenOption.READ);
+                content = file;
+
+                // The file can be transferred directly only if the response will not be chunked
+                if (!_channel.isCommitted())
+                {
+                    _channel.getResponse().setLongContentLength(file.size());
+                    transfer = true;
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            callback.failed(e);
+            return;
+        }
+
+        // No other content can be written while the content is being sent
+        _closed=true;
+
+        if (transfer)
+        {
+            FileChannel file = (FileChannel)content;
+            FileTransferCB transferCB = new FileTransferCB(file, callback);
+            try
+            {
+                if (_channel.transfer(file, 0, file.size(), transferCB))
+                    return;
+            }
+            catch (IOException e)
+            {
+                transferCB.failed(e);
+                return;
+            }
+        }
+
+        if (content instanceof ByteBuffer)
+        {
+            final int length = ((ByteBuffer)content).remaining();
+            _channel.write((ByteBuffer)content, true, new Callback()
+            {
+                @Override
+                public void succeeded()
+                {
+                    _written += length;
+                    closed();
+                    callback.succeeded();
+                }
+
+                @Override
+                public void failed(Throwable x)
+                {
+                    abort();
+                    callback.failed(x);
+                }
+            });
+        }
+        else if (content instanceof ReadableByteChannel)
+            new ReadableByteChannelWritingCB((ReadableByteChannel)content, callback).iterate();
+        else if (content instanceof InputStream)
+            new InputStreamWritingCB((InputStream)content, callback).iterate();
+        else
+        {
+            closed();
+            callback.failed(new IllegalArgumentException("unknown content type "+content.getClass()));
+        }
+    }
+
+    /**
+     * <p>Asynchronous send of content as the complete remaining content of the response of a
+     * request in asynchronous mode, whose {@link AsyncContext} is completed once the content has
+     * been sent, or the send failed.</p>
+     * <p>The timeout of the async context is set so that the content must be sent at an average rate
+     * of at least {@link #MIN_SEND_RATE} bytes/s, or within {@link #MIN_SEND_TIMEOUT} ms for small
+     * content. If it times out, the connection is closed to abort the send. A failure of the send is
+     * logged as a warning, unless the client closed the connection.</p>
+     *
+     * @param content the content to send, as for {@link #sendContent(Object, Callback)}
+     * @param async the async context of the request
+     * @param callback the callback notified once the send is done and the content can be released, or null
+     */
+    public void sendContent(Object content, final AsyncContext async, final Callback callback)
+    {
+        long length = -1;
+        if (content instanceof HttpContent)
+            length = ((HttpContent)content).getContentLength();
+        else if (content instanceof Resource)
+            length = ((Resource)content).length();
+        else if (content instanceof ByteBuffer)
+            length = ((ByteBuffer)content).remaining();
+        async.setTimeout(Math.max(MIN_SEND_TIMEOUT, length * 1000 / MIN_SEND_RATE));
+
+        // The async context is completed by the first of the timeout and the end of the send
+        final AtomicBoolean completed = new AtomicBoolean();
+        async.addListener(new AsyncListener()
+        {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException
+            {
+                if (completed.compareAndSet(false, true))
+                {
+                    LOG.warn("Timeout sending content to {}", _channel.getEndPoint());
+                    _channel.getEndPoint().close();
+                    async.complete();
+                }
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException
+            {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException
+            {
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException
+            {
+            }
+        });
+
+        sendContent(content, new Callback()
+        {
+            @Override
+            public void succeeded()
+            {
+                if (completed.compareAndSet(false, true))
+                    async.complete();
+                if (callback != null)
+                    callback.succeeded();
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                if (completed.compareAndSet(false, true))
+                {
+                    if (x instanceof EofException)
+                        LOG.debug(x);
+                    else
+                        LOG.warn(x);
+                    async.complete();
+                }
+                else
+                    LOG.ignore(x);
+                if (callback != null)
+                    callback.failed(x);
+            }
+        });
+    }
+
+    /**
+     * <p>Sets the response headers from the given content, and resolves the
+     * content to the most efficient representation to send it.</p>
+     *
+     * @param content the {@link HttpContent}, {@link Resource} or raw content
+     * @return a {@link ByteBuffer}, {@link File}, {@link ReadableByteChannel} or {@link InputStream}
+     */
+    private Object resolveContent(Object content) throws IOException
+    {
+        if (content instanceof HttpContent)
+        {
+            HttpContent httpContent = (HttpContent)content;
+            Response response = _channel.getResponse();
+            String contentType = httpContent.getContentType();
+            if (contentType != null && !response.getHttpFields().containsKey(HttpHeader.CONTENT_TYPE.asString()))
+                response.getHttpFields().put(HttpHeader.CONTENT_TYPE, contentType);
+
+            if (httpContent.getContentLength() > 0)
+                response.setLongContentLength(httpContent.getContentLength());
+
+            String lm = httpContent.getLastModified();
+            if (lm != null)
+                response.getHttpFields().put(HttpHeader.LAST_MODIFIED, lm);
+            else if (httpContent.getResource() != null)
+            {
+                long lml = httpContent.getResource().lastModified();
+                if (lml != -1)
+                    response.getHttpFields().putDateField(HttpHeader.LAST_MODIFIED, lml);
+            }
+
+            String etag=httpContent.getETag();
+            if (etag!=null)
+                response.getHttpFields().put(HttpHeader.ETAG,etag);
+
+            content = _channel.useDirectBuffers()?httpContent.getDirectBuffer():null;
+            if (content == null)
+                content = httpContent.getIndirectBuffer();
+            if (content == null)
+                content = fileOf(httpContent.getResource());
+            if (content == null)
+                content = httpContent.getReadableByteChannel();
+            if (content == null)
+                content = httpContent.getInputStream();
+        }
+        else if (content instanceof Resource)
+        {
+            Resource resource = (Resource)content;
+            _channel.getResponse().getHttpFields().putDateField(HttpHeader.LAST_MODIFIED, resource.lastModified());
+            content=fileOf(resource);
+            if (content == null)
+                content=resource.getInputStream(); // Closed below
+        }
+
+        return content;
+    }
+
+    /**
+     * <p>Blocking send of a range of a file as the complete remaining content of the response.</p>
+     * <p>If the channel supports it, the file range is transferred without copying it through
+     * user space buffers, otherwise it is read into a pooled buffer and written chunk by chunk.
+     * The output is closed once the range has been sent.</p>
+     *
+     * @param file the file to send from, not closed by this method
+     * @param position the position in the file of the first byte to send
+     * @param length the number of bytes to send
+     * @throws IOException if the content cannot be sent
+     */
+    public void sendContent(FileChannel file, long position, long length) throws IOException
+    {
+        if (isClosed())
+            throw new IOException("Closed");
+
+        try
+        {
+            if (!_channel.transfer(file, position, length))
+            {
+                ByteBuffer buffer = _channel.getByteBufferPool().acquire(getBufferSize(), _channel.useDirectBuffers());
+                try
+                {
+                    long end = position + length;
+                    while (position < end)
+                    {
+                        BufferUtil.clearToFill(buffer);
+                        if (end - position < buffer.remaining())
+                            buffer.limit(buffer.position() + (int)(end - position));
+                        int len = file.read(buffer, position);
+                        if (len < 0)
+                            throw new EOFException("File truncated");
+                        BufferUtil.flipToFlush(buffer, 0);
+                        _channel.write(buffer, false);
+                        position += len;
+                    }
+                }
+                finally
+                {
+                    _channel.getByteBufferPool().release(buffer);
+                }
+            }
+            _written += length;
+        }
+        finally
+        {
+            close();
+        }
+    }
+
+    /**
+     * <p>Called when an asynchronous send fails: as the response cannot
+     * be completed, the output is shutdown.</p>
+     */
+    private void abort()
+    {
+        closed();
+        _channel.getEndPoint().shutdownOutput();
+    }
+
+    /**
+     * @return the file of the given resource if its content can be sent from a {@link FileChannel}
+     */
+    private File fileOf(Resource resource) throws IOException
+    {
+        if (resource == null)
+            return null;
+        File file = resource.getFile();
+        if (file == null || !file.isFile())
+            return null;
+        return file;
+    }
+
     public int getBufferSize()
     {
         return _bufferSize;
@@ -342,4 +687,195 @@ public class HttpOutput extends ServletOutputStream
         if (BufferUtil.hasContent(_aggregate))
             BufferUtil.clear(_aggregate);
     }
+
+    /**
+     * <p>Completes the response once a file has been transferred.</p>
+     */
+    private class FileTransferCB implements Callback
+    {
+        private final FileChannel _file;
+        private final Callback _callback;
+        private boolean _transferred;
+
+        private FileTransferCB(FileChannel file, Callback callback)
+        {
+            _file = file;
+            _callback = callback;
+        }
+
+        @Override
+        public void succeeded()
+        {
+            if (_transferred)
+            {
+                release();
+                _callback.succeeded();
+            }
+            else
+            {
+                _transferred = true;
+                try
+                {
+                    _written += _file.size();
+                }
+                catch (IOException e)
+                {
+                    LOG.ignore(e);
+                }
+                _channel.write(BufferUtil.EMPTY_BUFFER, true, this);
+            }
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            release();
+            abort();
+            _callback.failed(x);
+        }
+
+        private void release()
+        {
+            closed();
+            try
+            {
+                _file.close();
+            }
+            catch (IOException e)
+            {
+                LOG.ignore(e);
+            }
+        }
+    }
+
+    /**
+     * <p>Writes the content of an {@link InputStream}, reading the next chunk
+     * each time the previous one has been written.</p>
+     */
+    private class InputStreamWritingCB extends IteratingCallback
+    {
+        private final InputStream _in;
+        private final ByteBuffer _buffer;
+        private boolean _eof;
+
+        private InputStreamWritingCB(InputStream in, Callback callback)
+        {
+            super(callback);
+            _in = in;
+            // allocate non direct buffer so array may be directly accessed.
+            _buffer = _channel.getByteBufferPool().acquire(getBufferSize(), false);
+        }
+
+        @Override
+        protected boolean process() throws Exception
+        {
+            if (_eof)
+            {
+                // The last write has completed
+                release();
+                return true;
+            }
+
+            int len = _in.read(_buffer.array(), _buffer.arrayOffset(), _buffer.capacity());
+            if (len < 0)
+            {
+                _eof = true;
+                _channel.write(BufferUtil.EMPTY_BUFFER, true, this);
+                return false;
+            }
+
+            _buffer.position(0);
+            _buffer.limit(len);
+            _written += len;
+            _channel.write(_buffer, false, this);
+            return false;
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            release();
+            abort();
+            super.failed(x);
+        }
+
+        private void release()
+        {
+            _channel.getByteBufferPool().release(_buffer);
+            closed();
+            try
+            {
+                _in.close();
+            }
+            catch (IOException e)
+            {
+                LOG.ignore(e);
+            }
+        }
+    }
+
+    /**
+     * <p>Writes the content of a {@link ReadableByteChannel}, reading the next chunk
+     * each time the previous one has been written.</p>
+     */
+    private class ReadableByteChannelWritingCB extends IteratingCallback
+    {
+        private final ReadableByteChannel _in;
+        private final ByteBuffer _buffer;
+        private boolean _eof;
+
+        private ReadableByteChannelWritingCB(ReadableByteChannel in, Callback callback)
+        {
+            super(callback);
+            _in = in;
+            _buffer = _channel.getByteBufferPool().acquire(getBufferSize(), _channel.useDirectBuffers());
+        }
+
+        @Override
+        protected boolean process() throws Exception
+        {
+            if (_eof)
+            {
+                // The last write has completed
+                release();
+                return true;
+            }
+
+            int pos = BufferUtil.flipToFill(_buffer);
+            int len = _in.read(_buffer);
+            BufferUtil.flipToFlush(_buffer, pos);
+            if (len < 0)
+            {
+                _eof = true;
+                _channel.write(BufferUtil.EMPTY_BUFFER, true, this);
+                return false;
+            }
+
+            _written += len;
+            _channel.write(_buffer, false, this);
+            return false;
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            release();
+            abort();
+            super.failed(x);
+        }
+
+        private void release()
+        {
+            _channel.getByteBufferPool().release(_buffer);
+            closed();
+            try
+            {
+                _in.close();
+            }
+            catch (IOException e)
+            {
+                LOG.ignore(e);
+            }
+        }
+    }
 }
@@ -123,6 +123,16 @@ public class NCSARequestLog extends AbstractNCSARequestLog implements RequestLog
         return null;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the stream the log is written to while started, either a
+     * {@link RolloverFileOutputStream} or {@link System#err}
+     */
+    protected OutputStream getOutputStream()
+    {
+        return _fileOut;
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     protected boolean isEnabled()
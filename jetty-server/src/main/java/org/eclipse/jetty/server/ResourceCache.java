@@ -19,23 +19,34 @@
 package org.eclipse.jetty.server;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
-import java.util.Comparator;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.StringTokenizer;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
 
 import org.eclipse.jetty.http.HttpContent;
 import org.eclipse.jetty.http.HttpContent.ResourceAsHttpContent;
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.resource.Resource;
@@ -44,15 +55,38 @@ import org.eclipse.jetty.util.resource.ResourceFactory;
 
 /* ------------------------------------------------------------ */
 /** 
- * 
+ * A cache of {@link HttpContent} for a {@link ResourceFactory}.
+ * <p>
+ * Eviction is a segmented LRU approximated with CLOCK: newly loaded content
+ * enters a probation segment and is only promoted to the protected segment
+ * if it has been hit by the time the eviction hand reaches it. Content that
+ * is requested only once is thus evicted before it can flush the frequently
+ * requested content out of the cache, and each eviction is amortized O(1).
+ * <p>
+ * Cached content of a compressible mime type may also hold a gzip encoded
+ * variant (see {@link Content#getGzipContent()}), so that the content is
+ * compressed once rather than on every request.
  */
+@ManagedObject("Cache of static content")
 public class ResourceCache
 {
     private static final Logger LOG = Log.getLogger(ResourceCache.class);
+    private static final int PROTECTED_PERCENT = 80;
+    private static final HttpContent NO_GZIP = new HttpContent.ResourceAsHttpContent(null,null);
+    private static final String[] GZIP_MIME_TYPES = {"text/html","text/plain","text/css","text/xml","text/javascript",
+        "application/javascript","application/x-javascript","application/json","application/xml","image/svg+xml"};
 
     private final ConcurrentMap<String,Content> _cache;
     private final AtomicInteger _cachedSize;
     private final AtomicInteger _cachedFiles;
+    private final Queue<Content> _probation=new ArrayDeque<>();
+    private final Queue<Content> _protected=new ArrayDeque<>();
+    private int _protectedSize;
+    private int _protectedFiles;
+    private int _stale;
+    private final AtomicLong _hits=new AtomicLong();
+    private final AtomicLong _misses=new AtomicLong();
+    private final AtomicLong _evictions=new AtomicLong();
     private final ResourceFactory _factory;
     private final ResourceCache _parent;
     private final MimeTypes _mimeTypes;
@@ -62,6 +96,7 @@ public class ResourceCache
     private int _maxCachedFileSize =4*1024*1024;
     private int _maxCachedFiles=2048;
     private int _maxCacheSize =32*1024*1024;
+    private Set<String> _gzipMimeTypes=new HashSet<>(Arrays.asList(GZIP_MIME_TYPES));
     
     /* ------------------------------------------------------------ */
     /** Constructor.
@@ -80,18 +115,72 @@ public class ResourceCache
     }
 
     /* ------------------------------------------------------------ */
+    @ManagedAttribute("The bytes of content currently cached")
     public int getCachedSize()
     {
         return _cachedSize.get();
     }
     
     /* ------------------------------------------------------------ */
+    @ManagedAttribute("The number of files currently cached")
     public int getCachedFiles()
     {
         return _cachedFiles.get();
     }
     
     /* ------------------------------------------------------------ */
+    @ManagedAttribute("The number of lookups served from the cache")
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("The number of lookups not found in the cache")
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the ratio of lookups served from the cache, or 0 if there has been no lookup
+     */
+    @ManagedAttribute("The ratio of lookups served from the cache")
+    public double getHitRatio()
+    {
+        long hits=_hits.get();
+        long total=hits+_misses.get();
+        return total==0?0.0:(double)hits/total;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("The number of contents evicted to respect the cache limits")
+    public long getEvictions()
+    {
+        return _evictions.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of contents queued for eviction, including the removed ones not yet discarded
+     */
+    synchronized int getQueuedContents()
+    {
+        return _probation.size()+_protected.size();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedOperation("Resets the cache statistics")
+    public void resetStatistics()
+    {
+        _hits.set(0);
+        _misses.set(0);
+        _evictions.set(0);
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("The max size of a cached file")
     public int getMaxCachedFileSize()
     {
         return _maxCachedFileSize;
@@ -105,6 +194,7 @@ public class ResourceCache
     }
 
     /* ------------------------------------------------------------ */
+    @ManagedAttribute("The max bytes of content cached")
     public int getMaxCacheSize()
     {
         return _maxCacheSize;
@@ -121,6 +211,7 @@ public class ResourceCache
     /**
      * @return Returns the maxCachedFiles.
      */
+    @ManagedAttribute("The max number of files cached")
     public int getMaxCachedFiles()
     {
         return _maxCachedFiles;
@@ -136,6 +227,28 @@ public class ResourceCache
         shrinkCache();
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the mime types of the content that may have a gzip variant
+     */
+    public Set<String> getGzipMimeTypes()
+    {
+        return _gzipMimeTypes;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param gzipMimeTypes comma separated list of the mime types of the content that may have a gzip variant
+     */
+    public void setGzipMimeTypes(String gzipMimeTypes)
+    {
+        Set<String> types=new HashSet<>();
+        StringTokenizer tok = new StringTokenizer(gzipMimeTypes,",",false);
+        while (tok.hasMoreTokens())
+            types.add(tok.nextToken().trim());
+        _gzipMimeTypes=types;
+    }
+
     /* ------------------------------------------------------------ */
     public boolean isUseFileMappedBuffer()
     {
@@ -143,6 +256,7 @@ public class ResourceCache
     }
 
     /* ------------------------------------------------------------ */
+    @ManagedOperation("Flushes the cache")
     public void flushCache()
     {
         if (_cache!=null)
@@ -157,6 +271,15 @@ public class ResourceCache
                 }
             }
         }
+
+        synchronized (this)
+        {
+            _probation.clear();
+            _protected.clear();
+            _protectedSize=0;
+            _protectedFiles=0;
+            _stale=0;
+        }
     }
 
     /* ------------------------------------------------------------ */
@@ -176,7 +299,11 @@ public class ResourceCache
         // Is the content in this cache?
         Content content =_cache.get(pathInContext);
         if (content!=null && (content).isValid())
+        {
+            _hits.incrementAndGet();
             return content;
+        }
+        _misses.incrementAndGet();
        
         // try loading the content from our factory.
         Resource resource=_factory.getResource(pathInContext);
@@ -233,6 +360,15 @@ public class ResourceCache
                 content.invalidate();
                 content=added;
             }
+            else
+            {
+                synchronized (this)
+                {
+                    // The content may have been invalidated concurrently
+                    if (_cache.get(pathInContext)==content)
+                        toProbation(content);
+                }
+            }
 
             return content;
         }
@@ -244,41 +380,209 @@ public class ResourceCache
     /* ------------------------------------------------------------ */
     private void shrinkCache()
     {
-        // While we need to shrink
-        while (_cache.size()>0 && (_cachedFiles.get()>_maxCachedFiles || _cachedSize.get()>_maxCacheSize))
+        if (!isOverLimits())
+            return;
+
+        synchronized (this)
         {
-            // Scan the entire cache and generate an ordered list by last accessed time.
-            SortedSet<Content> sorted= new TreeSet<Content>(
-                    new Comparator<Content>()
-                    {
-                        public int compare(Content c1, Content c2)
-                        {
-                            if (c1._lastAccessed<c2._lastAccessed)
-                                return -1;
-                            
-                            if (c1._lastAccessed>c2._lastAccessed)
-                                return 1;
-
-                            if (c1._length<c2._length)
-                                return -1;
-                            
-                            return c1._key.compareTo(c2._key);
-                        }
-                    });
-            for (Content content : _cache.values())
-                sorted.add(content);
-            
-            // Invalidate least recently used first
-            for (Content content : sorted)
+            // While we need to shrink
+            while (_cache.size()>0 && isOverLimits())
             {
-                if (_cachedFiles.get()<=_maxCachedFiles && _cachedSize.get()<=_maxCacheSize)
-                    break;
-                if (content==_cache.remove(content.getKey()))
+                Content content=poll(_probation);
+                if (content==null)
+                {
+                    // Everything is protected, so demote to probation
+                    if (!demote())
+                        break;
+                    continue;
+                }
+
+                // Skip content already removed from the cache
+                if (_cache.get(content._key)!=content)
+                    continue;
+
+                if (content._referenced)
+                {
+                    // Hit while on probation: promote
+                    content._referenced=false;
+                    toProtected(content);
+                    while (_protectedFiles>(long)_maxCachedFiles*PROTECTED_PERCENT/100 || _protectedSize>(long)_maxCacheSize*PROTECTED_PERCENT/100)
+                    {
+                        if (!demote())
+                            break;
+                    }
+                }
+                else if (_cache.remove(content._key,content))
+                {
                     content.invalidate();
+                    _evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Moves the least recently used protected content to probation,
+     * giving protected content that has been hit a second chance.
+     * @return false if there is no protected content
+     */
+    private boolean demote()
+    {
+        // Each content gets at most one second chance per call
+        int chances=_protected.size();
+        while (true)
+        {
+            Content content=poll(_protected);
+            if (content==null)
+                return false;
+
+            // Skip content already removed from the cache
+            if (_cache.get(content._key)!=content)
+                continue;
+
+            if (content._referenced && chances-->0)
+            {
+                content._referenced=false;
+                toProtected(content);
+                continue;
+            }
+            content._referenced=false;
+
+            toProbation(content);
+            return true;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void toProbation(Content content)
+    {
+        content._segment=Segment.PROBATION;
+        _probation.offer(content);
+    }
+
+    /* ------------------------------------------------------------ */
+    private void toProtected(Content content)
+    {
+        content._segment=Segment.PROTECTED;
+        _protected.offer(content);
+        _protectedSize+=content.getCachedSize();
+        _protectedFiles++;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Polls the next live content of a segment, discarding the content
+     * that has been removed from the cache while queued.
+     * @return the content, no longer accounted in any segment, or null
+     */
+    private Content poll(Queue<Content> segment)
+    {
+        while (true)
+        {
+            Content content=segment.poll();
+            if (content==null)
+                return null;
+            Segment previous=content._segment;
+            content._segment=Segment.NONE;
+            switch (previous)
+            {
+                case STALE:
+                    _stale--;
+                    continue;
+                case PROTECTED:
+                    _protectedSize-=content.getCachedSize();
+                    _protectedFiles--;
+                    return content;
+                default:
+                    return content;
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Called with the lock held when content is removed from the cache.
+     * The content stays queued in its segment, marked as stale, until it is
+     * polled, or until the stale content outnumbers the live content and the
+     * segments are compacted, so that the buffers of removed content are not
+     * retained by a cache that is not shrinking.
+     */
+    private void removed(Content content)
+    {
+        switch (content._segment)
+        {
+            case PROTECTED:
+                _protectedSize-=content.getCachedSize();
+                _protectedFiles--;
+                break;
+            case PROBATION:
+                break;
+            default:
+                return;
+        }
+        content._segment=Segment.STALE;
+        if (++_stale*2>_probation.size()+_protected.size())
+        {
+            compact(_probation);
+            compact(_protected);
+            _stale=0;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void compact(Queue<Content> segment)
+    {
+        for (Iterator<Content> i=segment.iterator();i.hasNext();)
+        {
+            Content content=i.next();
+            if (content._segment==Segment.STALE)
+            {
+                content._segment=Segment.NONE;
+                i.remove();
             }
         }
     }
+
+    /* ------------------------------------------------------------ */
+    private boolean isOverLimits()
+    {
+        return _cachedFiles.get()>_maxCachedFiles || _cachedSize.get()>_maxCacheSize;
+    }
     
+    /* ------------------------------------------------------------ */
+    /**
+     * Gets the gzip encoded bytes of cached content, either from a sibling
+     * resource ending with ".gz" that is not older than the content, or by
+     * compressing the content.
+     * @param content the cached content
+     * @return the gzip encoded bytes, or null if they could not be obtained
+     */
+    protected ByteBuffer getGzipBuffer(Content content)
+    {
+        try
+        {
+            Resource gz=_factory.getResource(content.getKey()+".gz");
+            if (gz!=null && gz.exists() && !gz.isDirectory() && gz.lastModified()>=content._lastModified)
+                return getIndirectBuffer(gz);
+
+            ByteBuffer buffer=content.getIndirectBuffer();
+            if (buffer==null)
+                return null;
+            ByteArrayOutputStream bytes=new ByteArrayOutputStream(buffer.remaining()/2);
+            try (GZIPOutputStream gzip=new GZIPOutputStream(bytes))
+            {
+                BufferUtil.writeTo(buffer,gzip);
+            }
+            return BufferUtil.toBuffer(bytes.toByteArray());
+        }
+        catch(IOException e)
+        {
+            LOG.warn(e);
+            return null;
+        }
+    }
+
     /* ------------------------------------------------------------ */
     protected ByteBuffer getIndirectBuffer(Resource resource)
     {
@@ -353,6 +657,13 @@ public class ResourceCache
         return "ResourceCache["+_parent+","+_factory+"]@"+hashCode();
     }
     
+    /* ------------------------------------------------------------ */
+    /** The segment of the cache eviction queues that content is in. */
+    enum Segment
+    {
+        NONE, PROBATION, PROTECTED, STALE
+    }
+
     /* ------------------------------------------------------------ */
     /* ------------------------------------------------------------ */
     /** MetaData associated with a context Resource.
@@ -367,9 +678,11 @@ public class ResourceCache
         final ByteBuffer _contentType;
         final String _etag;
         
-        volatile long _lastAccessed;
+        volatile boolean _referenced;
+        Segment _segment=Segment.NONE;
         AtomicReference<ByteBuffer> _indirectBuffer=new AtomicReference<ByteBuffer>();
         AtomicReference<ByteBuffer> _directBuffer=new AtomicReference<ByteBuffer>();
+        AtomicReference<HttpContent> _gzipContent=new AtomicReference<HttpContent>();
 
         /* ------------------------------------------------------------ */
         Content(String pathInContext,Resource resource)
@@ -386,7 +699,6 @@ public class ResourceCache
             _length=exists?(int)resource.length():0;
             _cachedSize.addAndGet(_length);
             _cachedFiles.incrementAndGet();
-            _lastAccessed=System.currentTimeMillis();
             
             _etag=ResourceCache.this._etagSupported?resource.getWeakETag():null;
         }
@@ -429,7 +741,8 @@ public class ResourceCache
         {
             if (_lastModified==_resource.lastModified() && _length==_resource.length())
             {
-                _lastAccessed=System.currentTimeMillis();
+                if (!_referenced)
+                    _referenced=true;
                 return true;
             }
 
@@ -442,11 +755,90 @@ public class ResourceCache
         protected void invalidate()
         {
             // Invalidate it
-            _cachedSize.addAndGet(-_length);
-            _cachedFiles.decrementAndGet();
+            synchronized (ResourceCache.this)
+            {
+                removed(this);
+                _cachedSize.addAndGet(-_length);
+                _cachedFiles.decrementAndGet();
+                HttpContent gzip=_gzipContent.getAndSet(NO_GZIP);
+                if (gzip!=null && gzip!=NO_GZIP)
+                    _cachedSize.addAndGet(-(int)gzip.getContentLength());
+            }
             _resource.release(); 
         }
 
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the bytes this content counts against the max cache size,
+         * including its gzip encoded variant
+         */
+        int getCachedSize()
+        {
+            HttpContent gzip=_gzipContent.get();
+            if (gzip==null || gzip==NO_GZIP)
+                return _length;
+            return _length+(int)gzip.getContentLength();
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return True if the content type is one of the {@link ResourceCache#getGzipMimeTypes()}
+         */
+        public boolean isGzipCompressible()
+        {
+            String type=getContentType();
+            if (type==null)
+                return false;
+            int semi=type.indexOf(';');
+            if (semi>=0)
+                type=type.substring(0,semi).trim();
+            return _gzipMimeTypes.contains(type);
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * Gets the gzip encoded variant of this content.
+         * <p>The variant is created on first call and then cached with this content.
+         * Its size counts against the max cache size.
+         * @return the gzip encoded variant, or null if the content is not
+         * compressible or does not compress to a smaller size.
+         */
+        public HttpContent getGzipContent()
+        {
+            HttpContent gzip=_gzipContent.get();
+            if (gzip==null)
+            {
+                gzip=NO_GZIP;
+                if (isGzipCompressible())
+                {
+                    ByteBuffer buffer=getGzipBuffer(this);
+                    if (buffer!=null && buffer.remaining()<_length)
+                        gzip=new GzipContent(this,buffer);
+                }
+
+                boolean admitted;
+                synchronized (ResourceCache.this)
+                {
+                    // Accounted under the same lock as invalidate(),
+                    // that sets the variant to NO_GZIP
+                    admitted=_gzipContent.compareAndSet(null,gzip);
+                    if (admitted && gzip!=NO_GZIP)
+                    {
+                        int length=(int)gzip.getContentLength();
+                        _cachedSize.addAndGet(length);
+                        if (_segment==Segment.PROTECTED)
+                            _protectedSize+=length;
+                    }
+                }
+
+                if (!admitted)
+                    gzip=_gzipContent.get();
+                else if (gzip!=NO_GZIP)
+                    shrinkCache();
+            }
+            return gzip==NO_GZIP?null:gzip;
+        }
+
         /* ------------------------------------------------------------ */
         @Override
         public String getLastModified()
@@ -544,4 +936,101 @@ public class ResourceCache
             return String.format("%s %s %d %s %s",_resource,_resource.exists(),_resource.lastModified(),_contentType,_lastModifiedBytes);
         }   
     }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** The gzip encoded variant of cached {@link Content}.
+     */
+    public static class GzipContent implements HttpContent
+    {
+        private final Content _content;
+        private final ByteBuffer _buffer;
+        private final String _etag;
+
+        /* ------------------------------------------------------------ */
+        GzipContent(Content content, ByteBuffer buffer)
+        {
+            _content=content;
+            _buffer=buffer;
+            String etag=content.getETag();
+            _etag=etag==null?null:(etag.endsWith("\"")?etag.substring(0,etag.length()-1)+"--gzip\"":etag+"--gzip");
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String getContentType()
+        {
+            return _content.getContentType();
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String getLastModified()
+        {
+            return _content.getLastModified();
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public ByteBuffer getIndirectBuffer()
+        {
+            return _buffer.asReadOnlyBuffer();
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public ByteBuffer getDirectBuffer()
+        {
+            return null;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String getETag()
+        {
+            return _etag;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public Resource getResource()
+        {
+            return _content.getResource();
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public long getContentLength()
+        {
+            return _buffer.remaining();
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public InputStream getInputStream() throws IOException
+        {
+            return new ByteArrayInputStream(_buffer.array(),_buffer.arrayOffset()+_buffer.position(),_buffer.remaining());
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public ReadableByteChannel getReadableByteChannel() throws IOException
+        {
+            return Channels.newChannel(getInputStream());
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public void release()
+        {
+            // released with the content
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String toString()
+        {
+            return String.format("%s gzip %d",_content,_buffer.remaining());
+        }
+    }
 }
@@ -23,6 +23,8 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.nio.channels.Channel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -74,18 +76,32 @@ import org.eclipse.jetty.util.thread.Scheduler;
  * The default number of selectors is equal to the number of processors available to the JVM,
  * which should allow optimal performance even if all the connections used are performing
  * significant non-blocking work in the callback tasks.
+ * <p>
+ * <h2>Reuse Port</h2>
+ * By default all the acceptor threads accept from a single listening channel.  If
+ * {@link #setReusePort(boolean)} is true and the platform supports the SO_REUSEPORT
+ * socket option, then a listening channel is opened on the same port for each acceptor,
+ * so that the kernel balances new connections across the acceptors.  Each acceptor
+ * registers its connections in turn with the selectors it owns (for acceptor i, the
+ * selectors i, i+acceptors, i+2*acceptors, ...), so that all the selectors are used
+ * when there are more selectors than acceptors.
  *
  */
 @ManagedObject("HTTP connector using NIO ByteChannels and Selectors")
 public class ServerConnector extends AbstractNetworkConnector
 {
+    private static final SocketOption<Boolean> SO_REUSEPORT = findReusePortOption();
+
     private final SelectorManager _manager;
     private volatile ServerSocketChannel _acceptChannel;
+    private volatile ServerSocketChannel[] _acceptChannels;
     private volatile boolean _inheritChannel = false;
     private volatile int _localPort = -1;
     private volatile int _acceptQueueSize = 0;
     private volatile boolean _reuseAddress = true;
     private volatile int _lingerTime = -1;
+    private volatile boolean _reusePort = false;
+    private final int[] _acceptCounts;
 
 
     /* ------------------------------------------------------------ */
@@ -170,6 +186,7 @@ public class ServerConnector extends AbstractNetworkConnector
         super(server,executor,scheduler,bufferPool,acceptors,factories);
         _manager = new ServerConnectorManager(getExecutor(), getScheduler(), selectors > 0 ? selectors : Runtime.getRuntime().availableProcessors());
         addBean(_manager, true);
+        _acceptCounts = new int[getAcceptors()];
     }
 
     @Override
@@ -221,16 +238,54 @@ public class ServerConnector extends AbstractNetworkConnector
 
             if (serverChannel == null)
             {
-                serverChannel = ServerSocketChannel.open();
+                boolean reusePort = isReusePort() && getAcceptors() > 1;
+                if (reusePort && SO_REUSEPORT == null)
+                {
+                    LOG.warn("SO_REUSEPORT not supported, using a single channel for {}", this);
+                    reusePort = false;
+                }
 
-                InetSocketAddress bindAddress = getHost() == null ? new InetSocketAddress(getPort()) : new InetSocketAddress(getHost(), getPort());
-                serverChannel.socket().bind(bindAddress, getAcceptQueueSize());
-                serverChannel.socket().setReuseAddress(getReuseAddress());
+                serverChannel = openServerChannel(getPort(), reusePort);
+                if (reusePort && (!serverChannel.supportedOptions().contains(SO_REUSEPORT) ||
+                        !Boolean.TRUE.equals(serverChannel.getOption(SO_REUSEPORT))))
+                {
+                    LOG.warn("SO_REUSEPORT not supported, using a single channel for {}", this);
+                    reusePort = false;
+                }
 
                 _localPort = serverChannel.socket().getLocalPort();
                 if (_localPort <= 0)
                     throw new IOException("Server channel not bound");
 
+                if (reusePort)
+                {
+                    ServerSocketChannel[] channels = new ServerSocketChannel[getAcceptors()];
+                    channels[0] = serverChannel;
+                    try
+                    {
+                        // Bind to the local port, in case an ephemeral port was asked for
+                        for (int i = 1; i < channels.length; i++)
+                        {
+                            channels[i] = openServerChannel(_localPort, true);
+                            channels[i].configureBlocking(true);
+                            addBean(channels[i]);
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        for (ServerSocketChannel channel : channels)
+                        {
+                            if (channel != null)
+                            {
+                                removeBean(channel);
+                                channel.close();
+                            }
+                        }
+                        throw e;
+                    }
+                    _acceptChannels = channels;
+                }
+
                 addBean(serverChannel);
             }
 
@@ -241,6 +296,26 @@ public class ServerConnector extends AbstractNetworkConnector
         }
     }
 
+    private ServerSocketChannel openServerChannel(int port, boolean reusePort) throws IOException
+    {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try
+        {
+            if (reusePort && serverChannel.supportedOptions().contains(SO_REUSEPORT))
+                serverChannel.setOption(SO_REUSEPORT, true);
+
+            InetSocketAddress bindAddress = getHost() == null ? new InetSocketAddress(port) : new InetSocketAddress(getHost(), port);
+            serverChannel.socket().bind(bindAddress, getAcceptQueueSize());
+            serverChannel.socket().setReuseAddress(getReuseAddress());
+            return serverChannel;
+        }
+        catch (IOException e)
+        {
+            serverChannel.close();
+            throw e;
+        }
+    }
+
     @Override
     public Future<Void> shutdown()
     {
@@ -251,6 +326,25 @@ public class ServerConnector extends AbstractNetworkConnector
     @Override
     public void close()
     {
+        ServerSocketChannel[] channels = _acceptChannels;
+        _acceptChannels = null;
+        if (channels != null)
+        {
+            // The first channel is the accept channel, closed below
+            for (int i = 1; i < channels.length; i++)
+            {
+                removeBean(channels[i]);
+                try
+                {
+                    channels[i].close();
+                }
+                catch (IOException e)
+                {
+                    LOG.warn(e);
+                }
+            }
+        }
+
         ServerSocketChannel serverChannel = _acceptChannel;
         _acceptChannel = null;
 
@@ -278,17 +372,40 @@ public class ServerConnector extends AbstractNetworkConnector
     @Override
     public void accept(int acceptorID) throws IOException
     {
-        ServerSocketChannel serverChannel = _acceptChannel;
+        ServerSocketChannel[] channels = _acceptChannels;
+        ServerSocketChannel serverChannel = channels == null ? _acceptChannel : channels[acceptorID];
         if (serverChannel != null && serverChannel.isOpen())
         {
             SocketChannel channel = serverChannel.accept();
             channel.configureBlocking(false);
             Socket socket = channel.socket();
             configure(socket);
-            _manager.accept(channel);
+            if (channels == null)
+                _manager.accept(channel);
+            else
+                _manager.accept(nextSelector(acceptorID), channel);
         }
     }
 
+    /**
+     * @param acceptorID the acceptor that accepted a connection
+     * @return the index of the selector to register the connection with, taken in turn
+     * from the selectors owned by the acceptor
+     */
+    int nextSelector(int acceptorID)
+    {
+        int acceptors = _acceptCounts.length;
+        int selectors = _manager.getSelectorCount();
+        if (selectors <= acceptors)
+            return acceptorID % selectors;
+
+        // Only called by the thread of this acceptor, so the count needs no synchronization
+        int owned = (selectors - acceptorID + acceptors - 1) / acceptors;
+        int count = _acceptCounts[acceptorID];
+        _acceptCounts[acceptorID] = (count + 1) % owned;
+        return acceptorID + count * acceptors;
+    }
+
     protected void configure(Socket socket)
     {
         try
@@ -382,6 +499,55 @@ public class ServerConnector extends AbstractNetworkConnector
         _reuseAddress = reuseAddress;
     }
 
+    /**
+     * @return whether a listening channel is opened for each acceptor
+     * @see #setReusePort(boolean)
+     */
+    @ManagedAttribute("Whether each acceptor has its own listening channel, bound with SO_REUSEPORT")
+    public boolean isReusePort()
+    {
+        return _reusePort;
+    }
+
+    /**
+     * <p>Sets whether a listening channel is opened with SO_REUSEPORT for each acceptor,
+     * rather than all the acceptors accepting from a single channel.</p>
+     * <p>If the platform does not support SO_REUSEPORT, a single channel is used.
+     * This setting takes effect when the connector is opened.</p>
+     *
+     * @param reusePort whether a listening channel is opened for each acceptor
+     */
+    public void setReusePort(boolean reusePort)
+    {
+        _reusePort = reusePort;
+    }
+
+    /**
+     * @return the number of listening channels currently open
+     */
+    @ManagedAttribute("The number of listening channels")
+    public int getAcceptChannels()
+    {
+        ServerSocketChannel[] channels = _acceptChannels;
+        if (channels != null)
+            return channels.length;
+        return _acceptChannel == null ? 0 : 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> findReusePortOption()
+    {
+        // StandardSocketOptions.SO_REUSEPORT is only available from Java 9
+        try
+        {
+            return (SocketOption<Boolean>)StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
     private final class ServerConnectorManager extends SelectorManager
     {
         private ServerConnectorManager(Executor executor, Scheduler scheduler, int selectors)
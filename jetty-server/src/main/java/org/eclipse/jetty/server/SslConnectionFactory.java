@@ -34,6 +34,14 @@ public class SslConnectionFactory extends AbstractConnectionFactory
 {
     private final SslContextFactory _sslContextFactory;
     private final String _nextProtocol;
+    private final SslConnection.HandshakeListener _handshakeListener = new SslConnection.HandshakeListener()
+    {
+        @Override
+        public void handshakeSucceeded(SslConnection connection, boolean resumed)
+        {
+            _sslContextFactory.onHandshakeSucceeded(resumed);
+        }
+    };
 
     public SslConnectionFactory()
     {
@@ -79,6 +87,7 @@ public class SslConnectionFactory extends AbstractConnectionFactory
 
         SslConnection sslConnection = newSslConnection(connector, endPoint, engine);
         sslConnection.setRenegotiationAllowed(_sslContextFactory.isRenegotiationAllowed());
+        sslConnection.setHandshakeListener(_handshakeListener);
         configure(sslConnection, connector, endPoint);
 
         ConnectionFactory next = connector.getConnectionFactory(_nextProtocol);
@@ -33,6 +33,7 @@ import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.io.WriterOutputStream;
+import org.eclipse.jetty.server.HttpOutput;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.server.handler.ContextHandler.Context;
@@ -65,6 +66,7 @@ public class ResourceHandler extends HandlerWrapper
     String _cacheControl;
     boolean _directory;
     boolean _etags;
+    int _minAsyncContentLength=16384;
 
     /* ------------------------------------------------------------ */
     public ResourceHandler()
@@ -120,6 +122,26 @@ public class ResourceHandler extends HandlerWrapper
         _etags = etags;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The min size in bytes of the content sent asynchronously, or -1 if content is never sent asynchronously
+     */
+    public int getMinAsyncContentLength()
+    {
+        return _minAsyncContentLength;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param minAsyncContentLength The min size in bytes of the content sent asynchronously, so that the
+     * thread is not held by slow clients, or -1 if content is never sent asynchronously.
+     * Smaller content is written without waiting, as it fits in the output buffers.
+     */
+    public void setMinAsyncContentLength(int minAsyncContentLength)
+    {
+        _minAsyncContentLength = minAsyncContentLength;
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     public void doStart()
@@ -443,13 +465,17 @@ public class ResourceHandler extends HandlerWrapper
         catch(IllegalStateException e) {out = new WriterOutputStream(response.getWriter());}
 
         // See if a short direct method can be used?
-        /* TODO file mapped buffers
         if (out instanceof HttpOutput)
         {
-            // TODO file mapped buffers
-            ((HttpOutput)out).send(resource.getInputStream());
+            if (request.isAsyncSupported() && _minAsyncContentLength>=0 && resource.length()>=_minAsyncContentLength)
+            {
+                // Send large content asynchronously, so that the thread is not held by slow clients
+                ((HttpOutput)out).sendContent(resource,request.startAsync(),null);
+            }
+            else
+                ((HttpOutput)out).sendContent(resource);
         }
-        else*/
+        else
         {
             // Write content normally
             resource.writeTo(out,0,resource.length());
@@ -36,11 +36,14 @@ import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.HistogramStatistic;
 import org.eclipse.jetty.util.statistic.SampleStatistic;
 
 @ManagedObject("Request Statistics Gathering")
 public class StatisticsHandler extends HandlerWrapper
 {
+    private static final String ASYNC_WAIT_STARTED = StatisticsHandler.class.getName()+".asyncWaitStarted";
+
     private final AtomicLong _statsStartedAt = new AtomicLong();
 
     private final CounterStatistic _requestStats = new CounterStatistic();
@@ -48,6 +51,9 @@ public class StatisticsHandler extends HandlerWrapper
     private final CounterStatistic _dispatchedStats = new CounterStatistic();
     private final SampleStatistic _dispatchedTimeStats = new SampleStatistic();
     private final CounterStatistic _asyncWaitStats = new CounterStatistic();
+    private final HistogramStatistic _requestTimeHistogram = new HistogramStatistic();
+    private final HistogramStatistic _dispatchedTimeHistogram = new HistogramStatistic();
+    private final HistogramStatistic _asyncWaitTimeHistogram = new HistogramStatistic();
 
     private final AtomicInteger _asyncDispatches = new AtomicInteger();
     private final AtomicInteger _expires = new AtomicInteger();
@@ -89,11 +95,15 @@ public class StatisticsHandler extends HandlerWrapper
 
             _requestStats.decrement();
             _requestTimeStats.set(elapsed);
+            _requestTimeHistogram.set(elapsed);
 
             updateResponse(request);
 
             if (!state.isDispatched())
+            {
                 _asyncWaitStats.decrement();
+                updateAsyncWait(request,System.currentTimeMillis());
+            }
         }
 
     };
@@ -111,6 +121,9 @@ public class StatisticsHandler extends HandlerWrapper
         _dispatchedStats.reset();
         _dispatchedTimeStats.reset();
         _asyncWaitStats.reset();
+        _requestTimeHistogram.reset();
+        _dispatchedTimeHistogram.reset();
+        _asyncWaitTimeHistogram.reset();
 
         _asyncDispatches.set(0);
         _expires.set(0);
@@ -140,6 +153,7 @@ public class StatisticsHandler extends HandlerWrapper
             // resumed request
             start = System.currentTimeMillis();
             _asyncWaitStats.decrement();
+            updateAsyncWait(request,start);
             if (state.isDispatched())
                 _asyncDispatches.incrementAndGet();
         }
@@ -155,23 +169,36 @@ public class StatisticsHandler extends HandlerWrapper
 
             _dispatchedStats.decrement();
             _dispatchedTimeStats.set(dispatched);
+            _dispatchedTimeHistogram.set(dispatched);
 
             if (state.isSuspended())
             {
                 if (state.isInitial())
                     state.addListener(_onCompletion);
                 _asyncWaitStats.increment();
+                request.setAttribute(ASYNC_WAIT_STARTED,now);
             }
             else if (state.isInitial())
             {
                 _requestStats.decrement();
                 _requestTimeStats.set(dispatched);
+                _requestTimeHistogram.set(dispatched);
                 updateResponse(request);
             }
             // else onCompletion will handle it.
         }
     }
 
+    private void updateAsyncWait(Request request, long now)
+    {
+        Object started = request.getAttribute(ASYNC_WAIT_STARTED);
+        if (started instanceof Long)
+        {
+            request.removeAttribute(ASYNC_WAIT_STARTED);
+            _asyncWaitTimeHistogram.set(now-(Long)started);
+        }
+    }
+
     private void updateResponse(Request request)
     {
         Response response = request.getResponse();
@@ -287,6 +314,26 @@ public class StatisticsHandler extends HandlerWrapper
         return _requestTimeStats.getStdDev();
     }
 
+    /**
+     * @return the percentiles of the time (in milliseconds) of request handling
+     * since {@link #statsReset()} was last called.
+     * @see #getRequestTimeHistogram()
+     */
+    @ManagedAttribute("percentiles of the time spent handling requests (in ms)")
+    public String getRequestTimePercentiles()
+    {
+        return _requestTimeHistogram.getSnapshot().toString();
+    }
+
+    /**
+     * @return the histogram of the time (in milliseconds) of request handling,
+     * from which interval snapshots may be taken
+     */
+    public HistogramStatistic getRequestTimeHistogram()
+    {
+        return _requestTimeHistogram;
+    }
+
     /**
      * @return the number of dispatches seen by this handler
      * since {@link #statsReset()} was last called, excluding
@@ -364,6 +411,26 @@ public class StatisticsHandler extends HandlerWrapper
         return _dispatchedTimeStats.getStdDev();
     }
 
+    /**
+     * @return the percentiles of the time (in milliseconds) of dispatch handling
+     * since {@link #statsReset()} was last called.
+     * @see #getDispatchedTimeHistogram()
+     */
+    @ManagedAttribute("percentiles of the time spent in dispatch handling (in ms)")
+    public String getDispatchedTimePercentiles()
+    {
+        return _dispatchedTimeHistogram.getSnapshot().toString();
+    }
+
+    /**
+     * @return the histogram of the time (in milliseconds) of dispatch handling,
+     * from which interval snapshots may be taken
+     */
+    public HistogramStatistic getDispatchedTimeHistogram()
+    {
+        return _dispatchedTimeHistogram;
+    }
+
     /**
      * @return the number of requests handled by this handler
      * since {@link #statsReset()} was last called, including
@@ -396,6 +463,26 @@ public class StatisticsHandler extends HandlerWrapper
         return (int)_asyncWaitStats.getMax();
     }
 
+    /**
+     * @return the percentiles of the time (in milliseconds) that async requests
+     * waited to be resumed or completed since {@link #statsReset()} was last called.
+     * @see #getAsyncWaitTimeHistogram()
+     */
+    @ManagedAttribute("percentiles of the time async requests waited (in ms)")
+    public String getAsyncWaitTimePercentiles()
+    {
+        return _asyncWaitTimeHistogram.getSnapshot().toString();
+    }
+
+    /**
+     * @return the histogram of the time (in milliseconds) that async requests
+     * waited to be resumed or completed, from which interval snapshots may be taken
+     */
+    public HistogramStatistic getAsyncWaitTimeHistogram()
+    {
+        return _asyncWaitTimeHistogram;
+    }
+
     /**
      * @return the number of requests that have been asynchronously dispatched
      */
@@ -498,6 +585,7 @@ public class StatisticsHandler extends HandlerWrapper
         sb.append("Mean request time: ").append(getRequestTimeMean()).append("<br />\n");
         sb.append("Max request time: ").append(getRequestTimeMax()).append("<br />\n");
         sb.append("Request time standard deviation: ").append(getRequestTimeStdDev()).append("<br />\n");
+        sb.append("Request time percentiles: ").append(getRequestTimePercentiles()).append("<br />\n");
 
 
         sb.append("<h2>Dispatches:</h2>\n");
@@ -508,11 +596,13 @@ public class StatisticsHandler extends HandlerWrapper
         sb.append("Mean dispatched time: ").append(getDispatchedTimeMean()).append("<br />\n");
         sb.append("Max dispatched time: ").append(getDispatchedTimeMax()).append("<br />\n");
         sb.append("Dispatched time standard deviation: ").append(getDispatchedTimeStdDev()).append("<br />\n");
+        sb.append("Dispatched time percentiles: ").append(getDispatchedTimePercentiles()).append("<br />\n");
 
 
         sb.append("Total requests suspended: ").append(getAsyncRequests()).append("<br />\n");
         sb.append("Total requests expired: ").append(getExpires()).append("<br />\n");
         sb.append("Total requests resumed: ").append(getAsyncDispatches()).append("<br />\n");
+        sb.append("Async wait time percentiles: ").append(getAsyncWaitTimePercentiles()).append("<br />\n");
 
         sb.append("<h2>Responses:</h2>\n");
         sb.append("1xx responses: ").append(getResponses1xx()).append("<br />\n");
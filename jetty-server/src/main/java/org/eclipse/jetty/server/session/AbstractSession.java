@@ -229,6 +229,15 @@ public abstract class AbstractSession implements AbstractSessionManager.SessionI
         return (int)(_maxIdleMs/1000);
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the max inactive interval in milliseconds, without checking that the session is valid
+     */
+    public long getMaxInactiveMs()
+    {
+        return _maxIdleMs;
+    }
+
     /* ------------------------------------------------------------ */
     /*
      * @see javax.servlet.http.HttpSession#getServletContext()
@@ -18,6 +18,7 @@
 
 package org.eclipse.jetty.server.session;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
@@ -25,12 +26,13 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
@@ -38,6 +40,8 @@ import javax.servlet.http.HttpServletRequest;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.util.ClassLoadingObjectInputStream;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.eclipse.jetty.util.thread.TimerWheel;
 
 
 /* ------------------------------------------------------------ */
@@ -51,6 +55,13 @@ import org.eclipse.jetty.util.log.Logger;
  * <p>
  * This manager will create it's own Timer instance to scavenge threads, unless it discovers a shared Timer instance
  * set as the "org.eclipse.jetty.server.session.timer" attribute of the ContextHandler.
+ * The sessions are registered with a {@link TimerWheel} at their next expiry or idle deadline, which is
+ * advanced at each scavenge, so that a scavenge only looks at the sessions that may have expired
+ * rather than at all the sessions.
+ * <p>
+ * By default each saved session is written to its own file in the store directory. With a segmented store,
+ * the saved sessions are instead appended to the segment files of a {@link SessionSegmentStore} in the
+ * "segments" subdirectory, and are only restored when they are first accessed.
  *
  */
 public class HashSessionManager extends AbstractSessionManager
@@ -70,6 +81,10 @@ public class HashSessionManager extends AbstractSessionManager
     private boolean _lazyLoad=false;
     private volatile boolean _sessionsLoaded=false;
     private boolean _deleteUnrestorableSessions=false;
+    private boolean _segmentedStore=false;
+    private long _segmentSize=64*1024*1024;
+    volatile SessionSegmentStore _segmentStore;
+    private final TimerWheel _expiries=new TimerWheel(100,TimeUnit.MILLISECONDS);
 
 
 
@@ -89,6 +104,8 @@ public class HashSessionManager extends AbstractSessionManager
     {
         super.doStart();
 
+        _expiries.start();
+
         _timerStop=false;
         ServletContext context = ContextHandler.getCurrentContext();
         if (context!=null)
@@ -106,6 +123,14 @@ public class HashSessionManager extends AbstractSessionManager
             if (!_storeDir.exists())
                 _storeDir.mkdirs();
 
+            if (_segmentedStore)
+            {
+                SessionSegmentStore store=new SessionSegmentStore(new File(_storeDir,"segments"));
+                store.setSegmentSize(_segmentSize);
+                store.open();
+                _segmentStore=store;
+            }
+
             if (!_lazyLoad)
                 restoreSessions();
         }
@@ -138,6 +163,13 @@ public class HashSessionManager extends AbstractSessionManager
         super.doStop();
 
         _sessions.clear();
+        _expiries.stop();
+
+        if (_segmentStore!=null)
+        {
+            _segmentStore.close();
+            _segmentStore=null;
+        }
 
     }
 
@@ -306,35 +338,42 @@ public class HashSessionManager extends AbstractSessionManager
             if (_loader!=null)
                 thread.setContextClassLoader(_loader);
 
-            // For each session
+            // Expire or idle the sessions whose deadline has passed
             long now=System.currentTimeMillis();
-          
-            for (Iterator<HashedSession> i=_sessions.values().iterator(); i.hasNext();)
+            _expiries.tick(now);
+
+            SessionSegmentStore store=_segmentStore;
+            if (store!=null)
             {
-                HashedSession session=i.next();
-                long idleTime=session.getMaxInactiveInterval()*1000L; 
-                if (idleTime>0&&session.getAccessed()+idleTime<now)
+                // Restore the expired sessions that were never restored, so that their listeners are notified
+                // when they are timed out, and reclaim the space of the removed sessions
+                try
                 {
-                    // Found a stale session, add it to the list
-                    try
+                    for (String idInCluster : store.getExpired(now,_sessions.keySet()))
                     {
-                        session.timeout();
-                    }
-                    catch (Exception e)
-                    {
-                        __log.warn("Problem scavenging sessions", e);
+                        HashedSession session=restoreSession(idInCluster);
+                        if (session!=null)
+                        {
+                            try
+                            {
+                                session.timeout();
+                            }
+                            catch (Exception e)
+                            {
+                                __log.warn("Problem scavenging sessions", e);
+                            }
+                        }
+                        else if (store.remove(idInCluster))
+                        {
+                            // The listeners of a session that cannot be restored cannot be notified
+                            __log.warn("Removed unrestorable expired session "+idInCluster);
+                        }
                     }
+                    store.compact();
                 }
-                else if (_idleSavePeriodMs > 0 && session.getAccessed()+_idleSavePeriodMs < now)
+                catch (Exception e)
                 {
-                    try
-                    {
-                        session.idle();
-                    }
-                    catch (Exception e)
-                    {
-                        __log.warn("Problem idling session "+ session.getId(), e);
-                    }
+                    __log.warn("Problem compacting session store", e);
                 }
             }
         }       
@@ -344,12 +383,97 @@ public class HashSessionManager extends AbstractSessionManager
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Expire or idle a session registered with the expiry wheel, or register it again
+     * at its next deadline if it has been accessed since it was registered.
+     */
+    private void expire(HashedSession session)
+    {
+        // The session may have been removed, or registered again, since this expiry was scheduled
+        if (isStopping() || isStopped() || _sessions.get(session.getClusterId())!=session)
+            return;
+
+        long now=System.currentTimeMillis();
+        long idleTime=session.getMaxInactiveMs();
+        if (idleTime>0&&session.getAccessed()+idleTime<now)
+        {
+            try
+            {
+                session.timeout();
+            }
+            catch (Exception e)
+            {
+                __log.warn("Problem scavenging sessions", e);
+            }
+            return;
+        }
+
+        if (_idleSavePeriodMs > 0 && !session.isIdled() && session.getAccessed()+_idleSavePeriodMs < now)
+        {
+            try
+            {
+                session.idle();
+            }
+            catch (Exception e)
+            {
+                __log.warn("Problem idling session "+ session.getId(), e);
+            }
+        }
+
+        scheduleExpiry(session);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Register the session with the expiry wheel at its next expiry or idle deadline,
+     * replacing any previous registration. The wheel rounds deadlines up to its tick, so the
+     * session is registered a tick early and {@link #expire(HashedSession)} checks the exact deadline.
+     */
+    void scheduleExpiry(final HashedSession session)
+    {
+        if (!_expiries.isRunning() || _sessions.get(session.getClusterId())!=session)
+            return;
+
+        long accessed=session.getAccessed();
+        long deadline=Long.MAX_VALUE;
+        long idleTime=session.getMaxInactiveMs();
+        if (idleTime>0)
+            deadline=accessed+idleTime;
+        if (_idleSavePeriodMs>0 && !session.isIdled())
+            deadline=Math.min(deadline,accessed+_idleSavePeriodMs);
+
+        Scheduler.Task task=null;
+        if (deadline!=Long.MAX_VALUE)
+        {
+            try
+            {
+                task=_expiries.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        expire(session);
+                    }
+                },Math.max(0,deadline-System.currentTimeMillis()-_expiries.getTickMillis()),TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                LOG.ignore(e);
+            }
+        }
+        session.setExpiry(task);
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     protected void addSession(AbstractSession session)
     {
         if (isRunning())
+        {
             _sessions.put(session.getClusterId(),(HashedSession)session);
+            scheduleExpiry((HashedSession)session);
+        }
     }
 
     /* ------------------------------------------------------------ */
@@ -374,13 +498,27 @@ public class HashSessionManager extends AbstractSessionManager
 
         HashedSession session = sessions.get(idInCluster);
 
-        if (session == null && _lazyLoad)
-            session=restoreSession(idInCluster);
+        if (session == null)
+        {
+            SessionSegmentStore store=_segmentStore;
+            if (store!=null)
+            {
+                // Only take the manager lock for the ids held by the segments, not for every unknown or forged id
+                if (store.contains(idInCluster))
+                    session=restoreSession(idInCluster);
+            }
+            else if (_lazyLoad)
+                session=restoreSession(idInCluster);
+        }
         if (session == null)
             return null;
 
-        if (_idleSavePeriodMs!=0)
+        if (_idleSavePeriodMs!=0 && session.isIdled())
+        {
             session.deIdle();
+            // A session that has been idled is only registered at its expiry deadline
+            scheduleExpiry(session);
+        }
 
         return session;
     }
@@ -463,7 +601,11 @@ public class HashSessionManager extends AbstractSessionManager
     @Override
     protected boolean removeSession(String clusterId)
     {
-        return _sessions.remove(clusterId)!=null;
+        HashedSession session=_sessions.remove(clusterId);
+        if (session==null)
+            return false;
+        session.setExpiry(null);
+        return true;
     }
 
     /* ------------------------------------------------------------ */
@@ -504,6 +646,54 @@ public class HashSessionManager extends AbstractSessionManager
         _deleteUnrestorableSessions = deleteUnrestorableSessions;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return whether saved sessions are appended to segment files rather than written to one file per session
+     */
+    public boolean isSegmentedStore()
+    {
+        return _segmentedStore;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Sets whether saved sessions are appended to the segment files of a {@link SessionSegmentStore} in the
+     * "segments" subdirectory of the store directory, rather than written to one file per session.
+     * The sessions of a segmented store are restored when they are first accessed, whether or not lazy load is set.
+     * @param segmentedStore whether saved sessions are appended to segment files
+     */
+    public void setSegmentedStore(boolean segmentedStore)
+    {
+        _segmentedStore = segmentedStore;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the size in bytes after which a new segment file is started
+     */
+    public long getSegmentSize()
+    {
+        return _segmentSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param segmentSize the size in bytes after which a new segment file is started
+     */
+    public void setSegmentSize(long segmentSize)
+    {
+        _segmentSize = segmentSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the segment store, or null if the store is not segmented or the manager is not started
+     */
+    public SessionSegmentStore getSegmentStore()
+    {
+        return _segmentStore;
+    }
+
     /* ------------------------------------------------------------ */
     public void restoreSessions () throws Exception
     {
@@ -520,16 +710,27 @@ public class HashSessionManager extends AbstractSessionManager
             return;
         }
 
+        // The sessions of a segmented store are restored on access, only restore the sessions saved to their own file
         String[] files = _storeDir.list();
         for (int i=0;files!=null&&i<files.length;i++)
         {
-            restoreSession(files[i]);
+            if (new File(_storeDir,files[i]).isFile())
+                restoreFileSession(files[i]);
         }
     }
 
     /* ------------------------------------------------------------ */
     protected synchronized HashedSession restoreSession(String idInCuster)
     {        
+        // The sessions saved to their own file are all restored before any lookup, so only the segments may hold the session
+        if (_segmentStore!=null)
+            return restoreSegmentedSession(idInCuster);
+        return restoreFileSession(idInCuster);
+    }
+
+    /* ------------------------------------------------------------ */
+    private synchronized HashedSession restoreFileSession(String idInCuster)
+    {
         File file = new File(_storeDir,idInCuster);
 
         FileInputStream in = null;
@@ -572,6 +773,46 @@ public class HashSessionManager extends AbstractSessionManager
         return null;
     }
 
+    /* ------------------------------------------------------------ */
+    private HashedSession restoreSegmentedSession(String idInCluster)
+    {
+        // Another request may have restored the session while we waited for the lock
+        HashedSession session=_sessions.get(idInCluster);
+        if (session!=null)
+            return session;
+
+        try
+        {
+            byte[] data=_segmentStore.get(idInCluster);
+            if (data==null)
+                return null;
+            session=restoreSession(new ByteArrayInputStream(data), null);
+            addSession(session, false);
+            session.didActivate();
+            return session;
+        }
+        catch (Exception e)
+        {
+            if (isDeleteUnrestorableSessions())
+            {
+                LOG.warn("Deleting unrestorable session "+idInCluster, e);
+                try
+                {
+                    _segmentStore.remove(idInCluster);
+                }
+                catch (IOException x)
+                {
+                    LOG.ignore(x);
+                }
+            }
+            else
+            {
+                __log.warn("Problem restoring session "+idInCluster, e);
+            }
+        }
+        return null;
+    }
+
     /* ------------------------------------------------------------ */
     public void saveSessions(boolean reactivate) throws Exception
     {
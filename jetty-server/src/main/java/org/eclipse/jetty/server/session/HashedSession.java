@@ -18,6 +18,8 @@
 
 package org.eclipse.jetty.server.session;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -33,6 +35,7 @@ import javax.servlet.http.HttpServletRequest;
 import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.Scheduler;
 
 public class HashedSession extends AbstractSession
 {
@@ -51,6 +54,9 @@ public class HashedSession extends AbstractSession
      * data stored in the session that is not serializable. */
     private transient boolean _saveFailed = false;
 
+    /** The registration of the session with the expiry wheel of the manager */
+    private transient Scheduler.Task _expiry;
+
     /* ------------------------------------------------------------- */
     protected HashedSession(HashSessionManager hashSessionManager, HttpServletRequest request)
     {
@@ -80,6 +86,24 @@ public class HashedSession extends AbstractSession
         super.setMaxInactiveInterval(secs);
         if (getMaxInactiveInterval()>0&&(getMaxInactiveInterval()*1000L/10)<_hashSessionManager._scavengePeriodMs)
             _hashSessionManager.setScavengePeriod((secs+9)/10);
+        _hashSessionManager.scheduleExpiry(this);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Replace the registration of the session with the expiry wheel, cancelling the previous one.
+     * @param expiry the new registration, or null
+     */
+    void setExpiry(Scheduler.Task expiry)
+    {
+        Scheduler.Task old;
+        synchronized (this)
+        {
+            old=_expiry;
+            _expiry=expiry;
+        }
+        if (old!=null)
+            old.cancel();
     }
 
     /* ------------------------------------------------------------ */
@@ -98,7 +122,19 @@ public class HashedSession extends AbstractSession
      */
     synchronized void remove ()
     {
-        if (_hashSessionManager._storeDir!=null && getId()!=null)
+        SessionSegmentStore store=_hashSessionManager._segmentStore;
+        if (store!=null)
+        {
+            try
+            {
+                store.remove(getClusterId());
+            }
+            catch (IOException e)
+            {
+                LOG.warn("Problem removing session " + getClusterId(), e);
+            }
+        }
+        else if (_hashSessionManager._storeDir!=null && getId()!=null)
         {
             String id=getId();
             File f = new File(_hashSessionManager._storeDir, id);
@@ -140,7 +176,23 @@ public class HashedSession extends AbstractSession
     {   
         File file = null;
         FileOutputStream fos = null;
-        if (!_saveFailed && _hashSessionManager._storeDir != null)
+        SessionSegmentStore store = _hashSessionManager._segmentStore;
+        if (!_saveFailed && store != null)
+        {
+            try
+            {
+                ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                save(bout);
+                long expiry = getMaxInactiveInterval() > 0 ? getAccessed() + getMaxInactiveInterval() * 1000L : 0;
+                store.put(getClusterId(), expiry, bout.toByteArray());
+            }
+            catch (Exception e)
+            {
+                saveFailed();
+                throw e;
+            }
+        }
+        else if (!_saveFailed && _hashSessionManager._storeDir != null)
         {
             try
             {
@@ -212,6 +264,24 @@ public class HashedSession extends AbstractSession
 
             try
             {
+                SessionSegmentStore store = _hashSessionManager._segmentStore;
+                if (store != null)
+                {
+                    byte[] data = store.get(getClusterId());
+                    if (data == null)
+                        throw new FileNotFoundException(getClusterId());
+
+                    _idled = false;
+                    _hashSessionManager.restoreSession(new ByteArrayInputStream(data), this);
+
+                    didActivate();
+
+                    // If we are doing period saves, then there is no point removing at this point
+                    if (_hashSessionManager._savePeriodMs == 0)
+                        store.remove(getClusterId());
+                    return;
+                }
+
                 File file = new File(_hashSessionManager._storeDir, super.getId());
                 if (!file.exists() || !file.canRead())
                     throw new FileNotFoundException(file.getName());
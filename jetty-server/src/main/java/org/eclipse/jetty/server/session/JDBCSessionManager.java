@@ -29,11 +29,17 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.servlet.http.HttpServletRequest;
@@ -69,6 +75,12 @@ import org.eclipse.jetty.util.log.Logger;
  * the accessTime and lastAccessTime every time the session is accessed. Rather,
  * we write it out every so often. The frequency is controlled by the saveIntervalSec
  * field.
+ *
+ * To take the database round trips out of the request latency, the changes can also be
+ * written behind (see {@link #setWriteBehindInterval(long)}): sessions changed by a request
+ * are then queued in memory, coalescing the changes of successive requests, and written by
+ * a background thread in JDBC batches, at most writeBehindInterval milliseconds later and
+ * when the manager is stopped.
  */
 public class JDBCSessionManager extends AbstractSessionManager
 {
@@ -77,8 +89,17 @@ public class JDBCSessionManager extends AbstractSessionManager
     private ConcurrentHashMap<String, AbstractSession> _sessions;
     protected JDBCSessionIdManager _jdbcSessionIdMgr = null;
     protected long _saveIntervalSec = 60; //only persist changes to session access times every 60 secs
+    protected long _writeBehindIntervalMs = 0; //write session changes synchronously by default
+
+    private static final int WRITE_NONE = 0;
+    private static final int WRITE_ACCESS_TIME = 1;
+    private static final int WRITE_ALL = 2;
+
+    private final ConcurrentLinkedQueue<Session> _pendingWrites = new ConcurrentLinkedQueue<Session>();
+    private final AtomicLong _statements = new AtomicLong();
+    private final AtomicLong _batches = new AtomicLong();
+    private Timer _writeBehindTimer;
 
-   
 
 
     /**
@@ -96,6 +117,18 @@ public class JDBCSessionManager extends AbstractSessionManager
         private boolean _dirty=false;
         
         
+        /**
+         * Changes waiting to be written behind: WRITE_NONE, WRITE_ACCESS_TIME or WRITE_ALL
+         */
+        private int _pendingWrite=WRITE_NONE;
+
+
+        /**
+         * True while the background writer is writing the session
+         */
+        private boolean _writing=false;
+
+
         /**
          * Time in msec since the epoch that a session cookie was set for this session
          */
@@ -241,6 +274,14 @@ public class JDBCSessionManager extends AbstractSessionManager
             return _lastNode;
         }
 
+        /**
+         * @return true if changes to this session have not been written to the database yet
+         */
+        public synchronized boolean isWritePending ()
+        {
+            return _pendingWrite != WRITE_NONE || _writing;
+        }
+
         @Override
         public void setAttribute (String name, Object value)
         {
@@ -301,7 +342,10 @@ public class JDBCSessionManager extends AbstractSessionManager
                 //force the session to be written out right now
                 try
                 {
-                    updateSessionAccessTime(this);
+                    if (isWriteBehind())
+                        writeBehind(this, WRITE_ACCESS_TIME);
+                    else
+                        updateSessionAccessTime(this);
                 }
                 catch (Exception e)
                 {
@@ -325,15 +369,26 @@ public class JDBCSessionManager extends AbstractSessionManager
                 {
                     if (_dirty)
                     {
-                        //The session attributes have changed, write to the db, ensuring
-                        //http passivation/activation listeners called
-                        willPassivate();                      
-                        updateSession(this);
-                        didActivate();
+                        if (isWriteBehind())
+                        {
+                            //The session attributes have changed, queue the session for the background writer
+                            writeBehind(this, WRITE_ALL);
+                        }
+                        else
+                        {
+                            //The session attributes have changed, write to the db, ensuring
+                            //http passivation/activation listeners called
+                            willPassivate();
+                            updateSession(this);
+                            didActivate();
+                        }
                     }
                     else if ((getAccessed() - _lastSaved) >= (getSaveInterval() * 1000L))
                     {
-                        updateSessionAccessTime(this);
+                        if (isWriteBehind())
+                            writeBehind(this, WRITE_ACCESS_TIME);
+                        else
+                            updateSessionAccessTime(this);
                     }
                 }
                 catch (Exception e)
@@ -413,6 +468,241 @@ public class JDBCSessionManager extends AbstractSessionManager
     }
 
 
+    /**
+     * Set the maximum time in milliseconds that changes to a session
+     * may wait before they are written to the database.
+     *
+     * If greater than 0, sessions changed by a request are not written
+     * on the request thread, but queued and written by a background thread
+     * every writeBehindInterval milliseconds, using JDBC batch updates.
+     * Several requests to the same session within an interval result in a
+     * single write. Pending changes are written when the manager is stopped,
+     * but are lost if the node crashes.
+     *
+     * If 0 (the default), sessions are written synchronously at the end of
+     * the request. Changes to this setting take effect when the manager is
+     * (re)started.
+     *
+     * @param ms
+     */
+    public void setWriteBehindInterval (long ms)
+    {
+        _writeBehindIntervalMs=ms;
+    }
+
+    public long getWriteBehindInterval ()
+    {
+        return _writeBehindIntervalMs;
+    }
+
+    /**
+     * @return the number of session update statements executed since the manager was started
+     */
+    public long getUpdateStatements ()
+    {
+        return _statements.get();
+    }
+
+    /**
+     * @return the number of batches written behind since the manager was started
+     */
+    public long getWriteBehindBatches ()
+    {
+        return _batches.get();
+    }
+
+    /**
+     * @return the number of sessions waiting to be written behind
+     */
+    public int getPendingWrites ()
+    {
+        return _pendingWrites.size();
+    }
+
+    private boolean isWriteBehind ()
+    {
+        return _writeBehindTimer != null;
+    }
+
+    /**
+     * Queue a session to be written by the background writer.
+     * Must be called with the session locked.
+     *
+     * @param session the session
+     * @param write WRITE_ACCESS_TIME or WRITE_ALL
+     */
+    private void writeBehind (Session session, int write)
+    {
+        if (session._pendingWrite == WRITE_NONE)
+        {
+            session._pendingWrite = write;
+            _pendingWrites.offer(session);
+        }
+        else if (write > session._pendingWrite)
+            session._pendingWrite = write;
+    }
+
+    /**
+     * Write the queued sessions from the background writer, in the context
+     * of the webapp so that the passivation listeners see its classloader.
+     */
+    private void writePendingSessions ()
+    {
+        Runnable flush = new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    flushPendingWrites();
+                }
+                catch (Exception e)
+                {
+                    LOG.warn("Problem writing sessions behind", e);
+                }
+            }
+        };
+
+        if (_context==null)
+            flush.run();
+        else
+            _context.getContextHandler().handle(flush);
+    }
+
+    /**
+     * Write the sessions queued to be written behind, in one
+     * batch for the changed sessions, and one batch for the sessions
+     * of which only the access time needs saving. The changes of a session
+     * that cannot be serialized are logged and dropped, so that they do
+     * not fail the writes of the other sessions.
+     *
+     * @throws Exception if the sessions could not be written; they are
+     * queued again to be retried
+     */
+    public void flushPendingWrites ()
+    throws Exception
+    {
+        //only one writer at a time, so that a flush on stop waits for the background writer
+        synchronized (_pendingWrites)
+        {
+            if (_pendingWrites.isEmpty())
+                return;
+            writeSessions();
+        }
+    }
+
+    private void writeSessions ()
+    throws Exception
+    {
+        List<Session> sessions = new ArrayList<Session>();
+        List<Integer> writes = new ArrayList<Integer>();
+        Connection connection = null;
+        PreparedStatement updates = null;
+        PreparedStatement accesses = null;
+        boolean written = false;
+        try
+        {
+            long now = System.currentTimeMillis();
+            connection = getConnection();
+            connection.setAutoCommit(false);
+
+            Session session;
+            while ((session = _pendingWrites.poll()) != null)
+            {
+                synchronized (session)
+                {
+                    int write = session._pendingWrite;
+                    session._pendingWrite = WRITE_NONE;
+                    if (write == WRITE_NONE)
+                        continue; //session was deleted
+                    session._writing = true;
+                    sessions.add(session);
+                    writes.add(write);
+
+                    if (write == WRITE_ALL)
+                    {
+                        if (updates == null)
+                            updates = connection.prepareStatement(_jdbcSessionIdMgr._updateSession);
+                        session.willPassivate();
+                        try
+                        {
+                            setUpdateSessionParameters(updates, session, now);
+                            updates.addBatch();
+                        }
+                        catch (Exception e)
+                        {
+                            //eg a non serializable attribute: drop the changes of this session only,
+                            //as a synchronous write would, rather than failing the whole batch forever
+                            LOG.warn("Problem persisting changed session data id="+session.getId(), e);
+                            session._writing = false;
+                            sessions.remove(sessions.size()-1);
+                            writes.remove(writes.size()-1);
+                            continue;
+                        }
+                        finally
+                        {
+                            session.didActivate();
+                        }
+                    }
+                    else
+                    {
+                        if (accesses == null)
+                            accesses = connection.prepareStatement(_jdbcSessionIdMgr._updateSessionAccessTime);
+                        setUpdateSessionAccessTimeParameters(accesses, session, now);
+                        accesses.addBatch();
+                    }
+                }
+            }
+
+            if (updates != null)
+                updates.executeBatch();
+            if (accesses != null)
+                accesses.executeBatch();
+            connection.commit();
+            written = true;
+
+            _statements.addAndGet(sessions.size());
+            _batches.incrementAndGet();
+            for (Session s : sessions)
+            {
+                synchronized (s)
+                {
+                    s._writing = false;
+                    s.setLastSaved(now);
+                }
+            }
+            if (LOG.isDebugEnabled())
+                LOG.debug("Wrote behind {} sessions", sessions.size());
+        }
+        finally
+        {
+            if (!written)
+            {
+                //queue the sessions again, so that the changes are retried
+                for (int i = 0; i < sessions.size(); i++)
+                {
+                    Session s = sessions.get(i);
+                    synchronized (s)
+                    {
+                        s._writing = false;
+                        writeBehind(s, writes.get(i));
+                    }
+                }
+                if (connection != null)
+                {
+                    try { connection.rollback(); }
+                    catch (Exception e) { LOG.ignore(e); }
+                }
+            }
+            if (connection != null)
+            {
+                try { connection.close(); }
+                catch (Exception e) { LOG.warn(e); }
+            }
+        }
+    }
+
+
 
     /**
      * A method that can be implemented in subclasses to support
@@ -489,7 +779,7 @@ public class JDBCSessionManager extends AbstractSessionManager
                         LOG.debug("getSession("+idInCluster+"): no session in session map. Reloading session data from db.");
                         session = loadSession(idInCluster, canonicalize(_context.getContextPath()), getVirtualHost(_context));
                     }
-                    else if ((now - memSession._lastSaved) >= (_saveIntervalSec * 1000L))
+                    else if ((now - memSession._lastSaved) >= (_saveIntervalSec * 1000L) && !memSession.isWritePending())
                     {
                         LOG.debug("getSession("+idInCluster+"): stale session. Reloading session data from db.");
                         session = loadSession(idInCluster, canonicalize(_context.getContextPath()), getVirtualHost(_context));
@@ -590,6 +880,21 @@ public class JDBCSessionManager extends AbstractSessionManager
 
         _sessions = new ConcurrentHashMap<String, AbstractSession>();
 
+        _statements.set(0);
+        _batches.set(0);
+        if (_writeBehindIntervalMs > 0)
+        {
+            _writeBehindTimer = new Timer("JDBCSessionWriter", true);
+            _writeBehindTimer.schedule(new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    writePendingSessions();
+                }
+            }, _writeBehindIntervalMs, _writeBehindIntervalMs);
+        }
+
         super.doStart();
     }
 
@@ -602,6 +907,14 @@ public class JDBCSessionManager extends AbstractSessionManager
     @Override
     public void doStop() throws Exception
     {
+        if (_writeBehindTimer != null)
+        {
+            _writeBehindTimer.cancel();
+            _writeBehindTimer = null;
+            writePendingSessions();
+        }
+        _pendingWrites.clear();
+
         _sessions.clear();
         _sessions = null;
 
@@ -683,7 +996,14 @@ public class JDBCSessionManager extends AbstractSessionManager
             try
             {
                 if (session != null)
+                {
+                    synchronized (session)
+                    {
+                        //no need to write behind a deleted session
+                        session._pendingWrite = WRITE_NONE;
+                    }
                     deleteSession(session);
+                }
             }
             catch (Exception e)
             {
@@ -1023,23 +1343,9 @@ public class JDBCSessionManager extends AbstractSessionManager
             long now = System.currentTimeMillis();
             connection.setAutoCommit(true);
             statement = connection.prepareStatement(_jdbcSessionIdMgr._updateSession);
-            statement.setString(1, data.getId());
-            statement.setString(2, getSessionIdManager().getWorkerName());//my node id
-            statement.setLong(3, data.getAccessed());//accessTime
-            statement.setLong(4, data.getLastAccessedTime()); //lastAccessTime
-            statement.setLong(5, now); //last saved time
-            statement.setLong(6, data.getExpiryTime());
-            statement.setLong(7, data.getMaxInactiveInterval());
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutputStream oos = new ObjectOutputStream(baos);
-            oos.writeObject(data.getAttributeMap());
-            byte[] bytes = baos.toByteArray();
-            ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-
-            statement.setBinaryStream(8, bais, bytes.length);//attribute map as blob
-            statement.setString(9, data.getRowId()); //rowId
+            setUpdateSessionParameters(statement, data, now);
             statement.executeUpdate();
+            _statements.incrementAndGet();
 
             data.setLastSaved(now);
             if (LOG.isDebugEnabled())
@@ -1053,6 +1359,28 @@ public class JDBCSessionManager extends AbstractSessionManager
     }
 
 
+    private void setUpdateSessionParameters (PreparedStatement statement, Session data, long now)
+    throws Exception
+    {
+        statement.setString(1, data.getId());
+        statement.setString(2, getSessionIdManager().getWorkerName());//my node id
+        statement.setLong(3, data.getAccessed());//accessTime
+        statement.setLong(4, data.getLastAccessedTime()); //lastAccessTime
+        statement.setLong(5, now); //last saved time
+        statement.setLong(6, data.getExpiryTime());
+        statement.setLong(7, data.getMaxInactiveInterval());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(data.getAttributeMap());
+        byte[] bytes = baos.toByteArray();
+        ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
+
+        statement.setBinaryStream(8, bais, bytes.length);//attribute map as blob
+        statement.setString(9, data.getRowId()); //rowId
+    }
+
+
     /**
      * Update the node on which the session was last seen to be my node.
      *
@@ -1099,15 +1427,9 @@ public class JDBCSessionManager extends AbstractSessionManager
             long now = System.currentTimeMillis();
             connection.setAutoCommit(true);
             statement = connection.prepareStatement(_jdbcSessionIdMgr._updateSessionAccessTime);
-            statement.setString(1, getSessionIdManager().getWorkerName());
-            statement.setLong(2, data.getAccessed());
-            statement.setLong(3, data.getLastAccessedTime());
-            statement.setLong(4, now);
-            statement.setLong(5, data.getExpiryTime());
-            statement.setLong(6, data.getMaxInactiveInterval());
-            statement.setString(7, data.getRowId());
-          
+            setUpdateSessionAccessTimeParameters(statement, data, now);
             statement.executeUpdate();
+            _statements.incrementAndGet();
             data.setLastSaved(now);
             statement.close();
             if (LOG.isDebugEnabled())
@@ -1123,6 +1445,21 @@ public class JDBCSessionManager extends AbstractSessionManager
 
 
 
+    private void setUpdateSessionAccessTimeParameters (PreparedStatement statement, Session data, long now)
+    throws Exception
+    {
+        statement.setString(1, getSessionIdManager().getWorkerName());
+        statement.setLong(2, data.getAccessed());
+        statement.setLong(3, data.getLastAccessedTime());
+        statement.setLong(4, now);
+        statement.setLong(5, data.getExpiryTime());
+        statement.setLong(6, data.getMaxInactiveInterval());
+        statement.setString(7, data.getRowId());
+    }
+
+
+
+
     /**
      * Delete a session from the database. Should only be called
      * when the session has been invalidated.
@@ -0,0 +1,730 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.log.Logger;
+
+/* ------------------------------------------------------------ */
+/**
+ * SessionSegmentStore
+ *
+ * A store of passivated sessions that appends the serialized sessions to a small number of
+ * segment files, instead of writing one file per session.
+ * <p>
+ * Each record of a segment holds the cluster id of a session, its expiry time and its serialized
+ * form, or marks the removal of a session. The location of the last record of each stored session
+ * is kept in an in-memory index, which is rebuilt when the store is opened by reading only the
+ * record headers, so that opening a store does not deserialize any session. The records of the
+ * full segments are read through a memory mapping of the segment.
+ * <p>
+ * A record that is overwritten or removed is garbage in its segment. Full segments in which the
+ * live records are less than {@link #getCompactRatio()} of the segment are compacted by copying
+ * their live records to the current segment and deleting them.
+ * <p>
+ * The sessions whose expiry time has passed are kept until they are removed, so that their owner can
+ * restore them to notify their listeners. The ids of the expired sessions are given by
+ * {@link #getExpired(long, Set)}. Expired sessions can also be dropped without notifying anyone with
+ * {@link #removeExpired(long, Set)}.
+ * <p>
+ * A segment is created by renaming a file holding only its header, so that a crash cannot leave a
+ * segment without header. A segment file too short to hold a header is discarded when the store is opened.
+ */
+public class SessionSegmentStore
+{
+    final static Logger LOG = SessionHandler.LOG;
+
+    private static final int MAGIC = 0x4A535353; // JSSS
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    /* length, crc, type, expiry, id length */
+    private static final int RECORD_HEADER_LENGTH = 4 + 4 + 1 + 8 + 2;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final String SUFFIX = ".segment";
+
+    private final File _dir;
+    private final TreeMap<Long,Segment> _segments = new TreeMap<Long,Segment>();
+    private final Map<String,Location> _index = new HashMap<String,Location>();
+    private Segment _active;
+    private long _segmentSize = 64 * 1024 * 1024;
+    private double _compactRatio = 0.5;
+    private long _compactions;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param dir the directory of the segment files
+     */
+    public SessionSegmentStore(File dir)
+    {
+        _dir = dir;
+    }
+
+    /* ------------------------------------------------------------ */
+    public File getDirectory()
+    {
+        return _dir;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the size in bytes after which a new segment is started
+     */
+    public long getSegmentSize()
+    {
+        return _segmentSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param segmentSize the size in bytes after which a new segment is started
+     */
+    public void setSegmentSize(long segmentSize)
+    {
+        _segmentSize = segmentSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the ratio of live records below which a full segment is compacted
+     */
+    public double getCompactRatio()
+    {
+        return _compactRatio;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param compactRatio the ratio of live records below which a full segment is compacted
+     */
+    public void setCompactRatio(double compactRatio)
+    {
+        _compactRatio = compactRatio;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Opens the segments of the directory, and builds the index of the stored sessions.
+     * @throws IOException if a segment cannot be read
+     */
+    public synchronized void open() throws IOException
+    {
+        if (!_dir.exists())
+            _dir.mkdirs();
+
+        File[] files = _dir.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null)
+            throw new IOException("Cannot list " + _dir);
+
+        List<Long> numbers = new ArrayList<Long>();
+        for (File file : files)
+        {
+            try
+            {
+                numbers.add(Long.parseLong(file.getName().substring(0,file.getName().length() - SUFFIX.length())));
+            }
+            catch (NumberFormatException e)
+            {
+                LOG.warn("Ignoring " + file);
+            }
+        }
+        Collections.sort(numbers);
+
+        for (Long number : numbers)
+        {
+            Segment segment = new Segment(number);
+            segment.open();
+            if (segment._size < HEADER_LENGTH)
+            {
+                // Nothing was ever appended to a segment without header
+                LOG.warn("Discarding empty " + segment._file);
+                segment.close();
+                if (!segment._file.delete())
+                    throw new IOException("Cannot delete " + segment._file);
+                continue;
+            }
+            _segments.put(number,segment);
+            boolean last = number.equals(numbers.get(numbers.size() - 1));
+            long end = scan(segment,last);
+            if (end < segment._size)
+            {
+                if (last)
+                {
+                    // Only the last segment can have been partially written
+                    LOG.warn("Truncating " + segment._file + " from " + segment._size + " to " + end);
+                    segment._mapped = null;
+                    segment._channel.truncate(end);
+                    segment._size = end;
+                }
+                else
+                {
+                    // A full segment is corrupted: keep its file, but skip its unreadable records
+                    LOG.warn("Skipping corrupted records of " + segment._file + " from " + end + " to " + segment._size);
+                }
+            }
+        }
+
+        if (!_segments.isEmpty() && _segments.lastEntry().getValue()._size < _segmentSize)
+            _active = _segments.lastEntry().getValue();
+        else
+            _active = newSegment();
+        _active._mapped = null;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Forces the segments to disk and closes them.
+     * @throws IOException if a segment cannot be closed
+     */
+    public synchronized void close() throws IOException
+    {
+        try
+        {
+            if (_active != null)
+                _active._channel.force(false);
+        }
+        finally
+        {
+            for (Segment segment : _segments.values())
+                segment.close();
+            _segments.clear();
+            _index.clear();
+            _active = null;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param clusterId the id of the session
+     * @param expiry the time after which the session can be discarded, or 0 if the session does not expire
+     * @param data the serialized session
+     * @throws IOException if the session cannot be written
+     */
+    public synchronized void put(String clusterId, long expiry, byte[] data) throws IOException
+    {
+        checkOpen();
+        Location location = append(PUT,clusterId,expiry,data,0,data.length);
+        update(_index.put(clusterId,location),location);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param clusterId the id of the session
+     * @return the serialized session, or null if the session is not stored
+     * @throws IOException if the session cannot be read
+     */
+    public synchronized byte[] get(String clusterId) throws IOException
+    {
+        checkOpen();
+        Location location = _index.get(clusterId);
+        if (location == null)
+            return null;
+        return _segments.get(location._segment).read(location);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param clusterId the id of the session
+     * @return whether the session is stored
+     */
+    public synchronized boolean contains(String clusterId)
+    {
+        return _index.containsKey(clusterId);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param clusterId the id of the session
+     * @return whether the session was stored
+     * @throws IOException if the removal cannot be written
+     */
+    public synchronized boolean remove(String clusterId) throws IOException
+    {
+        checkOpen();
+        Location location = _index.remove(clusterId);
+        if (location == null)
+            return false;
+        update(location,null);
+        append(REMOVE,clusterId,0,null,0,0);
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param now the current time
+     * @param exclude the ids of the sessions to ignore
+     * @return the ids of the stored sessions that have expired
+     */
+    public synchronized List<String> getExpired(long now, Set<String> exclude)
+    {
+        List<String> expired = new ArrayList<String>();
+        for (Map.Entry<String,Location> entry : _index.entrySet())
+        {
+            Location location = entry.getValue();
+            if (location._expiry != 0 && location._expiry < now && !exclude.contains(entry.getKey()))
+                expired.add(entry.getKey());
+        }
+        return expired;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Removes the stored sessions that have expired, without restoring them, so that
+     * the listeners of these sessions are not notified.
+     * @param now the current time
+     * @param exclude the ids of the sessions not to remove
+     * @return the number of removed sessions
+     * @throws IOException if the removals cannot be written
+     */
+    public synchronized int removeExpired(long now, Set<String> exclude) throws IOException
+    {
+        checkOpen();
+        int removed = 0;
+        for (Iterator<Map.Entry<String,Location>> i = _index.entrySet().iterator(); i.hasNext();)
+        {
+            Map.Entry<String,Location> entry = i.next();
+            Location location = entry.getValue();
+            if (location._expiry != 0 && location._expiry < now && !exclude.contains(entry.getKey()))
+            {
+                i.remove();
+                update(location,null);
+                append(REMOVE,entry.getKey(),0,null,0,0);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Compacts the full segments in which the ratio of live records is below {@link #getCompactRatio()}.
+     * @return the number of compacted segments
+     * @throws IOException if a segment cannot be compacted
+     */
+    public synchronized int compact() throws IOException
+    {
+        checkOpen();
+        int compacted = 0;
+        for (Segment segment : new ArrayList<Segment>(_segments.values()))
+        {
+            if (segment == _active || segment._live > (segment._size - HEADER_LENGTH) * _compactRatio)
+                continue;
+            compact(segment);
+            compacted++;
+        }
+        return compacted;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of stored sessions
+     */
+    public synchronized int size()
+    {
+        return _index.size();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of segment files
+     */
+    public synchronized int getSegments()
+    {
+        return _segments.size();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of segments compacted since the store was created
+     */
+    public synchronized long getCompactions()
+    {
+        return _compactions;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("%s@%x{%s,sessions=%d,segments=%d}",getClass().getSimpleName(),hashCode(),_dir,_index.size(),_segments.size());
+    }
+
+    /* ------------------------------------------------------------ */
+    private void checkOpen() throws IOException
+    {
+        if (_active == null)
+            throw new IOException("Closed " + this);
+    }
+
+    /* ------------------------------------------------------------ */
+    private void compact(Segment segment) throws IOException
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug("Compacting {} live={} size={}",segment._file,segment._live,segment._size);
+
+        // The removals must be kept while an older segment may hold a record they supersede
+        boolean oldest = _segments.firstKey() == segment._number;
+        ByteBuffer buffer = segment.map();
+        long now = System.currentTimeMillis();
+        long position = HEADER_LENGTH;
+        while (position < segment._size)
+        {
+            Record record = readRecord(buffer,position,segment._size,false);
+            if (record == null)
+                break;
+
+            Location current = _index.get(record._id);
+            if (current != null && current._segment == segment._number && current._offset == position)
+            {
+                byte[] data = new byte[record._dataLength];
+                ByteBuffer slice = buffer.duplicate();
+                slice.position((int)record._dataOffset);
+                slice.get(data);
+                Location location = append(PUT,record._id,record._expiry,data,0,data.length);
+                _index.put(record._id,location);
+                update(current,location);
+            }
+            else if (!oldest && current == null && (record._type == REMOVE || (record._expiry != 0 && record._expiry < now)))
+            {
+                append(REMOVE,record._id,0,null,0,0);
+            }
+            position += record._length;
+        }
+
+        // The copied records must be on disk before the segment holding them is deleted
+        _active._channel.force(false);
+        _segments.remove(segment._number);
+        segment.close();
+        if (!segment._file.delete())
+            LOG.warn("Cannot delete " + segment._file);
+        _compactions++;
+    }
+
+    /* ------------------------------------------------------------ */
+    private long scan(Segment segment, boolean verify) throws IOException
+    {
+        ByteBuffer buffer = segment.map();
+        if (segment._size < HEADER_LENGTH || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a session segment " + segment._file);
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported version " + buffer.getInt(4) + " of " + segment._file);
+
+        long position = HEADER_LENGTH;
+        while (position < segment._size)
+        {
+            Record record = readRecord(buffer,position,segment._size,verify);
+            if (record == null)
+                break;
+
+            if (record._type == PUT)
+            {
+                Location location = new Location(segment._number,position,record);
+                update(_index.put(record._id,location),location);
+            }
+            else
+            {
+                update(_index.remove(record._id),null);
+            }
+            position += record._length;
+        }
+        return position;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the record at the given position, or null if there is no valid record there
+     */
+    private Record readRecord(ByteBuffer buffer, long position, long size, boolean verify)
+    {
+        if (position + RECORD_HEADER_LENGTH > size)
+            return null;
+        int p = (int)position;
+        int length = buffer.getInt(p);
+        if (length < RECORD_HEADER_LENGTH - 4 || position + 4 + length > size)
+            return null;
+        if (verify && buffer.getInt(p + 4) != crc(buffer,p + 8,length - 4))
+            return null;
+        int idLength = buffer.getShort(p + 17) & 0xFFFF;
+        if (RECORD_HEADER_LENGTH + idLength > 4 + length)
+            return null;
+
+        Record record = new Record();
+        record._length = 4 + length;
+        record._type = buffer.get(p + 8);
+        record._expiry = buffer.getLong(p + 9);
+        byte[] id = new byte[idLength];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(p + RECORD_HEADER_LENGTH);
+        slice.get(id);
+        record._id = new String(id,StringUtil.__UTF8_CHARSET);
+        record._dataOffset = position + RECORD_HEADER_LENGTH + idLength;
+        record._dataLength = (int)(position + record._length - record._dataOffset);
+        return record;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static int crc(ByteBuffer buffer, int offset, int length)
+    {
+        CRC32 crc = new CRC32();
+        if (buffer.hasArray())
+        {
+            crc.update(buffer.array(),buffer.arrayOffset() + offset,length);
+        }
+        else
+        {
+            byte[] chunk = new byte[Math.min(length,8192)];
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(offset);
+            while (length > 0)
+            {
+                int l = Math.min(length,chunk.length);
+                slice.get(chunk,0,l);
+                crc.update(chunk,0,l);
+                length -= l;
+            }
+        }
+        return (int)crc.getValue();
+    }
+
+    /* ------------------------------------------------------------ */
+    private Location append(byte type, String clusterId, long expiry, byte[] data, int offset, int length) throws IOException
+    {
+        byte[] id = clusterId.getBytes(StringUtil.__UTF8_CHARSET);
+        if (id.length > 0xFFFF)
+            throw new IllegalArgumentException("Session id too long");
+
+        int recordLength = RECORD_HEADER_LENGTH + id.length + length;
+        if (_active._size > HEADER_LENGTH && _active._size + recordLength > _segmentSize)
+        {
+            _active._channel.force(false);
+            _active = newSegment();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(recordLength);
+        buffer.putInt(recordLength - 4);
+        buffer.putInt(0);
+        buffer.put(type);
+        buffer.putLong(expiry);
+        buffer.putShort((short)id.length);
+        buffer.put(id);
+        if (length > 0)
+            buffer.put(data,offset,length);
+        buffer.putInt(4,crc(buffer,8,recordLength - 8));
+        buffer.flip();
+
+        long position = _active._size;
+        _active.write(buffer,position);
+        _active._size += recordLength;
+
+        Location location = new Location(_active._number,position,null);
+        location._length = recordLength;
+        location._expiry = expiry;
+        location._dataOffset = position + RECORD_HEADER_LENGTH + id.length;
+        location._dataLength = length;
+        return location;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Updates the live bytes of the segments when the record of a session moves.
+     */
+    private void update(Location from, Location to)
+    {
+        if (from != null)
+        {
+            Segment segment = _segments.get(from._segment);
+            if (segment != null)
+                segment._live -= from._length;
+        }
+        if (to != null)
+            _segments.get(to._segment)._live += to._length;
+    }
+
+    /* ------------------------------------------------------------ */
+    private Segment newSegment() throws IOException
+    {
+        long number = _segments.isEmpty() ? 0 : _segments.lastKey() + 1;
+        Segment segment = new Segment(number);
+
+        // The header is written to a temporary file that is renamed, so that the segment always has its header
+        File temp = new File(_dir,segment._file.getName() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(temp,"rw");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.truncate(0);
+            while (header.hasRemaining())
+                channel.write(header);
+            channel.force(false);
+        }
+        finally
+        {
+            raf.close();
+        }
+        if (!temp.renameTo(segment._file))
+            throw new IOException("Cannot rename " + temp + " to " + segment._file);
+
+        segment.open();
+        _segments.put(number,segment);
+        return segment;
+    }
+
+    /* ------------------------------------------------------------ */
+    private class Segment
+    {
+        private final long _number;
+        private final File _file;
+        private RandomAccessFile _raf;
+        private FileChannel _channel;
+        private MappedByteBuffer _mapped;
+        private long _size;
+        private long _live;
+
+        private Segment(long number)
+        {
+            _number = number;
+            _file = new File(_dir,String.format("%010d%s",number,SUFFIX));
+        }
+
+        private void open() throws IOException
+        {
+            _raf = new RandomAccessFile(_file,"rw");
+            _channel = _raf.getChannel();
+            _size = _channel.size();
+        }
+
+        private ByteBuffer map() throws IOException
+        {
+            if (_mapped == null || _mapped.capacity() < _size)
+            {
+                if (_size > Integer.MAX_VALUE)
+                    throw new IOException("Segment too large " + _file);
+                _mapped = _channel.map(FileChannel.MapMode.READ_ONLY,0,_size);
+            }
+            return _mapped;
+        }
+
+        private void write(ByteBuffer buffer, long position) throws IOException
+        {
+            while (buffer.hasRemaining())
+                position += _channel.write(buffer,position);
+        }
+
+        private byte[] read(Location location) throws IOException
+        {
+            byte[] data = new byte[location._dataLength];
+            if (this == _active)
+            {
+                // The current segment grows, so it is read through its channel rather than mapped
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                long position = location._dataOffset;
+                while (buffer.hasRemaining())
+                {
+                    int read = _channel.read(buffer,position);
+                    if (read < 0)
+                        throw new IOException("Truncated " + _file);
+                    position += read;
+                }
+            }
+            else
+            {
+                ByteBuffer buffer = map().duplicate();
+                if (buffer.getInt((int)location._offset + 4) != crc(buffer,(int)location._offset + 8,location._length - 8))
+                    throw new IOException("Corrupted record at " + location._offset + " in " + _file);
+                buffer.position((int)location._dataOffset);
+                buffer.get(data);
+            }
+            return data;
+        }
+
+        private void close()
+        {
+            _mapped = null;
+            try
+            {
+                _raf.close();
+            }
+            catch (IOException e)
+            {
+                LOG.ignore(e);
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private static class Record
+    {
+        private int _length;
+        private byte _type;
+        private long _expiry;
+        private String _id;
+        private long _dataOffset;
+        private int _dataLength;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static class Location
+    {
+        private final long _segment;
+        private final long _offset;
+        private int _length;
+        private long _expiry;
+        private long _dataOffset;
+        private int _dataLength;
+
+        private Location(long segment, long offset, Record record)
+        {
+            _segment = segment;
+            _offset = offset;
+            if (record != null)
+            {
+                _length = record._length;
+                _expiry = record._expiry;
+                _dataOffset = record._dataOffset;
+                _dataLength = record._dataLength;
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.RequestLogHandler;
+import org.eclipse.jetty.toolchain.test.FS;
+import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.StringUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.containsString;
+
+public class BatchingNCSARequestLogTest
+{
+    @Test
+    public void testRequestLog() throws Exception
+    {
+        File dir = MavenTestingUtils.getTargetTestingDir(BatchingNCSARequestLogTest.class.getSimpleName()+"-request");
+        FS.ensureEmpty(dir);
+
+        Server server = new Server();
+        LocalConnector connector = new LocalConnector(server);
+        server.addConnector(connector);
+
+        BatchingNCSARequestLog log = new BatchingNCSARequestLog(new File(dir,"yyyy_mm_dd.request.log").getAbsolutePath());
+        log.setFlushInterval(10000);
+        RequestLogHandler logHandler = new RequestLogHandler();
+        logHandler.setRequestLog(log);
+        logHandler.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.setStatus(201);
+            }
+        });
+        server.setHandler(logHandler);
+        server.start();
+
+        String dated = log.getDatedFilename();
+        Assert.assertFalse(dated.contains("yyyy_mm_dd"));
+
+        for (int i = 0; i < 10; i++)
+            connector.getResponses("GET /path/" + i + " HTTP/1.0\r\nUser-Agent: test\r\n\r\n");
+
+        // The entries are pending until the flush interval or the log is stopped
+        Assert.assertEquals(0, new File(dated).length());
+        server.stop();
+
+        String[] lines = readLines(new File(dated));
+        Assert.assertEquals(10, lines.length);
+        for (int i = 0; i < 10; i++)
+        {
+            Assert.assertThat(lines[i], containsString("\"GET /path/" + i + " HTTP/1.0\" 201"));
+            Assert.assertThat(lines[i], containsString("\"test\""));
+        }
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception
+    {
+        File dir = MavenTestingUtils.getTargetTestingDir(BatchingNCSARequestLogTest.class.getSimpleName()+"-concurrent");
+        FS.ensureEmpty(dir);
+        File file = new File(dir,"request.log");
+
+        final BatchingNCSARequestLog log = new BatchingNCSARequestLog(file.getAbsolutePath());
+        log.setCapacity(1000);
+        Assert.assertEquals(1024, log.getCapacity());
+        log.setFlushInterval(5);
+        log.setFlushSize(1024);
+        log.start();
+
+        final int threads = 4;
+        final int entries = 2500;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int t = 0; t < threads; t++)
+        {
+            final int thread = t;
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        StringBuilder entry = new StringBuilder();
+                        for (int i = 0; i < entries; i++)
+                        {
+                            while (log.getPendingEntries() > 512)
+                                Thread.sleep(1);
+                            entry.setLength(0);
+                            entry.append("thread ").append(thread).append(" entry ").append(i).append(" \u00e9");
+                            log.write(entry);
+                        }
+                    }
+                    catch (Throwable x)
+                    {
+                        failure.compareAndSet(null, x);
+                    }
+                    finally
+                    {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+        Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+        log.stop();
+
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(0, log.getDroppedEntries());
+        String[] lines = readLines(file);
+        Assert.assertEquals(threads * entries, lines.length);
+        // Non ascii entries are encoded with the default charset, as for NCSARequestLog
+        String encoded = new String("\u00e9".getBytes(Charset.defaultCharset()), Charset.defaultCharset());
+        int[] next = new int[threads];
+        for (String line : lines)
+        {
+            String[] fields = line.split(" ");
+            int thread = Integer.parseInt(fields[1]);
+            // Entries from one thread are written in the order they were logged
+            Assert.assertEquals(next[thread]++, Integer.parseInt(fields[3]));
+            Assert.assertEquals(encoded, fields[4]);
+        }
+    }
+
+    private String[] readLines(File file) throws IOException
+    {
+        try (FileInputStream in = new FileInputStream(file))
+        {
+            return new String(IO.readBytes(in),Charset.defaultCharset()).split(StringUtil.__LINE_SEPARATOR);
+        }
+    }
+}
@@ -229,6 +229,104 @@ public class ResourceCacheTest
         cache.flushCache();
     }
 
+    @Test
+    public void testHotContentSurvivesScan() throws Exception
+    {
+        File[] files=new File[8];
+        String[] names=new String[files.length];
+        for (int i=0;i<files.length;i++)
+        {
+            files[i]=File.createTempFile("S-"+i+"-",".txt");
+            files[i].deleteOnExit();
+            names[i]=files[i].getName();
+            FileOutputStream out = new FileOutputStream(files[i]);
+            out.write(("content "+i).getBytes());
+            out.close();
+        }
+
+        Resource directory=Resource.newResource(files[0].getParentFile().getAbsolutePath());
+        ResourceCache cache=new ResourceCache(null,directory,new MimeTypes(),false,false);
+        cache.setMaxCachedFiles(3);
+
+        HttpContent hot=cache.lookup(names[0]);
+        assertTrue(hot==cache.lookup(names[0]));
+
+        // A scan of content requested only once
+        for (int i=1;i<files.length;i++)
+            cache.lookup(names[i]);
+
+        assertEquals(3,cache.getCachedFiles());
+        assertEquals(files.length-3,cache.getEvictions());
+        assertTrue(hot==cache.lookup(names[0]));
+
+        assertEquals(2,cache.getHits());
+        assertEquals(files.length,cache.getMisses());
+        assertEquals(2.0/(2+files.length),cache.getHitRatio(),0.0001);
+
+        cache.resetStatistics();
+        assertEquals(0,cache.getEvictions());
+        assertEquals(0.0,cache.getHitRatio(),0.0);
+        cache.flushCache();
+    }
+
+    @Test
+    public void testChangedContentIsNotRetained() throws Exception
+    {
+        File file=File.createTempFile("Changed-",".txt");
+        file.deleteOnExit();
+        Resource directory=Resource.newResource(file.getParentFile().getAbsolutePath());
+        ResourceCache cache=new ResourceCache(null,directory,new MimeTypes(),false,false);
+
+        // The cache never goes over its limits, so it is never shrunk
+        for (int i=1;i<=100;i++)
+        {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(new byte[i]);
+            out.close();
+
+            HttpContent content=cache.lookup(file.getName());
+            assertEquals(i,content.getContentLength());
+            assertEquals(1,cache.getCachedFiles());
+            assertEquals(i,cache.getCachedSize());
+            assertTrue(cache.getQueuedContents()<=2);
+        }
+        cache.flushCache();
+    }
+
+    @Test
+    public void testGzipContentIsAccounted() throws Exception
+    {
+        File[] files=new File[2];
+        String[] names=new String[files.length];
+        for (int i=0;i<files.length;i++)
+        {
+            files[i]=File.createTempFile("Gzip-"+i+"-",".txt");
+            files[i].deleteOnExit();
+            names[i]=files[i].getName();
+            FileOutputStream out = new FileOutputStream(files[i]);
+            out.write(new byte[500]);
+            out.close();
+        }
+
+        Resource directory=Resource.newResource(files[0].getParentFile().getAbsolutePath());
+        ResourceCache cache=new ResourceCache(null,directory,new MimeTypes(),false,false);
+        cache.setMaxCacheSize(1010);
+
+        cache.lookup(names[0]);
+        ResourceCache.Content content=(ResourceCache.Content)cache.lookup(names[1]);
+        assertEquals(2,cache.getCachedFiles());
+        assertEquals(1000,cache.getCachedSize());
+
+        // Admitting the gzip variant goes over the limits and shrinks the cache
+        HttpContent gzip=content.getGzipContent();
+        assertTrue(gzip!=null);
+        assertEquals(1,cache.getCachedFiles());
+        assertEquals(500+gzip.getContentLength(),cache.getCachedSize());
+
+        cache.flushCache();
+        assertEquals(0,cache.getCachedSize());
+    }
+
     @Test
     public void testNoextension() throws Exception
     {
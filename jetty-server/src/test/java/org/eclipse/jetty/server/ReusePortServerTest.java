@@ -0,0 +1,85 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * HttpServer Tester with a listening channel per acceptor.
+ */
+public class ReusePortServerTest extends HttpServerTestBase
+{
+    @Before
+    public void init() throws Exception
+    {
+        ServerConnector connector = new ServerConnector(_server,null,null,null,2,2,new HttpConnectionFactory());
+        connector.setReusePort(true);
+        startServer(connector);
+    }
+
+    @Test
+    public void testAcceptChannels() throws Exception
+    {
+        Assume.assumeTrue(isReusePortSupported());
+        assertEquals(2,((ServerConnector)_connector).getAcceptChannels());
+    }
+
+    @Test
+    public void testAcceptorsSpreadOverSelectors() throws Exception
+    {
+        ServerConnector connector = new ServerConnector(_server,null,null,null,3,8,new HttpConnectionFactory());
+        int[] expected = new int[]{0, 3, 6, 0, 3};
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(expected[i],connector.nextSelector(0));
+        expected = new int[]{2, 5, 2, 5};
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(expected[i],connector.nextSelector(2));
+
+        // With fewer selectors than acceptors, the acceptors share the selectors
+        connector = new ServerConnector(_server,null,null,null,4,2,new HttpConnectionFactory());
+        assertEquals(1,connector.nextSelector(3));
+        assertEquals(1,connector.nextSelector(3));
+    }
+
+    private static boolean isReusePortSupported() throws Exception
+    {
+        // StandardSocketOptions.SO_REUSEPORT is only available from Java 9
+        SocketOption<?> option;
+        try
+        {
+            option = (SocketOption<?>)StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        }
+        catch (NoSuchFieldException e)
+        {
+            return false;
+        }
+        try (ServerSocketChannel channel = ServerSocketChannel.open())
+        {
+            return channel.supportedOptions().contains(option);
+        }
+    }
+}
@@ -18,13 +18,22 @@
 
 package org.eclipse.jetty.server.handler;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
 import java.net.URI;
 
 import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.ConnectorStatistics;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.toolchain.test.FS;
 import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
 import org.eclipse.jetty.toolchain.test.SimpleRequest;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.StringUtil;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -39,6 +48,7 @@ public class ResourceHandlerTest
 {
     private static Server _server;
     private static ServerConnector _connector;
+    private static ConnectorStatistics _statistics;
     private static ContextHandler _contextHandler;
     private static ResourceHandler _resourceHandler;
 
@@ -47,6 +57,8 @@ public class ResourceHandlerTest
     {
         _server = new Server();
         _connector = new ServerConnector(_server);
+        _statistics = new ConnectorStatistics();
+        _connector.addBean(_statistics);
         _server.setConnectors(new Connector[] { _connector });
 
         _resourceHandler = new ResourceHandler();
@@ -74,4 +86,44 @@ public class ResourceHandlerTest
 
         Assert.assertNotNull("missing jetty.css" , sr.getString("/resource/jetty-dir.css"));
     }
+
+    @Test
+    public void testBigFile() throws Exception
+    {
+        File dir = MavenTestingUtils.getTargetTestingDir(ResourceHandlerTest.class.getSimpleName());
+        FS.ensureEmpty(dir);
+        File file = new File(dir,"big.bin");
+        byte[] content = new byte[4*1024*1024+17];
+        for (int i=0;i<content.length;i++)
+            content[i]=(byte)('0'+i%43);
+        try (OutputStream out = new FileOutputStream(file))
+        {
+            out.write(content);
+        }
+        _resourceHandler.setResourceBase(dir.getAbsolutePath());
+
+        try (Socket socket = new Socket("localhost",_connector.getLocalPort()))
+        {
+            socket.getOutputStream().write("GET /resource/big.bin HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StringUtil.__ISO_8859_1));
+
+            // Let the server fill the socket before reading, so that it has to wait for it to be writable
+            Thread.sleep(500);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IO.copy(socket.getInputStream(),out);
+            byte[] response = out.toByteArray();
+
+            String head = new String(response,0,Math.min(response.length,256),StringUtil.__ISO_8859_1);
+            Assert.assertTrue(head,head.startsWith("HTTP/1.1 200 OK"));
+            int body = head.indexOf("\r\n\r\n")+4;
+            Assert.assertEquals(content.length,response.length-body);
+            for (int i=0;i<content.length;i++)
+                Assert.assertEquals(content[i],response[body+i]);
+        }
+
+        // The transferred bytes are counted when the connection is closed
+        long end=System.currentTimeMillis()+5000;
+        while (_statistics.getBytesOut()<content.length && System.currentTimeMillis()<end)
+            Thread.sleep(10);
+        Assert.assertTrue(String.valueOf(_statistics.getBytesOut()),_statistics.getBytesOut()>=content.length);
+    }
 }
@@ -209,7 +209,12 @@ public class StatisticsHandlerTest
         assertEquals(0, _statsHandler.getExpires());
         assertEquals(4, _statsHandler.getResponses2xx());
 
-
+        assertEquals(4, _statsHandler.getRequestTimeHistogram().getCount());
+        assertEquals(4, _statsHandler.getDispatchedTimeHistogram().getCount());
+        assertEquals(0, _statsHandler.getAsyncWaitTimeHistogram().getCount());
+        assertEquals(4, _statsHandler.getRequestTimeHistogram().getIntervalSnapshot().getCount());
+        assertEquals(0, _statsHandler.getRequestTimeHistogram().getIntervalSnapshot().getCount());
+        assertEquals(4, _statsHandler.getRequestTimeHistogram().getSnapshot().getCount());
     }
 
     @Test
@@ -350,6 +355,10 @@ public class StatisticsHandlerTest
         assertTrue(_statsHandler.getDispatchedTimeMean()+10<=_statsHandler.getDispatchedTimeTotal());
         assertTrue(_statsHandler.getDispatchedTimeMax()+10<=_statsHandler.getDispatchedTimeTotal());
 
+        assertEquals(_statsHandler.getRequestTimeMax(),_statsHandler.getRequestTimeHistogram().getValueAtPercentile(100));
+        assertEquals(2, _statsHandler.getDispatchedTimeHistogram().getCount());
+        assertEquals(1, _statsHandler.getAsyncWaitTimeHistogram().getCount());
+        assertThat(_statsHandler.getAsyncWaitTimeHistogram().getMax(),greaterThanOrEqualTo(50L));
     }
 
     @Test
@@ -19,10 +19,15 @@
 package org.eclipse.jetty.server.session;
 
 import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
 
 import junit.framework.Assert;
 
 import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.toolchain.test.FS;
 import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.StdErrLog;
@@ -135,4 +140,224 @@ public class HashSessionManagerTest
         Assert.assertEquals(1, ((Integer)o).intValue());
         Assert.assertEquals(5, restoredSession.getMaxInactiveInterval());     
     }
+
+    @Test
+    public void testSegmentedStore() throws Exception
+    {
+        File testDir = MavenTestingUtils.getTargetTestingDir("segmented");
+        FS.ensureEmpty(testDir);
+        HashSessionManager manager = new HashSessionManager();
+        manager.setStoreDirectory(testDir);
+        manager.setSegmentedStore(true);
+        manager.setMaxInactiveInterval(60);
+
+        HashSessionIdManager idManager = new HashSessionIdManager();
+        idManager.setWorkerName("foo");
+        manager.setSessionIdManager(idManager);
+
+        idManager.start();
+        manager.start();
+
+        HashedSession session = (HashedSession)manager.newHttpSession(new Request(null, null));
+        String sessionId = session.getClusterId();
+        session.setAttribute("one", new Integer(1));
+        HashedSession other = (HashedSession)manager.newHttpSession(new Request(null, null));
+        other.setAttribute("two", new Integer(2));
+
+        //stop will append the sessions to the segment store
+        idManager.stop();
+        manager.stop();
+
+        Assert.assertFalse("No file per session", new File(testDir, sessionId).exists());
+        Assert.assertTrue(new File(testDir, "segments").isDirectory());
+
+        //start will not restore the sessions
+        idManager.start();
+        manager.start();
+        Assert.assertEquals(0, manager._sessions.size());
+        Assert.assertEquals(2, manager.getSegmentStore().size());
+
+        HashedSession restoredSession = (HashedSession)manager.getSession(sessionId);
+        Assert.assertNotNull(restoredSession);
+        Assert.assertEquals(1, manager._sessions.size());
+        Assert.assertEquals(1, ((Integer)restoredSession.getAttribute("one")).intValue());
+        Assert.assertEquals(60, restoredSession.getMaxInactiveInterval());
+
+        //an invalidated session is removed from the store
+        restoredSession.invalidate();
+        Assert.assertEquals(1, manager.getSegmentStore().size());
+        Assert.assertNull(manager.getSession(sessionId));
+
+        idManager.stop();
+        manager.stop();
+    }
+
+    @Test
+    public void testSegmentedStoreExpiredSessionIsDestroyed() throws Exception
+    {
+        File testDir = MavenTestingUtils.getTargetTestingDir("segmentedExpired");
+        FS.ensureEmpty(testDir);
+        HashSessionManager manager = new HashSessionManager();
+        manager.setStoreDirectory(testDir);
+        manager.setSegmentedStore(true);
+        manager.setMaxInactiveInterval(1);
+        final AtomicInteger destroyed = new AtomicInteger();
+        manager.addEventListener(new HttpSessionListener()
+        {
+            @Override
+            public void sessionCreated(HttpSessionEvent se)
+            {
+            }
+
+            @Override
+            public void sessionDestroyed(HttpSessionEvent se)
+            {
+                destroyed.incrementAndGet();
+            }
+        });
+
+        HashSessionIdManager idManager = new HashSessionIdManager();
+        manager.setSessionIdManager(idManager);
+        idManager.start();
+        manager.start();
+        manager.newHttpSession(new Request(null, null));
+
+        //stop will append the session to the segment store
+        idManager.stop();
+        manager.stop();
+
+        idManager.start();
+        manager.start();
+        try
+        {
+            Assert.assertEquals(1, manager.getSegmentStore().size());
+
+            //the expired session is restored to be destroyed, rather than dropped from the store
+            Thread.sleep(1500);
+            manager.scavenge();
+            Assert.assertEquals(1, destroyed.get());
+            Assert.assertEquals(0, manager.getSegmentStore().size());
+            Assert.assertEquals(0, manager._sessions.size());
+        }
+        finally
+        {
+            idManager.stop();
+            manager.stop();
+        }
+    }
+
+    @Test
+    public void testSegmentedStoreUnknownSession() throws Exception
+    {
+        File testDir = MavenTestingUtils.getTargetTestingDir("segmentedUnknown");
+        FS.ensureEmpty(testDir);
+        HashSessionManager manager = new HashSessionManager();
+        manager.setStoreDirectory(testDir);
+        manager.setSegmentedStore(true);
+        manager.setDeleteUnrestorableSessions(true);
+
+        HashSessionIdManager idManager = new HashSessionIdManager();
+        manager.setSessionIdManager(idManager);
+        idManager.start();
+        manager.start();
+        try
+        {
+            //the loose files have been restored on start, so a file appearing later is not looked up
+            File forged = new File(testDir, "forged");
+            Assert.assertTrue(forged.createNewFile());
+
+            Assert.assertNull(manager.getSession("forged"));
+            Assert.assertNull(manager.getSession("unknown"));
+            Assert.assertTrue("File should exist!", forged.exists());
+            Assert.assertEquals(0, manager._sessions.size());
+        }
+        finally
+        {
+            idManager.stop();
+            manager.stop();
+        }
+    }
+
+    @Test
+    public void testSegmentedStoreIdleSession() throws Exception
+    {
+        File testDir = MavenTestingUtils.getTargetTestingDir("segmentedIdle");
+        FS.ensureEmpty(testDir);
+        HashSessionManager manager = new HashSessionManager();
+        manager.setStoreDirectory(testDir);
+        manager.setSegmentedStore(true);
+        manager.setIdleSavePeriod(1);
+
+        HashSessionIdManager idManager = new HashSessionIdManager();
+        manager.setSessionIdManager(idManager);
+        idManager.start();
+        manager.start();
+        try
+        {
+            HashedSession session = (HashedSession)manager.newHttpSession(new Request(null, null));
+            session.setAttribute("one", new Integer(1));
+
+            session.idle();
+            Assert.assertTrue(session.isIdled());
+            Assert.assertTrue(manager.getSegmentStore().contains(session.getClusterId()));
+
+            Assert.assertEquals(1, ((Integer)session.getAttribute("one")).intValue());
+            Assert.assertFalse(session.isIdled());
+            Assert.assertFalse(manager.getSegmentStore().contains(session.getClusterId()));
+        }
+        finally
+        {
+            idManager.stop();
+            manager.stop();
+        }
+    }
+
+    @Test
+    public void testScavengeIdlesAndExpiresSessions() throws Exception
+    {
+        File testDir = MavenTestingUtils.getTargetTestingDir("scavengeIdle");
+        FS.ensureEmpty(testDir);
+        HashSessionManager manager = new HashSessionManager();
+        manager.setStoreDirectory(testDir);
+        manager.setIdleSavePeriod(2);
+        manager.setMaxInactiveInterval(4);
+
+        HashSessionIdManager idManager = new HashSessionIdManager();
+        manager.setSessionIdManager(idManager);
+        idManager.start();
+        manager.start();
+        try
+        {
+            HashedSession idled = (HashedSession)manager.newHttpSession(new Request(null, null));
+            HashedSession immortal = (HashedSession)manager.newHttpSession(new Request(null, null));
+            immortal.setMaxInactiveInterval(-1);
+            HashedSession accessed = (HashedSession)manager.newHttpSession(new Request(null, null));
+            manager.complete(idled);
+            manager.complete(immortal);
+            manager.complete(accessed);
+
+            Thread.sleep(1000);
+            manager.access(accessed, false);
+            manager.complete(accessed);
+
+            Thread.sleep(1500);
+            manager.scavenge();
+            Assert.assertTrue(idled.isIdled());
+            Assert.assertFalse(accessed.isIdled());
+            Assert.assertTrue(new File(testDir, idled.getClusterId()).exists());
+
+            Thread.sleep(2000);
+            manager.scavenge();
+            Assert.assertFalse(idled.isValid());
+            Assert.assertTrue(accessed.isValid());
+            Assert.assertTrue(accessed.isIdled());
+            Assert.assertTrue(immortal.isValid());
+            Assert.assertEquals(2, manager._sessions.size());
+        }
+        finally
+        {
+            idManager.stop();
+            manager.stop();
+        }
+    }
 }
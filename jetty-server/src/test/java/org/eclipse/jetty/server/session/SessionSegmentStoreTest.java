@@ -0,0 +1,267 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.toolchain.test.FS;
+import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class SessionSegmentStoreTest
+{
+    private File dir;
+    private SessionSegmentStore store;
+
+    @Before
+    public void before() throws Exception
+    {
+        dir = MavenTestingUtils.getTargetTestingDir(SessionSegmentStoreTest.class.getSimpleName());
+        FS.ensureEmpty(dir);
+        store = newStore();
+    }
+
+    @After
+    public void after() throws Exception
+    {
+        store.close();
+    }
+
+    private SessionSegmentStore newStore() throws Exception
+    {
+        SessionSegmentStore store = new SessionSegmentStore(dir);
+        store.setSegmentSize(1024);
+        store.open();
+        return store;
+    }
+
+    private byte[] data(String value, int length)
+    {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte)value.charAt(i % value.length());
+        return data;
+    }
+
+    @Test
+    public void testPutGetRemove() throws Exception
+    {
+        store.put("one",0,data("1",100));
+        store.put("two",0,data("2",100));
+        store.put("one",0,data("one",50));
+
+        Assert.assertEquals(2,store.size());
+        Assert.assertArrayEquals(data("one",50),store.get("one"));
+        Assert.assertArrayEquals(data("2",100),store.get("two"));
+        Assert.assertNull(store.get("three"));
+
+        Assert.assertTrue(store.remove("two"));
+        Assert.assertFalse(store.remove("two"));
+        Assert.assertNull(store.get("two"));
+        Assert.assertEquals(1,store.size());
+    }
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        for (int i = 0; i < 50; i++)
+            store.put("session" + i,0,data(Integer.toString(i),100));
+        for (int i = 0; i < 50; i += 2)
+            store.remove("session" + i);
+        store.put("session1",0,data("updated",100));
+        Assert.assertTrue(store.getSegments() > 1);
+        store.close();
+
+        store = newStore();
+        Assert.assertEquals(25,store.size());
+        Assert.assertNull(store.get("session0"));
+        Assert.assertArrayEquals(data("updated",100),store.get("session1"));
+        Assert.assertArrayEquals(data("3",100),store.get("session3"));
+        // full segments are read through a mapping
+        Assert.assertArrayEquals(data("49",100),store.get("session49"));
+    }
+
+    @Test
+    public void testTruncatedRecordIsDropped() throws Exception
+    {
+        store.put("one",0,data("1",100));
+        store.put("two",0,data("2",100));
+        store.close();
+
+        File segment = dir.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment,"rw");
+        file.setLength(file.length() - 10);
+        file.close();
+
+        store = newStore();
+        Assert.assertEquals(1,store.size());
+        Assert.assertArrayEquals(data("1",100),store.get("one"));
+        store.put("three",0,data("3",100));
+        store.close();
+
+        store = newStore();
+        Assert.assertEquals(2,store.size());
+        Assert.assertArrayEquals(data("3",100),store.get("three"));
+    }
+
+    @Test
+    public void testCorruptedFullSegmentIsNotTruncated() throws Exception
+    {
+        for (int i = 0; i < 20; i++)
+            store.put("session" + i,0,data(Integer.toString(i),100));
+        Assert.assertTrue(store.getSegments() > 1);
+        store.close();
+
+        // Corrupt the length of the second record of the first segment
+        File segment = new File(dir,String.format("%010d.segment",0));
+        long length = segment.length();
+        RandomAccessFile file = new RandomAccessFile(segment,"rw");
+        file.seek(8 + 4 + 4 + 1 + 8 + 2 + "session0".length() + 100);
+        file.writeInt(Integer.MAX_VALUE);
+        file.close();
+
+        store = newStore();
+        Assert.assertEquals(length,segment.length());
+        Assert.assertArrayEquals(data("0",100),store.get("session0"));
+        Assert.assertNull(store.get("session1"));
+        Assert.assertArrayEquals(data("19",100),store.get("session19"));
+    }
+
+    @Test
+    public void testExpiredSessions() throws Exception
+    {
+        long now = System.currentTimeMillis();
+        store.put("expired",now - 1000,data("1",10));
+        store.put("excluded",now - 1000,data("2",10));
+        store.put("valid",now + TimeUnit.HOURS.toMillis(1),data("3",10));
+        store.put("immortal",0,data("4",10));
+
+        Assert.assertEquals(Collections.singletonList("expired"),store.getExpired(now,Collections.singleton("excluded")));
+        Assert.assertEquals(1,store.removeExpired(now,Collections.singleton("excluded")));
+        Assert.assertNull(store.get("expired"));
+        Assert.assertNotNull(store.get("excluded"));
+        store.close();
+
+        // The expired sessions are kept until removed, so that their listeners can be notified
+        store = newStore();
+        Assert.assertEquals(3,store.size());
+        Assert.assertNull(store.get("expired"));
+        Assert.assertEquals(Collections.singletonList("excluded"),store.getExpired(now,Collections.<String>emptySet()));
+        Assert.assertNotNull(store.get("valid"));
+        Assert.assertNotNull(store.get("immortal"));
+    }
+
+    @Test
+    public void testEmptySegmentIsDiscarded() throws Exception
+    {
+        store.put("one",0,data("1",100));
+        store.close();
+
+        // A crash while a segment was created
+        File empty = new File(dir,String.format("%010d.segment",1));
+        Assert.assertTrue(empty.createNewFile());
+
+        store = newStore();
+        Assert.assertFalse(empty.exists());
+        Assert.assertArrayEquals(data("1",100),store.get("one"));
+        store.put("two",0,data("2",100));
+        Assert.assertArrayEquals(data("2",100),store.get("two"));
+    }
+
+    @Test
+    public void testCompaction() throws Exception
+    {
+        for (int i = 0; i < 40; i++)
+            store.put("session" + i,0,data(Integer.toString(i),100));
+        int segments = store.getSegments();
+        Assert.assertTrue(segments > 3);
+
+        // Update or remove most sessions, so that the first segments hold mostly garbage
+        for (int i = 0; i < 30; i++)
+        {
+            if (i % 3 == 0)
+                store.remove("session" + i);
+            else
+                store.put("session" + i,0,data("updated" + i,100));
+        }
+
+        int compacted = store.compact();
+        Assert.assertTrue(compacted > 0);
+        Assert.assertEquals(compacted,store.getCompactions());
+        Assert.assertEquals(30,store.size());
+        for (int i = 0; i < 40; i++)
+        {
+            if (i < 30 && i % 3 == 0)
+                Assert.assertNull(store.get("session" + i));
+            else if (i < 30)
+                Assert.assertArrayEquals(data("updated" + i,100),store.get("session" + i));
+            else
+                Assert.assertArrayEquals(data(Integer.toString(i),100),store.get("session" + i));
+        }
+
+        // The removals are still effective after the segments holding them have been compacted
+        store.close();
+        store = newStore();
+        Assert.assertEquals(30,store.size());
+        Assert.assertNull(store.get("session3"));
+        Assert.assertArrayEquals(data("updated4",100),store.get("session4"));
+        Assert.assertArrayEquals(data("39",100),store.get("session39"));
+    }
+
+    @Ignore
+    @Test
+    public void testManySessionsBenchmark() throws Exception
+    {
+        int sessions = 200000;
+        byte[] data = data("session data ",1024);
+        for (int iteration = 0; iteration < 3; iteration++)
+        {
+            store.close();
+            FS.ensureEmpty(dir);
+            store = new SessionSegmentStore(dir);
+            store.open();
+
+            long begin = System.nanoTime();
+            for (int i = 0; i < sessions; i++)
+                store.put("session" + i,0,data);
+            store.close();
+            long written = System.nanoTime();
+
+            store = new SessionSegmentStore(dir);
+            store.open();
+            long opened = System.nanoTime();
+            for (int i = 0; i < sessions; i += 100)
+                store.get("session" + i);
+            long read = System.nanoTime();
+
+            System.err.printf("%d sessions in %d segments: written in %d ms, index rebuilt in %d ms, %d random reads in %d ms%n",
+                    sessions,store.getSegments(),
+                    TimeUnit.NANOSECONDS.toMillis(written - begin),
+                    TimeUnit.NANOSECONDS.toMillis(opened - written),
+                    sessions / 100,TimeUnit.NANOSECONDS.toMillis(read - opened));
+        }
+    }
+}
@@ -92,13 +92,14 @@ public class SSLEngineTest
 
     private Server server;
     private ServerConnector connector;
+    private SslContextFactory sslContextFactory;
 
 
     @Before
     public void startServer() throws Exception
     {
         String keystore = MavenTestingUtils.getTestResourceFile("keystore").getAbsolutePath();
-        SslContextFactory sslContextFactory = new SslContextFactory();
+        sslContextFactory = new SslContextFactory();
         sslContextFactory.setKeyStorePath(keystore);
         sslContextFactory.setKeyStorePassword("storepwd");
         sslContextFactory.setKeyManagerPassword("keypwd");
@@ -150,6 +151,39 @@ public class SSLEngineTest
         assertThat(response,Matchers.containsString(HELLO_WORLD));
     }
 
+    @Test
+    public void testSessionResumption() throws Exception
+    {
+        server.setHandler(new HelloWorldHandler());
+        server.start();
+
+        SSLContext ctx=SSLContext.getInstance("TLS");
+        ctx.init(null,SslContextFactory.TRUST_ALL_CERTS,new java.security.SecureRandom());
+
+        int port=connector.getLocalPort();
+
+        // The second connection from the same client context resumes the session of the first
+        for (int i=0;i<2;i++)
+        {
+            Socket client=ctx.getSocketFactory().createSocket("localhost",port);
+            OutputStream os=client.getOutputStream();
+            String request =
+                "GET / HTTP/1.1\r\n"+
+                "Host: localhost:"+port+"\r\n"+
+                "Connection: close\r\n"+
+                "\r\n";
+            os.write(request.getBytes());
+            os.flush();
+
+            String response = IO.toString(client.getInputStream());
+            assertThat(response,Matchers.containsString("200 OK"));
+            client.close();
+        }
+
+        assertEquals(1,sslContextFactory.getFullHandshakes());
+        assertEquals(1,sslContextFactory.getResumedHandshakes());
+    }
+
     @Test
     public void testBigResponse() throws Exception
     {
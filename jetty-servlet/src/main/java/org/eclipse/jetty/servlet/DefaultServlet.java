@@ -18,6 +18,7 @@
 
 package org.eclipse.jetty.servlet;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -25,6 +26,8 @@ import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Enumeration;
 import java.util.List;
 
@@ -49,6 +52,7 @@ import org.eclipse.jetty.server.ResourceCache;
 import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.MultiPartOutputStream;
 import org.eclipse.jetty.util.QuotedStringTokenizer;
@@ -92,6 +96,14 @@ import org.eclipse.jetty.util.resource.ResourceFactory;
  *                    gzip content encoded if a matching resource is
  *                    found ending with ".gz"
  *
+ *  gzipCache         If set to true and the resource cache is used, cached content
+ *                    of a compressible mime type is gzip encoded once, on the first
+ *                    request that accepts it, and the encoded variant is cached and
+ *                    served to subsequent requests that accept gzip.
+ *
+ *  gzipMimeTypes     Comma separated list of the mime types that are compressed
+ *                    for the gzipCache. Defaults to text, script, json, xml and svg types.
+ *
  *  resourceBase      Set to replace the context resource base
  *
  *  resourceCache     If set, this is a context attribute name, which the servlet
@@ -122,6 +134,11 @@ import org.eclipse.jetty.util.resource.ResourceFactory;
  *  cacheControl      If set, all static content will have this value set as the cache-control
  *                    header.
  *
+ *  minAsyncContentLength
+ *                    The min size in bytes of the content sent asynchronously, so that the
+ *                    thread is not held by slow clients, or -1 if content is never sent
+ *                    asynchronously. Defaults to 16384.
+ *
  *
  * </PRE>
  *
@@ -143,6 +160,7 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
     private boolean _welcomeExactServlets=false;
     private boolean _redirectWelcome=false;
     private boolean _gzip=true;
+    private boolean _gzipCache=false;
     private boolean _pathInfoOnly=false;
     private boolean _etags=false;
 
@@ -153,6 +171,7 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
     private String[] _welcomes;
     private Resource _stylesheet;
     private boolean _useFileMappedBuffer=false;
+    private int _minAsyncContentLength=16384;
     private String _cacheControl;
     private String _relativeResourceBase;
     private ServletHandler _servletHandler;
@@ -176,6 +195,7 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
         _dirAllowed=getInitBoolean("dirAllowed",_dirAllowed);
         _redirectWelcome=getInitBoolean("redirectWelcome",_redirectWelcome);
         _gzip=getInitBoolean("gzip",_gzip);
+        _gzipCache=getInitBoolean("gzipCache",_gzipCache);
         _pathInfoOnly=getInitBoolean("pathInfoOnly",_pathInfoOnly);
 
         if ("exact".equals(getInitParameter("welcomeServlets")))
@@ -187,6 +207,7 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
             _welcomeServlets=getInitBoolean("welcomeServlets", _welcomeServlets);
 
         _useFileMappedBuffer=getInitBoolean("useFileMappedBuffer",_useFileMappedBuffer);
+        _minAsyncContentLength=getInitInt("minAsyncContentLength",_minAsyncContentLength);
 
         _relativeResourceBase = getInitParameter("relativeResourceBase");
 
@@ -257,6 +278,9 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
                     _cache.setMaxCachedFileSize(max_cached_file_size);
                 if (max_cached_files>=-1)
                     _cache.setMaxCachedFiles(max_cached_files);
+                String gzipMimeTypes=getInitParameter("gzipMimeTypes");
+                if (gzipMimeTypes!=null)
+                    _cache.setGzipMimeTypes(gzipMimeTypes);
             }
         }
         catch (Exception e)
@@ -453,6 +477,30 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
                 }
             }
 
+            // Is there a cached gzip variant?
+            if (!gzip && _gzipCache && content instanceof ResourceCache.Content && !included.booleanValue() && reqRanges==null)
+            {
+                ResourceCache.Content cached=(ResourceCache.Content)content;
+                if (cached.isGzipCompressible())
+                {
+                    // Tell caches that response may vary by accept-encoding
+                    if (!response.containsHeader(HttpHeader.VARY.asString()))
+                        response.addHeader(HttpHeader.VARY.asString(),HttpHeader.ACCEPT_ENCODING.asString());
+
+                    // Does the client accept gzip?
+                    String accept=request.getHeader(HttpHeader.ACCEPT_ENCODING.asString());
+                    if (accept!=null && accept.indexOf("gzip")>=0)
+                    {
+                        HttpContent gzipContent=cached.getGzipContent();
+                        if (gzipContent!=null)
+                        {
+                            content=gzipContent;
+                            gzip=true;
+                        }
+                    }
+                }
+            }
+
             if (LOG.isDebugEnabled())
                 LOG.debug("uri="+request.getRequestURI()+" resource="+resource+(content!=null?" content":""));
 
@@ -563,7 +611,11 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
         finally
         {
             if (content!=null)
-                content.release();
+            {
+                // content sent asynchronously is released once sent
+                if (!request.isAsyncStarted())
+                    content.release();
+            }
             else if (resource!=null)
                 resource.release();
         }
@@ -825,7 +877,7 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
             HttpServletResponse response,
             boolean include,
             Resource resource,
-            HttpContent content,
+            final HttpContent content,
             Enumeration<String> reqRanges)
     throws IOException
     {
@@ -864,12 +916,35 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
                     if (response instanceof Response)
                     {
                         writeOptionHeaders(((Response)response).getHttpFields());
-                        ((HttpOutput)out).sendContent(content);
+                        if (request.isAsyncSupported() && _minAsyncContentLength>=0 && content_length>=_minAsyncContentLength)
+                        {
+                            // Send large content asynchronously, so that the thread is not held by slow clients.
+                            // The content is released once sent rather than by doGet.
+                            ((HttpOutput)out).sendContent(content,request.startAsync(),new Callback()
+                            {
+                                @Override
+                                public void succeeded()
+                                {
+                                    content.release();
+                                }
+
+                                @Override
+                                public void failed(Throwable x)
+                                {
+                                    content.release();
+                                }
+                            });
+                        }
+                        else
+                            ((HttpOutput)out).sendContent(content);
                     }
                     else
                     {
                         writeHeaders(response,content,content_length);
-                        ((HttpOutput)out).sendContent(content.getResource());
+                        if (content instanceof ResourceCache.GzipContent)
+                            ((HttpOutput)out).sendContent(content.getIndirectBuffer());
+                        else
+                            ((HttpOutput)out).sendContent(content.getResource());
                     }
                 }
                 else
@@ -912,7 +987,18 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
                 response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
                 response.setHeader(HttpHeader.CONTENT_RANGE.asString(),
                         singleSatisfiableRange.toHeaderRangeString(content_length));
-                resource.writeTo(out,singleSatisfiableRange.getFirst(content_length),singleLength);
+                long first = singleSatisfiableRange.getFirst(content_length);
+                File file = resource.getFile();
+                if (!written && out instanceof HttpOutput && file!=null && file.isFile())
+                {
+                    // Send the range directly from the file
+                    try (FileChannel channel = FileChannel.open(file.toPath(),StandardOpenOption.READ))
+                    {
+                        ((HttpOutput)out).sendContent(channel,first,singleLength);
+                    }
+                }
+                else
+                    resource.writeTo(out,first,singleLength);
                 return;
             }
 
@@ -20,12 +20,15 @@ package org.eclipse.jetty.servlet;
 
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.EnumSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
@@ -43,6 +46,7 @@ import org.eclipse.jetty.toolchain.test.FS;
 import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
 import org.eclipse.jetty.toolchain.test.OS;
 import org.eclipse.jetty.toolchain.test.TestingDir;
+import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.StringUtil;
 import org.hamcrest.Matchers;
@@ -609,6 +613,101 @@ public class DefaultServletTest
 
 
 
+    @Test
+    public void testAsyncSend() throws Exception
+    {
+        testdir.ensureEmpty();
+        File resBase = testdir.getFile("docroot");
+        FS.ensureDirExists(resBase);
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 100 * 1024)
+            content.append("0123456789abcdefghijklmnopqrstuvwxyz\n");
+        createFile(new File(resBase, "big.txt"), content.toString());
+        createFile(new File(resBase, "small.txt"), "simple text");
+        String resBasePath = resBase.getAbsolutePath();
+
+        ServletHolder defholder = context.addServlet(DefaultServlet.class, "/");
+        defholder.setAsyncSupported(true);
+        defholder.setInitParameter("dirAllowed", "false");
+        defholder.setInitParameter("redirectWelcome", "false");
+        defholder.setInitParameter("gzip", "false");
+        defholder.setInitParameter("maxCachedFiles", "10");
+        defholder.setInitParameter("maxCachedFileSize", "1024");
+        defholder.setInitParameter("resourceBase", resBasePath);
+        // Also send the small content asynchronously
+        defholder.setInitParameter("minAsyncContentLength", "0");
+
+        // Not cached, sent from the file
+        String response = connector.getResponses("GET /context/big.txt HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Connection: close\r\n\r\n");
+        assertResponseContains("200 OK", response);
+        assertResponseContains("Content-Length: " + content.length(), response);
+        Assert.assertTrue(response.endsWith("\r\n\r\n" + content));
+
+        // Cached, sent from a buffer
+        for (int i = 0; i < 2; i++)
+        {
+            response = connector.getResponses("GET /context/small.txt HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Connection: close\r\n\r\n");
+            assertResponseContains("200 OK", response);
+            assertResponseContains("Content-Length: 11", response);
+            Assert.assertTrue(response.endsWith("\r\n\r\nsimple text"));
+        }
+    }
+
+    @Test
+    public void testGzipCache() throws Exception
+    {
+        testdir.ensureEmpty();
+        File resBase = testdir.getFile("docroot");
+        FS.ensureDirExists(resBase);
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 4 * 1024)
+            content.append("0123456789abcdefghijklmnopqrstuvwxyz\n");
+        createFile(new File(resBase, "data.txt"), content.toString());
+        createFile(new File(resBase, "data.png"), content.toString());
+        String resBasePath = resBase.getAbsolutePath();
+
+        ServletHolder defholder = context.addServlet(DefaultServlet.class, "/");
+        defholder.setInitParameter("dirAllowed", "false");
+        defholder.setInitParameter("redirectWelcome", "false");
+        defholder.setInitParameter("gzip", "false");
+        defholder.setInitParameter("gzipCache", "true");
+        defholder.setInitParameter("etags", "true");
+        defholder.setInitParameter("maxCachedFiles", "10");
+        defholder.setInitParameter("resourceBase", resBasePath);
+
+        // Identity for a client that does not accept gzip
+        String response = connector.getResponses("GET /context/data.txt HTTP/1.0\r\n\r\n");
+        assertResponseContains("200 OK", response);
+        assertResponseContains("Vary: Accept-Encoding", response);
+        assertResponseContains("Content-Length: " + content.length(), response);
+        assertResponseNotContains("Content-Encoding", response);
+
+        for (int i = 0; i < 2; i++)
+        {
+            ByteBuffer buffer = connector.getResponses(BufferUtil.toBuffer("GET /context/data.txt HTTP/1.0\r\nAccept-Encoding: gzip\r\n\r\n"));
+            response = BufferUtil.toString(buffer, StringUtil.__ISO_8859_1_CHARSET);
+            assertResponseContains("200 OK", response);
+            assertResponseContains("Vary: Accept-Encoding", response);
+            assertResponseContains("Content-Encoding: gzip", response);
+            assertResponseContains("--gzip\"", response);
+            assertResponseNotContains("Content-Length: " + content.length(), response);
+
+            int body = response.indexOf("\r\n\r\n") + 4;
+            GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + body, buffer.remaining() - body));
+            Assert.assertEquals(content.toString(), IO.toString(in));
+        }
+
+        // Not a compressible type
+        response = connector.getResponses("GET /context/data.png HTTP/1.0\r\nAccept-Encoding: gzip\r\n\r\n");
+        assertResponseContains("200 OK", response);
+        assertResponseNotContains("Content-Encoding", response);
+        assertResponseNotContains("Vary", response);
+    }
+
     @Test
     public void testFiltered() throws Exception
     {
@@ -20,14 +20,17 @@ package org.eclipse.jetty.servlets;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.servlet.Filter;
@@ -106,6 +109,12 @@ import org.eclipse.jetty.util.thread.Timeout;
  * <dd>how long to keep track of request rates for a connection,
  * before deciding that the user has gone away, and discarding it</dd>
  * <p/>
+ * <dt>maxIpTrackers</dt>
+ * <dd>the number of IP addresses (or IP+port) whose request rates can be tracked at once.
+ * Request rates by IP are kept in a table of fixed size, so that a flood from many
+ * addresses does not allocate memory; when the table is full, the address that will
+ * go idle soonest is forgotten. Defaults to 65536.</dd>
+ * <p/>
  * <dt>insertHeaders</dt>
  * <dd>if true , insert the DoSFilter headers into the response. Defaults to true.</dd>
  * <p/>
@@ -146,6 +155,7 @@ public class DoSFilter implements Filter
     private static final long __DEFAULT_THROTTLE_MS = 30000L;
     private static final long __DEFAULT_MAX_REQUEST_MS_INIT_PARAM = 30000L;
     private static final long __DEFAULT_MAX_IDLE_TRACKER_MS_INIT_PARAM = 30000L;
+    private static final int __DEFAULT_MAX_IP_TRACKERS = 65536;
 
     static final String MANAGED_ATTR_INIT_PARAM = "managedAttr";
     static final String MAX_REQUESTS_PER_S_INIT_PARAM = "maxRequestsPerSec";
@@ -155,6 +165,7 @@ public class DoSFilter implements Filter
     static final String THROTTLE_MS_INIT_PARAM = "throttleMs";
     static final String MAX_REQUEST_MS_INIT_PARAM = "maxRequestMs";
     static final String MAX_IDLE_TRACKER_MS_INIT_PARAM = "maxIdleTrackerMs";
+    static final String MAX_IP_TRACKERS_INIT_PARAM = "maxIpTrackers";
     static final String INSERT_HEADERS_INIT_PARAM = "insertHeaders";
     static final String TRACK_SESSIONS_INIT_PARAM = "trackSessions";
     static final String REMOTE_PORT_INIT_PARAM = "remotePort";
@@ -182,6 +193,7 @@ public class DoSFilter implements Filter
     private Queue<Continuation>[] _queue;
     private ContinuationListener[] _listeners;
     private final ConcurrentHashMap<String, RateTracker> _rateTrackers = new ConcurrentHashMap<>();
+    private volatile RateTable _rateTable = new RateTable(__DEFAULT_MAX_IP_TRACKERS);
     private final List<String> _whitelist = new CopyOnWriteArrayList<>();
     private final Timeout _requestTimeoutQ = new Timeout();
     private final Timeout _trackerTimeoutQ = new Timeout();
@@ -256,6 +268,12 @@ public class DoSFilter implements Filter
             maxIdleTrackerMs = Long.parseLong(parameter);
         setMaxIdleTrackerMs(maxIdleTrackerMs);
 
+        int maxIpTrackers = __DEFAULT_MAX_IP_TRACKERS;
+        parameter = filterConfig.getInitParameter(MAX_IP_TRACKERS_INIT_PARAM);
+        if (parameter != null)
+            maxIpTrackers = Integer.parseInt(parameter);
+        setMaxIpTrackers(maxIpTrackers);
+
         String whiteList = "";
         parameter = filterConfig.getInitParameter(IP_WHITELIST_INIT_PARAM);
         if (parameter != null)
@@ -337,11 +355,22 @@ public class DoSFilter implements Filter
         {
             // This is the first time we have seen this request.
 
-            // get a rate tracker associated with this request, and record one hit
-            tracker = getRateTracker(request);
+            // get a rate tracker associated with the user or session of this request, and record one hit
+            tracker = getUserRateTracker(request);
 
-            // Calculate the rate and check it is over the allowed limit
-            final boolean overRateLimit = tracker.isRateExceeded(now);
+            // Calculate the rate and check it is over the allowed limit.  The rate of an IP address
+            // is checked without a tracker, which is only created if the request is over the limit.
+            final boolean overRateLimit;
+            if (tracker != null)
+                overRateLimit = tracker.isRateExceeded(now);
+            else
+            {
+                String address = request.getRemoteAddr();
+                int port = _remotePort ? request.getRemotePort() : -1;
+                overRateLimit = isIpRateExceeded(address, port, now);
+                if (overRateLimit)
+                    tracker = new IpRateTracker(address, port);
+            }
 
             // pass it through if  we are not currently over the rate limit
             if (!overRateLimit)
@@ -556,11 +585,26 @@ public class DoSFilter implements Filter
      * into one.
      * <p/>
      * When a session expires, its rate tracker is automatically deleted.
+     * <p/>
+     * Request rates by IP address are kept in a fixed size {@link RateTable},
+     * so the tracker returned for them holds no state of its own.
      *
      * @param request the current request
      * @return the request rate tracker for the current connection
      */
     public RateTracker getRateTracker(ServletRequest request)
+    {
+        RateTracker tracker = getUserRateTracker(request);
+        if (tracker == null)
+            tracker = new IpRateTracker(request.getRemoteAddr(), _remotePort ? request.getRemotePort() : -1);
+        return tracker;
+    }
+
+    /**
+     * @param request the current request
+     * @return the request rate tracker for the user or session of the request, or null if the request is tracked by IP address
+     */
+    private RateTracker getUserRateTracker(ServletRequest request)
     {
         HttpSession session = ((HttpServletRequest)request).getSession(false);
 
@@ -579,8 +623,7 @@ public class DoSFilter implements Filter
             }
             else
             {
-                loadId = _remotePort ? (request.getRemoteAddr() + request.getRemotePort()) : request.getRemoteAddr();
-                type = USER_IP;
+                return null;
             }
         }
 
@@ -595,21 +638,35 @@ public class DoSFilter implements Filter
             if (existing != null)
                 tracker = existing;
 
-            if (type == USER_IP)
-            {
-                // USER_IP expiration from _rateTrackers is handled by the _trackerTimeoutQ
-                _trackerTimeoutQ.schedule(tracker);
-            }
-            else if (session != null)
+            if (session != null)
             {
                 // USER_SESSION expiration from _rateTrackers are handled by the HttpSessionBindingListener
                 session.setAttribute(__TRACKER, tracker);
             }
+            else
+            {
+                // USER_AUTH expiration without a session is handled by the _trackerTimeoutQ
+                _trackerTimeoutQ.schedule(tracker);
+            }
         }
 
         return tracker;
     }
 
+    /**
+     * Record a request from an IP address, and check its rate limit.
+     *
+     * @param address the IP address of the client
+     * @param port the port of the client, or -1 if the rate is tracked for the address only
+     * @param now the time of the request in ms
+     * @return true if the request exceeds the limit and the address is not whitelisted
+     */
+    private boolean isIpRateExceeded(String address, int port, long now)
+    {
+        // Only pay for the whitelist check if the rate is exceeded
+        return _rateTable.isRateExceeded(address, port, now, _maxRequestsPerSec) && !checkWhitelist(_whitelist, address);
+    }
+
     protected boolean checkWhitelist(List<String> whitelist, String candidate)
     {
         for (String address : whitelist)
@@ -726,6 +783,7 @@ public class DoSFilter implements Filter
         _requestTimeoutQ.cancelAll();
         _trackerTimeoutQ.cancelAll();
         _rateTrackers.clear();
+        _rateTable.clear();
         _whitelist.clear();
     }
 
@@ -904,6 +962,39 @@ public class DoSFilter implements Filter
         _maxIdleTrackerMs = value;
     }
 
+    /**
+     * Get the number of IP addresses whose request rates
+     * can be tracked at once.
+     *
+     * @return the capacity of the IP rate table
+     */
+    @ManagedAttribute("number of IP addresses whose request rates can be tracked at once")
+    public int getMaxIpTrackers()
+    {
+        return _rateTable.getCapacity();
+    }
+
+    /**
+     * Set the number of IP addresses whose request rates
+     * can be tracked at once. The value is rounded up to a power of 2
+     * and setting it discards the rates tracked so far.
+     *
+     * @param value the capacity of the IP rate table
+     */
+    public void setMaxIpTrackers(int value)
+    {
+        _rateTable = new RateTable(value);
+    }
+
+    /**
+     * @return the number of IP addresses forgotten while still active because the IP rate table was full
+     */
+    @ManagedAttribute("number of active IP addresses forgotten because the IP rate table was full")
+    public long getIpTrackerEvictions()
+    {
+        return _rateTable.getEvictions();
+    }
+
     /**
      * Check flag to insert the DoSFilter headers into the response.
      *
@@ -1081,6 +1172,18 @@ public class DoSFilter implements Filter
             _next = 0;
         }
 
+        /**
+         * For trackers that keep their request rate elsewhere
+         * and are never scheduled for expiry.
+         */
+        protected RateTracker(String id, int type)
+        {
+            _id = id;
+            _type = type;
+            _timestamps = null;
+            _next = 0;
+        }
+
         /**
          * @return the current calculated request rate over the last second
          */
@@ -1183,4 +1286,209 @@ public class DoSFilter implements Filter
             return "Fixed" + super.toString();
         }
     }
+
+    /**
+     * A RateTracker for an IP address, that keeps the request
+     * rate in the {@link RateTable} rather than in itself.
+     */
+    class IpRateTracker extends RateTracker
+    {
+        private final String _address;
+        private final int _port;
+
+        public IpRateTracker(String address, int port)
+        {
+            super(port < 0 ? address : address + port, USER_IP);
+            _address = address;
+            _port = port;
+        }
+
+        @Override
+        public boolean isRateExceeded(long now)
+        {
+            return isIpRateExceeded(_address, _port, now);
+        }
+
+        @Override
+        public void expired()
+        {
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Ip" + super.toString();
+        }
+    }
+
+    /**
+     * A fixed size table of request rates, keyed by a hash of the client id.
+     * <p/>
+     * Each slot holds the theoretical arrival time of the next request allowed
+     * by the rate limit (the generic cell rate algorithm), so a slot whose time
+     * has passed holds no information and is free for reuse. The table is split
+     * into shards, each with its own lock, and each id may use one of the 4 slots
+     * of its bucket. When all of them are in use, the slot that would go idle
+     * soonest is evicted.
+     */
+    static class RateTable
+    {
+        private static final int SLOTS_PER_BUCKET = 4;
+        private static final int MAX_SHARDS = 64;
+        private static final long WINDOW_US = 1000000L;
+
+        private final Shard[] _shards;
+        private final int _shardMask;
+        private final int _bucketMask;
+        private final long _seed = new Random().nextLong();
+        private final AtomicLong _evictions = new AtomicLong();
+
+        RateTable(int capacity)
+        {
+            int buckets = Math.max(1, Integer.highestOneBit(Math.max(1, capacity - 1)) * 2 / SLOTS_PER_BUCKET);
+            int shards = Math.min(MAX_SHARDS, buckets);
+            _shards = new Shard[shards];
+            for (int i = 0; i < shards; i++)
+                _shards[i] = new Shard(buckets / shards * SLOTS_PER_BUCKET);
+            _shardMask = shards - 1;
+            _bucketMask = buckets / shards - 1;
+        }
+
+        /**
+         * Record a request and check the rate limit.
+         *
+         * @param id the client id
+         * @param now the time of the request in ms
+         * @param maxRequestsPerSec the rate limit
+         * @return true if the request exceeds the limit
+         */
+        boolean isRateExceeded(String id, long now, int maxRequestsPerSec)
+        {
+            return isRateExceeded(id, -1, now, maxRequestsPerSec);
+        }
+
+        /**
+         * Record a request and check the rate limit.
+         *
+         * @param id the client id
+         * @param port the port of the client, or -1 if the client is identified by its id only
+         * @param now the time of the request in ms
+         * @param maxRequestsPerSec the rate limit
+         * @return true if the request exceeds the limit
+         */
+        boolean isRateExceeded(String id, int port, long now, int maxRequestsPerSec)
+        {
+            if (maxRequestsPerSec <= 0)
+                return false;
+
+            long key = hash(id, port);
+            long nowUs = now * 1000L;
+            long interval = WINDOW_US / maxRequestsPerSec;
+            long limit = nowUs + WINDOW_US;
+
+            Shard shard = _shards[(int)(key >>> 32) & _shardMask];
+            int base = ((int)key & _bucketMask) * SLOTS_PER_BUCKET;
+            synchronized (shard)
+            {
+                long[] keys = shard._keys;
+                long[] arrivals = shard._arrivals;
+
+                int slot = -1;
+                int free = -1;
+                int victim = base;
+                for (int i = base; i < base + SLOTS_PER_BUCKET; i++)
+                {
+                    if (keys[i] == key)
+                    {
+                        slot = i;
+                        break;
+                    }
+                    if (arrivals[i] <= nowUs)
+                    {
+                        if (free < 0)
+                            free = i;
+                    }
+                    else if (arrivals[i] < arrivals[victim])
+                        victim = i;
+                }
+
+                if (slot < 0)
+                {
+                    if (free >= 0)
+                        slot = free;
+                    else
+                    {
+                        slot = victim;
+                        _evictions.incrementAndGet();
+                    }
+                    keys[slot] = key;
+                    arrivals[slot] = nowUs;
+                }
+
+                // Requests over the limit keep the client at the limit, but no
+                // further, so it recovers within the window once it slows down,
+                // like the timestamp based RateTracker.
+                long arrival = Math.max(arrivals[slot], nowUs) + interval;
+                arrivals[slot] = Math.min(arrival, limit);
+                return arrival > limit;
+            }
+        }
+
+        private long hash(String id, int port)
+        {
+            // Seeded so that colliding ids cannot be chosen by clients
+            long h = _seed;
+            for (int i = 0; i < id.length(); i++)
+            {
+                h ^= id.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            if (port >= 0)
+            {
+                // The port is hashed as a character past the range of the id characters
+                h ^= 0x10000 + port;
+                h *= 0x100000001b3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+
+        int getCapacity()
+        {
+            return _shards.length * _shards[0]._keys.length;
+        }
+
+        long getEvictions()
+        {
+            return _evictions.get();
+        }
+
+        void clear()
+        {
+            for (Shard shard : _shards)
+            {
+                synchronized (shard)
+                {
+                    Arrays.fill(shard._keys, 0);
+                    Arrays.fill(shard._arrivals, 0);
+                }
+            }
+        }
+
+        private static class Shard
+        {
+            private final long[] _keys;
+            private final long[] _arrivals;
+
+            private Shard(int slots)
+            {
+                _keys = new long[slots];
+                _arrivals = new long[slots];
+            }
+        }
+    }
 }
@@ -39,7 +39,10 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.servlets.gzip.AbstractCompressedStream;
+import org.eclipse.jetty.servlets.gzip.AdaptiveCompression;
+import org.eclipse.jetty.servlets.gzip.AdaptiveCompression.MeteredDeflater;
 import org.eclipse.jetty.servlets.gzip.CompressedResponseWrapper;
 import org.eclipse.jetty.servlets.gzip.GzipOutputStream;
 import org.eclipse.jetty.util.log.Log;
@@ -83,6 +86,21 @@ import org.eclipse.jetty.util.log.Logger;
  * deflateCompressionLevel    The compression level used for deflate compression. (0-9).
  *                            See: {@link java.util.zip.Deflater#Deflater(int, boolean)}
  *
+ * adaptiveCompression        If true, the compression level is lowered from <code>deflateCompressionLevel</code> towards
+ *                            <code>minCompressionLevel</code> as the server thread pool gets busy, and responses are not
+ *                            compressed while the thread pool is low on threads, or if their mime type has been seen to
+ *                            compress poorly. Defaults to false. See {@link AdaptiveCompression}.
+ *
+ * minCompressionLevel        The lowest compression level used by adaptive compression. Defaults to 1.
+ *
+ * lowLoadPercent             The thread pool utilization (%) above which adaptive compression lowers the level. Defaults to 50.
+ *
+ * minSavingsPercent          Adaptive compression does not compress mime types that save less than this (%). Defaults to 10.
+ *
+ * managedAttr                If set to true, the {@link AdaptiveCompression} of this filter is set as a context attribute named
+ *                            after the filter, so that its statistics can be exported over JMX as a managed attribute of the
+ *                            context (see {@link org.eclipse.jetty.server.handler.ContextHandler#MANAGED_ATTRIBUTES}).
+ *
  * deflateNoWrap              The noWrap setting for deflate compression. Defaults to true. (true/false)
  *                            See: {@link java.util.zip.Deflater#Deflater(int, boolean)}
  *
@@ -118,6 +136,7 @@ public class GzipFilter extends UserAgentFilter
     public final static String DEFLATE="deflate";
     public final static String ETAG_DEFLATE="--deflate\"";
     public final static String ETAG="o.e.j.s.GzipFilter.ETag";
+    final static String MANAGED_ATTR_INIT_PARAM="managedAttr";
 
     protected ServletContext _context;
     protected Set<String> _mimeTypes;
@@ -127,7 +146,8 @@ public class GzipFilter extends UserAgentFilter
     protected boolean _deflateNoWrap = true;
     
     // non-static, as other GzipFilter instances may have different configurations
-    protected final ThreadLocal<Deflater> _deflater = new ThreadLocal<Deflater>();
+    protected final ThreadLocal<MeteredDeflater> _deflater = new ThreadLocal<MeteredDeflater>();
+    protected final AdaptiveCompression _compression = new AdaptiveCompression();
 
     protected final Set<String> _methods=new HashSet<String>();
     protected Set<String> _excludedAgents;
@@ -165,6 +185,31 @@ public class GzipFilter extends UserAgentFilter
         if (tmp!=null)
             _deflateCompressionLevel=Integer.parseInt(tmp);
 
+        _compression.setMaxLevel(_deflateCompressionLevel);
+
+        tmp=filterConfig.getInitParameter("adaptiveCompression");
+        if (tmp!=null)
+            _compression.setAdaptive(Boolean.parseBoolean(tmp));
+
+        tmp=filterConfig.getInitParameter("minCompressionLevel");
+        if (tmp!=null)
+            _compression.setMinLevel(Integer.parseInt(tmp));
+
+        tmp=filterConfig.getInitParameter("lowLoadPercent");
+        if (tmp!=null)
+            _compression.setLowLoadPercent(Integer.parseInt(tmp));
+
+        tmp=filterConfig.getInitParameter("minSavingsPercent");
+        if (tmp!=null)
+            _compression.setMinSavingsPercent(Integer.parseInt(tmp));
+
+        ContextHandler contextHandler=ContextHandler.getContextHandler(_context);
+        if (contextHandler!=null && contextHandler.getServer()!=null)
+            _compression.setThreadPool(contextHandler.getServer().getThreadPool());
+
+        if (_context!=null && Boolean.parseBoolean(filterConfig.getInitParameter(MANAGED_ATTR_INIT_PARAM)))
+            _context.setAttribute(filterConfig.getFilterName(),_compression);
+
         tmp=filterConfig.getInitParameter("deflateNoWrap");
         if (tmp!=null)
             _deflateNoWrap=Boolean.parseBoolean(tmp);
@@ -409,7 +454,8 @@ public class GzipFilter extends UserAgentFilter
             {
                 return new AbstractCompressedStream(compressionType,request,this,_vary)
                 {
-                    private Deflater _allocatedDeflater;
+                    private MeteredDeflater _allocatedDeflater;
+                    private String _contentType;
 
                     @Override
                     protected DeflaterOutputStream createStream() throws IOException
@@ -419,14 +465,20 @@ public class GzipFilter extends UserAgentFilter
                             return null;
                         }
                         
+                        _contentType = _response.getContentType();
+                        int level = _compression.getLevel(_contentType);
+                        if (level < 0)
+                            return null;
+
                         // acquire deflater instance
                         _allocatedDeflater = _deflater.get();   
                         if (_allocatedDeflater==null)
-                            _allocatedDeflater = new Deflater(_deflateCompressionLevel,_deflateNoWrap);
+                            _allocatedDeflater = _compression.newDeflater(level,_deflateNoWrap);
                         else
                         {
                             _deflater.remove();
                             _allocatedDeflater.reset();
+                            _allocatedDeflater.setLevel(level);
                         }
                         
                         switch (compressionType)
@@ -439,13 +491,39 @@ public class GzipFilter extends UserAgentFilter
                         throw new IllegalStateException(compressionType + " not supported");
                     }
 
+                    @Override
+                    public void resetBuffer()
+                    {
+                        super.resetBuffer();
+                        release();
+                    }
+
                     @Override
                     public void finish() throws IOException
                     {
-                        super.finish();
-                        if (_allocatedDeflater != null && _deflater.get() == null)
+                        try
                         {
-                            _deflater.set(_allocatedDeflater);
+                            super.finish();
+                        }
+                        finally
+                        {
+                            release();
+                        }
+                    }
+
+                    private void release()
+                    {
+                        // Give the deflater back to the thread, or end it, whether or not the response completed
+                        MeteredDeflater deflater = _allocatedDeflater;
+                        if (deflater != null)
+                        {
+                            _allocatedDeflater = null;
+                            if (deflater.finished())
+                                _compression.record(_contentType,deflater);
+                            if (_deflater.get() == null)
+                                _deflater.set(deflater);
+                            else
+                                deflater.end();
                         }
                     }
                 };
@@ -455,6 +533,15 @@ public class GzipFilter extends UserAgentFilter
         return wrappedResponse;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the compression level selection and statistics of this filter
+     */
+    public AdaptiveCompression getAdaptiveCompression()
+    {
+        return _compression;
+    }
+
     protected void configureWrappedResponse(CompressedResponseWrapper wrappedResponse)
     {
         wrappedResponse.setMimeTypes(_mimeTypes);
@@ -249,6 +249,11 @@ public abstract class AbstractCompressedStream extends ServletOutputStream
                             setHeader("ETag",etag.substring(0,etag.length()-1)+'-'+_encoding+'"');
                         return;
                     }
+
+                    // No stream, so the content is sent as is (Vary has already been sent)
+                    _response.setHeader("Content-Encoding",null);
+                    doNotCompress(false);
+                    return;
                 }
             }
             
@@ -353,6 +358,7 @@ public abstract class AbstractCompressedStream extends ServletOutputStream
 
     /**
      * Create the stream fitting to the underlying compression type.
+     * @return the compressing stream, or null if the content is not to be compressed
      *
      * @throws IOException
      *             Signals that an I/O exception has occurred.
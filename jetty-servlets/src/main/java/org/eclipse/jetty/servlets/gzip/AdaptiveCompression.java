@@ -0,0 +1,401 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets.gzip;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/* ------------------------------------------------------------ */
+/**
+ * Compression level selection and statistics for {@link org.eclipse.jetty.servlets.GzipFilter}
+ * and {@link GzipHandler}.
+ * <p>
+ * For every compression level, the number of responses, the bytes before and after
+ * compression and the time spent deflating are recorded, so that the savings of each
+ * level can be weighed against its CPU cost.
+ * <p>
+ * If adaptive, the level used for a response is lowered from the maximum level towards
+ * the minimum level as the utilization of the thread pool rises above the low load
+ * threshold, and responses are not compressed at all while the thread pool is low on
+ * threads. Responses of a mime type that has been seen to save less than the minimum
+ * savings are also not compressed, except for an occasional response that is compressed
+ * to sample the mime type again.
+ */
+@ManagedObject("Adaptive compression level and compression statistics")
+public class AdaptiveCompression
+{
+    private static final int LEVELS = Deflater.BEST_COMPRESSION + 1;
+    private static final int MAX_MIME_TYPES = 256;
+    private static final int SAMPLE_INTERVAL = 64;
+
+    private final AtomicLongArray _responses = new AtomicLongArray(LEVELS);
+    private final AtomicLongArray _bytesIn = new AtomicLongArray(LEVELS);
+    private final AtomicLongArray _bytesOut = new AtomicLongArray(LEVELS);
+    private final AtomicLongArray _nanos = new AtomicLongArray(LEVELS);
+    private final AtomicLong _skippedLoad = new AtomicLong();
+    private final AtomicLong _skippedMimeType = new AtomicLong();
+    private final ConcurrentMap<String, Savings> _savings = new ConcurrentHashMap<>();
+    private volatile ThreadPool _threadPool;
+    private volatile boolean _adaptive;
+    private volatile int _maxLevel = 6;
+    private volatile int _minLevel = Deflater.BEST_SPEED;
+    private volatile int _lowLoadPercent = 50;
+    private volatile int _minSavingsPercent = 10;
+    private volatile int _minSamples = 16;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param contentType the content type of the response, or null if not known
+     * @return the level to compress the response with, or -1 if it should not be compressed
+     */
+    public int getLevel(String contentType)
+    {
+        if (!_adaptive)
+            return _maxLevel;
+
+        ThreadPool pool = _threadPool;
+        if (pool != null && pool.isLowOnThreads())
+        {
+            _skippedLoad.incrementAndGet();
+            return -1;
+        }
+
+        String mimeType = mimeType(contentType);
+        if (mimeType != null)
+        {
+            Savings savings = _savings.get(mimeType);
+            if (savings != null && savings.isPoor())
+            {
+                _skippedMimeType.incrementAndGet();
+                return -1;
+            }
+        }
+
+        int level = _maxLevel;
+        int low = _lowLoadPercent;
+        if (pool instanceof ThreadPool.SizedThreadPool && low < 100)
+        {
+            int max = ((ThreadPool.SizedThreadPool)pool).getMaxThreads();
+            if (max > 0)
+            {
+                int busy = Math.max(0, pool.getThreads() - pool.getIdleThreads());
+                int percent = Math.min(100, busy * 100 / max);
+                if (percent > low)
+                    level -= (level - _minLevel) * (percent - low) / (100 - low);
+            }
+        }
+        return Math.max(Math.min(_minLevel, _maxLevel), level);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Record a compressed response.
+     * @param contentType the content type of the response, or null if not known
+     * @param deflater the deflater used to compress the response
+     */
+    public void record(String contentType, MeteredDeflater deflater)
+    {
+        int level = deflater.getLevel();
+        long in = deflater.getBytesRead();
+        long out = deflater.getBytesWritten();
+        _responses.incrementAndGet(level);
+        _bytesIn.addAndGet(level, in);
+        _bytesOut.addAndGet(level, out);
+        _nanos.addAndGet(level, deflater.getNanos());
+
+        String mimeType = mimeType(contentType);
+        if (mimeType != null && in > 0)
+        {
+            Savings savings = _savings.get(mimeType);
+            if (savings == null && _savings.size() < MAX_MIME_TYPES)
+            {
+                savings = new Savings();
+                Savings existing = _savings.putIfAbsent(mimeType, savings);
+                if (existing != null)
+                    savings = existing;
+            }
+            if (savings != null)
+                savings.record(in, out);
+        }
+    }
+
+    private String mimeType(String contentType)
+    {
+        if (contentType == null)
+            return null;
+        int semicolon = contentType.indexOf(';');
+        if (semicolon >= 0)
+            contentType = contentType.substring(0, semicolon);
+        return StringUtil.asciiToLowerCase(contentType.trim());
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param level the compression level
+     * @param nowrap if true, the ZLIB header and checksum are not used
+     * @return a new deflater that records the time spent deflating
+     */
+    public MeteredDeflater newDeflater(int level, boolean nowrap)
+    {
+        return new MeteredDeflater(level, nowrap);
+    }
+
+    public void setThreadPool(ThreadPool threadPool)
+    {
+        _threadPool = threadPool;
+    }
+
+    public ThreadPool getThreadPool()
+    {
+        return _threadPool;
+    }
+
+    @ManagedAttribute("True if the compression level adapts to the load")
+    public boolean isAdaptive()
+    {
+        return _adaptive;
+    }
+
+    public void setAdaptive(boolean adaptive)
+    {
+        _adaptive = adaptive;
+    }
+
+    @ManagedAttribute("The compression level used when not under load")
+    public int getMaxLevel()
+    {
+        return _maxLevel;
+    }
+
+    /**
+     * @param level the compression level used when not under load, or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public void setMaxLevel(int level)
+    {
+        _maxLevel = level < 0 ? 6 : Math.min(level, Deflater.BEST_COMPRESSION);
+    }
+
+    @ManagedAttribute("The lowest compression level used under load")
+    public int getMinLevel()
+    {
+        return _minLevel;
+    }
+
+    public void setMinLevel(int level)
+    {
+        _minLevel = Math.max(Deflater.NO_COMPRESSION, Math.min(level, Deflater.BEST_COMPRESSION));
+    }
+
+    @ManagedAttribute("The thread pool utilization (%) above which the compression level is lowered")
+    public int getLowLoadPercent()
+    {
+        return _lowLoadPercent;
+    }
+
+    public void setLowLoadPercent(int percent)
+    {
+        _lowLoadPercent = percent;
+    }
+
+    @ManagedAttribute("The savings (%) below which a mime type is not compressed")
+    public int getMinSavingsPercent()
+    {
+        return _minSavingsPercent;
+    }
+
+    public void setMinSavingsPercent(int percent)
+    {
+        _minSavingsPercent = percent;
+    }
+
+    @ManagedAttribute("The number of responses of a mime type sampled before it may be excluded")
+    public int getMinSamples()
+    {
+        return _minSamples;
+    }
+
+    public void setMinSamples(int samples)
+    {
+        _minSamples = samples;
+    }
+
+    @ManagedAttribute("The number of responses not compressed because the thread pool was low on threads")
+    public long getSkippedForLoad()
+    {
+        return _skippedLoad.get();
+    }
+
+    @ManagedAttribute("The number of responses not compressed because their mime type did not compress well")
+    public long getSkippedForMimeType()
+    {
+        return _skippedMimeType.get();
+    }
+
+    public long getResponses(int level)
+    {
+        return _responses.get(level);
+    }
+
+    public long getBytesIn(int level)
+    {
+        return _bytesIn.get(level);
+    }
+
+    public long getBytesOut(int level)
+    {
+        return _bytesOut.get(level);
+    }
+
+    public long getNanos(int level)
+    {
+        return _nanos.get(level);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the responses, bytes saved and time spent for each compression level used
+     */
+    @ManagedAttribute("The responses, savings and deflate time of each compression level")
+    public String[] getLevelStatistics()
+    {
+        String[] statistics = new String[LEVELS];
+        for (int level = 0; level < LEVELS; level++)
+        {
+            long in = _bytesIn.get(level);
+            long out = _bytesOut.get(level);
+            statistics[level] = String.format("level=%d responses=%d in=%d out=%d savings=%d%% deflate=%dus",
+                    level, _responses.get(level), in, out, in == 0 ? 0 : (in - out) * 100 / in, _nanos.get(level) / 1000);
+        }
+        return statistics;
+    }
+
+    @ManagedOperation("Reset the statistics and the mime type savings")
+    public void resetStatistics()
+    {
+        for (int level = 0; level < LEVELS; level++)
+        {
+            _responses.set(level, 0);
+            _bytesIn.set(level, 0);
+            _bytesOut.set(level, 0);
+            _nanos.set(level, 0);
+        }
+        _skippedLoad.set(0);
+        _skippedMimeType.set(0);
+        _savings.clear();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{adaptive=%b,level=%d..%d}", getClass().getSimpleName(), hashCode(), _adaptive, _minLevel, _maxLevel);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * The bytes saved by compressing a mime type.
+     */
+    private class Savings
+    {
+        private final AtomicLong _samples = new AtomicLong();
+        private final AtomicLong _in = new AtomicLong();
+        private final AtomicLong _out = new AtomicLong();
+        private final AtomicLong _skipped = new AtomicLong();
+
+        private void record(long in, long out)
+        {
+            _samples.incrementAndGet();
+            _in.addAndGet(in);
+            _out.addAndGet(out);
+        }
+
+        private boolean isPoor()
+        {
+            if (_samples.get() < _minSamples)
+                return false;
+            long in = _in.get();
+            if (in == 0 || (in - _out.get()) * 100 / in >= _minSavingsPercent)
+                return false;
+            // Let an occasional response through to sample the mime type again
+            return _skipped.incrementAndGet() % SAMPLE_INTERVAL != 0;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * A {@link Deflater} that remembers its level and records the time spent deflating.
+     */
+    public static class MeteredDeflater extends Deflater
+    {
+        private int _level;
+        private long _nanos;
+
+        public MeteredDeflater(int level, boolean nowrap)
+        {
+            super(level, nowrap);
+            _level = level < 0 ? 6 : level;
+        }
+
+        @Override
+        public void setLevel(int level)
+        {
+            super.setLevel(level);
+            _level = level < 0 ? 6 : level;
+        }
+
+        public int getLevel()
+        {
+            return _level;
+        }
+
+        public long getNanos()
+        {
+            return _nanos;
+        }
+
+        @Override
+        public int deflate(byte[] b, int off, int len, int flush)
+        {
+            long start = System.nanoTime();
+            try
+            {
+                return super.deflate(b, off, len, flush);
+            }
+            finally
+            {
+                _nanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void reset()
+        {
+            super.reset();
+            _nanos = 0;
+        }
+    }
+}
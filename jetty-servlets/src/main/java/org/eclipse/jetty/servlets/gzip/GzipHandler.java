@@ -27,7 +27,6 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.AsyncEvent;
 import javax.servlet.AsyncListener;
@@ -38,6 +37,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.servlets.gzip.AdaptiveCompression.MeteredDeflater;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -67,6 +67,7 @@ public class GzipHandler extends HandlerWrapper
     protected int _bufferSize = 8192;
     protected int _minGzipSize = 256;
     protected String _vary = "Accept-Encoding, User-Agent";
+    protected final AdaptiveCompression _compression = new AdaptiveCompression();
 
     /* ------------------------------------------------------------ */
     /**
@@ -74,6 +75,26 @@ public class GzipHandler extends HandlerWrapper
      */
     public GzipHandler()
     {
+        addBean(_compression);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (getServer()!=null && _compression.getThreadPool()==null)
+            _compression.setThreadPool(getServer().getThreadPool());
+        super.doStart();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the compression level selection and statistics of this handler,
+     * which may be configured to adapt the level to the load
+     */
+    public AdaptiveCompression getAdaptiveCompression()
+    {
+        return _compression;
     }
 
     /* ------------------------------------------------------------ */
@@ -336,10 +357,51 @@ public class GzipHandler extends HandlerWrapper
             {
                 return new AbstractCompressedStream("gzip",request,this,_vary)
                 {
+                    private MeteredDeflater _deflater;
+                    private String _contentType;
+
                     @Override
                     protected DeflaterOutputStream createStream() throws IOException
                     {
-                        return new GZIPOutputStream(_response.getOutputStream(),_bufferSize);
+                        _contentType=_response.getContentType();
+                        int level=_compression.getLevel(_contentType);
+                        if (level<0)
+                            return null;
+                        _deflater=_compression.newDeflater(level,true);
+                        return new GzipOutputStream(_response.getOutputStream(),_deflater,_bufferSize);
+                    }
+
+                    @Override
+                    public void resetBuffer()
+                    {
+                        super.resetBuffer();
+                        release();
+                    }
+
+                    @Override
+                    public void finish() throws IOException
+                    {
+                        try
+                        {
+                            super.finish();
+                        }
+                        finally
+                        {
+                            release();
+                        }
+                    }
+
+                    private void release()
+                    {
+                        // End the deflater whether or not the response completed, as it holds native memory
+                        MeteredDeflater deflater=_deflater;
+                        if (deflater!=null)
+                        {
+                            _deflater=null;
+                            if (deflater.finished())
+                                _compression.record(_contentType,deflater);
+                            deflater.end();
+                        }
                     }
                 };
             }
@@ -0,0 +1,115 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.toolchain.test.AdvancedRunner;
+import org.eclipse.jetty.toolchain.test.annotation.Stress;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the throughput and retained heap of the DoSFilter IP rate table
+ * as the number of distinct clients grows well beyond its capacity.
+ */
+@RunWith(AdvancedRunner.class)
+public class DoSFilterRateTableBenchmarkTest
+{
+    private static final Logger logger = Log.getLogger(DoSFilterRateTableBenchmarkTest.class);
+
+    // Keeps the ids reachable while memory is measured
+    private volatile String[] _ids;
+
+    @Stress("High CPU")
+    @Test
+    public void testUniqueClients() throws Exception
+    {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final int requests = 4 * 1024 * 1024;
+        final DoSFilter.RateTable table = new DoSFilter.RateTable(65536);
+
+        for (int clients = 1024; clients <= 16 * 1024 * 1024; clients *= 8)
+        {
+            // Build the ids up front so that only the table is measured
+            final String[] ids = new String[Math.min(clients, requests)];
+            for (int i = 0; i < ids.length; i++)
+                ids[i] = (i >>> 24) + "." + ((i >>> 16) & 0xFF) + "." + ((i >>> 8) & 0xFF) + "." + (i & 0xFF);
+            final int uniques = clients;
+            _ids = ids;
+
+            long before = usedMemory();
+            final CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+            for (int t = 0; t < threads; t++)
+            {
+                final int offset = t;
+                new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        await(barrier);
+                        long now = System.currentTimeMillis();
+                        for (int i = offset; i < requests; i += threads)
+                        {
+                            int client = (int)((i * 2654435761L) % uniques);
+                            table.isRateExceeded(ids[client % ids.length], now + (i >>> 16), 25);
+                        }
+                        await(barrier);
+                    }
+                }.start();
+            }
+
+            await(barrier);
+            long begin = System.nanoTime();
+            await(barrier);
+            long elapsed = System.nanoTime() - begin;
+            long after = usedMemory();
+
+            logger.info("{} clients: {} requests/s, retained {} KiB, evictions {}",
+                    clients,
+                    requests * TimeUnit.SECONDS.toNanos(1) / elapsed,
+                    (after - before) / 1024,
+                    table.getEvictions());
+        }
+    }
+
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void await(CyclicBarrier barrier)
+    {
+        try
+        {
+            barrier.await();
+        }
+        catch (Exception x)
+        {
+            throw new RuntimeException(x);
+        }
+    }
+}
@@ -93,6 +93,46 @@ public class DoSFilterTest extends AbstractDoSFilterTest
         Assert.assertFalse(filter.checkWhitelist(whitelist, "4d8:0:a:1234:ABc:1D:0:0"));
     }
 
+    @Test
+    public void testRateTable() throws Exception
+    {
+        DoSFilter.RateTable table = new DoSFilter.RateTable(8);
+        Assert.assertEquals(8, table.getCapacity());
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 4; i++)
+            assertFalse(table.isRateExceeded("10.0.0.1", now, 4));
+        assertTrue(table.isRateExceeded("10.0.0.1", now, 4));
+        assertTrue(table.isRateExceeded("10.0.0.1", now + 100, 4));
+
+        // Other clients are tracked independently
+        assertFalse(table.isRateExceeded("10.0.0.2", now, 4));
+
+        // Once the client slows down it is allowed again
+        assertFalse(table.isRateExceeded("10.0.0.1", now + 1750, 4));
+
+        // The ports of a client are tracked independently when given
+        assertFalse(table.isRateExceeded("10.0.0.3", 8080, now, 1));
+        assertTrue(table.isRateExceeded("10.0.0.3", 8080, now, 1));
+        assertFalse(table.isRateExceeded("10.0.0.3", 8081, now, 1));
+
+        // Many more clients than slots evict, but never grow the table
+        for (int i = 0; i < 1000; i++)
+            table.isRateExceeded("192.168.0." + i, now + 2000, 4);
+        Assert.assertEquals(8, table.getCapacity());
+        assertTrue(table.getEvictions() > 0);
+    }
+
+    @Test
+    public void testRateTableBeforeInit() throws Exception
+    {
+        DoSFilter filter = new DoSFilter();
+        Assert.assertEquals(65536, filter.getMaxIpTrackers());
+        Assert.assertEquals(0, filter.getIpTrackerEvictions());
+        filter.setMaxIpTrackers(16);
+        Assert.assertEquals(16, filter.getMaxIpTrackers());
+    }
+
     private boolean hitRateTracker(DoSFilter doSFilter, int sleep) throws InterruptedException
     {
         boolean exceeded = false;
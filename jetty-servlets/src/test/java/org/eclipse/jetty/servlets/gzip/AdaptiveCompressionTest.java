@@ -0,0 +1,131 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets.gzip;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.eclipse.jetty.servlets.gzip.AdaptiveCompression.MeteredDeflater;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveCompressionTest
+{
+    private static class LoadedThreadPool extends QueuedThreadPool
+    {
+        private int _busy;
+        private boolean _low;
+
+        private LoadedThreadPool()
+        {
+            super(100);
+        }
+
+        @Override
+        public int getThreads()
+        {
+            return _busy;
+        }
+
+        @Override
+        public int getIdleThreads()
+        {
+            return 0;
+        }
+
+        @Override
+        public boolean isLowOnThreads()
+        {
+            return _low;
+        }
+    }
+
+    @Test
+    public void testLevelFollowsLoad() throws Exception
+    {
+        LoadedThreadPool pool = new LoadedThreadPool();
+        AdaptiveCompression compression = new AdaptiveCompression();
+        compression.setThreadPool(pool);
+        compression.setMaxLevel(9);
+        compression.setMinLevel(1);
+        compression.setLowLoadPercent(50);
+
+        // Not adaptive, so always the configured level
+        pool._busy = 100;
+        Assert.assertEquals(9, compression.getLevel("text/html"));
+
+        compression.setAdaptive(true);
+        pool._busy = 10;
+        Assert.assertEquals(9, compression.getLevel("text/html"));
+        pool._busy = 75;
+        Assert.assertEquals(5, compression.getLevel("text/html"));
+        pool._busy = 100;
+        Assert.assertEquals(1, compression.getLevel("text/html"));
+
+        pool._low = true;
+        Assert.assertEquals(-1, compression.getLevel("text/html"));
+        Assert.assertEquals(1, compression.getSkippedForLoad());
+    }
+
+    @Test
+    public void testPoorMimeTypeSkipped() throws Exception
+    {
+        AdaptiveCompression compression = new AdaptiveCompression();
+        compression.setAdaptive(true);
+        compression.setMinSamples(4);
+
+        byte[] random = new byte[4096];
+        new Random().nextBytes(random);
+        byte[] text = new byte[4096];
+        for (int i = 0; i < text.length; i++)
+            text[i] = (byte)('a' + i % 8);
+
+        for (int i = 0; i < 4; i++)
+        {
+            compression.record("image/png", deflate(compression, random));
+            compression.record("text/plain; charset=UTF-8", deflate(compression, text));
+        }
+
+        Assert.assertEquals(-1, compression.getLevel("image/png"));
+        Assert.assertEquals(6, compression.getLevel("text/plain"));
+        Assert.assertEquals(1, compression.getSkippedForMimeType());
+
+        // The mime type is sampled again now and then
+        int compressed = 0;
+        for (int i = 0; i < 128; i++)
+            if (compression.getLevel("image/png") >= 0)
+                compressed++;
+        Assert.assertEquals(2, compressed);
+
+        Assert.assertEquals(8, compression.getResponses(6));
+        Assert.assertTrue(compression.getBytesOut(6) < compression.getBytesIn(6));
+        Assert.assertTrue(compression.getNanos(6) > 0);
+        Assert.assertTrue(compression.getLevelStatistics()[6].startsWith("level=6 responses=8"));
+    }
+
+    private MeteredDeflater deflate(AdaptiveCompression compression, byte[] content) throws Exception
+    {
+        MeteredDeflater deflater = compression.newDeflater(compression.getMaxLevel(), true);
+        GzipOutputStream out = new GzipOutputStream(new ByteArrayOutputStream(), deflater, 1024);
+        out.write(content);
+        out.close();
+        return deflater;
+    }
+}
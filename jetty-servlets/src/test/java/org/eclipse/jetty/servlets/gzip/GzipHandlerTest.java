@@ -0,0 +1,132 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets.gzip;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.IO;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+
+public class GzipHandlerTest
+{
+    private static final String CONTENT = "Lorem ipsum dolor sit amet, consectetur adipiscing elit. ";
+
+    private Server _server;
+    private LocalConnector _connector;
+    private GzipHandler _gzip;
+
+    @Before
+    public void init() throws Exception
+    {
+        _server = new Server();
+        _connector = new LocalConnector(_server);
+        _server.addConnector(_connector);
+
+        _gzip = new GzipHandler();
+        _gzip.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.setContentType("text/plain");
+                for (int i = 0; i < 100; i++)
+                    response.getOutputStream().print(CONTENT);
+            }
+        });
+        _server.setHandler(_gzip);
+        _server.start();
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        _server.stop();
+        _server.join();
+    }
+
+    @Test
+    public void testGzipStatistics() throws Exception
+    {
+        AdaptiveCompression compression = _gzip.getAdaptiveCompression();
+        Assert.assertSame(_server.getThreadPool(), compression.getThreadPool());
+
+        String response = request();
+        Assert.assertThat(response, containsString("Content-Encoding: gzip"));
+        Assert.assertEquals(1, compression.getResponses(6));
+        Assert.assertEquals(100 * CONTENT.length(), compression.getBytesIn(6));
+        Assert.assertTrue(compression.getBytesOut(6) < compression.getBytesIn(6));
+    }
+
+    @Test
+    public void testAdaptiveSkipsPoorMimeType() throws Exception
+    {
+        AdaptiveCompression compression = _gzip.getAdaptiveCompression();
+        compression.setAdaptive(true);
+        compression.setMinSamples(1);
+        compression.setMinSavingsPercent(100);
+
+        Assert.assertThat(request(), containsString("Content-Encoding: gzip"));
+
+        // text/plain now looks incompressible, so it is sent as is
+        String response = request();
+        Assert.assertThat(response, not(containsString("Content-Encoding")));
+        Assert.assertThat(response, containsString("Vary: Accept-Encoding"));
+        Assert.assertThat(response, containsString(CONTENT));
+        Assert.assertEquals(1, compression.getSkippedForMimeType());
+    }
+
+    private String request() throws Exception
+    {
+        ByteBuffer response = _connector.getResponses(BufferUtil.toBuffer(
+                "GET / HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Accept-Encoding: gzip\r\n" +
+                "Connection: close\r\n" +
+                "\r\n"));
+        String raw = BufferUtil.toString(response, StandardCharsets.ISO_8859_1);
+        int body = raw.indexOf("\r\n\r\n") + 4;
+        if (!raw.contains("Content-Encoding: gzip"))
+            return raw;
+
+        // Check that the compressed body inflates to the content
+        byte[] bytes = raw.substring(body).getBytes(StandardCharsets.ISO_8859_1);
+        String inflated = IO.toString(new GZIPInputStream(new ByteArrayInputStream(bytes)), "UTF-8");
+        Assert.assertTrue(inflated.startsWith(CONTENT));
+        return raw.substring(0, body);
+    }
+}
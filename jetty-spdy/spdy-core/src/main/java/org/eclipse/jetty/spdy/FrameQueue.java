@@ -0,0 +1,439 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jetty.spdy.StandardSession.FrameBytes;
+
+/**
+ * <p>The queue of {@link FrameBytes} waiting to be written by a {@link StandardSession}.</p>
+ * <p>Frames are queued in one FIFO per stream, and the streams that have frames ready to be
+ * written are linked in one list per priority, so that queuing a frame and finding the next
+ * frame to write take constant time whatever the number of streams, and streams stalled by
+ * flow control are skipped without being scanned.</p>
+ * <p>The next frame to write is, in order:</p>
+ * <ol>
+ * <li>a prepended frame without stream (for example PING), or a control frame queued with
+ * {@link #appendControl(FrameBytes)} (for example RST_STREAM, WINDOW_UPDATE, SETTINGS or GO_AWAY);</li>
+ * <li>a frame queued with {@link #appendOrdered(FrameBytes)} (for example frames carrying headers,
+ * that must be written in the order they have been compressed), once the frames queued before
+ * it on the same stream have been written;</li>
+ * <li>a frame of the non stalled stream with the highest priority (the lowest priority number);
+ * streams with the same priority take turns;</li>
+ * <li>a frame without stream queued with {@link #append(FrameBytes)} (for example the close of the session),
+ * once all the other frames have been written or are stalled.</li>
+ * </ol>
+ * <p>The frames of a stream are always written in the order they have been queued, except
+ * for prepended frames and control frames.</p>
+ * <p>This class is not thread safe, and must be used under the session lock.</p>
+ */
+class FrameQueue
+{
+    private static final int PRIORITIES = 8;
+
+    private final ArrayDeque<Entry> controls = new ArrayDeque<>();
+    private final ArrayDeque<Entry> ordered = new ArrayDeque<>();
+    private final ArrayDeque<Entry> others = new ArrayDeque<>();
+    private final Map<IStream, StreamFrames> streams = new HashMap<>();
+    private final StreamFrames[] heads = new StreamFrames[PRIORITIES];
+    private final StreamFrames[] tails = new StreamFrames[PRIORITIES];
+    /** Bit i is set when there are ready streams with priority i */
+    private int readyPriorities;
+    private int size;
+
+    /**
+     * <p>Queues a data frame after the frames of its stream, or a frame without stream
+     * after all the other frames.</p>
+     *
+     * @param frameBytes the frame to queue
+     */
+    public void append(FrameBytes frameBytes)
+    {
+        IStream stream = frameBytes.getStream();
+        if (stream == null)
+        {
+            others.addLast(new Entry(frameBytes, null, Kind.OTHER));
+        }
+        else
+        {
+            StreamFrames frames = streamFrames(stream);
+            frames.entries.addLast(new Entry(frameBytes, frames, Kind.DATA));
+            update(frames, false);
+        }
+        ++size;
+    }
+
+    /**
+     * <p>Queues a frame that must be written in order with the other frames queued by this
+     * method, and after the frames already queued for its stream.</p>
+     *
+     * @param frameBytes the frame to queue
+     */
+    public void appendOrdered(FrameBytes frameBytes)
+    {
+        IStream stream = frameBytes.getStream();
+        if (stream == null)
+            throw new IllegalArgumentException("No stream for " + frameBytes);
+        StreamFrames frames = streamFrames(stream);
+        Entry entry = new Entry(frameBytes, frames, Kind.ORDERED);
+        frames.entries.addLast(entry);
+        ++frames.ordered;
+        ordered.addLast(entry);
+        update(frames, false);
+        ++size;
+    }
+
+    /**
+     * <p>Queues a control frame to be written before the data frames, unless an ordered frame
+     * of the same stream is still queued, in which case it is written after it.</p>
+     *
+     * @param frameBytes the frame to queue
+     */
+    public void appendControl(FrameBytes frameBytes)
+    {
+        IStream stream = frameBytes.getStream();
+        StreamFrames frames = stream == null ? null : streams.get(stream);
+        if (frames != null && frames.ordered > 0)
+            appendOrdered(frameBytes);
+        else
+        {
+            controls.addLast(new Entry(frameBytes, null, Kind.CONTROL));
+            ++size;
+        }
+    }
+
+    /**
+     * <p>Queues a frame without stream before all the other frames, or a data frame before
+     * the frames of its stream, making its stream the next one of its priority.</p>
+     *
+     * @param frameBytes the frame to queue
+     */
+    public void prepend(FrameBytes frameBytes)
+    {
+        IStream stream = frameBytes.getStream();
+        if (stream == null)
+        {
+            controls.addFirst(new Entry(frameBytes, null, Kind.CONTROL));
+        }
+        else
+        {
+            StreamFrames frames = streamFrames(stream);
+            frames.entries.addFirst(new Entry(frameBytes, frames, Kind.DATA));
+            update(frames, true);
+        }
+        ++size;
+    }
+
+    /**
+     * @return the next frame to write, or null if there are no frames or they are all stalled
+     */
+    public FrameBytes peek()
+    {
+        Entry entry = next();
+        return entry == null ? null : entry.frameBytes;
+    }
+
+    /**
+     * <p>Removes the frame returned by {@link #peek()}.</p>
+     *
+     * @return the next frame to write, or null if there are no frames or they are all stalled
+     */
+    public FrameBytes poll()
+    {
+        Entry entry = next();
+        if (entry == null)
+            return null;
+
+        switch (entry.kind)
+        {
+            case CONTROL:
+                controls.pollFirst();
+                break;
+            case OTHER:
+                others.pollFirst();
+                break;
+            case ORDERED:
+                ordered.pollFirst();
+                --entry.frames.ordered;
+                entry.frames.entries.pollFirst();
+                update(entry.frames, false);
+                break;
+            default:
+                StreamFrames frames = entry.frames;
+                frames.entries.pollFirst();
+                update(frames, false);
+                // Take turns with the other streams of the same priority, so that
+                // a stream with many queued frames does not starve the others
+                if (frames.linked && tails[frames.priority] != frames)
+                {
+                    unlink(frames);
+                    linkLast(frames);
+                }
+                break;
+        }
+        --size;
+        return entry.frameBytes;
+    }
+
+    private Entry next()
+    {
+        if (!controls.isEmpty())
+            return controls.peekFirst();
+
+        Entry entry = ordered.peekFirst();
+        if (entry != null)
+        {
+            StreamFrames frames = entry.frames;
+            // Write the frames queued before the ordered frame on its stream first
+            if (frames.entries.peekFirst() == entry || !frames.stalled)
+                return frames.entries.peekFirst();
+        }
+
+        if (readyPriorities != 0)
+            return heads[Integer.numberOfTrailingZeros(readyPriorities)].entries.peekFirst();
+
+        return others.peekFirst();
+    }
+
+    /**
+     * <p>Skips the frames of the given stream until {@link #unstall(IStream)} is called.</p>
+     *
+     * @param stream the stream whose frames cannot be written
+     */
+    public void stall(IStream stream)
+    {
+        StreamFrames frames = streams.get(stream);
+        if (frames != null && !frames.stalled)
+        {
+            frames.stalled = true;
+            update(frames, false);
+        }
+    }
+
+    /**
+     * @param stream the stream whose frames can be written again
+     */
+    public void unstall(IStream stream)
+    {
+        StreamFrames frames = streams.get(stream);
+        if (frames != null && frames.stalled)
+        {
+            frames.stalled = false;
+            update(frames, false);
+        }
+    }
+
+    public void unstallAll()
+    {
+        for (StreamFrames frames : streams.values())
+        {
+            if (frames.stalled)
+            {
+                frames.stalled = false;
+                update(frames, false);
+            }
+        }
+    }
+
+    /**
+     * @param stream the stream to test
+     * @return whether the frames of the stream are skipped
+     */
+    public boolean isStalled(IStream stream)
+    {
+        StreamFrames frames = streams.get(stream);
+        return frames != null && frames.stalled;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * <p>Removes all the frames.</p>
+     *
+     * @return the removed frames
+     */
+    public List<FrameBytes> clear()
+    {
+        List<FrameBytes> result = new ArrayList<>(size);
+        for (Entry entry : controls)
+            result.add(entry.frameBytes);
+        for (StreamFrames frames : streams.values())
+            for (Entry entry : frames.entries)
+                result.add(entry.frameBytes);
+        for (Entry entry : others)
+            result.add(entry.frameBytes);
+        controls.clear();
+        ordered.clear();
+        others.clear();
+        streams.clear();
+        for (int i = 0; i < PRIORITIES; ++i)
+        {
+            heads[i] = null;
+            tails[i] = null;
+        }
+        readyPriorities = 0;
+        size = 0;
+        return result;
+    }
+
+    private StreamFrames streamFrames(IStream stream)
+    {
+        StreamFrames frames = streams.get(stream);
+        if (frames == null)
+        {
+            frames = new StreamFrames(stream);
+            streams.put(stream, frames);
+        }
+        return frames;
+    }
+
+    /**
+     * <p>Links the stream in the list of its priority if it has frames ready to be written,
+     * or unlinks it (and forgets it if it has no frames).</p>
+     *
+     * @param frames the frames of the stream
+     * @param first whether the stream must be the next one of its priority
+     */
+    private void update(StreamFrames frames, boolean first)
+    {
+        Entry head = frames.entries.peekFirst();
+        if (head == null)
+        {
+            unlink(frames);
+            streams.remove(frames.stream);
+            return;
+        }
+
+        // A stream whose next frame is ordered waits for its turn in the ordered frames
+        boolean ready = !frames.stalled && head.kind == Kind.DATA;
+        if (!ready)
+            unlink(frames);
+        else if (first)
+        {
+            unlink(frames);
+            linkFirst(frames);
+        }
+        else if (!frames.linked)
+            linkLast(frames);
+    }
+
+    private void linkFirst(StreamFrames frames)
+    {
+        int priority = frames.priority;
+        frames.previous = null;
+        frames.next = heads[priority];
+        if (heads[priority] == null)
+            tails[priority] = frames;
+        else
+            heads[priority].previous = frames;
+        heads[priority] = frames;
+        frames.linked = true;
+        readyPriorities |= 1 << priority;
+    }
+
+    private void linkLast(StreamFrames frames)
+    {
+        int priority = frames.priority;
+        frames.next = null;
+        frames.previous = tails[priority];
+        if (tails[priority] == null)
+            heads[priority] = frames;
+        else
+            tails[priority].next = frames;
+        tails[priority] = frames;
+        frames.linked = true;
+        readyPriorities |= 1 << priority;
+    }
+
+    private void unlink(StreamFrames frames)
+    {
+        if (!frames.linked)
+            return;
+        int priority = frames.priority;
+        if (frames.previous == null)
+            heads[priority] = frames.next;
+        else
+            frames.previous.next = frames.next;
+        if (frames.next == null)
+            tails[priority] = frames.previous;
+        else
+            frames.next.previous = frames.previous;
+        frames.previous = null;
+        frames.next = null;
+        frames.linked = false;
+        if (heads[priority] == null)
+            readyPriorities &= ~(1 << priority);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{size=%d,streams=%d}", getClass().getSimpleName(), hashCode(), size, streams.size());
+    }
+
+    private enum Kind
+    {
+        CONTROL, ORDERED, DATA, OTHER
+    }
+
+    private static class Entry
+    {
+        private final FrameBytes frameBytes;
+        private final StreamFrames frames;
+        private final Kind kind;
+
+        private Entry(FrameBytes frameBytes, StreamFrames frames, Kind kind)
+        {
+            this.frameBytes = frameBytes;
+            this.frames = frames;
+            this.kind = kind;
+        }
+    }
+
+    private static class StreamFrames
+    {
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        private final IStream stream;
+        private final int priority;
+        private int ordered;
+        private boolean stalled;
+        private boolean linked;
+        private StreamFrames previous;
+        private StreamFrames next;
+
+        private StreamFrames(IStream stream)
+        {
+            this.stream = stream;
+            this.priority = Math.min(PRIORITIES - 1, Math.max(0, stream.getPriority()));
+        }
+    }
+}
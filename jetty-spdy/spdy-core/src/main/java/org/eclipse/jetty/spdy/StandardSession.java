@@ -25,7 +25,6 @@ import java.nio.channels.InterruptedByTimeoutException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -95,7 +94,7 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
     private final Map<String, Object> attributes = new ConcurrentHashMap<>();
     private final List<Listener> listeners = new CopyOnWriteArrayList<>();
     private final ConcurrentMap<Integer, IStream> streams = new ConcurrentHashMap<>();
-    private final LinkedList<FrameBytes> queue = new LinkedList<>();
+    private final FrameQueue queue = new FrameQueue();
     private final ByteBufferPool bufferPool;
     private final Executor threadPool;
     private final Scheduler scheduler;
@@ -761,6 +760,13 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         int streamId = frame.getStreamId();
         IStream stream = streams.get(streamId);
         flowControlStrategy.onWindowUpdate(this, stream, frame.getWindowDelta());
+        if (stream != null)
+        {
+            synchronized (queue)
+            {
+                queue.unstall(stream);
+            }
+        }
         flush();
     }
 
@@ -951,7 +957,7 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
                 if (ControlFrameType.PING == frame.getType())
                     prepend(frameBytes);
                 else
-                    append(frameBytes);
+                    append(frameBytes, frame.getType());
             }
         }
         catch (Exception x)
@@ -1002,29 +1008,20 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
             if (flushing || queue.isEmpty())
                 return;
 
-            Set<IStream> stalledStreams = null;
-            for (int i = 0; i < queue.size(); ++i)
+            while ((frameBytes = queue.peek()) != null)
             {
-                frameBytes = queue.get(i);
-
                 IStream stream = frameBytes.getStream();
-                if (stream != null && stalledStreams != null && stalledStreams.contains(stream))
-                    continue;
-
                 buffer = frameBytes.getByteBuffer();
                 if (buffer != null)
                 {
-                    queue.remove(i);
+                    queue.poll();
                     if (stream != null && stream.isReset() && !(frameBytes instanceof ControlFrameBytes))
                         failFrameBytes = true;
                     break;
                 }
 
-                if (stalledStreams == null)
-                    stalledStreams = new HashSet<>();
-                if (stream != null)
-                    stalledStreams.add(stream);
-
+                // The stream is skipped until its window is updated
+                queue.stall(stream);
                 LOG.debug("Flush stalled for {}, {} frame(s) in queue", frameBytes, queue.size());
             }
 
@@ -1049,6 +1046,11 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
     }
 
     private void append(FrameBytes frameBytes)
+    {
+        append(frameBytes, null);
+    }
+
+    private void append(FrameBytes frameBytes, ControlFrameType type)
     {
         Throwable failure;
         synchronized (queue)
@@ -1056,22 +1058,14 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
             failure = this.failure;
             if (failure == null)
             {
-                // Frames containing headers must be send in the order the headers have been generated. We don't need
-                // to do this check in StandardSession.prepend() as no frames containing headers will be prepended.
-                if (frameBytes instanceof ControlFrameBytes)
-                    queue.addLast(frameBytes);
+                // Frames containing headers must be sent in the order the headers have been generated,
+                // to maintain a correct compression context on the other peer
+                if (type == ControlFrameType.SYN_STREAM || type == ControlFrameType.SYN_REPLY || type == ControlFrameType.HEADERS)
+                    queue.appendOrdered(frameBytes);
+                else if (type != null)
+                    queue.appendControl(frameBytes);
                 else
-                {
-                    int index = queue.size();
-                    while (index > 0)
-                    {
-                        FrameBytes element = queue.get(index - 1);
-                        if (element.compareTo(frameBytes) >= 0)
-                            break;
-                        --index;
-                    }
-                    queue.add(index, frameBytes);
-                }
+                    queue.append(frameBytes);
             }
         }
 
@@ -1086,17 +1080,7 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         {
             failure = this.failure;
             if (failure == null)
-            {
-                int index = 0;
-                while (index < queue.size())
-                {
-                    FrameBytes element = queue.get(index);
-                    if (element.compareTo(frameBytes) <= 0)
-                        break;
-                    ++index;
-                }
-                queue.add(index, frameBytes);
-            }
+                queue.prepend(frameBytes);
         }
 
         if (failure != null)
@@ -1147,6 +1131,10 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
     public void setWindowSize(int initialWindowSize)
     {
         flowControlStrategy.setWindowSize(this, initialWindowSize);
+        synchronized (queue)
+        {
+            queue.unstallAll();
+        }
     }
 
     @Override
@@ -1297,8 +1285,7 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
                     String logMessage = String.format("Failed write of %s, failing all %d frame(s) in queue", this, queue.size());
                     LOG.debug(logMessage, x);
                 }
-                frameBytesToFail.addAll(queue);
-                queue.clear();
+                frameBytesToFail.addAll(queue.clear());
                 flushing = false;
             }
 
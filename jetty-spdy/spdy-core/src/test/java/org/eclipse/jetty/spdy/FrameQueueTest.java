@@ -0,0 +1,282 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class FrameQueueTest
+{
+    @Test
+    public void testPriorities() throws Exception
+    {
+        FrameQueue queue = new FrameQueue();
+        IStream low = new StandardStream(1, (byte)7, null, null, null);
+        IStream high = new StandardStream(3, (byte)0, null, null, null);
+
+        TestFrameBytes close = new TestFrameBytes(null, "close");
+        queue.append(close);
+        TestFrameBytes lowData = new TestFrameBytes(low, "lowData");
+        queue.append(lowData);
+        TestFrameBytes highData = new TestFrameBytes(high, "highData");
+        queue.append(highData);
+        // Control frames without stream are not queued behind the data frames
+        TestFrameBytes goAway = new TestFrameBytes(null, "goAway");
+        queue.appendControl(goAway);
+        TestFrameBytes ping = new TestFrameBytes(null, "ping");
+        queue.prepend(ping);
+
+        Assert.assertEquals(5, queue.size());
+        Assert.assertSame(ping, queue.poll());
+        Assert.assertSame(goAway, queue.poll());
+        Assert.assertSame(highData, queue.poll());
+        Assert.assertSame(lowData, queue.poll());
+        Assert.assertSame(close, queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testStreamsWithSamePriorityTakeTurns() throws Exception
+    {
+        FrameQueue queue = new FrameQueue();
+        IStream stream1 = new StandardStream(1, (byte)3, null, null, null);
+        IStream stream2 = new StandardStream(3, (byte)3, null, null, null);
+
+        for (int i = 0; i < 2; ++i)
+        {
+            queue.append(new TestFrameBytes(stream1, "1-" + i));
+            queue.append(new TestFrameBytes(stream2, "2-" + i));
+        }
+        queue.append(new TestFrameBytes(stream1, "1-2"));
+
+        Assert.assertEquals("1-0", queue.poll().toString());
+        // A partially written frame is prepended, and continues before the other streams
+        queue.prepend(new TestFrameBytes(stream1, "1-0+"));
+        Assert.assertEquals("1-0+", queue.poll().toString());
+        Assert.assertEquals("2-0", queue.poll().toString());
+        Assert.assertEquals("1-1", queue.poll().toString());
+        Assert.assertEquals("2-1", queue.poll().toString());
+        Assert.assertEquals("1-2", queue.poll().toString());
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testStalledStreamIsSkipped() throws Exception
+    {
+        FrameQueue queue = new FrameQueue();
+        IStream stalled = new StandardStream(1, (byte)0, null, null, null);
+        IStream other = new StandardStream(3, (byte)7, null, null, null);
+
+        TestFrameBytes stalledData = new TestFrameBytes(stalled, "stalledData");
+        queue.append(stalledData);
+        TestFrameBytes otherData = new TestFrameBytes(other, "otherData");
+        queue.append(otherData);
+        TestFrameBytes close = new TestFrameBytes(null, "close");
+        queue.append(close);
+
+        Assert.assertSame(stalledData, queue.peek());
+        queue.stall(stalled);
+        Assert.assertTrue(queue.isStalled(stalled));
+        Assert.assertSame(otherData, queue.poll());
+        // Frames without stream are written when the other frames are stalled
+        Assert.assertSame(close, queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(1, queue.size());
+
+        queue.unstall(stalled);
+        Assert.assertSame(stalledData, queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testOrderedFramesKeepTheirOrder() throws Exception
+    {
+        FrameQueue queue = new FrameQueue();
+        IStream low = new StandardStream(1, (byte)7, null, null, null);
+        IStream high = new StandardStream(3, (byte)0, null, null, null);
+
+        TestFrameBytes lowData = new TestFrameBytes(low, "lowData");
+        queue.append(lowData);
+        TestFrameBytes lowHeaders = new TestFrameBytes(low, "lowHeaders");
+        queue.appendOrdered(lowHeaders);
+        TestFrameBytes highReply = new TestFrameBytes(high, "highReply");
+        queue.appendOrdered(highReply);
+        TestFrameBytes highData = new TestFrameBytes(high, "highData");
+        queue.append(highData);
+        TestFrameBytes highRst = new TestFrameBytes(high, "highRst");
+        queue.appendControl(highRst);
+
+        // The headers wait for the data queued before them on their stream, the reply
+        // waits for the previous headers, and the reset is not written before the reply
+        Assert.assertSame(lowData, queue.poll());
+        Assert.assertSame(lowHeaders, queue.poll());
+        Assert.assertSame(highReply, queue.poll());
+        Assert.assertSame(highData, queue.poll());
+        Assert.assertSame(highRst, queue.poll());
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testControlFramesAreNotStalled() throws Exception
+    {
+        FrameQueue queue = new FrameQueue();
+        IStream stream = new StandardStream(1, (byte)0, null, null, null);
+
+        TestFrameBytes data = new TestFrameBytes(stream, "data");
+        queue.append(data);
+        queue.stall(stream);
+        TestFrameBytes windowUpdate = new TestFrameBytes(stream, "windowUpdate");
+        queue.appendControl(windowUpdate);
+        TestFrameBytes headers = new TestFrameBytes(stream, "headers");
+        queue.appendOrdered(headers);
+
+        Assert.assertSame(windowUpdate, queue.poll());
+        // The headers wait for the stalled data queued before them
+        Assert.assertNull(queue.poll());
+
+        queue.unstall(stream);
+        Assert.assertSame(data, queue.poll());
+        Assert.assertSame(headers, queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testClear() throws Exception
+    {
+        FrameQueue queue = new FrameQueue();
+        IStream stream = new StandardStream(1, (byte)0, null, null, null);
+        queue.append(new TestFrameBytes(stream, "data"));
+        queue.appendOrdered(new TestFrameBytes(stream, "headers"));
+        queue.prepend(new TestFrameBytes(null, "ping"));
+        queue.append(new TestFrameBytes(null, "goAway"));
+
+        List<StandardSession.FrameBytes> frames = queue.clear();
+        Assert.assertEquals(4, frames.size());
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertNull(queue.poll());
+    }
+
+    @Ignore
+    @Test
+    public void testThroughputWithManyStreams() throws Exception
+    {
+        // 500 concurrent streams with mixed priorities, one in ten stalled by flow control
+        int streamCount = 500;
+        int framesPerStream = 20;
+        List<IStream> streams = new ArrayList<>();
+        for (int i = 0; i < streamCount; ++i)
+            streams.add(new StandardStream(2 * i + 1, (byte)(i % 8), null, null, null));
+
+        for (int iteration = 0; iteration < 20; ++iteration)
+        {
+            FrameQueue queue = new FrameQueue();
+            long begin = System.nanoTime();
+            for (int f = 0; f < framesPerStream; ++f)
+                for (IStream stream : streams)
+                    queue.append(new TestFrameBytes(stream, "data"));
+
+            int written = 0;
+            StandardSession.FrameBytes frameBytes;
+            while ((frameBytes = queue.peek()) != null)
+            {
+                IStream stream = frameBytes.getStream();
+                if (stream.getId() % 20 == 1 && !queue.isStalled(stream) && written % 100 == 0)
+                {
+                    queue.stall(stream);
+                    continue;
+                }
+                queue.poll();
+                ++written;
+            }
+            for (IStream stream : streams)
+                queue.unstall(stream);
+            while (queue.poll() != null)
+                ++written;
+            long end = System.nanoTime();
+
+            Assert.assertEquals(streamCount * framesPerStream, written);
+            System.err.printf("%d frames on %d streams: %d ms, %d frames/s%n", written, streamCount,
+                    TimeUnit.NANOSECONDS.toMillis(end - begin), written * TimeUnit.SECONDS.toNanos(1) / (end - begin));
+        }
+    }
+
+    private static class TestFrameBytes implements StandardSession.FrameBytes
+    {
+        private final IStream stream;
+        private final String name;
+
+        private TestFrameBytes(IStream stream, String name)
+        {
+            this.stream = stream;
+            this.name = name;
+        }
+
+        @Override
+        public IStream getStream()
+        {
+            return stream;
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer()
+        {
+            return BufferUtil.EMPTY_BUFFER;
+        }
+
+        @Override
+        public void complete()
+        {
+        }
+
+        @Override
+        public void fail(Throwable throwable)
+        {
+        }
+
+        @Override
+        public int compareTo(StandardSession.FrameBytes that)
+        {
+            return 0;
+        }
+
+        @Override
+        public void succeeded()
+        {
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+        }
+
+        @Override
+        public String toString()
+        {
+            return name;
+        }
+    }
+}
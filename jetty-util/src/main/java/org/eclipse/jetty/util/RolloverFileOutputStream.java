@@ -23,6 +23,8 @@ import java.io.FileOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
@@ -296,6 +298,32 @@ public class RolloverFileOutputStream extends FilterOutputStream
             out.write (buf, off, len);
      }
     
+    /* ------------------------------------------------------------ */
+    /**
+     * Write the remaining content of the buffers to the current file with
+     * gathering writes on its {@link FileChannel}. The file is not rolled over
+     * while the buffers are being written.
+     * @param buffers The buffers to write
+     * @return The number of bytes written
+     * @throws IOException
+     */
+    public synchronized long write(ByteBuffer... buffers)
+        throws IOException
+    {
+        if (out==null)
+            throw new IOException("Closed");
+        FileChannel channel=((FileOutputStream)out).getChannel();
+        long written=0;
+        for (int i=0;i<buffers.length;)
+        {
+            if (buffers[i].hasRemaining())
+                written+=channel.write(buffers,i,buffers.length-i);
+            else
+                i++;
+        }
+        return written;
+    }
+    
     /* ------------------------------------------------------------ */
     /** 
      */
@@ -0,0 +1,405 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>A lock-free {@link BlockingQueue} that gives each consumer thread its own deque and lets idle
+ * consumers steal from the deques of the others.</p>
+ * <p>This queue is intended to be passed to the
+ * {@link org.eclipse.jetty.util.thread.QueuedThreadPool#QueuedThreadPool(int, int, int, BlockingQueue)}
+ * constructor, so that the pool threads are not all contending on the same queue:</p>
+ * <ul>
+ * <li>A thread becomes a consumer the first time it polls this queue and stays one until it
+ * calls {@link #release()}, which a consumer thread must do before it exits.</li>
+ * <li>An offer first tries to hand the element directly to the consumer that most recently started
+ * waiting. If no consumer is waiting, the element is pushed on the deque of the offering consumer,
+ * or on a shared queue if the offering thread is not a consumer (typically a selector).</li>
+ * <li>A consumer takes from its own deque in LIFO order, then from the shared queue, and then
+ * steals the oldest element from the deques of the other consumers.</li>
+ * </ul>
+ * <p>The ordering of elements is therefore not FIFO. The queue is unbounded and
+ * {@link #size()} does not count the elements that are being handed off.</p>
+ *
+ * @param <E> The element type
+ */
+public class WorkStealingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E>
+{
+    private static final Object WAKE = new Object();
+    private static final Object CANCELLED = new Object();
+
+    private final ThreadLocal<Consumer<E>> _consumer = new ThreadLocal<>();
+    private final List<Consumer<E>> _consumers = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedDeque<Consumer<E>> _waiting = new ConcurrentLinkedDeque<>();
+    private final Queue<E> _shared = new ConcurrentArrayQueue<>();
+    private final AtomicInteger _size = new AtomicInteger();
+
+    @Override
+    public boolean offer(E e)
+    {
+        if (e==null)
+            throw new NullPointerException();
+
+        // Prefer a direct hand off to a waiting consumer
+        if (handOff(e))
+            return true;
+
+        Consumer<E> consumer=_consumer.get();
+        if (consumer==null)
+            _shared.offer(e);
+        else
+            consumer._deque.offerFirst(e);
+        _size.incrementAndGet();
+
+        // A consumer may have started waiting after the hand off was attempted
+        wakeWaiting();
+        return true;
+    }
+
+    private boolean handOff(E e)
+    {
+        while (true)
+        {
+            Consumer<E> waiting=_waiting.pollFirst();
+            if (waiting==null)
+                return false;
+            if (waiting._slot.compareAndSet(null,e))
+            {
+                LockSupport.unpark(waiting._thread);
+                return true;
+            }
+        }
+    }
+
+    private void wakeWaiting()
+    {
+        while (true)
+        {
+            Consumer<E> waiting=_waiting.pollFirst();
+            if (waiting==null)
+                return;
+            if (waiting._slot.compareAndSet(null,WAKE))
+            {
+                LockSupport.unpark(waiting._thread);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public E poll()
+    {
+        Consumer<E> consumer=_consumer.get();
+        return consumer==null?next(null):next(consumer);
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return poll(true,unit.toNanos(timeout));
+    }
+
+    @Override
+    public E take() throws InterruptedException
+    {
+        return poll(false,0);
+    }
+
+    private E poll(boolean timed, long nanos) throws InterruptedException
+    {
+        Consumer<E> consumer=consumer();
+        long deadline=timed?System.nanoTime()+nanos:0;
+
+        while (true)
+        {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+
+            E e=next(consumer);
+            if (e!=null)
+                return e;
+
+            if (timed && nanos<=0)
+                return null;
+
+            // Advertise that we are waiting, then check again before parking
+            consumer._slot.set(null);
+            _waiting.offerFirst(consumer);
+            e=next(consumer);
+            if (e==null)
+            {
+                if (timed)
+                    LockSupport.parkNanos(this,nanos);
+                else
+                    LockSupport.park(this);
+            }
+
+            Object handed=cancel(consumer);
+            if (handed!=null && handed!=WAKE)
+            {
+                @SuppressWarnings("unchecked")
+                E h=(E)handed;
+                if (e==null)
+                    return h;
+                // We found an element and were also handed one, so keep it for later
+                consumer._deque.offerFirst(h);
+                _size.incrementAndGet();
+            }
+            if (e!=null)
+                return e;
+
+            if (timed)
+                nanos=deadline-System.nanoTime();
+        }
+    }
+
+    private Object cancel(Consumer<E> consumer)
+    {
+        if (consumer._slot.compareAndSet(null,CANCELLED))
+        {
+            _waiting.remove(consumer);
+            return null;
+        }
+        // An offer has already removed us from the waiting consumers
+        return consumer._slot.getAndSet(CANCELLED);
+    }
+
+    private E next(Consumer<E> consumer)
+    {
+        E e=null;
+        if (consumer!=null)
+            e=consumer._deque.pollFirst();
+        if (e==null)
+            e=_shared.poll();
+        if (e==null)
+            e=steal(consumer);
+        if (e!=null)
+            _size.decrementAndGet();
+        return e;
+    }
+
+    private E steal(Consumer<E> thief)
+    {
+        if (_size.get()==0)
+            return null;
+
+        List<Consumer<E>> consumers=_consumers;
+        int n=consumers.size();
+        if (n==0)
+            return null;
+        int start=thief==null?0:(int)(thief._thread.getId()%n);
+        for (int i=0;i<n;i++)
+        {
+            Consumer<E> victim;
+            try
+            {
+                victim=consumers.get((start+i)%n);
+            }
+            catch (IndexOutOfBoundsException x)
+            {
+                // A consumer has been released concurrently
+                break;
+            }
+            if (victim==thief)
+                continue;
+            E e=victim._deque.pollLast();
+            if (e!=null)
+                return e;
+        }
+        return null;
+    }
+
+    private Consumer<E> consumer()
+    {
+        Consumer<E> consumer=_consumer.get();
+        if (consumer==null)
+        {
+            consumer=new Consumer<>(Thread.currentThread());
+            _consumer.set(consumer);
+            _consumers.add(consumer);
+        }
+        return consumer;
+    }
+
+    /**
+     * <p>Stops the calling thread from being a consumer of this queue.</p>
+     * <p>The elements left on the deque of the thread are moved to the shared queue, so that they are
+     * not only reachable by stealing. A consumer thread must call this method before it exits, whether
+     * it stops normally or because of an error.</p>
+     */
+    public void release()
+    {
+        Consumer<E> consumer=_consumer.get();
+        if (consumer==null)
+            return;
+        _consumer.remove();
+        _consumers.remove(consumer);
+
+        boolean moved=false;
+        while (true)
+        {
+            E e=consumer._deque.pollLast();
+            if (e==null)
+                break;
+            _shared.offer(e);
+            moved=true;
+        }
+        if (moved)
+            wakeWaiting();
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit)
+    {
+        return offer(e);
+    }
+
+    @Override
+    public void put(E e)
+    {
+        offer(e);
+    }
+
+    @Override
+    public E peek()
+    {
+        Consumer<E> consumer=_consumer.get();
+        E e=consumer==null?null:consumer._deque.peekFirst();
+        if (e==null)
+            e=_shared.peek();
+        if (e==null)
+        {
+            for (Consumer<E> c : _consumers)
+            {
+                e=c._deque.peekLast();
+                if (e!=null)
+                    break;
+            }
+        }
+        return e;
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        boolean removed=_shared.remove(o);
+        if (!removed)
+        {
+            for (Consumer<E> c : _consumers)
+            {
+                if (c._deque.remove(o))
+                {
+                    removed=true;
+                    break;
+                }
+            }
+        }
+        if (removed)
+            _size.decrementAndGet();
+        return removed;
+    }
+
+    @Override
+    public int size()
+    {
+        return Math.max(0,_size.get());
+    }
+
+    @Override
+    public int remainingCapacity()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return A snapshot of the queued elements that does not support removal
+     */
+    @Override
+    public Iterator<E> iterator()
+    {
+        List<E> elements=new ArrayList<>(_shared);
+        for (Consumer<E> c : _consumers)
+            elements.addAll(c._deque);
+        return Collections.unmodifiableList(elements).iterator();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c)
+    {
+        return drainTo(c,Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements)
+    {
+        if (c==this)
+            throw new IllegalArgumentException();
+
+        int added=0;
+        while (added<maxElements)
+        {
+            E e=poll();
+            if (e==null)
+                break;
+            c.add(e);
+            ++added;
+        }
+        return added;
+    }
+
+    /**
+     * @return The number of threads currently consuming from this queue
+     */
+    public int getConsumers()
+    {
+        return _consumers.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{size=%d,consumers=%d,waiting=%d}",getClass().getSimpleName(),hashCode(),size(),_consumers.size(),_waiting.size());
+    }
+
+    private static class Consumer<E>
+    {
+        private final Thread _thread;
+        private final ConcurrentLinkedDeque<E> _deque=new ConcurrentLinkedDeque<>();
+        private final AtomicReference<Object> _slot=new AtomicReference<>(CANCELLED);
+
+        private Consumer(Thread thread)
+        {
+            _thread=thread;
+        }
+    }
+}
@@ -42,6 +42,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.net.ssl.CertPathTrustManagerParameters;
@@ -54,6 +55,7 @@ import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLServerSocket;
 import javax.net.ssl.SSLServerSocketFactory;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
@@ -62,6 +64,9 @@ import javax.net.ssl.X509KeyManager;
 import javax.net.ssl.X509TrustManager;
 
 import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
@@ -76,7 +81,14 @@ import org.eclipse.jetty.util.security.Password;
  * as well as HttpClient. It holds all SSL parameters and
  * creates SSL context based on these parameters to be
  * used by the SSL connectors.
+ * <p>
+ * SSL sessions are cached by the {@link SSLContext}, so connectors that share an instance
+ * of this class also share the session cache, and a client reconnecting to any of them may
+ * resume its session with an abbreviated handshake. The number of full and resumed handshakes
+ * is counted for the connections created with a connection factory that reports them to
+ * {@link #onHandshakeSucceeded(boolean)}.
  */
+@ManagedObject("SSL context factory")
 public class SslContextFactory extends AbstractLifeCycle
 {
     public final static TrustManager[] TRUST_ALL_CERTS = new X509TrustManager[]{new X509TrustManager()
@@ -196,6 +208,11 @@ public class SslContextFactory extends AbstractLifeCycle
     /** SSL context */
     private SSLContext _context;
 
+    /** Number of handshakes that created a new session */
+    private final AtomicLong _fullHandshakes = new AtomicLong();
+    /** Number of handshakes that resumed a cached session */
+    private final AtomicLong _resumedHandshakes = new AtomicLong();
+
     /** EndpointIdentificationAlgorithm - when set to "HTTPS" hostname verification will be enabled */
     private String _endpointIdentificationAlgorithm = null;
 
@@ -307,6 +324,20 @@ public class SslContextFactory extends AbstractLifeCycle
             if (LOG.isDebugEnabled())
                 LOG.debug("Enabled Ciphers   {} of {}",Arrays.asList(engine.getEnabledCipherSuites()),Arrays.asList(engine.getSupportedCipherSuites()));
         }
+
+        configureSessionContext(_context.getServerSessionContext());
+        configureSessionContext(_context.getClientSessionContext());
+    }
+
+    private void configureSessionContext(SSLSessionContext sessionContext)
+    {
+        // Only override the provider defaults if configured, as 0 means unbounded
+        if (sessionContext == null)
+            return;
+        if (_sslSessionCacheSize > 0)
+            sessionContext.setSessionCacheSize(_sslSessionCacheSize);
+        if (_sslSessionTimeout > 0)
+            sessionContext.setSessionTimeout(_sslSessionTimeout);
     }
 
     @Override
@@ -1232,12 +1263,15 @@ public class SslContextFactory extends AbstractLifeCycle
     /** Get SSL session cache size.
      * @return SSL session cache size
      */
+    @ManagedAttribute("max number of cached SSL sessions, or 0 for the provider default")
     public int getSslSessionCacheSize()
     {
         return _sslSessionCacheSize;
     }
 
-    /** SEt SSL session cache size.
+    /** Set SSL session cache size.
+     * The least recently used sessions are evicted from the cache once it is full.
+     * If not set, the default of the security provider is used.
      * @param sslSessionCacheSize SSL session cache size to set
      */
     public void setSslSessionCacheSize(int sslSessionCacheSize)
@@ -1248,19 +1282,69 @@ public class SslContextFactory extends AbstractLifeCycle
     /** Get SSL session timeout.
      * @return SSL session timeout
      */
+    @ManagedAttribute("SSL session timeout in seconds, or 0 for the provider default")
     public int getSslSessionTimeout()
     {
         return _sslSessionTimeout;
     }
 
     /** Set SSL session timeout.
-     * @param sslSessionTimeout SSL session timeout to set
+     * If not set, the default of the security provider is used.
+     * @param sslSessionTimeout SSL session timeout in seconds to set
      */
     public void setSslSessionTimeout(int sslSessionTimeout)
     {
         _sslSessionTimeout = sslSessionTimeout;
     }
 
+    /**
+     * @return the number of SSL sessions in the server session cache
+     */
+    @ManagedAttribute("number of SSL sessions in the server session cache")
+    public int getSslSessions()
+    {
+        SSLContext context = _context;
+        SSLSessionContext sessionContext = context == null ? null : context.getServerSessionContext();
+        return sessionContext == null ? 0 : Collections.list(sessionContext.getIds()).size();
+    }
+
+    /**
+     * Record the completion of an initial handshake.
+     * @param resumed true if a cached session was resumed, false if a new session was created
+     */
+    public void onHandshakeSucceeded(boolean resumed)
+    {
+        if (resumed)
+            _resumedHandshakes.incrementAndGet();
+        else
+            _fullHandshakes.incrementAndGet();
+    }
+
+    /**
+     * @return the number of handshakes that created a new session (session cache misses)
+     */
+    @ManagedAttribute("number of full handshakes")
+    public long getFullHandshakes()
+    {
+        return _fullHandshakes.get();
+    }
+
+    /**
+     * @return the number of abbreviated handshakes that resumed a cached session (session cache hits)
+     */
+    @ManagedAttribute("number of abbreviated handshakes resuming a cached session")
+    public long getResumedHandshakes()
+    {
+        return _resumedHandshakes.get();
+    }
+
+    @ManagedOperation("reset the handshake statistics")
+    public void resetHandshakeStatistics()
+    {
+        _fullHandshakes.set(0);
+        _resumedHandshakes.set(0);
+    }
+
 
     public SSLServerSocket newSslServerSocket(String host,int port,int backlog) throws IOException
     {
@@ -0,0 +1,260 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.jetty.util.Atomics;
+
+
+/* ------------------------------------------------------------ */
+/**
+ * HistogramStatistic
+ * <p>
+ * Records the distribution of a sequence of non negative samples in
+ * logarithmic buckets, so that percentiles can be estimated as well as
+ * the count, total, mean and max.
+ * <p>
+ * Values below 64 are counted exactly. Larger values are counted in one
+ * of 32 linear sub-buckets of their power of 2, so a percentile is
+ * reported with a relative error of at most 1/32 (about 3%), whatever
+ * the magnitude of the samples. Recording a sample is lock free and does
+ * not allocate.
+ * <p>
+ * Reading the statistic does not reset it. {@link #getSnapshot()} returns a
+ * copy of the distribution since the last {@link #reset()}, and
+ * {@link #getIntervalSnapshot()} returns the distribution of the samples
+ * recorded since the previous interval snapshot was taken.
+ */
+public class HistogramStatistic
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _total = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+    private Snapshot _interval = new Snapshot(new long[BUCKETS],0,0,0);
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param value a non negative value
+     * @return the index of the bucket that counts the value
+     */
+    static int index(long value)
+    {
+        if (value < 2 * SUB_BUCKETS)
+            return (int)Math.max(0,value);
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int)(value >>> shift);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param index the index of a bucket
+     * @return the highest value counted by the bucket
+     */
+    static long highest(int index)
+    {
+        if (index < 2 * SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public void reset()
+    {
+        synchronized (this)
+        {
+            for (int i = 0; i < BUCKETS; i++)
+                _buckets.set(i,0);
+            _count.set(0);
+            _total.set(0);
+            _max.set(0);
+            _interval = new Snapshot(new long[BUCKETS],0,0,0);
+        }
+    }
+
+    public void set(final long sample)
+    {
+        _buckets.incrementAndGet(index(sample));
+        _total.addAndGet(sample);
+        _count.incrementAndGet();
+        Atomics.updateMax(_max,sample);
+    }
+
+    /**
+     * @return the max value
+     */
+    public long getMax()
+    {
+        return _max.get();
+    }
+
+    public long getTotal()
+    {
+        return _total.get();
+    }
+
+    public long getCount()
+    {
+        return _count.get();
+    }
+
+    public double getMean()
+    {
+        long count = _count.get();
+        return count == 0 ? 0.0 : (double)_total.get()/count;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return an estimate of the value below which the given percentage of samples fall
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        return getSnapshot().getValueAtPercentile(percentile);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return a copy of the distribution of the samples since the last {@link #reset()}
+     */
+    public Snapshot getSnapshot()
+    {
+        long[] buckets = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            buckets[i] = _buckets.get(i);
+            count += buckets[i];
+        }
+        return new Snapshot(buckets,count,_total.get(),_max.get());
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the distribution of the samples recorded since the previous call to this
+     * method, or since the last {@link #reset()}
+     */
+    public Snapshot getIntervalSnapshot()
+    {
+        synchronized (this)
+        {
+            Snapshot current = getSnapshot();
+            Snapshot previous = _interval;
+            _interval = current;
+
+            long[] buckets = new long[BUCKETS];
+            long max = 0;
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                buckets[i] = current._buckets[i] - previous._buckets[i];
+                if (buckets[i] > 0)
+                    max = Math.min(highest(i),current._max);
+            }
+            return new Snapshot(buckets,current._count - previous._count,current._total - previous._total,max);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s}",this.getClass().getSimpleName(),hashCode(),getSnapshot());
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * An immutable copy of the distribution of the samples of a {@link HistogramStatistic}.
+     */
+    public static class Snapshot
+    {
+        private final long[] _buckets;
+        private final long _count;
+        private final long _total;
+        private final long _max;
+
+        private Snapshot(long[] buckets, long count, long total, long max)
+        {
+            _buckets = buckets;
+            _count = count;
+            _total = total;
+            _max = max;
+        }
+
+        public long getCount()
+        {
+            return _count;
+        }
+
+        public long getTotal()
+        {
+            return _total;
+        }
+
+        /**
+         * @return the max value, which for an interval snapshot is estimated to the precision of the buckets
+         */
+        public long getMax()
+        {
+            return _max;
+        }
+
+        public double getMean()
+        {
+            return _count == 0 ? 0.0 : (double)_total / _count;
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100
+         * @return an estimate of the value below which the given percentage of samples fall,
+         * or 0 if there are no samples
+         */
+        public long getValueAtPercentile(double percentile)
+        {
+            if (_count == 0)
+                return 0;
+            long rank = (long)Math.ceil(Math.min(100.0,Math.max(0.0,percentile)) * _count / 100.0);
+            if (rank < 1)
+                rank = 1;
+            long seen = 0;
+            for (int i = 0; i < _buckets.length; i++)
+            {
+                seen += _buckets[i];
+                if (seen >= rank)
+                    return Math.min(highest(i),_max);
+            }
+            return _max;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("c=%d,mean=%.1f,p50=%d,p90=%d,p99=%d,p999=%d,max=%d",
+                    _count,getMean(),getValueAtPercentile(50),getValueAtPercentile(90),
+                    getValueAtPercentile(99),getValueAtPercentile(99.9),_max);
+        }
+    }
+}
@@ -32,6 +32,7 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jetty.util.BlockingArrayQueue;
 import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.WorkStealingQueue;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
@@ -80,7 +81,7 @@ public class QueuedThreadPool extends AbstractLifeCycle implements SizedThreadPo
 
     public QueuedThreadPool(@Name("maxThreads") int maxThreads,  @Name("minThreads") int minThreads, @Name("idleTimeout")int idleTimeout)
     {
-        this(maxThreads, minThreads, 60000,null);
+        this(maxThreads, minThreads, idleTimeout, null);
     }
 
     public QueuedThreadPool(@Name("maxThreads") int maxThreads, @Name("minThreads") int minThreads, @Name("idleTimeout") int idleTimeout, @Name("queue") BlockingQueue<Runnable> queue)
@@ -578,6 +579,9 @@ public class QueuedThreadPool extends AbstractLifeCycle implements SizedThreadPo
             }
             finally
             {
+                // Whatever ended the thread, its deque must not be left behind in a work-stealing queue
+                if (_jobs instanceof WorkStealingQueue)
+                    ((WorkStealingQueue<?>)_jobs).release();
                 if (!shrink)
                     _threadsStarted.decrementAndGet();
                 _threads.remove(Thread.currentThread());
@@ -0,0 +1,330 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.util.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/* ------------------------------------------------------------ */
+/** A {@link Scheduler} based on a hierarchical timing wheel.
+ * <p>
+ * Tasks are hashed by their deadline into the slots of a set of wheels, each wheel
+ * having a resolution of 64 times the resolution of the wheel below it. A tick only
+ * looks at the slot of the finest wheel for the current time, and the tasks of a coarser
+ * wheel are moved down to finer wheels when the time reaches their slot. Scheduling,
+ * cancelling and expiring a task are thus constant time operations, whatever the number
+ * of scheduled tasks, at the cost of a deadline precision limited to the tick duration.
+ * This suits large numbers of timers that are mostly cancelled or rescheduled before they
+ * expire, such as session or idle timeouts.
+ * <p>
+ * The wheel is advanced by calling {@link #tick(long)}. If it is created with a
+ * {@link Scheduler}, then it ticks itself at the tick duration with that scheduler, which
+ * is managed as a bean of the wheel. Tasks are run by the thread advancing the wheel.
+ */
+public class TimerWheel extends ContainerLifeCycle implements Scheduler, Runnable
+{
+    private static final Logger LOG = Log.getLogger(TimerWheel.class);
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long HORIZON = 1L << (BITS * LEVELS);
+
+    private final Scheduler _scheduler;
+    private final long _tickMs;
+    private final WheelTask[][] _wheels = new WheelTask[LEVELS][SLOTS];
+    private long _tick;
+    private int _size;
+    private volatile Task _ticker;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Create a wheel that is advanced by calls to {@link #tick(long)}.
+     * @param tick the duration of a tick
+     * @param unit the unit of the tick duration
+     */
+    public TimerWheel(long tick, TimeUnit unit)
+    {
+        this(null, tick, unit);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param scheduler the scheduler used to tick the wheel, or null if the wheel is advanced by calls to {@link #tick(long)}
+     * @param tick the duration of a tick
+     * @param unit the unit of the tick duration
+     */
+    public TimerWheel(Scheduler scheduler, long tick, TimeUnit unit)
+    {
+        _tickMs = unit.toMillis(tick);
+        if (_tickMs <= 0)
+            throw new IllegalArgumentException("tick < 1ms");
+        _scheduler = scheduler;
+        if (scheduler != null)
+            addBean(scheduler);
+        for (WheelTask[] wheel : _wheels)
+            for (int slot = 0; slot < SLOTS; slot++)
+                wheel[slot] = new WheelTask(null, 0);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the duration of a tick in milliseconds
+     */
+    public long getTickMillis()
+    {
+        return _tickMs;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of scheduled tasks
+     */
+    public synchronized int getSize()
+    {
+        return _size;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStart() throws Exception
+    {
+        synchronized (this)
+        {
+            _tick = System.currentTimeMillis() / _tickMs;
+        }
+        super.doStart();
+        if (_scheduler != null)
+            _ticker = _scheduler.schedule(this, _tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStop() throws Exception
+    {
+        Task ticker = _ticker;
+        _ticker = null;
+        if (ticker != null)
+            ticker.cancel();
+        super.doStop();
+
+        synchronized (this)
+        {
+            for (WheelTask[] wheel : _wheels)
+                for (WheelTask head : wheel)
+                    while (head._next != head)
+                        head._next.unlink();
+            _size = 0;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public Task schedule(Runnable task, long delay, TimeUnit units)
+    {
+        long deadline = System.currentTimeMillis() + units.toMillis(delay);
+        // Round up, so that a task never runs before its deadline
+        WheelTask wheelTask = new WheelTask(task, (deadline + _tickMs - 1) / _tickMs);
+        synchronized (this)
+        {
+            if (!isRunning())
+                throw new RejectedExecutionException("STOPPED: " + this);
+            if (wheelTask._deadline <= _tick)
+                wheelTask._deadline = _tick + 1;
+            insert(wheelTask);
+            _size++;
+        }
+        return wheelTask;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Tick the wheel with the scheduler.
+     */
+    @Override
+    public void run()
+    {
+        tick(System.currentTimeMillis());
+        if (isRunning())
+        {
+            try
+            {
+                _ticker = _scheduler.schedule(this, _tickMs, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException x)
+            {
+                LOG.ignore(x);
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Advance the wheel to the given time and run the tasks whose deadline has passed.
+     * @param now the current time in milliseconds
+     * @return the number of tasks run
+     */
+    public int tick(long now)
+    {
+        List<WheelTask> expired = null;
+        synchronized (this)
+        {
+            long target = now / _tickMs;
+            if (_size == 0)
+            {
+                if (target > _tick)
+                    _tick = target;
+                return 0;
+            }
+
+            while (_tick < target)
+            {
+                long tick = ++_tick;
+
+                // Move down the tasks of the coarser wheels whose slot has been reached
+                for (int level = 1; level < LEVELS && (tick & ((1L << (BITS * level)) - 1)) == 0; level++)
+                {
+                    WheelTask head = _wheels[level][(int)(tick >>> (BITS * level)) & MASK];
+                    while (head._next != head)
+                    {
+                        WheelTask task = head._next;
+                        task.unlink();
+                        insert(task);
+                    }
+                }
+
+                WheelTask head = _wheels[0][(int)tick & MASK];
+                while (head._next != head)
+                {
+                    WheelTask task = head._next;
+                    task.unlink();
+                    _size--;
+                    if (expired == null)
+                        expired = new ArrayList<WheelTask>();
+                    expired.add(task);
+                }
+
+                if (_size == 0)
+                {
+                    _tick = target;
+                    break;
+                }
+            }
+        }
+
+        if (expired == null)
+            return 0;
+
+        for (WheelTask task : expired)
+        {
+            try
+            {
+                task._task.run();
+            }
+            catch (Throwable x)
+            {
+                LOG.debug("Exception while running task " + task._task, x);
+            }
+        }
+        return expired.size();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Link the task in the slot of the finest wheel that covers its deadline, which must not
+     * be before the current tick. Must be called with the lock held.
+     */
+    private void insert(WheelTask task)
+    {
+        long when = task._deadline;
+        if (when - _tick >= HORIZON)
+            when = _tick + HORIZON - 1; // moved down and reinserted when the slot is reached
+
+        int level = 0;
+        while (level < LEVELS - 1 && (when >>> (BITS * (level + 1))) != (_tick >>> (BITS * (level + 1))))
+            level++;
+
+        task.linkBefore(_wheels[level][(int)(when >>> (BITS * level)) & MASK]);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{tick=%dms,size=%d}", getClass().getSimpleName(), hashCode(), _tickMs, getSize());
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private class WheelTask implements Task
+    {
+        private final Runnable _task;
+        private long _deadline;
+        private WheelTask _prev = this;
+        private WheelTask _next = this;
+
+        private WheelTask(Runnable task, long deadline)
+        {
+            _task = task;
+            _deadline = deadline;
+        }
+
+        private void linkBefore(WheelTask head)
+        {
+            _next = head;
+            _prev = head._prev;
+            _prev._next = this;
+            head._prev = this;
+        }
+
+        private void unlink()
+        {
+            _prev._next = _next;
+            _next._prev = _prev;
+            _prev = _next = this;
+        }
+
+        @Override
+        public boolean cancel()
+        {
+            synchronized (TimerWheel.this)
+            {
+                if (_next == this)
+                    return false;
+                unlink();
+                _size--;
+                return true;
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s.%s@%x", TimerWheel.class.getSimpleName(), WheelTask.class.getSimpleName(), hashCode());
+        }
+    }
+}
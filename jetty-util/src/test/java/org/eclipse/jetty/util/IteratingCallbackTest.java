@@ -0,0 +1,131 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IteratingCallbackTest
+{
+    private volatile int processed;
+
+    @Test
+    public void testNonWaitingProcess() throws Exception
+    {
+        FutureCallback callback = new FutureCallback();
+        IteratingCallback iterating = new IteratingCallback(callback)
+        {
+            int i=10;
+
+            @Override
+            protected boolean process() throws Exception
+            {
+                processed++;
+                if (i-->1)
+                {
+                    succeeded(); // fake a completed IO operation
+                    return false;
+                }
+                return true;
+            }
+        };
+
+        iterating.iterate();
+
+        callback.get(1,TimeUnit.SECONDS);
+        Assert.assertEquals(10,processed);
+    }
+
+    @Test
+    public void testWaitingProcess() throws Exception
+    {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            FutureCallback callback = new FutureCallback();
+            final IteratingCallback[] iterating = new IteratingCallback[1];
+            iterating[0] = new IteratingCallback(callback,executor)
+            {
+                int i=4;
+
+                @Override
+                protected boolean process() throws Exception
+                {
+                    processed++;
+                    if (i-->1)
+                    {
+                        // complete the IO operation from another thread
+                        new Thread()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                iterating[0].succeeded();
+                            }
+                        }.start();
+                        return false;
+                    }
+                    return true;
+                }
+            };
+
+            iterating[0].iterate();
+
+            callback.get(1,TimeUnit.SECONDS);
+            Assert.assertEquals(4,processed);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedProcess() throws Exception
+    {
+        FutureCallback callback = new FutureCallback();
+        IteratingCallback iterating = new IteratingCallback(callback)
+        {
+            @Override
+            protected boolean process() throws Exception
+            {
+                processed++;
+                throw new Exception("test");
+            }
+        };
+
+        iterating.iterate();
+
+        Assert.assertTrue(callback.isDone());
+        try
+        {
+            callback.get();
+            Assert.fail();
+        }
+        catch(Exception e)
+        {
+            Assert.assertEquals("test",e.getCause().getMessage());
+        }
+        Assert.assertEquals(1,processed);
+    }
+}
@@ -0,0 +1,180 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Exchanger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WorkStealingQueueTest
+{
+    @Test
+    public void testOfferPoll() throws Exception
+    {
+        WorkStealingQueue<String> queue = new WorkStealingQueue<>();
+        Assert.assertEquals(0, queue.size());
+        Assert.assertNull(queue.poll());
+
+        queue.offer("one");
+        queue.offer("two");
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(0, queue.getConsumers());
+
+        // A thread that is not a consumer sees the shared queue in FIFO order
+        Assert.assertEquals("one", queue.poll());
+        Assert.assertEquals("two", queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(0, queue.size());
+
+        // A timed poll that expires keeps the consumer until it is released
+        Assert.assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, queue.getConsumers());
+        queue.release();
+        Assert.assertEquals(0, queue.getConsumers());
+    }
+
+    @Test
+    public void testReleaseMovesJobsToShared() throws Exception
+    {
+        final WorkStealingQueue<String> queue = new WorkStealingQueue<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // A consumer pushes to its own deque and exits
+        Thread consumer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Assert.assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+                    queue.offer("left");
+                }
+                catch (Throwable x)
+                {
+                    failure.set(x);
+                }
+                finally
+                {
+                    queue.release();
+                }
+            }
+        };
+        consumer.start();
+        consumer.join();
+        Assert.assertNull(failure.get());
+
+        Assert.assertEquals(0, queue.getConsumers());
+        Assert.assertEquals(1, queue.size());
+        Assert.assertEquals("left", queue.peek());
+        Assert.assertEquals("left", queue.poll());
+    }
+
+    @Test
+    public void testHandOff() throws Exception
+    {
+        final WorkStealingQueue<String> queue = new WorkStealingQueue<>();
+        final AtomicReference<String> taken = new AtomicReference<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        Thread consumer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    taken.set(queue.take());
+                }
+                catch (Throwable x)
+                {
+                    failure.set(x);
+                }
+                finally
+                {
+                    latch.countDown();
+                }
+            }
+        };
+        consumer.start();
+
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (queue.getConsumers() == 0 && System.nanoTime() < end)
+            Thread.sleep(1);
+        Thread.sleep(50);
+
+        queue.offer("handed");
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertNull(failure.get());
+        Assert.assertEquals("handed", taken.get());
+        Assert.assertEquals(0, queue.size());
+        consumer.join();
+    }
+
+    @Test
+    public void testSteal() throws Exception
+    {
+        final WorkStealingQueue<String> queue = new WorkStealingQueue<>();
+        final Exchanger<String> exchanger = new Exchanger<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        // The owner becomes a consumer by taking a job, then pushes to its own deque
+        queue.offer("first");
+        Thread owner = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    exchanger.exchange(queue.poll(1, TimeUnit.SECONDS));
+                    for (int i = 0; i < 3; i++)
+                        queue.offer("job" + i);
+                    exchanger.exchange("offered");
+                    done.await();
+                }
+                catch (Throwable x)
+                {
+                    failure.set(x);
+                }
+            }
+        };
+        owner.start();
+        Assert.assertEquals("first", exchanger.exchange(null, 10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, queue.getConsumers());
+        Assert.assertEquals("offered", exchanger.exchange(null, 10, TimeUnit.SECONDS));
+        Assert.assertEquals(3, queue.size());
+
+        // Another consumer steals the oldest jobs first
+        Assert.assertEquals("job0", queue.poll(1, TimeUnit.SECONDS));
+        Assert.assertEquals("job1", queue.poll(1, TimeUnit.SECONDS));
+        Assert.assertEquals("job2", queue.poll(1, TimeUnit.SECONDS));
+        Assert.assertEquals(0, queue.size());
+
+        done.countDown();
+        owner.join();
+        Assert.assertNull(failure.get());
+    }
+}
@@ -62,6 +62,32 @@ public class SslContextFactoryTest
         assertTrue(cf.getSslContext()!=null);
     }
 
+    @Test
+    public void testSessionCache() throws Exception
+    {
+        cf.setKeyStorePassword("storepwd");
+        cf.setKeyManagerPassword("keypwd");
+        cf.setSslSessionCacheSize(16);
+        cf.setSslSessionTimeout(60);
+
+        cf.start();
+
+        Assert.assertEquals(16, cf.getSslContext().getServerSessionContext().getSessionCacheSize());
+        Assert.assertEquals(60, cf.getSslContext().getServerSessionContext().getSessionTimeout());
+        Assert.assertEquals(16, cf.getSslContext().getClientSessionContext().getSessionCacheSize());
+        Assert.assertEquals(0, cf.getSslSessions());
+
+        cf.onHandshakeSucceeded(false);
+        cf.onHandshakeSucceeded(true);
+        cf.onHandshakeSucceeded(true);
+        Assert.assertEquals(1, cf.getFullHandshakes());
+        Assert.assertEquals(2, cf.getResumedHandshakes());
+
+        cf.resetHandshakeStatistics();
+        Assert.assertEquals(0, cf.getFullHandshakes());
+        Assert.assertEquals(0, cf.getResumedHandshakes());
+    }
+
     @Test
     public void testNoTsSetKs() throws Exception
     {
@@ -0,0 +1,108 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+import static org.junit.Assert.assertEquals;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/* ------------------------------------------------------------ */
+public class HistogramStatisticTest
+{
+    @Test
+    public void testBuckets()
+    {
+        for (long value : new long[]{0,1,63,64,65,127,128,1000,123456789,Long.MAX_VALUE/3,Long.MAX_VALUE})
+        {
+            int index = HistogramStatistic.index(value);
+            Assert.assertThat("value"+value,HistogramStatistic.highest(index),Matchers.greaterThanOrEqualTo(value));
+            if (index > 0)
+                Assert.assertThat("value"+value,HistogramStatistic.highest(index-1),Matchers.lessThan(value));
+            // The bucket is at most 1/32 of its values wide
+            Assert.assertThat("value"+value,HistogramStatistic.highest(index)-value,Matchers.lessThanOrEqualTo(value/32));
+        }
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        HistogramStatistic stats = new HistogramStatistic();
+        assertEquals(0,stats.getCount());
+        assertEquals(0.0,stats.getMean(),0.0);
+    }
+
+    @Test
+    public void testPercentiles()
+    {
+        HistogramStatistic stats = new HistogramStatistic();
+        for (int i=1;i<=1000;i++)
+            stats.set(i);
+        // A second mode that the mean and stddev would hide
+        for (int i=0;i<10;i++)
+            stats.set(100000);
+
+        assertEquals(1010,stats.getCount());
+        assertEquals(100000,stats.getMax());
+        assertNearEnough("p50",505,stats.getValueAtPercentile(50));
+        assertNearEnough("p90",909,stats.getValueAtPercentile(90));
+        assertNearEnough("p99",1000,stats.getValueAtPercentile(99));
+        assertNearEnough("p999",100000,stats.getValueAtPercentile(99.9));
+        assertEquals(1,stats.getValueAtPercentile(0));
+        assertEquals(100000,stats.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testSnapshots()
+    {
+        HistogramStatistic stats = new HistogramStatistic();
+        stats.set(10);
+        stats.set(20);
+
+        HistogramStatistic.Snapshot interval = stats.getIntervalSnapshot();
+        assertEquals(2,interval.getCount());
+        assertEquals(30,interval.getTotal());
+        assertEquals(20,interval.getMax());
+
+        stats.set(1000);
+        interval = stats.getIntervalSnapshot();
+        assertEquals(1,interval.getCount());
+        assertEquals(1000,interval.getValueAtPercentile(50));
+
+        // Reading does not reset the statistic
+        HistogramStatistic.Snapshot snapshot = stats.getSnapshot();
+        assertEquals(3,snapshot.getCount());
+        assertEquals(20,snapshot.getValueAtPercentile(50));
+        assertEquals(0,stats.getIntervalSnapshot().getCount());
+
+        stats.reset();
+        assertEquals(0,stats.getSnapshot().getCount());
+        assertEquals(0,stats.getValueAtPercentile(99));
+        stats.set(5);
+        assertEquals(1,stats.getIntervalSnapshot().getCount());
+    }
+
+    private void assertNearEnough(String test,long expected, long actual)
+    {
+        Assert.assertThat(test,actual,Matchers.greaterThanOrEqualTo(expected));
+        Assert.assertThat(test,actual,Matchers.lessThanOrEqualTo(expected+expected/32));
+    }
+}
@@ -26,6 +26,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jetty.toolchain.test.AdvancedRunner;
 import org.eclipse.jetty.toolchain.test.annotation.Slow;
+import org.eclipse.jetty.util.WorkStealingQueue;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -224,6 +225,78 @@ public class QueuedThreadPoolTest
     }
 
 
+    @Test
+    public void testWorkStealingQueue() throws Exception
+    {
+        final QueuedThreadPool tp= new QueuedThreadPool(10,2,500,new WorkStealingQueue<Runnable>());
+        tp.start();
+        waitForThreads(tp,2);
+
+        // Jobs dispatched from pool threads go to their own deques and must be stolen by the others
+        final CountDownLatch latch=new CountDownLatch(2000);
+        for (int i=0;i<1000;i++)
+        {
+            tp.dispatch(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    tp.dispatch(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            latch.countDown();
+                        }
+                    });
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(10,TimeUnit.SECONDS));
+
+        // Surplus threads still shrink back to minThreads after the idle timeout
+        waitForThreads(tp,2);
+        waitForIdle(tp,2);
+        Assert.assertFalse(tp.isLowOnThreads());
+        tp.stop();
+    }
+
+
+    @Test
+    public void testWorkStealingQueueReleasesDeadThreads() throws Exception
+    {
+        final WorkStealingQueue<Runnable> queue=new WorkStealingQueue<>();
+        final QueuedThreadPool tp= new QueuedThreadPool(4,2,0,queue);
+        tp.start();
+        waitForThreads(tp,2);
+
+        // A job that throws ends its thread, that must stop being a consumer
+        final CountDownLatch latch=new CountDownLatch(1);
+        tp.dispatch(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+                throw new IllegalStateException("Expected");
+            }
+        });
+        assertTrue(latch.await(10,TimeUnit.SECONDS));
+        long end=System.nanoTime()+TimeUnit.SECONDS.toNanos(10);
+        while (queue.getConsumers()!=tp.getThreads() && System.nanoTime()<end)
+            Thread.sleep(10);
+        Assert.assertEquals(tp.getThreads(),queue.getConsumers());
+
+        // Threads waiting without idle timeout are released when the pool stops
+        tp.stop();
+        end=System.nanoTime()+TimeUnit.SECONDS.toNanos(10);
+        while (queue.getConsumers()>0 && System.nanoTime()<end)
+            Thread.sleep(10);
+        Assert.assertEquals(0,queue.getConsumers());
+    }
+
+
     private void waitForIdle(QueuedThreadPool tp, int idle)
     {
         long now=System.currentTimeMillis();
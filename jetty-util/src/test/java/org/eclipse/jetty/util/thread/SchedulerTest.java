@@ -47,7 +47,8 @@ public class SchedulerTest
     {
         Object[][] data = new Object[][]{
             {new TimerScheduler()},
-            {new ScheduledExecutorScheduler()}/*,
+            {new ScheduledExecutorScheduler()},
+            {new TimerWheel(new ScheduledExecutorScheduler(),10,TimeUnit.MILLISECONDS)}/*,
             {new ConcurrentScheduler(0)},
             {new ConcurrentScheduler(1500)},
             {new ConcurrentScheduler(executor,1500)}*/
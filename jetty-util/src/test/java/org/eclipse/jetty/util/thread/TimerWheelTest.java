@@ -0,0 +1,200 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.util.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class TimerWheelTest
+{
+    private TimerWheel _wheel;
+    private long _start;
+
+    @Before
+    public void before() throws Exception
+    {
+        _wheel = new TimerWheel(1,TimeUnit.SECONDS);
+        _wheel.start();
+        _start = System.currentTimeMillis();
+    }
+
+    @After
+    public void after() throws Exception
+    {
+        _wheel.stop();
+    }
+
+    private Scheduler.Task schedule(final List<Long> executed, final long delay)
+    {
+        return _wheel.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                executed.add(delay);
+            }
+        },delay,TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testTasksRunAtTheirDeadline() throws Exception
+    {
+        List<Long> executed = new ArrayList<Long>();
+        // delays that are moved down from the second, third and fourth wheels
+        long[] delays = {100,5,64,4096,1,65,4097,300000};
+        for (long delay : delays)
+            schedule(executed,delay);
+        Assert.assertEquals(delays.length,_wheel.getSize());
+
+        for (long second = 0; second <= 300001; second++)
+        {
+            int size = executed.size();
+            _wheel.tick(_start + TimeUnit.SECONDS.toMillis(second));
+            for (int i = size; i < executed.size(); i++)
+            {
+                // Tasks run no earlier than their deadline and no later than a tick after it
+                long delay = executed.get(i);
+                Assert.assertTrue(delay + "s run at " + second + "s",second >= delay && second <= delay + 1);
+            }
+        }
+
+        Assert.assertEquals("[1, 5, 64, 65, 100, 4096, 4097, 300000]",executed.toString());
+        Assert.assertEquals(0,_wheel.getSize());
+    }
+
+    @Test
+    public void testDeadlineBeyondTheWheels() throws Exception
+    {
+        List<Long> executed = new ArrayList<Long>();
+        long delay = TimeUnit.DAYS.toSeconds(400);
+        schedule(executed,delay);
+
+        _wheel.tick(_start + TimeUnit.SECONDS.toMillis(delay - 10));
+        Assert.assertTrue(executed.isEmpty());
+        _wheel.tick(_start + TimeUnit.SECONDS.toMillis(delay + 1));
+        Assert.assertEquals(1,executed.size());
+    }
+
+    @Test
+    public void testCancel() throws Exception
+    {
+        List<Long> executed = new ArrayList<Long>();
+        Scheduler.Task near = schedule(executed,10);
+        Scheduler.Task far = schedule(executed,10000);
+        schedule(executed,20);
+
+        Assert.assertTrue(near.cancel());
+        Assert.assertFalse(near.cancel());
+        _wheel.tick(_start + TimeUnit.SECONDS.toMillis(5000));
+        Assert.assertTrue(far.cancel());
+        Assert.assertEquals(0,_wheel.getSize());
+        Assert.assertEquals("[20]",executed.toString());
+
+        _wheel.tick(_start + TimeUnit.SECONDS.toMillis(20000));
+        Assert.assertEquals("[20]",executed.toString());
+    }
+
+    @Test
+    public void testTaskScheduledFromTask() throws Exception
+    {
+        final AtomicInteger executed = new AtomicInteger();
+        final int times = 200;
+        _wheel.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (executed.incrementAndGet() < times)
+                    _wheel.schedule(this,0,TimeUnit.SECONDS);
+            }
+        },1,TimeUnit.SECONDS);
+
+        // The task is run at each tick, including when the ticks cross a slot of the second wheel
+        for (int i = 1; i <= times; i++)
+        {
+            _wheel.tick(_start + TimeUnit.SECONDS.toMillis(i + 1));
+            Assert.assertEquals(i,executed.get());
+        }
+        Assert.assertEquals(0,_wheel.getSize());
+    }
+
+    @Test(expected=java.util.concurrent.RejectedExecutionException.class)
+    public void testStopped() throws Exception
+    {
+        _wheel.stop();
+        _wheel.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        },1,TimeUnit.SECONDS);
+    }
+
+    @Ignore
+    @Test
+    public void testScheduleCancelBenchmark() throws Exception
+    {
+        Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        };
+        Random random = new Random();
+        int tasks = 1000000;
+        Scheduler.Task[] scheduled = new Scheduler.Task[tasks];
+        ScheduledExecutorScheduler executor = new ScheduledExecutorScheduler();
+        executor.start();
+        try
+        {
+            for (int iteration = 0; iteration < 4; iteration++)
+            {
+                Scheduler scheduler = iteration % 2 == 0 ? executor : _wheel;
+                long begin = System.nanoTime();
+                for (int i = 0; i < tasks; i++)
+                    scheduled[i] = scheduler.schedule(task,1800 + random.nextInt(1800),TimeUnit.SECONDS);
+                long added = System.nanoTime();
+                for (int i = 0; i < tasks; i++)
+                    scheduled[i].cancel();
+                long cancelled = System.nanoTime();
+
+                System.err.printf("%s: %d tasks scheduled in %d ms, cancelled in %d ms%n",
+                        scheduler.getClass().getSimpleName(),tasks,
+                        TimeUnit.NANOSECONDS.toMillis(added - begin),
+                        TimeUnit.NANOSECONDS.toMillis(cancelled - added));
+            }
+        }
+        finally
+        {
+            executor.stop();
+        }
+    }
+}
@@ -96,8 +96,13 @@ public class ExtensionConfig
         {
             str.append(';');
             str.append(param);
-            str.append('=');
-            QuoteUtil.quoteIfNeeded(str,parameters.get(param),";=");
+            String value = parameters.get(param);
+            if (value != null)
+            {
+                // parameters without value, such as the no context takeover ones, are rendered as their key only
+                str.append('=');
+                QuoteUtil.quoteIfNeeded(str,value,";=");
+            }
         }
         return str.toString();
     }
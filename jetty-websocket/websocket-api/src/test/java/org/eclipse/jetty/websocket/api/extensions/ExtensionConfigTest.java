@@ -120,4 +120,11 @@ public class ExtensionConfigTest
         Map<String, String> expectedParams = new HashMap<>();
         assertConfig(cfg,"foo",expectedParams);
     }
+
+    @Test
+    public void testParameterizedName_NoValue()
+    {
+        ExtensionConfig cfg = ExtensionConfig.parse("permessage-compress; s2c_no_context_takeover");
+        Assert.assertThat(cfg.getParameterizedName(),is("permessage-compress;s2c_no_context_takeover"));
+    }
 }
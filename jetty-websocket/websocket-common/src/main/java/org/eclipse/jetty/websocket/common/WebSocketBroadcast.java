@@ -0,0 +1,370 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.websocket.api.WebSocketBehavior;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.Extension;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.api.extensions.OutgoingFrames;
+import org.eclipse.jetty.websocket.common.extensions.ExtensionStack;
+import org.eclipse.jetty.websocket.common.extensions.mux.AbstractMuxExtension;
+import org.eclipse.jetty.websocket.common.io.AbstractWebSocketConnection;
+
+/**
+ * A frame to be sent to many sessions, generated only once.
+ * <p>
+ * The frame is passed through the negotiated extensions (eg: compression) and generated into network bytes once for each distinct set of negotiated
+ * extensions. The resulting buffer is shared, read only, by the write queues of all the sessions with those extensions, and is returned to the
+ * {@link ByteBufferPool} once it has been written to all of them and the broadcast has been {@link #release() released}.
+ * <p>
+ * Sessions that cannot share the generated bytes fall back to sending their own copy of the frame: client sessions (which must mask every frame with
+ * its own key), sessions that are not on a physical connection, and sessions with extensions that keep state across connections (like mux).
+ *
+ * <pre>
+ * WebSocketBroadcast broadcast = new WebSocketBroadcast(WebSocketFrame.text(message),bufferPool);
+ * try
+ * {
+ *     broadcast.send(sessions);
+ * }
+ * finally
+ * {
+ *     broadcast.release();
+ * }
+ * </pre>
+ */
+public class WebSocketBroadcast
+{
+    /**
+     * The generated bytes of the frame for one set of negotiated extensions, released to the pool when no longer referenced.
+     */
+    private class Encoding
+    {
+        private final ByteBuffer buffer;
+        private final ByteBuffer readOnly;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Encoding(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+            this.readOnly = buffer.asReadOnlyBuffer();
+        }
+
+        private void retain()
+        {
+            references.incrementAndGet();
+        }
+
+        private void release()
+        {
+            if (references.decrementAndGet() == 0)
+            {
+                bufferPool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Releases the reference to the encoding once the write completes, and then notifies the application callback.
+     */
+    private static class ReleasingCallback implements WriteCallback
+    {
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private final Encoding encoding;
+        private final WriteCallback callback;
+
+        private ReleasingCallback(Encoding encoding, WriteCallback callback)
+        {
+            this.encoding = encoding;
+            this.callback = callback;
+        }
+
+        @Override
+        public void writeFailed(Throwable x)
+        {
+            if (done.compareAndSet(false,true))
+            {
+                encoding.release();
+                if (callback != null)
+                {
+                    callback.writeFailed(x);
+                }
+            }
+        }
+
+        @Override
+        public void writeSuccess()
+        {
+            if (done.compareAndSet(false,true))
+            {
+                encoding.release();
+                if (callback != null)
+                {
+                    callback.writeSuccess();
+                }
+            }
+        }
+    }
+
+    private static final Logger LOG = Log.getLogger(WebSocketBroadcast.class);
+
+    private final WebSocketFrame frame;
+    private final ByteBufferPool bufferPool;
+    /** Encodings by the parameterized names of the negotiated extensions */
+    private final Map<String, Encoding> encodings = new HashMap<>();
+    private final AtomicLong sharedSends = new AtomicLong();
+    private final AtomicLong fallbackSends = new AtomicLong();
+    private boolean released;
+
+    /**
+     * @param frame
+     *            the frame to broadcast. The payload of the frame is not modified.
+     * @param bufferPool
+     *            the pool to acquire the generated buffers from
+     */
+    public WebSocketBroadcast(WebSocketFrame frame, ByteBufferPool bufferPool)
+    {
+        this.frame = Objects.requireNonNull(frame);
+        this.bufferPool = Objects.requireNonNull(bufferPool);
+    }
+
+    private Encoding encode(ExtensionStack extensions) throws Exception
+    {
+        final Generator generator = new Generator(WebSocketPolicy.newServerPolicy(),bufferPool);
+        final List<ByteBuffer> generated = new ArrayList<>();
+        OutgoingFrames capture = new OutgoingFrames()
+        {
+            @Override
+            public void outgoingFrame(Frame frame, WriteCallback callback)
+            {
+                generated.add(generator.generate(frame));
+                if (callback != null)
+                {
+                    callback.writeSuccess();
+                }
+            }
+        };
+
+        // A fresh stack, so that the extensions of the sessions are left untouched
+        ExtensionStack stack = new ExtensionStack(extensions.getExtensionFactory());
+        stack.negotiate(extensions.getNegotiatedExtensions());
+        stack.setNextOutgoing(capture);
+        stack.configure(generator);
+        stack.start();
+        try
+        {
+            stack.outgoingFrame(new WebSocketFrame(frame),null);
+        }
+        finally
+        {
+            stack.stop();
+        }
+
+        if (generated.size() == 1)
+        {
+            return new Encoding(generated.get(0));
+        }
+
+        // The extensions produced several frames (eg: fragments), gather them into one buffer
+        int length = 0;
+        for (ByteBuffer buffer : generated)
+        {
+            length += buffer.remaining();
+        }
+        ByteBuffer buffer = bufferPool.acquire(length,false);
+        BufferUtil.clearToFill(buffer);
+        for (ByteBuffer fragment : generated)
+        {
+            buffer.put(fragment);
+            bufferPool.release(fragment);
+        }
+        BufferUtil.flipToFlush(buffer,0);
+        return new Encoding(buffer);
+    }
+
+    /**
+     * @return the number of sends that did not share the generated bytes, and sent their own copy of the frame
+     */
+    public long getFallbackSends()
+    {
+        return fallbackSends.get();
+    }
+
+    public WebSocketFrame getFrame()
+    {
+        return frame;
+    }
+
+    /**
+     * @return the number of sends that shared the generated bytes of another send
+     */
+    public long getSharedSends()
+    {
+        return sharedSends.get();
+    }
+
+    private synchronized Encoding getEncoding(WebSocketSession session)
+    {
+        if (released)
+        {
+            throw new IllegalStateException("Released");
+        }
+
+        if ((session.getPolicy().getBehavior() != WebSocketBehavior.SERVER) || !(session.getConnection() instanceof AbstractWebSocketConnection)
+                || !(session.getOutgoingHandler() instanceof ExtensionStack))
+        {
+            return null;
+        }
+
+        ExtensionStack extensions = (ExtensionStack)session.getOutgoingHandler();
+        StringBuilder key = new StringBuilder();
+        if (extensions.hasNegotiatedExtensions())
+        {
+            for (Extension extension : extensions.getExtensions())
+            {
+                if (extension instanceof AbstractMuxExtension)
+                {
+                    return null;
+                }
+            }
+            for (ExtensionConfig config : extensions.getNegotiatedExtensions())
+            {
+                key.append(config.getParameterizedName()).append(',');
+            }
+        }
+
+        Encoding encoding = encodings.get(key.toString());
+        if (encoding == null)
+        {
+            try
+            {
+                encoding = encode(extensions);
+            }
+            catch (Exception e)
+            {
+                LOG.warn("Unable to encode broadcast frame",e);
+                return null;
+            }
+            encodings.put(key.toString(),encoding);
+        }
+        else
+        {
+            sharedSends.incrementAndGet();
+        }
+        encoding.retain();
+        return encoding;
+    }
+
+    /**
+     * Release the generated buffers once they have been written to all the sessions they were sent to.
+     * <p>
+     * No more sends are possible after the broadcast has been released.
+     */
+    public void release()
+    {
+        List<Encoding> released;
+        synchronized (this)
+        {
+            if (this.released)
+            {
+                return;
+            }
+            this.released = true;
+            released = new ArrayList<>(encodings.values());
+            encodings.clear();
+        }
+        for (Encoding encoding : released)
+        {
+            encoding.release();
+        }
+    }
+
+    /**
+     * Send the frame to many sessions, without waiting for the writes to complete.
+     *
+     * @param sessions
+     *            the sessions to send to
+     */
+    public void send(Iterable<? extends WebSocketSession> sessions)
+    {
+        for (WebSocketSession session : sessions)
+        {
+            send(session,null);
+        }
+    }
+
+    /**
+     * Send the frame to a session, without waiting for the write to complete.
+     *
+     * @param session
+     *            the session to send to
+     * @param callback
+     *            the callback to notify when the frame has been written (can be null)
+     */
+    public void send(WebSocketSession session, WriteCallback callback)
+    {
+        LogicalConnection connection = session.getConnection();
+        try
+        {
+            connection.getIOState().assertOutputOpen();
+        }
+        catch (IOException e)
+        {
+            if (callback != null)
+            {
+                callback.writeFailed(e);
+            }
+            return;
+        }
+
+        Encoding encoding = getEncoding(session);
+        if (encoding == null)
+        {
+            // Generate a copy of the frame (the payload is a slice) with the session extensions
+            fallbackSends.incrementAndGet();
+            session.getOutgoingHandler().outgoingFrame(new WebSocketFrame(frame),callback);
+            return;
+        }
+
+        ((AbstractWebSocketConnection)connection).outgoingEncodedFrame(frame,encoding.readOnly,new ReleasingCallback(encoding,callback));
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,shared=%d,fallback=%d}",getClass().getSimpleName(),hashCode(),frame,sharedSends.get(),fallbackSends.get());
+    }
+}
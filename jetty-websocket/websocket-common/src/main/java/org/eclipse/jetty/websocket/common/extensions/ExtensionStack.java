@@ -112,6 +112,11 @@ public class ExtensionStack extends ContainerLifeCycle implements IncomingFrames
         out.append(indent).append("    +- Websocket: ").append(websocket.toString()).append('\n');
     }
 
+    public ExtensionFactory getExtensionFactory()
+    {
+        return factory;
+    }
+
     @ManagedAttribute(name = "Extension List", readonly = true)
     public List<Extension> getExtensions()
     {
@@ -23,6 +23,7 @@ import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
+import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.TypeUtil;
 import org.eclipse.jetty.util.log.Log;
@@ -34,29 +35,49 @@ import org.eclipse.jetty.websocket.api.BadPayloadException;
  */
 public class DeflateCompressionMethod implements CompressionMethod
 {
-    private static class DeflaterProcess implements CompressionMethod.Process
+    private class DeflaterProcess implements CompressionMethod.Process
     {
-        private static final boolean BFINAL_HACK = Boolean.parseBoolean(System.getProperty("jetty.websocket.bfinal.hack","true"));
+        private Deflater deflater;
+        private int inputLength;
+        private boolean flushed = true;
 
-        private final Deflater deflater;
-        private int bufferSize = DEFAULT_BUFFER_SIZE;
-
-        public DeflaterProcess(boolean nowrap)
+        private ByteBuffer acquire(int size)
         {
-            deflater = new Deflater(Deflater.BEST_COMPRESSION,nowrap);
-            deflater.setStrategy(Deflater.DEFAULT_STRATEGY);
+            ByteBuffer buf = (bufferPool == null)?ByteBuffer.allocate(size):bufferPool.acquire(size,false);
+            BufferUtil.clearToFill(buf);
+            return buf;
         }
 
         @Override
         public void begin()
         {
-            deflater.reset();
+            if ((deflater != null) && !contextTakeover)
+            {
+                deflater.reset();
+            }
         }
 
         @Override
         public void end()
         {
-            deflater.reset();
+            if ((deflater != null) && !contextTakeover)
+            {
+                // Nothing is kept from this message, so let another message or session use the deflater
+                deflaterPool.release(compressionLevel,deflater);
+                deflater = null;
+            }
+        }
+
+        private ByteBuffer grow(ByteBuffer buf)
+        {
+            ByteBuffer bigger = acquire(buf.capacity() * 2);
+            buf.flip();
+            bigger.put(buf);
+            if (bufferPool != null)
+            {
+                bufferPool.release(buf);
+            }
+            return bigger;
         }
 
         @Override
@@ -67,39 +88,74 @@ public class DeflateCompressionMethod implements CompressionMethod
                 LOG.debug("input: {}",BufferUtil.toDetailString(input));
             }
 
+            if (deflater == null)
+            {
+                deflater = contextTakeover?new Deflater(compressionLevel,NOWRAP):deflaterPool.acquire(compressionLevel);
+            }
+
             // Set the data that is uncompressed to the deflater
-            byte raw[] = BufferUtil.toArray(input);
-            deflater.setInput(raw,0,raw.length);
-            deflater.finish();
+            inputLength = input.remaining();
+            if (input.hasArray())
+            {
+                deflater.setInput(input.array(),input.arrayOffset() + input.position(),inputLength);
+            }
+            else
+            {
+                byte raw[] = BufferUtil.toArray(input);
+                deflater.setInput(raw,0,raw.length);
+            }
+            if (!contextTakeover)
+            {
+                deflater.finish();
+            }
+            flushed = false;
         }
 
         @Override
         public boolean isDone()
         {
-            return deflater.finished();
+            if (deflater == null)
+            {
+                return true;
+            }
+            return contextTakeover?flushed:deflater.finished();
         }
 
         @Override
         public ByteBuffer process()
         {
-            // prepare the output buffer
-            ByteBuffer buf = ByteBuffer.allocate(bufferSize);
-            BufferUtil.clearToFill(buf);
+            // prepare the output buffer, the deflated data is rarely larger than its input
+            ByteBuffer buf = acquire(inputLength + (inputLength >> 12) + (inputLength >> 14) + 64);
 
-            while (!deflater.finished())
+            while (true)
             {
-                byte out[] = new byte[bufferSize];
-                int len = deflater.deflate(out,0,out.length,Deflater.SYNC_FLUSH);
+                if (!buf.hasRemaining())
+                {
+                    buf = grow(buf);
+                }
+                int space = buf.remaining();
+                int len = deflater.deflate(buf.array(),buf.arrayOffset() + buf.position(),space,Deflater.SYNC_FLUSH);
+                buf.position(buf.position() + len);
 
                 if (LOG.isDebugEnabled())
                 {
                     LOG.debug("Deflater: finished={}, needsInput={}, len={}",deflater.finished(),deflater.needsInput(),len);
                 }
 
-                buf.put(out,0,len);
+                if (contextTakeover?(len < space):deflater.finished())
+                {
+                    break;
+                }
             }
+            flushed = true;
             BufferUtil.flipToFlush(buf,0);
 
+            if (contextTakeover && (buf.remaining() >= InflaterProcess.TAIL.length))
+            {
+                // The flushed block ends with the tail bytes, that the peer adds back as the message is not the end of the stream
+                buf.limit(buf.limit() - InflaterProcess.TAIL.length);
+            }
+
             if (BFINAL_HACK)
             {
                 /*
@@ -117,11 +173,6 @@ public class DeflateCompressionMethod implements CompressionMethod
             }
             return buf;
         }
-
-        public void setBufferSize(int bufferSize)
-        {
-            this.bufferSize = bufferSize;
-        }
     }
 
     private static class InflaterProcess implements CompressionMethod.Process
@@ -131,6 +182,7 @@ public class DeflateCompressionMethod implements CompressionMethod
                 { 0x00, 0x00, (byte)0xFF, (byte)0xFF };
         private final Inflater inflater;
         private int bufferSize = DEFAULT_BUFFER_SIZE;
+        private boolean contextTakeover = false;
 
         public InflaterProcess(boolean nowrap) {
             inflater = new Inflater(nowrap);
@@ -145,7 +197,11 @@ public class DeflateCompressionMethod implements CompressionMethod
         @Override
         public void end()
         {
-            inflater.reset();
+            // A message ending the stream (BFINAL 1) cannot be followed by another one, even with context takeover
+            if (!contextTakeover || inflater.finished())
+            {
+                inflater.reset();
+            }
         }
 
         @Override
@@ -205,29 +261,43 @@ public class DeflateCompressionMethod implements CompressionMethod
         {
             this.bufferSize = bufferSize;
         }
+
+        public void setContextTakeover(boolean contextTakeover)
+        {
+            this.contextTakeover = contextTakeover;
+        }
     }
 
     private static final int DEFAULT_BUFFER_SIZE = 61*1024;
 
+    private static final boolean BFINAL_HACK = Boolean.parseBoolean(System.getProperty("jetty.websocket.bfinal.hack","true"));
+
+    /*
+     * Specs specify that head/tail of deflate are not to be present.
+     * 
+     * So lets not use the wrapped format of bytes.
+     * 
+     * Setting nowrap to true prevents the Deflater from writing the head/tail bytes and the Inflater from expecting the head/tail bytes.
+     */
+    private static final boolean NOWRAP = true;
+
+    private static final int DEFAULT_COMPRESSION_LEVEL = Integer.getInteger("jetty.websocket.deflate.level",Deflater.BEST_COMPRESSION);
+
     private static final Logger LOG = Log.getLogger(DeflateCompressionMethod.class);
 
     private int bufferSize = 64 * 1024;
+    private int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+    private boolean contextTakeover = false;
+    private boolean peerContextTakeover = false;
+    private ByteBufferPool bufferPool;
+    private DeflaterPool deflaterPool = DeflaterPool.getShared();
     private final DeflaterProcess compress;
     private final InflaterProcess decompress;
 
     public DeflateCompressionMethod()
     {
-        /*
-         * Specs specify that head/tail of deflate are not to be present.
-         * 
-         * So lets not use the wrapped format of bytes.
-         * 
-         * Setting nowrap to true prevents the Deflater from writing the head/tail bytes and the Inflater from expecting the head/tail bytes.
-         */
-        boolean nowrap = true;
-
-        this.compress = new DeflaterProcess(nowrap);
-        this.decompress = new InflaterProcess(nowrap);
+        this.compress = new DeflaterProcess();
+        this.decompress = new InflaterProcess(NOWRAP);
     }
 
     @Override
@@ -247,6 +317,44 @@ public class DeflateCompressionMethod implements CompressionMethod
         return bufferSize;
     }
 
+    public ByteBufferPool getBufferPool()
+    {
+        return bufferPool;
+    }
+
+    public int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+
+    public DeflaterPool getDeflaterPool()
+    {
+        return deflaterPool;
+    }
+
+    public boolean isContextTakeover()
+    {
+        return contextTakeover;
+    }
+
+    public boolean isPeerContextTakeover()
+    {
+        return peerContextTakeover;
+    }
+
+    /**
+     * Set the pool to acquire the compressed buffers from.
+     * <p>
+     * The buffers returned by {@link #compress()} are then acquired from the pool, and should be released to it once written.
+     * 
+     * @param bufferPool
+     *            the buffer pool, or null to allocate the compressed buffers
+     */
+    public void setBufferPool(ByteBufferPool bufferPool)
+    {
+        this.bufferPool = bufferPool;
+    }
+
     public void setBufferSize(int size)
     {
         if (size < 64)
@@ -254,7 +362,58 @@ public class DeflateCompressionMethod implements CompressionMethod
             throw new IllegalArgumentException("Buffer Size [" + size + "] cannot be less than 64 bytes");
         }
         this.bufferSize = size;
-        this.compress.setBufferSize(bufferSize);
         this.decompress.setBufferSize(bufferSize);
     }
+
+    /**
+     * Set the compression level, as for {@link Deflater#setLevel(int)}.
+     * <p>
+     * Defaults to the <code>jetty.websocket.deflate.level</code> system property, or {@link Deflater#BEST_COMPRESSION}.
+     * 
+     * @param level
+     *            the compression level
+     */
+    public void setCompressionLevel(int level)
+    {
+        if ((level < Deflater.DEFAULT_COMPRESSION) || (level > Deflater.BEST_COMPRESSION))
+        {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.compressionLevel = level;
+    }
+
+    /**
+     * Set whether the compression context is kept from one message to the next.
+     * <p>
+     * Without context takeover (the default), the Deflater is reset at the end of every message, so that it can be borrowed from the
+     * {@link DeflaterPool} for the duration of a message only. With context takeover, each compressor keeps its own Deflater, and later messages may
+     * refer to earlier ones, which the peer must have agreed to.
+     * 
+     * @param contextTakeover
+     *            true to keep the compression context between messages
+     */
+    public void setContextTakeover(boolean contextTakeover)
+    {
+        this.contextTakeover = contextTakeover;
+    }
+
+    /**
+     * Set whether the peer keeps its compression context from one message to the next.
+     * <p>
+     * Without peer context takeover (the default), the Inflater is reset at the end of every message. With it, the Inflater is kept, as later
+     * messages may refer to earlier ones.
+     * 
+     * @param peerContextTakeover
+     *            true if the peer keeps its compression context between messages
+     */
+    public void setPeerContextTakeover(boolean peerContextTakeover)
+    {
+        this.peerContextTakeover = peerContextTakeover;
+        this.decompress.setContextTakeover(peerContextTakeover);
+    }
+
+    public void setDeflaterPool(DeflaterPool deflaterPool)
+    {
+        this.deflaterPool = deflaterPool;
+    }
 }
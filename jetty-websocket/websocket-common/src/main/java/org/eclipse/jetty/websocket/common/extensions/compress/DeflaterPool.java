@@ -0,0 +1,124 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.extensions.compress;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * A pool of {@link Deflater}s, by compression level.
+ * <p>
+ * A Deflater that is reset at the end of every message (no context takeover) holds no state between messages, so it can be shared between the
+ * messages of many sessions rather than every session keeping its own Deflater and its native buffers.
+ */
+public class DeflaterPool
+{
+    private static final DeflaterPool SHARED = new DeflaterPool(true,Integer.getInteger("jetty.websocket.deflater.pool.max",256));
+
+    /**
+     * @return the pool of nowrap Deflaters shared by the {@link DeflateCompressionMethod}s that do not keep their compression context
+     */
+    public static DeflaterPool getShared()
+    {
+        return SHARED;
+    }
+
+    private final ConcurrentMap<Integer, Queue<Deflater>> pools = new ConcurrentHashMap<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final boolean nowrap;
+    private final int maxPooled;
+
+    /**
+     * @param nowrap
+     *            true if the Deflaters do not write the ZLIB header and checksum
+     * @param maxPooled
+     *            the maximum number of idle Deflaters kept in the pool, all levels together
+     */
+    public DeflaterPool(boolean nowrap, int maxPooled)
+    {
+        this.nowrap = nowrap;
+        this.maxPooled = maxPooled;
+    }
+
+    public Deflater acquire(int level)
+    {
+        Queue<Deflater> pool = pools.get(level);
+        Deflater deflater = (pool == null)?null:pool.poll();
+        if (deflater == null)
+        {
+            return new Deflater(level,nowrap);
+        }
+        pooled.decrementAndGet();
+        return deflater;
+    }
+
+    public int getMaxPooled()
+    {
+        return maxPooled;
+    }
+
+    /**
+     * @return the number of idle Deflaters in the pool
+     */
+    public int getPooled()
+    {
+        return pooled.get();
+    }
+
+    /**
+     * Return a Deflater to the pool, or free its native resources if the pool is full.
+     * 
+     * @param level
+     *            the compression level the Deflater was acquired with
+     * @param deflater
+     *            the Deflater to return
+     */
+    public void release(int level, Deflater deflater)
+    {
+        deflater.reset();
+        if (pooled.incrementAndGet() > maxPooled)
+        {
+            pooled.decrementAndGet();
+            deflater.end();
+            return;
+        }
+
+        Queue<Deflater> pool = pools.get(level);
+        if (pool == null)
+        {
+            pool = new ConcurrentLinkedQueue<>();
+            Queue<Deflater> existing = pools.putIfAbsent(level,pool);
+            if (existing != null)
+            {
+                pool = existing;
+            }
+        }
+        pool.offer(deflater);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{nowrap=%b,pooled=%d/%d}",getClass().getSimpleName(),hashCode(),nowrap,pooled.get(),maxPooled);
+    }
+}
@@ -21,6 +21,7 @@ package org.eclipse.jetty.websocket.common.extensions.compress;
 
 import java.nio.ByteBuffer;
 
+import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
 import org.eclipse.jetty.websocket.api.extensions.Frame;
@@ -33,7 +34,7 @@ import org.eclipse.jetty.websocket.common.extensions.AbstractExtension;
  */
 public class FrameCompressionExtension extends AbstractExtension
 {
-    private CompressionMethod method = new DeflateCompressionMethod();
+    private DeflateCompressionMethod method = new DeflateCompressionMethod();
 
     @Override
     public synchronized void incomingFrame(Frame frame)
@@ -109,7 +110,7 @@ public class FrameCompressionExtension extends AbstractExtension
             }
             else
             {
-                nextOutgoingFrame(out,callback); // pass thru callback
+                nextOutgoingFrame(out,releaseOnWrite(buf,callback)); // pass thru callback
             }
         }
 
@@ -117,9 +118,27 @@ public class FrameCompressionExtension extends AbstractExtension
         method.compress().end();
     }
 
+    private WriteCallback releaseOnWrite(ByteBuffer buf, WriteCallback callback)
+    {
+        if (getBufferPool() == null)
+        {
+            return callback;
+        }
+        return new ReleasingWriteCallback(getBufferPool(),buf,callback);
+    }
+
+    @Override
+    public void setBufferPool(ByteBufferPool bufferPool)
+    {
+        super.setBufferPool(bufferPool);
+        method.setBufferPool(bufferPool);
+    }
+
     @Override
     public void setConfig(ExtensionConfig config)
     {
+        // The no_context_takeover parameter needs no negotiation: the compressor is reset on every frame, which the peer
+        // always accepts, and the decompressor keeps its context, which works whether or not the peer resets its own.
         super.setConfig(config);
     }
 
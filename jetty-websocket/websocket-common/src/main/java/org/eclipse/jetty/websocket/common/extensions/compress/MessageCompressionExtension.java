@@ -21,8 +21,11 @@ package org.eclipse.jetty.websocket.common.extensions.compress;
 
 import java.nio.ByteBuffer;
 
+import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.websocket.api.WebSocketBehavior;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
 import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
 import org.eclipse.jetty.websocket.api.extensions.Frame;
@@ -36,9 +39,14 @@ import org.eclipse.jetty.websocket.common.extensions.AbstractExtension;
  */
 public class MessageCompressionExtension extends AbstractExtension
 {
+    /** Parameter declaring that the client does not keep its compression context between messages */
+    public static final String C2S_NO_CONTEXT_TAKEOVER = "c2s_no_context_takeover";
+    /** Parameter declaring that the server does not keep its compression context between messages */
+    public static final String S2C_NO_CONTEXT_TAKEOVER = "s2c_no_context_takeover";
+
     private static final Logger LOG = Log.getLogger(MessageCompressionExtension.class);
 
-    private CompressionMethod method;
+    private DeflateCompressionMethod method;
 
     @Override
     public void incomingFrame(Frame frame)
@@ -113,12 +121,12 @@ public class MessageCompressionExtension extends AbstractExtension
             {
                 out.setFin(false);
                 // no callback for start/middle frames
-                nextOutgoingFrame(out,null);
+                nextOutgoingFrame(out,releaseOnWrite(buf,null));
             }
             else
             {
                 // pass through callback to last frame
-                nextOutgoingFrame(out,callback);
+                nextOutgoingFrame(out,releaseOnWrite(buf,callback));
             }
         }
 
@@ -129,6 +137,54 @@ public class MessageCompressionExtension extends AbstractExtension
         }
     }
 
+    /**
+     * Derive the context takeover of both directions from the configuration, once both the configuration and the policy are known.
+     * <p>
+     * The server never keeps its compression context, so that its Deflaters can be pooled, and adds {@link #S2C_NO_CONTEXT_TAKEOVER} to the
+     * configuration that is echoed in the response. The client keeps its compression context, unless the response has
+     * {@link #C2S_NO_CONTEXT_TAKEOVER}. Either side keeps the decompression context, unless the peer declared that it does not keep its own.
+     */
+    private void negotiate()
+    {
+        ExtensionConfig config = getConfig();
+        WebSocketPolicy policy = getPolicy();
+        if ((method == null) || (config == null) || (policy == null))
+        {
+            return;
+        }
+
+        boolean server = (policy.getBehavior() == WebSocketBehavior.SERVER);
+        String outgoing = server?S2C_NO_CONTEXT_TAKEOVER:C2S_NO_CONTEXT_TAKEOVER;
+        String incoming = server?C2S_NO_CONTEXT_TAKEOVER:S2C_NO_CONTEXT_TAKEOVER;
+        if (server)
+        {
+            config.setParameter(outgoing,(String)null);
+        }
+
+        method.setContextTakeover(!config.getParameterKeys().contains(outgoing));
+        method.setPeerContextTakeover(!config.getParameterKeys().contains(incoming));
+        LOG.debug("Context takeover: compress={}, decompress={}",method.isContextTakeover(),method.isPeerContextTakeover());
+    }
+
+    private WriteCallback releaseOnWrite(ByteBuffer buf, WriteCallback callback)
+    {
+        if (getBufferPool() == null)
+        {
+            return callback;
+        }
+        return new ReleasingWriteCallback(getBufferPool(),buf,callback);
+    }
+
+    @Override
+    public void setBufferPool(ByteBufferPool bufferPool)
+    {
+        super.setBufferPool(bufferPool);
+        if (method != null)
+        {
+            method.setBufferPool(bufferPool);
+        }
+    }
+
     @Override
     public void setConfig(ExtensionConfig config)
     {
@@ -138,6 +194,15 @@ public class MessageCompressionExtension extends AbstractExtension
         LOG.debug("Method requested: {}",methodOptions);
 
         method = new DeflateCompressionMethod();
+        method.setBufferPool(getBufferPool());
+        negotiate();
+    }
+
+    @Override
+    public void setPolicy(WebSocketPolicy policy)
+    {
+        super.setPolicy(policy);
+        negotiate();
     }
 
     @Override
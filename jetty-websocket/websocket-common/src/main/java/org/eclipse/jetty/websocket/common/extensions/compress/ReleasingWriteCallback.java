@@ -0,0 +1,71 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.extensions.compress;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+/**
+ * Returns the pooled payload of a compressed frame to the {@link ByteBufferPool} once the frame has been written.
+ */
+class ReleasingWriteCallback implements WriteCallback
+{
+    private final AtomicBoolean released = new AtomicBoolean(false);
+    private final ByteBufferPool bufferPool;
+    private final ByteBuffer buffer;
+    private final WriteCallback callback;
+
+    public ReleasingWriteCallback(ByteBufferPool bufferPool, ByteBuffer buffer, WriteCallback callback)
+    {
+        this.bufferPool = bufferPool;
+        this.buffer = buffer;
+        this.callback = callback;
+    }
+
+    private void release()
+    {
+        if (released.compareAndSet(false,true))
+        {
+            bufferPool.release(buffer);
+        }
+    }
+
+    @Override
+    public void writeFailed(Throwable x)
+    {
+        release();
+        if (callback != null)
+        {
+            callback.writeFailed(x);
+        }
+    }
+
+    @Override
+    public void writeSuccess()
+    {
+        release();
+        if (callback != null)
+        {
+            callback.writeSuccess();
+        }
+    }
+}
@@ -311,7 +311,7 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
 
     public void flush()
     {
-        ByteBuffer buffer = null;
+        ByteBuffer[] buffers = null;
 
         synchronized (writeBytes)
         {
@@ -332,9 +332,9 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
                 return;
             }
 
-            buffer = writeBytes.getByteBuffer();
+            buffers = writeBytes.getByteBuffers();
 
-            if (buffer == null)
+            if (buffers == null)
             {
                 return;
             }
@@ -343,11 +343,11 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
 
             if (LOG.isDebugEnabled())
             {
-                LOG.debug("Flushing {} - {}",BufferUtil.toDetailString(buffer),writeBytes);
+                LOG.debug("Flushing {} buffers - {}",buffers.length,writeBytes);
             }
         }
 
-        write(buffer);
+        write(buffers);
     }
 
     public ByteBufferPool getBufferPool()
@@ -384,6 +384,16 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         return getEndPoint().getIdleTimeout();
     }
 
+    /**
+     * Get the maximum number of bytes of queued frames gathered into a single write.
+     * 
+     * @return the maximum write batch size in bytes
+     */
+    public int getMaxWriteBatchSize()
+    {
+        return writeBytes.getMaxBatchSize();
+    }
+
     public Parser getParser()
     {
         return parser;
@@ -535,6 +545,30 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         flush();
     }
 
+    /**
+     * Enqueue a frame that has already been generated into network bytes, bypassing the {@link Generator} of this connection.
+     * <p>
+     * The encoded bytes must have been generated with the extensions negotiated for this connection.
+     * 
+     * @param frame
+     *            the frame the bytes were generated from
+     * @param encoded
+     *            the generated bytes, which are not modified and may be shared with other connections
+     * @param callback
+     *            the callback to notify when the frame has been written
+     */
+    public void outgoingEncodedFrame(Frame frame, ByteBuffer encoded, WriteCallback callback)
+    {
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug("outgoingEncodedFrame({}, {}, {})",frame,BufferUtil.toDetailString(encoded),callback);
+        }
+
+        writeBytes.enqueue(frame,encoded,WriteCallbackWrapper.wrap(callback));
+
+        flush();
+    }
+
     private int read(ByteBuffer buffer)
     {
         EndPoint endPoint = getEndPoint();
@@ -614,6 +648,17 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         getEndPoint().setIdleTimeout(ms);
     }
 
+    /**
+     * Set the maximum number of bytes of queued frames gathered into a single write.
+     * 
+     * @param maxWriteBatchSize
+     *            the maximum write batch size in bytes
+     */
+    public void setMaxWriteBatchSize(int maxWriteBatchSize)
+    {
+        writeBytes.setMaxBatchSize(maxWriteBatchSize);
+    }
+
     @Override
     public void setSession(WebSocketSession session)
     {
@@ -633,7 +678,7 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         return String.format("%s{g=%s,p=%s}",super.toString(),generator,parser);
     }
 
-    private <C> void write(ByteBuffer buffer)
+    private void write(ByteBuffer... buffers)
     {
         EndPoint endpoint = getEndPoint();
 
@@ -645,7 +690,7 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
 
         try
         {
-            endpoint.write(writeBytes,buffer);
+            endpoint.write(writeBytes,buffers);
         }
         catch (Throwable t)
         {
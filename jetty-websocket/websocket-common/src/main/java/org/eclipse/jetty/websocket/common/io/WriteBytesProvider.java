@@ -21,7 +21,9 @@ package org.eclipse.jetty.websocket.common.io;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -36,6 +38,9 @@ import org.eclipse.jetty.websocket.common.Generator;
 
 /**
  * Interface for working with bytes destined for {@link EndPoint#write(Callback, ByteBuffer...)}
+ * <p>
+ * As many queued frames as fit in {@link #getMaxBatchSize()} bytes are gathered into a single write. The payload of an unmasked frame is written
+ * directly after its generated header, without being copied.
  */
 public class WriteBytesProvider implements Callback
 {
@@ -43,11 +48,13 @@ public class WriteBytesProvider implements Callback
     {
         protected final AtomicBoolean failed = new AtomicBoolean(false);
         protected final Frame frame;
+        protected final ByteBuffer encoded;
         protected final Callback callback;
 
-        public FrameEntry(Frame frame, Callback callback)
+        public FrameEntry(Frame frame, ByteBuffer encoded, Callback callback)
         {
             this.frame = frame;
+            this.encoded = encoded;
             this.callback = callback;
         }
 
@@ -80,12 +87,16 @@ public class WriteBytesProvider implements Callback
     private LinkedList<FrameEntry> queue;
     /** the buffer input size */
     private int bufferSize = 2048;
-    /** Currently active frame */
-    private FrameEntry active;
+    /** the maximum number of bytes gathered into one write */
+    private int maxBatchSize = 64 * 1024;
+    /** Currently active frames */
+    private final List<FrameEntry> active = new ArrayList<>();
+    /** Frame partially generated by the previous write, to be completed before any other frame */
+    private FrameEntry partial;
     /** Tracking for failure */
     private Throwable failure;
-    /** The last requested buffer */
-    private ByteBuffer buffer;
+    /** The buffers of the active frames that were acquired from the buffer pool */
+    private final List<ByteBuffer> pooled = new ArrayList<>();
     /** Is WriteBytesProvider closed to more WriteBytes being enqueued? */
     private AtomicBoolean closed;
 
@@ -119,9 +130,27 @@ public class WriteBytesProvider implements Callback
     }
 
     public void enqueue(Frame frame, Callback callback)
+    {
+        enqueue(frame,null,callback);
+    }
+
+    /**
+     * Enqueue a frame that has already been generated into network bytes.
+     * <p>
+     * The encoded bytes are written as they are, so that a buffer generated once may be shared by the queues of many connections. The position and
+     * limit of the encoded buffer are not modified.
+     * 
+     * @param frame
+     *            the frame, used to order control frames
+     * @param encoded
+     *            the generated bytes of the frame, or null to generate the frame when it is written
+     * @param callback
+     *            the callback to notify when the frame has been written
+     */
+    public void enqueue(Frame frame, ByteBuffer encoded, Callback callback)
     {
         Objects.requireNonNull(frame);
-        LOG.debug("enqueue({}, {})",frame,callback);
+        LOG.debug("enqueue({}, {}, {})",frame,BufferUtil.toDetailString(encoded),callback);
         synchronized (this)
         {
             if (closed.get())
@@ -143,7 +172,7 @@ public class WriteBytesProvider implements Callback
                 return;
             }
 
-            FrameEntry entry = new FrameEntry(frame,callback);
+            FrameEntry entry = new FrameEntry(frame,encoded,callback);
 
             switch (frame.getType())
             {
@@ -168,9 +197,15 @@ public class WriteBytesProvider implements Callback
             boolean notified = false;
 
             // fail active (if set)
-            if (active != null)
+            for (FrameEntry fe : active)
             {
-                active.notifyFailure(t);
+                fe.notifyFailure(t);
+                notified = true;
+            }
+            if (partial != null)
+            {
+                partial.notifyFailure(t);
+                partial = null;
                 notified = true;
             }
 
@@ -213,34 +248,94 @@ public class WriteBytesProvider implements Callback
     }
 
     /**
-     * Get the next ByteBuffer to write.
+     * Get the maximum number of bytes of queued frames gathered into a single write.
      * 
-     * @return the next ByteBuffer (or null if nothing to write)
+     * @return the maximum batch size in bytes
      */
-    public ByteBuffer getByteBuffer()
+    public int getMaxBatchSize()
+    {
+        return maxBatchSize;
+    }
+
+    /**
+     * Get the next ByteBuffers to write, gathering as many queued frames as fit into {@link #getMaxBatchSize()} bytes.
+     * <p>
+     * At least one frame is always returned, whatever its size.
+     * 
+     * @return the next ByteBuffers (or null if nothing to write)
+     */
+    public ByteBuffer[] getByteBuffers()
     {
         synchronized (this)
         {
-            if (active == null)
+            List<ByteBuffer> buffers = new ArrayList<>();
+            int size = 0;
+            while (size < maxBatchSize)
             {
-                if (queue.isEmpty())
+                FrameEntry entry = partial;
+                if (entry == null)
+                {
+                    if (queue.isEmpty())
+                    {
+                        // nothing (more) in queue
+                        break;
+                    }
+                    // get current topmost entry
+                    entry = queue.pop();
+                }
+                partial = null;
+                active.add(entry);
+
+                Frame frame = entry.frame;
+                if (entry.encoded != null)
+                {
+                    // Already generated, possibly shared with other connections
+                    ByteBuffer encoded = entry.encoded.slice();
+                    buffers.add(encoded);
+                    size += encoded.remaining();
+                }
+                else if (frame.isMasked() || (frame.remaining() != frame.getPayloadLength()))
+                {
+                    // The payload has to be masked, so it is generated into a buffer, one window at a time
+                    ByteBuffer buffer = entry.getByteBuffer();
+                    pooled.add(buffer);
+                    buffers.add(buffer);
+                    size += buffer.remaining();
+                    if (frame.remaining() > 0)
+                    {
+                        // The rest of this frame must be written before any other frame
+                        partial = entry;
+                        break;
+                    }
+                }
+                else
                 {
-                    // nothing in queue
-                    return null;
+                    ByteBuffer header = generator.generateHeaderBytes(frame);
+                    pooled.add(header);
+                    buffers.add(header);
+                    size += header.remaining();
+                    if (frame.hasPayload())
+                    {
+                        // Write the payload as is, and consume it from the frame
+                        ByteBuffer payload = frame.getPayload();
+                        buffers.add(payload.slice());
+                        size += payload.remaining();
+                        payload.position(payload.limit());
+                    }
                 }
-                // get current topmost entry
-                active = queue.pop();
             }
 
-            if (active == null)
+            if (buffers.isEmpty())
             {
-                // no active frame available, even in queue.
                 return null;
             }
 
-            buffer = active.getByteBuffer();
+            if (LOG.isDebugEnabled())
+            {
+                LOG.debug("getByteBuffers() - {} frames in {} bytes",active.size(),size);
+            }
+            return buffers.toArray(new ByteBuffer[buffers.size()]);
         }
-        return buffer;
     }
 
     /**
@@ -282,37 +377,55 @@ public class WriteBytesProvider implements Callback
     }
 
     /**
-     * Write of ByteBuffer succeeded.
+     * Set the maximum number of bytes of queued frames gathered into a single write.
+     * 
+     * @param maxBatchSize
+     *            the maximum batch size in bytes
+     */
+    public void setMaxBatchSize(int maxBatchSize)
+    {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Write of ByteBuffers succeeded.
      */
     @Override
     public void succeeded()
     {
-        Callback successCallback = null;
+        List<Callback> successCallbacks = new ArrayList<>();
 
         synchronized (this)
         {
-            // Release the active byte buffer first
-            generator.getBufferPool().release(buffer);
+            // Release the active byte buffers first
+            for (ByteBuffer buffer : pooled)
+            {
+                generator.getBufferPool().release(buffer);
+            }
+            pooled.clear();
 
-            if (active == null)
+            if (active.isEmpty())
             {
                 return;
             }
 
-            if (active.frame.remaining() <= 0)
+            for (FrameEntry entry : active)
             {
-                // All done with active FrameEntry
-                successCallback = active.callback;
-                // Forget active
-                active = null;
+                if (((entry.encoded != null) || (entry.frame.remaining() <= 0)) && (entry.callback != null))
+                {
+                    // All done with this FrameEntry
+                    successCallbacks.add(entry.callback);
+                }
             }
+            // Forget active
+            active.clear();
 
             // notify flush callback
             flushCallback.succeeded();
         }
 
         // Notify success (outside of synchronize lock)
-        if (successCallback != null)
+        for (Callback successCallback : successCallbacks)
         {
             try
             {
@@ -339,7 +452,7 @@ public class WriteBytesProvider implements Callback
         }
         else
         {
-            b.append(",active=").append(active);
+            b.append(",active.size=").append(active.size());
             b.append(",queue.size=").append(queue.size());
         }
         b.append(']');
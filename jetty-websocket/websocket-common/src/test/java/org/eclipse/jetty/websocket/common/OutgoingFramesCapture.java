@@ -85,6 +85,11 @@ public class OutgoingFramesCapture implements OutgoingFrames
     public void outgoingFrame(Frame frame, WriteCallback callback)
     {
         WebSocketFrame copy = new WebSocketFrame(frame);
+        if (frame.getPayload() != null)
+        {
+            // Copy the payload, as its buffer may be reused once the write succeeded
+            copy.setPayload(BufferUtil.toArray(frame.getPayload()));
+        }
         frames.add(copy);
         if (callback != null)
         {
@@ -23,7 +23,9 @@ import static org.hamcrest.Matchers.*;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.Deflater;
 
+import org.eclipse.jetty.io.MappedByteBufferPool;
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.util.TypeUtil;
@@ -218,4 +220,87 @@ public class DeflateCompressionMethodTest
         // Test round trip
         assertRoundTrip(method,quote);
     }
+
+    private ByteBuffer compress(DeflateCompressionMethod method, String msg)
+    {
+        method.compress().begin();
+        method.compress().input(BufferUtil.toBuffer(msg,StringUtil.__UTF8_CHARSET));
+        ByteBuffer compressed = method.compress().process();
+        Assert.assertThat("Compress.isDone",method.compress().isDone(),is(true));
+        method.compress().end();
+        return compressed;
+    }
+
+    private String decompress(DeflateCompressionMethod method, ByteBuffer compressed)
+    {
+        ByteBuffer decompressed = ByteBuffer.allocate(1024);
+        BufferUtil.clearToFill(decompressed);
+        method.decompress().input(compressed);
+        while (!method.decompress().isDone())
+        {
+            ByteBuffer window = method.decompress().process();
+            BufferUtil.put(window,decompressed);
+        }
+        BufferUtil.flipToFlush(decompressed,0);
+        return BufferUtil.toUTF8String(decompressed);
+    }
+
+    /**
+     * Test that compressors without context takeover share their Deflaters.
+     */
+    @Test
+    public void testSharedDeflaters()
+    {
+        DeflaterPool pool = new DeflaterPool(true,4);
+
+        DeflateCompressionMethod method1 = new DeflateCompressionMethod();
+        method1.setDeflaterPool(pool);
+        method1.setBufferPool(new MappedByteBufferPool());
+        DeflateCompressionMethod method2 = new DeflateCompressionMethod();
+        method2.setDeflaterPool(pool);
+
+        assertRoundTrip(method1,"Hello World");
+        Assert.assertThat("Pooled",pool.getPooled(),is(1));
+        assertRoundTrip(method2,"Hello World");
+        assertRoundTrip(method1,"Hello Again");
+        Assert.assertThat("Pooled",pool.getPooled(),is(1));
+    }
+
+    /**
+     * Test that a compressor with context takeover refers to the previous messages.
+     */
+    @Test
+    public void testContextTakeover()
+    {
+        String msg = "No amount of experimentation can ever prove me right; a single experiment can prove me wrong.";
+
+        DeflateCompressionMethod method = new DeflateCompressionMethod();
+        method.setContextTakeover(true);
+        ByteBuffer first = compress(method,msg);
+        ByteBuffer second = compress(method,msg);
+        Assert.assertThat("Repeated message",second.remaining(),lessThan(first.remaining() / 2));
+
+        // The decompressor also keeps its context from one message to the next
+        DeflateCompressionMethod receiver = new DeflateCompressionMethod();
+        Assert.assertThat(decompress(receiver,first),is(msg));
+        Assert.assertThat(decompress(receiver,second),is(msg));
+    }
+
+    @Test
+    public void testCompressionLevel()
+    {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+        {
+            msg.append("0123456789ABCDEF ");
+        }
+
+        DeflateCompressionMethod stored = new DeflateCompressionMethod();
+        stored.setCompressionLevel(Deflater.NO_COMPRESSION);
+        DeflateCompressionMethod best = new DeflateCompressionMethod();
+        best.setCompressionLevel(Deflater.BEST_COMPRESSION);
+
+        Assert.assertThat(compress(best,msg.toString()).remaining(),lessThan(compress(stored,msg.toString()).remaining()));
+        assertRoundTrip(stored,msg);
+    }
 }
@@ -357,4 +357,55 @@ public class MessageCompressionExtensionTest
         Assert.assertThat("Frame.payloadLength",actual.getPayloadLength(),is(expected.remaining()));
         ByteBufferAssert.assertEquals("Frame.payload",expected,actual.getPayload().slice());
     }
+
+    /**
+     * The server does not keep its compression context and says so in the response, along with the parameters of the offer.
+     */
+    @Test
+    public void testServerNegotiation()
+    {
+        MessageCompressionExtension ext = new MessageCompressionExtension();
+        ext.setConfig(ExtensionConfig.parse("permessage-compress; c2s_no_context_takeover"));
+        ext.setPolicy(WebSocketPolicy.newServerPolicy());
+
+        String response = ext.getConfig().getParameterizedName();
+        Assert.assertThat("Response",response,containsString(MessageCompressionExtension.C2S_NO_CONTEXT_TAKEOVER));
+        Assert.assertThat("Response",response,containsString(MessageCompressionExtension.S2C_NO_CONTEXT_TAKEOVER));
+    }
+
+    /**
+     * A client allowed to keep its compression context refers to its previous messages, that the server still decompresses.
+     */
+    @Test
+    public void testClientContextTakeover()
+    {
+        String msg = "No amount of experimentation can ever prove me right; a single experiment can prove me wrong.";
+
+        MessageCompressionExtension client = new MessageCompressionExtension();
+        client.setPolicy(WebSocketPolicy.newClientPolicy());
+        client.setConfig(ExtensionConfig.parse("permessage-compress; s2c_no_context_takeover"));
+        OutgoingFramesCapture outgoing = new OutgoingFramesCapture();
+        client.setNextOutgoingFrames(outgoing);
+
+        MessageCompressionExtension server = new MessageCompressionExtension();
+        server.setConfig(ExtensionConfig.parse("permessage-compress"));
+        server.setPolicy(WebSocketPolicy.newServerPolicy());
+        IncomingFramesCapture incoming = new IncomingFramesCapture();
+        server.setNextIncomingFrames(incoming);
+
+        client.outgoingFrame(WebSocketFrame.text(msg),null);
+        client.outgoingFrame(WebSocketFrame.text(msg),null);
+        outgoing.assertFrameCount(2);
+        WebSocketFrame first = outgoing.getFrames().get(0);
+        WebSocketFrame second = outgoing.getFrames().get(1);
+        Assert.assertThat("Repeated message",second.getPayloadLength(),lessThan(first.getPayloadLength() / 2));
+
+        server.incomingFrame(first);
+        server.incomingFrame(second);
+        incoming.assertFrameCount(2);
+        for (WebSocketFrame actual : incoming.getFrames())
+        {
+            Assert.assertThat("Frame.payload",BufferUtil.toUTF8String(actual.getPayload()),is(msg));
+        }
+    }
 }
@@ -0,0 +1,171 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.io;
+
+import static org.hamcrest.Matchers.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.util.FutureCallback;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.common.Generator;
+import org.eclipse.jetty.websocket.common.IncomingFramesCapture;
+import org.eclipse.jetty.websocket.common.OpCode;
+import org.eclipse.jetty.websocket.common.Parser;
+import org.eclipse.jetty.websocket.common.WebSocketFrame;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WriteBytesProviderTest
+{
+    private ByteBufferPool bufferPool = new MappedByteBufferPool();
+    private FutureCallback flushCallback = new FutureCallback();
+
+    private long remaining(ByteBuffer[] buffers)
+    {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers)
+        {
+            remaining += buffer.remaining();
+        }
+        return remaining;
+    }
+
+    private void write(ByteBuffer network, ByteBuffer[] buffers)
+    {
+        // Copy the buffers as a gathering write would, before they are released
+        for (ByteBuffer buffer : buffers)
+        {
+            network.put(buffer.slice());
+        }
+    }
+
+    private IncomingFramesCapture parse(WebSocketPolicy peerPolicy, ByteBuffer network)
+    {
+        network.flip();
+        Parser parser = new Parser(peerPolicy,bufferPool);
+        IncomingFramesCapture capture = new IncomingFramesCapture();
+        parser.setIncomingFramesHandler(capture);
+        parser.parse(network);
+        capture.assertNoErrors();
+        return capture;
+    }
+
+    @Test
+    public void testGatherQueuedFrames() throws Exception
+    {
+        WebSocketPolicy policy = WebSocketPolicy.newServerPolicy();
+        WriteBytesProvider bytesProvider = new WriteBytesProvider(new Generator(policy,bufferPool),flushCallback);
+
+        List<FutureCallback> callbacks = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+        {
+            FutureCallback callback = new FutureCallback();
+            callbacks.add(callback);
+            bytesProvider.enqueue(WebSocketFrame.text("Message " + i),callback);
+        }
+
+        // All the queued frames are written at once, headers and payloads in separate buffers
+        ByteBuffer[] buffers = bytesProvider.getByteBuffers();
+        Assert.assertThat("Buffers",buffers.length,is(200));
+        Assert.assertThat("Nothing more to write",bytesProvider.getByteBuffers(),nullValue());
+        Assert.assertFalse("Not yet written",callbacks.get(0).isDone());
+
+        ByteBuffer network = ByteBuffer.allocate(4096);
+        write(network,buffers);
+        IncomingFramesCapture capture = parse(WebSocketPolicy.newClientPolicy(),network);
+        capture.assertHasFrame(OpCode.TEXT,100);
+        for (int i = 0; i < 100; i++)
+        {
+            Assert.assertThat(capture.getFrames().get(i).getPayloadAsUTF8(),is("Message " + i));
+        }
+
+        bytesProvider.succeeded();
+        for (FutureCallback callback : callbacks)
+        {
+            Assert.assertTrue("Callback done",callback.isDone());
+        }
+        Assert.assertTrue("Flush callback",flushCallback.isDone());
+    }
+
+    @Test
+    public void testMaxBatchSize() throws Exception
+    {
+        WebSocketPolicy policy = WebSocketPolicy.newServerPolicy();
+        WriteBytesProvider bytesProvider = new WriteBytesProvider(new Generator(policy,bufferPool),flushCallback);
+        bytesProvider.setMaxBatchSize(100);
+
+        for (int i = 0; i < 10; i++)
+        {
+            // 2 bytes of header and 48 bytes of payload
+            bytesProvider.enqueue(WebSocketFrame.binary(new byte[48]),new FutureCallback());
+        }
+
+        ByteBuffer network = ByteBuffer.allocate(4096);
+        int writes = 0;
+        ByteBuffer[] buffers;
+        while ((buffers = bytesProvider.getByteBuffers()) != null)
+        {
+            Assert.assertThat("Batch bytes",remaining(buffers),lessThanOrEqualTo(100L));
+            write(network,buffers);
+            writes++;
+            bytesProvider.succeeded();
+        }
+        Assert.assertThat("Writes",writes,is(5));
+        parse(WebSocketPolicy.newClientPolicy(),network).assertHasFrame(OpCode.BINARY,10);
+    }
+
+    @Test
+    public void testMaskedFrameWindows() throws Exception
+    {
+        WebSocketPolicy policy = WebSocketPolicy.newClientPolicy();
+        WriteBytesProvider bytesProvider = new WriteBytesProvider(new Generator(policy,bufferPool),flushCallback);
+        bytesProvider.setBufferSize(1024);
+
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 300; i++)
+        {
+            message.append("0123456789");
+        }
+        byte mask[] = new byte[] { 0x11, 0x22, 0x33, 0x44 };
+        FutureCallback bigCallback = new FutureCallback();
+        bytesProvider.enqueue(WebSocketFrame.text(message.toString()).setMask(mask),bigCallback);
+        bytesProvider.enqueue(WebSocketFrame.text("small").setMask(mask),new FutureCallback());
+
+        ByteBuffer network = ByteBuffer.allocate(4096);
+        ByteBuffer[] buffers;
+        while ((buffers = bytesProvider.getByteBuffers()) != null)
+        {
+            write(network,buffers);
+            // The large frame is generated one window at a time, before the small frame
+            Assert.assertThat("Masked window",remaining(buffers),lessThanOrEqualTo(1024L));
+            bytesProvider.succeeded();
+        }
+        Assert.assertTrue("Large frame written",bigCallback.isDone());
+
+        IncomingFramesCapture capture = parse(WebSocketPolicy.newServerPolicy(),network);
+        capture.assertHasFrame(OpCode.TEXT,2);
+        Assert.assertThat(capture.getFrames().get(0).getPayloadAsUTF8(),is(message.toString()));
+        Assert.assertThat(capture.getFrames().get(1).getPayloadAsUTF8(),is("small"));
+    }
+}
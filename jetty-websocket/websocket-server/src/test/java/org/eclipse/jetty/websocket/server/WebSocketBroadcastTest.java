@@ -0,0 +1,184 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.server;
+
+import static org.hamcrest.Matchers.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.common.OpCode;
+import org.eclipse.jetty.websocket.common.WebSocketBroadcast;
+import org.eclipse.jetty.websocket.common.WebSocketFrame;
+import org.eclipse.jetty.websocket.common.WebSocketSession;
+import org.eclipse.jetty.websocket.server.blockhead.BlockheadClient;
+import org.eclipse.jetty.websocket.server.helper.IncomingFramesCapture;
+import org.eclipse.jetty.websocket.servlet.WebSocketServlet;
+import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class WebSocketBroadcastTest
+{
+    public static class BroadcastSocket extends WebSocketAdapter
+    {
+        @Override
+        public void onWebSocketConnect(Session sess)
+        {
+            super.onWebSocketConnect(sess);
+            sessions.offer((WebSocketSession)sess);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    public static class BroadcastServlet extends WebSocketServlet
+    {
+        @Override
+        public void configure(WebSocketServletFactory factory)
+        {
+            factory.register(BroadcastSocket.class);
+        }
+    }
+
+    private static final BlockingQueue<WebSocketSession> sessions = new LinkedBlockingQueue<>();
+    private static SimpleServletServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception
+    {
+        server = new SimpleServletServer(new BroadcastServlet());
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer()
+    {
+        server.stop();
+    }
+
+    private BlockheadClient connect(String extension) throws Exception
+    {
+        BlockheadClient client = new BlockheadClient(server.getServerUri());
+        client.clearExtensions();
+        if (extension != null)
+        {
+            client.addExtensions(extension);
+        }
+        client.setTimeout(TimeUnit.SECONDS,1);
+        client.connect();
+        client.sendStandardRequest();
+        client.expectUpgradeResponse();
+        return client;
+    }
+
+    @Test
+    public void testBroadcast() throws Exception
+    {
+        final AtomicInteger pooled = new AtomicInteger();
+        MappedByteBufferPool bufferPool = new MappedByteBufferPool()
+        {
+            @Override
+            public ByteBuffer acquire(int size, boolean direct)
+            {
+                pooled.incrementAndGet();
+                return super.acquire(size,direct);
+            }
+
+            @Override
+            public void release(ByteBuffer buffer)
+            {
+                pooled.decrementAndGet();
+                super.release(buffer);
+            }
+        };
+
+        List<BlockheadClient> clients = new ArrayList<>();
+        try
+        {
+            clients.add(connect(null));
+            clients.add(connect(null));
+            clients.add(connect(null));
+            clients.add(connect("fragment;maxLength=4"));
+
+            List<WebSocketSession> targets = new ArrayList<>();
+            for (int i = 0; i < clients.size(); i++)
+            {
+                targets.add(sessions.poll(5,TimeUnit.SECONDS));
+            }
+
+            String msg = "Broadcast message";
+            WebSocketBroadcast broadcast = new WebSocketBroadcast(WebSocketFrame.text(msg),bufferPool);
+            try
+            {
+                broadcast.send(targets);
+            }
+            finally
+            {
+                broadcast.release();
+            }
+
+            // The frame was generated once for the plain sessions, and once for the fragment session
+            Assert.assertThat("Shared sends",broadcast.getSharedSends(),is(2L));
+            Assert.assertThat("Fallback sends",broadcast.getFallbackSends(),is(0L));
+
+            for (int i = 0; i < 3; i++)
+            {
+                IncomingFramesCapture capture = clients.get(i).readFrames(1,TimeUnit.SECONDS,1);
+                WebSocketFrame frame = capture.getFrames().poll();
+                Assert.assertThat("Frame.opcode",frame.getOpCode(),is(OpCode.TEXT));
+                Assert.assertThat("Frame.payload",frame.getPayloadAsUTF8(),is(msg));
+            }
+
+            int parts = (msg.length() + 3) / 4;
+            IncomingFramesCapture capture = clients.get(3).readFrames(parts,TimeUnit.SECONDS,1);
+            StringBuilder fragments = new StringBuilder();
+            for (WebSocketFrame frame : capture.getFrames())
+            {
+                Assert.assertThat("Fragment.payload.length",frame.getPayloadLength(),lessThanOrEqualTo(4));
+                fragments.append(frame.getPayloadAsUTF8());
+            }
+            Assert.assertThat("Fragments",fragments.toString(),is(msg));
+
+            // The shared buffers are returned to the pool once written to all the sessions
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while ((pooled.get() != 0) && (System.nanoTime() < end))
+            {
+                Thread.sleep(10);
+            }
+            Assert.assertThat("Buffers not released",pooled.get(),is(0));
+        }
+        finally
+        {
+            for (BlockheadClient client : clients)
+            {
+                client.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2013 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * WriteBehindSessionTest
+ */
+public class WriteBehindSessionTest
+{
+    private static final String CONTEXT_PATH = "";
+    private static final String SERVLET_MAPPING = "/server";
+    private static final String POISON_MAPPING = "/poison";
+
+    private JDBCSessionManager addContext(AbstractTestServer server, long writeBehindInterval)
+    {
+        ServletContextHandler context = server.addContext(CONTEXT_PATH);
+        context.addServlet(AbstractSessionMigrationTest.TestServlet.class, SERVLET_MAPPING);
+        context.addServlet(PoisonServlet.class, POISON_MAPPING);
+        JDBCSessionManager manager = (JDBCSessionManager)context.getSessionHandler().getSessionManager();
+        manager.setWriteBehindInterval(writeBehindInterval);
+        return manager;
+    }
+
+    private String set(HttpClient client, int port, String sessionCookie, int value) throws Exception
+    {
+        Request request = client.POST("http://localhost:" + port + CONTEXT_PATH + SERVLET_MAPPING + "?action=set&value=" + value);
+        if (sessionCookie != null)
+            request.header("Cookie", sessionCookie);
+        else
+            client.getCookieStore().removeAll(); //create a new session
+        ContentResponse response = request.send();
+        assertEquals(HttpServletResponse.SC_OK,response.getStatus());
+        if (sessionCookie == null)
+        {
+            sessionCookie = response.getHeaders().getStringField("Set-Cookie");
+            assertTrue(sessionCookie != null);
+            // Mangle the cookie, replacing Path with $Path, etc.
+            sessionCookie = sessionCookie.replaceFirst("(\\W)(P|p)ath=", "$1\\$Path=");
+        }
+        return sessionCookie;
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception
+    {
+        AbstractTestServer server1 = new JdbcTestServer(0);
+        JDBCSessionManager manager1 = addContext(server1, TimeUnit.MINUTES.toMillis(1));
+        server1.start();
+        int port1 = server1.getPort();
+        try
+        {
+            AbstractTestServer server2 = new JdbcTestServer(0);
+            addContext(server2, 0);
+            server2.start();
+            int port2 = server2.getPort();
+            try
+            {
+                HttpClient client = new HttpClient();
+                client.start();
+                try
+                {
+                    // The changes of successive requests are coalesced in memory
+                    String sessionCookie = set(client, port1, null, 1);
+                    for (int value = 2; value <= 5; ++value)
+                        set(client, port1, sessionCookie, value);
+                    assertEquals(0, manager1.getUpdateStatements());
+                    assertEquals(1, manager1.getPendingWrites());
+
+                    manager1.flushPendingWrites();
+                    assertEquals(1, manager1.getUpdateStatements());
+                    assertEquals(1, manager1.getWriteBehindBatches());
+                    assertEquals(0, manager1.getPendingWrites());
+
+                    // The pending changes are written when the manager is stopped
+                    set(client, port1, sessionCookie, 6);
+                    server1.stop();
+
+                    Request request = client.newRequest("http://localhost:" + port2 + CONTEXT_PATH + SERVLET_MAPPING + "?action=get");
+                    request.header("Cookie", sessionCookie);
+                    ContentResponse response = request.send();
+                    assertEquals(HttpServletResponse.SC_OK,response.getStatus());
+                    assertEquals("6", response.getContentAsString().trim());
+                }
+                finally
+                {
+                    client.stop();
+                }
+            }
+            finally
+            {
+                server2.stop();
+            }
+        }
+        finally
+        {
+            server1.stop();
+        }
+    }
+
+    @Test
+    public void testUnserializableSessionDoesNotFailBatch() throws Exception
+    {
+        AbstractTestServer server1 = new JdbcTestServer(0);
+        JDBCSessionManager manager1 = addContext(server1, TimeUnit.MINUTES.toMillis(1));
+        server1.start();
+        int port1 = server1.getPort();
+        try
+        {
+            AbstractTestServer server2 = new JdbcTestServer(0);
+            addContext(server2, 0);
+            server2.start();
+            int port2 = server2.getPort();
+            try
+            {
+                HttpClient client = new HttpClient();
+                client.start();
+                try
+                {
+                    String goodCookie = set(client, port1, null, 1);
+                    String poisonedCookie = set(client, port1, null, 2);
+                    Request request = client.newRequest("http://localhost:" + port1 + CONTEXT_PATH + POISON_MAPPING);
+                    request.header("Cookie", poisonedCookie);
+                    assertEquals(HttpServletResponse.SC_OK, request.send().getStatus());
+                    set(client, port1, goodCookie, 3);
+                    assertEquals(2, manager1.getPendingWrites());
+
+                    // The session that cannot be serialized is dropped, the other is written
+                    manager1.flushPendingWrites();
+                    assertEquals(1, manager1.getUpdateStatements());
+                    assertEquals(0, manager1.getPendingWrites());
+
+                    request = client.newRequest("http://localhost:" + port2 + CONTEXT_PATH + SERVLET_MAPPING + "?action=get");
+                    request.header("Cookie", goodCookie);
+                    ContentResponse response = request.send();
+                    assertEquals(HttpServletResponse.SC_OK,response.getStatus());
+                    assertEquals("3", response.getContentAsString().trim());
+                }
+                finally
+                {
+                    client.stop();
+                }
+            }
+            finally
+            {
+                server2.stop();
+            }
+        }
+        finally
+        {
+            server1.stop();
+        }
+    }
+
+    @Ignore
+    @Test
+    public void testWriteBehindBenchmark() throws Exception
+    {
+        int sessions = 20;
+        int requests = 2000;
+        for (long writeBehindInterval : new long[]{0, 100, 0, 100})
+        {
+            AbstractTestServer server = new JdbcTestServer(0);
+            JDBCSessionManager manager = addContext(server, writeBehindInterval);
+            server.start();
+            try
+            {
+                int port = server.getPort();
+                HttpClient client = new HttpClient();
+                client.start();
+                try
+                {
+                    String[] cookies = new String[sessions];
+                    for (int i = 0; i < sessions; ++i)
+                        cookies[i] = set(client, port, null, 0);
+
+                    long statements = manager.getUpdateStatements();
+                    long begin = System.nanoTime();
+                    for (int i = 0; i < requests; ++i)
+                        set(client, port, cookies[i % sessions], i);
+                    long elapsed = System.nanoTime() - begin;
+                    statements = manager.getUpdateStatements() - statements;
+
+                    System.err.printf("writeBehind=%dms: %d requests on %d sessions, mean latency %d us, %d requests/s, %d update statements (%d/s)%n",
+                            writeBehindInterval, requests, sessions,
+                            TimeUnit.NANOSECONDS.toMicros(elapsed / requests),
+                            requests * TimeUnit.SECONDS.toNanos(1) / elapsed,
+                            statements, statements * TimeUnit.SECONDS.toNanos(1) / elapsed);
+                }
+                finally
+                {
+                    client.stop();
+                }
+            }
+            finally
+            {
+                server.stop();
+            }
+        }
+    }
+
+    public static class PoisonServlet extends HttpServlet
+    {
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+        {
+            // Not serializable
+            request.getSession(false).setAttribute("poison", new Object());
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        try
+        {
+            DriverManager.getConnection( "jdbc:derby:sessions;shutdown=true" );
+        }
+        catch( SQLException expected )
+        {
+        }
+    }
+}